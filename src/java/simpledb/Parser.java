@@ -5,18 +5,22 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
 import jline.SimpleCompletor;
+import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
-import simpledb.storage.IntField;
-import simpledb.storage.StringField;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
@@ -352,26 +356,29 @@ public class Parser {
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
+                Type type = td.getFieldType(i);
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (type == Type.STRING_TYPE || type == Type.TEXT_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is not an integer, expected a string.");
+                                + " is a number, expected a string.");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    // 日期、时间戳可以写成字符串，比如 '2024-01-31'
+                    if (type != Type.STRING_TYPE && type != Type.TEXT_TYPE && type != Type.TIMESTAMP_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is a string, expected an integer.");
+                                + " is a string, expected a number.");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
+                            "Only string or numeric fields are supported.");
+                }
+                try {
+                    t.setField(i, type.parse(zc.getValue()));
+                } catch (IllegalArgumentException ex) {
+                    throw new simpledb.ParsingException("Value "
+                            + zc.getValue() + " is not a valid " + type);
                 }
 
                 i++;
@@ -489,10 +496,82 @@ public class Parser {
         return curtrans;
     }
 
+    // COPY table FROM 'file' [DELIMITER 'c'];  Zql 不认识 COPY，在交给 Zql 之前先认出来
+    private static final Pattern COPY_STATEMENT = Pattern.compile(
+            "(?is)\\s*copy\\s+(\\w+)\\s+from\\s+'([^']*)'(?:\\s+delimiter\\s+'(.)')?\\s*;?\\s*");
+
+    /**
+     * Bulk-load a text file into a table (see {@link BulkLoader}), in the
+     * current transaction, and print the number of rows loaded and the load
+     * rate.
+     */
+    public void handleCopyStatement(String table, String fileName, char separator, TransactionId tid)
+            throws DbException, IOException, simpledb.ParsingException,
+            simpledb.transaction.TransactionAbortedException {
+        DbFile f;
+        try {
+            f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(table));
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + table);
+        }
+        if (!(f instanceof HeapFile)) {
+            throw new simpledb.ParsingException("COPY only loads heap files : " + table);
+        }
+        File source = new File(fileName);
+        if (!source.isFile()) {
+            throw new simpledb.ParsingException("No such file : " + fileName);
+        }
+        BulkLoader loader = new BulkLoader((HeapFile) f);
+        loader.loadFile(tid, source, separator);
+        System.out.printf("%d rows loaded into %s (%.0f rows/sec)%n",
+                loader.getRowsLoaded(), table, loader.getRowsPerSecond());
+    }
+
     public void processNextStatement(String s) {
+        Matcher m = COPY_STATEMENT.matcher(s);
+        if (m.matches()) {
+            processCopyStatement(m.group(1), m.group(2), m.group(3) == null ? ',' : m.group(3).charAt(0));
+            return;
+        }
         processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
     }
 
+    // 和其它语句一样：不在用户事务里就单独开一个事务，出错就回滚
+    private void processCopyStatement(String table, String fileName, char separator) {
+        if (!this.inUserTrans) {
+            curtrans = new Transaction();
+            curtrans.start();
+            System.out.println("Started a new transaction tid = "
+                    + curtrans.getId().getId());
+        }
+        try {
+            handleCopyStatement(table, fileName, separator, curtrans.getId());
+            if (!inUserTrans) {
+                curtrans.commit();
+                System.out.println("Transaction "
+                        + curtrans.getId().getId() + " committed.");
+            }
+        } catch (Throwable a) {
+            try {
+                curtrans.abort();
+                System.out.println("Transaction "
+                        + curtrans.getId().getId()
+                        + " aborted because of unhandled error");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.inUserTrans = false;
+            if (a instanceof simpledb.ParsingException) {
+                System.out.println("Invalid SQL expression: \n \t" + a.getMessage());
+            } else {
+                a.printStackTrace();
+            }
+        } finally {
+            if (!inUserTrans)
+                curtrans = null;
+        }
+    }
+
     public void processNextStatement(InputStream is) {
         try {
             ZqlParser p = new ZqlParser(is);
@@ -567,7 +646,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "copy", "delimiter" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -584,16 +663,27 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
+    private String catalogFile;
+
     protected void shutdown() {
+        // 把这次算出的统计快照存进二进制目录
+        if (catalogFile != null) {
+            try {
+                Database.getCatalog().saveCatalog(Catalog.binaryCatalogFile(catalogFile));
+            } catch (IOException e) {
+                System.out.println("Could not save catalog: " + e.getMessage());
+            }
+        }
         System.out.println("Bye");
     }
 
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
-        // first add tables to database
-        Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        // first add tables to database; they are opened, and their
+        // statistics computed, when a query first uses them
+        catalogFile = argv[0];
+        Database.getCatalog().loadSchema(catalogFile);
 
         String queryFile = null;
 
@@ -660,7 +750,6 @@ public class Parser {
                     buffer.append(line, 0, split + 1);
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes(StandardCharsets.UTF_8);
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -669,8 +758,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
@@ -37,10 +37,9 @@ public class SimpleDb {
                         }
                         int index = 0;
                         for (String s : typeStringAr) {
-                            if (s.equalsIgnoreCase("int"))
-                                ts[index++] = Type.INT_TYPE;
-                            else if (s.equalsIgnoreCase("string"))
-                                ts[index++] = Type.STRING_TYPE;
+                            Type t = Type.forName(s);
+                            if (t != null)
+                                ts[index++] = t;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -50,8 +49,10 @@ public class SimpleDb {
                             fieldSeparator = args[4].charAt(0);
                     }
 
+                    // 按块并行解析、编码，边读边写，输入可以比内存大
                     HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator,
+                            PageLayout.ROW, null, Runtime.getRuntime().availableProcessors());
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
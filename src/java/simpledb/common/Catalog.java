@@ -3,21 +3,32 @@ package simpledb.common;
 import simpledb.common.Type;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PartitionedFile;
+import simpledb.storage.PageLayout;
 import simpledb.storage.TupleDesc;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
  * associated schemas.
- * For now, this is a stub catalog that must be populated(填充数据) with tables by a
- * user program before it can be used -- eventually, this should be converted
- * to a catalog that reads a catalog table from disk.
+ * Tables are populated(填充数据) by a user program, or read from a text schema
+ * file or a binary catalog file (see {@link #loadSchema} and
+ * {@link #loadCatalog}).
+ * <p>
+ * For each table whose file it can reopen, the catalog keeps a
+ * {@link TableMetadata}, which it writes to the binary catalog file.  Tables
+ * read from a catalog file are not opened until their file is first asked
+ * for, so loading the catalog takes the same time however many tables there
+ * are.  Such tables have stable ids handed out by the catalog rather than
+ * ids derived from their file names, so their ids survive restarts (which
+ * the log relies on) and moving the database directory.  A partitioned
+ * table is written with its partitions, which are registered as tables of
+ * their own whenever the partitioned table is.
  * 
  * @Threadsafe
  */
@@ -38,6 +49,19 @@ public class Catalog {
     // you can easily update it using this approach, as the key is the table's name.
     private final Map<String, Integer> nameToId;
 
+    // Map from table id to what is needed to (re)open the table; tables
+    // without an entry in tables are not open yet
+    private final Map<Integer, TableMetadata> metadata;
+
+    // 分区表的分区：它们的元数据记在分区表的元数据里，不单独写进目录文件
+    private final Set<Integer> partitionIds = ConcurrentHashMap.newKeySet();
+
+    // 下一个分配的稳定表 id
+    private int nextTableId = 1;
+
+    private static final int CATALOG_MAGIC = 0x53444243; // "SDBC"
+    private static final int CATALOG_VERSION = 2; // 2：加了分区表，1 的文件照样能读
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -49,6 +73,7 @@ public class Catalog {
         tableNames = new ConcurrentHashMap<>();
         pkeyFields = new ConcurrentHashMap<>();
         nameToId = new ConcurrentHashMap<>();
+        metadata = new ConcurrentHashMap<>();
     }
 
     /**
@@ -75,6 +100,95 @@ public class Catalog {
         pkeyFields.put(tableId, pkeyField);
         nameToId.put(name, tableId);
 
+        TableMetadata m = TableMetadata.of(file, name, pkeyField);
+        if (m != null) {
+            metadata.put(tableId, m);
+        } else {
+            metadata.remove(tableId);
+        }
+
+        // 分区也是普通的堆表：BufferPool 和日志按页里的表 id 找文件
+        if (file instanceof PartitionedFile) {
+            for (HeapFile partition : ((PartitionedFile) file).getPartitions()) {
+                addPartition(tableId, partition);
+            }
+        }
+    }
+
+    /**
+     * Add a partition of the partitioned table tableid to the catalog, named
+     * after the table and the partition's file.  Does nothing if there is
+     * no such table.
+     */
+    public void addPartition(int tableid, HeapFile partition) {
+        String table = tableNames.get(tableid);
+        if (table != null) {
+            addTable(partition, partitionName(table, partition));
+            // 分区跟着分区表走，不单独写进目录文件
+            partitionIds.add(partition.getId());
+            partitionsChanged(tableid);
+        }
+    }
+
+    // 分区在目录里的名字：分区表的名字加分区的文件名
+    static String partitionName(String table, HeapFile partition) {
+        return table + "#" + partition.getFile().getName();
+    }
+
+    /**
+     * Record the current partitions of the open partitioned table tableid
+     * in its metadata, after one was added or dropped, so that the binary
+     * catalog file holds them.
+     */
+    public void partitionsChanged(int tableid) {
+        DbFile f = tables.get(tableid);
+        TableMetadata old = metadata.get(tableid);
+        if (f instanceof PartitionedFile && old != null) {
+            TableMetadata m = TableMetadata.of(f, old.getName(), old.getPrimaryKey());
+            m.inheritFrom(old);
+            metadata.put(tableid, m);
+        }
+    }
+
+    /** Remove a table from the catalog.  Its file is left alone. */
+    public void removeTable(int tableid) {
+        String name = tableNames.remove(tableid);
+        tables.remove(tableid);
+        partitionIds.remove(tableid);
+        pkeyFields.remove(tableid);
+        metadata.remove(tableid);
+        if (name != null) {
+            nameToId.remove(name, tableid);
+        }
+    }
+
+    /**
+     * Add a table to the catalog without opening its file; it is opened the
+     * first time {@link #getDatabaseFile} is called for it.  If a name
+     * conflict exists, the table added last is the table for that name.
+     *
+     * @param m the table to add, usually with an id from {@link #newTableId}
+     */
+    public void addTable(TableMetadata m) {
+        int tableId = m.getId();
+        tables.remove(tableId);
+        metadata.put(tableId, m);
+        tableNames.put(tableId, m.getName());
+        pkeyFields.put(tableId, m.getPrimaryKey());
+        nameToId.put(m.getName(), tableId);
+        // 分区也登记成表，BufferPool 和恢复按页里的表 id 找得到它们
+        for (TableMetadata p : m.getPartitions()) {
+            addTable(p);
+            partitionIds.add(p.getId());
+        }
+    }
+
+    /** @return a table id no table in the catalog has, and that is not handed out again */
+    public synchronized int newTableId() {
+        while (tableNames.containsKey(nextTableId) || metadata.containsKey(nextTableId)) {
+            nextTableId++;
+        }
+        return nextTableId++;
     }
 
     public void addTable(DbFile file, String name) {
@@ -110,10 +224,16 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-        if(!tables.containsKey(tableid)){
+        DbFile f = tables.get(tableid);
+        if (f != null) {
+            return f.getTupleDesc();
+        }
+        // 没打开的表，结构在元数据里，不用为此打开文件
+        TableMetadata m = metadata.get(tableid);
+        if (m == null) {
             throw new NoSuchElementException("Table with id " + tableid + " does not exist.");
         }
-        return tables.get(tableid).getTupleDesc();
+        return m.getTupleDesc();
     }
 
     /**
@@ -123,21 +243,67 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
-        if(!tables.containsKey(tableid)){
+        DbFile f = tables.get(tableid);
+        if (f != null) {
+            return f;
+        }
+        TableMetadata m = metadata.get(tableid);
+        if (m == null) {
             throw new NoSuchElementException("Table with id " + tableid + " does not exist.");
         }
-        return tables.get(tableid);
+        if (m.getKind() == TableMetadata.Kind.PARTITIONED) {
+            // 分区表建在已经打开的分区上，分区先在 computeIfAbsent 外面打开（不能递归调用它）
+            List<HeapFile> files = new ArrayList<>();
+            for (TableMetadata p : m.getPartitions()) {
+                files.add((HeapFile) getDatabaseFile(p.getId()));
+            }
+            return tables.computeIfAbsent(tableid, id -> m.open(files));
+        }
+        // 第一次访问才打开表文件；computeIfAbsent 保证并发访问时只打开一次
+        return tables.computeIfAbsent(tableid, id -> m.open());
+    }
+
+    /** @return whether the file of the table has been opened */
+    public boolean isOpen(int tableid) {
+        return tables.containsKey(tableid);
+    }
+
+    /**
+     * @return what the catalog keeps about the table, which it writes to the
+     *         binary catalog file
+     * @throws NoSuchElementException if the table doesn't exist, or is
+     *         stored in a kind of file the catalog cannot reopen
+     */
+    public TableMetadata getTableMetadata(int tableid) throws NoSuchElementException {
+        TableMetadata m = metadata.get(tableid);
+        if (m == null) {
+            throw new NoSuchElementException("No metadata for table with id " + tableid + ".");
+        }
+        return m;
+    }
+
+    /** Record the size of the table, as of statistics just computed over it. */
+    public void recordStatistics(int tableid, int pages, long tuples) {
+        TableMetadata m = metadata.get(tableid);
+        if (m != null) {
+            m.setStatistics(pages, tuples);
+        }
+    }
+
+    /** Record that indexTableid is an index over the table tableid. */
+    public void addIndex(int tableid, int indexTableid) {
+        getTableMetadata(tableid).addIndex(indexTableid);
     }
 
     public String getPrimaryKey(int tableid) {
-        if(!tables.containsKey(tableid)){
+        if(!tableNames.containsKey(tableid)){
             throw new NoSuchElementException("Table with id " + tableid + " does not exist.");
         }
         return pkeyFields.get(tableid);
     }
 
     public Iterator<Integer> tableIdIterator() {
-        return tables.keySet().iterator();
+        return tableNames.keySet().iterator();
     }
 
     public String getTableName(int id) {
@@ -153,6 +319,80 @@ public class Catalog {
         tableNames.clear();
         pkeyFields.clear();
         nameToId.clear();
+        metadata.clear();
+        partitionIds.clear();
+    }
+
+    /** @return the binary catalog file kept next to the text schema file catalogFile */
+    public static File binaryCatalogFile(String catalogFile) {
+        return new File(catalogFile + ".bin");
+    }
+
+    /**
+     * Write the metadata of the tables in the catalog to a binary catalog
+     * file, replacing the file in one step.  Tables the catalog cannot
+     * reopen are left out.  Paths of data files in the same directory as
+     * catalogFile (or below it) are written relative to it.
+     */
+    public synchronized void saveCatalog(File catalogFile) throws IOException {
+        File dir = catalogFile.getAbsoluteFile().getParentFile();
+        File tmp = new File(catalogFile.getPath() + ".tmp");
+        List<TableMetadata> entries = new ArrayList<>();
+        for (TableMetadata m : metadata.values()) {
+            if (!partitionIds.contains(m.getId())) {
+                entries.add(m);
+            }
+        }
+        entries.sort(Comparator.comparingInt(TableMetadata::getId));
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(CATALOG_MAGIC);
+            out.writeInt(CATALOG_VERSION);
+            out.writeInt(nextTableId);
+            out.writeInt(entries.size());
+            for (TableMetadata m : entries) {
+                m.write(out, dir);
+            }
+        }
+        Files.move(tmp.toPath(), catalogFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Add the tables of a binary catalog file written by
+     * {@link #saveCatalog} to the catalog, without opening any of them.
+     *
+     * @return the number of tables read
+     */
+    public int loadCatalog(File catalogFile) throws IOException {
+        List<TableMetadata> entries = readCatalog(catalogFile);
+        for (TableMetadata m : entries) {
+            addTable(m);
+        }
+        return entries.size();
+    }
+
+    // 读整个目录文件；顺带把 nextTableId 推到文件里记的值之后，旧 id 不会再分出去
+    private List<TableMetadata> readCatalog(File catalogFile) throws IOException {
+        File dir = catalogFile.getAbsoluteFile().getParentFile();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(catalogFile)))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != CATALOG_MAGIC || version < 1 || version > CATALOG_VERSION) {
+                throw new IOException(catalogFile + " is not a catalog file");
+            }
+            int next = in.readInt();
+            synchronized (this) {
+                nextTableId = Math.max(nextTableId, next);
+            }
+            int count = in.readInt();
+            List<TableMetadata> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(TableMetadata.read(in, dir));
+            }
+            return entries;
+        }
     }
 
     /**
@@ -164,13 +404,41 @@ public class Catalog {
      * @param catalogFile 文件路径，例如 "catalog.txt"
      * 文件内容格式示例：
      * Students (id int pk, name string, grade int)
+     * 括号后面可以跟页布局（见 PageLayout，默认 row）和 compressed（页在磁盘上压缩存储），例如：
+     * Students (id int pk, name string, grade int) slotted compressed
+     * 还可以用 pagesize=N 指定这张表的页大小（字节），不写就用数据文件记录的页大小：
+     * Events (id int pk, at timestamp) pagesize=16384
+     * 取值不多的字符串字段可以加 dict 注解做字典编码（见 StringDictionary），例如：
+     * Orders (id int pk, status string dict)
+     * <p>
+     * The tables are not opened here (see {@link #addTable(TableMetadata)}).
+     * The parsed schema is saved as a binary catalog file next to
+     * catalogFile (see {@link #binaryCatalogFile}); as long as that file is
+     * not older than catalogFile, it is read instead of parsing catalogFile.
+     * A table keeps the id it had in the binary catalog file, if it was in
+     * it, when catalogFile is parsed again.
      */
     public void loadSchema(String catalogFile) {
         String line = ""; // 存储每一行 schema 定义
         // 获取 catalog.txt 所在的文件夹路径，用于后面找到数据文件 .dat
         String baseFolder = new File(new File(catalogFile).getAbsolutePath()).getParent();
+        File binary = binaryCatalogFile(catalogFile);
 
         try {
+            // 二进制目录不比文本 schema 旧，就直接读它，不用解析
+            Map<String, Integer> oldIds = new HashMap<>();
+            if (binary.isFile()) {
+                if (binary.lastModified() >= new File(catalogFile).lastModified()) {
+                    int n = loadCatalog(binary);
+                    System.out.println("✅ Loaded " + n + " tables from " + binary);
+                    return;
+                }
+                // schema 改过了：重新解析，但同名的表沿用原来的 id
+                for (TableMetadata m : readCatalog(binary)) {
+                    oldIds.put(m.getName(), m.getId());
+                }
+            }
+
             // 打开文件并逐行读取
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
 
@@ -192,6 +460,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
                 String primaryKey = "";
+                ArrayList<Integer> dictionaryFields = new ArrayList<>();
 
                 // 4️⃣ 遍历每个字段定义
                 for (String e : els) {
@@ -203,30 +472,56 @@ public class Catalog {
 
                     // ---- 字段类型 ----
                     // ⚠️ 这里就是你之前觉得“看不懂”的地方，其实就是把字符串映射为 Type 类型
-                    // 如果是 int，就用 SimpleDB 定义好的 Type.INT_TYPE
-                    // 如果是 string，就用 Type.STRING_TYPE
-                    if (els2[1].trim().equalsIgnoreCase("int")) {
-                        types.add(Type.INT_TYPE);
-                    } else if (els2[1].trim().equalsIgnoreCase("string")) {
-                        types.add(Type.STRING_TYPE);
+                    // int、long、double、timestamp（或 date）、string、text 见 Type.forName
+                    Type type = Type.forName(els2[1]);
+                    if (type != null) {
+                        types.add(type);
                     } else {
                         // 如果遇到未知类型，直接报错退出
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
 
-                    // ---- 检查是否是主键（pk） ----
-                    // 通常在 schema 里我们会用 pk 表示主键，比如 "id int pk"
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk")) {
+                    // ---- 检查是否是主键（pk）、是否字典编码（dict） ----
+                    // 通常在 schema 里我们会用 pk 表示主键，比如 "id int pk"；
+                    // 取值不多的字符串列可以标 dict，比如 "status string dict"
+                    for (int k = 2; k < els2.length; k++) {
+                        if (els2[k].trim().equals("pk")) {
                             primaryKey = els2[0].trim();
+                        } else if (els2[k].trim().equals("dict")
+                                && types.get(types.size() - 1) == Type.STRING_TYPE) {
+                            dictionaryFields.add(types.size() - 1);
                         } else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[k]);
                             System.exit(0);
                         }
                     }
                 }
 
+                // ---- 存储选项：括号后面的可选部分，页布局、是否压缩和页大小 ----
+                PageLayout layout = PageLayout.ROW;
+                boolean compressed = false;
+                int pageSize = 0;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.isEmpty()) {
+                        continue;
+                    }
+                    if (option.equalsIgnoreCase("compressed")) {
+                        compressed = true;
+                        continue;
+                    }
+                    if (option.toLowerCase().startsWith("pagesize=")) {
+                        pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                        continue;
+                    }
+                    try {
+                        layout = PageLayout.valueOf(option.toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+
                 // 5️⃣ 把 ArrayList 转成数组，TupleDesc 构造函数需要数组类型
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
@@ -234,16 +529,27 @@ public class Catalog {
                 // 创建表结构描述对象（TupleDesc）
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
 
-                // 6️⃣ 创建 HeapFile（数据文件对象）
+                // 6️⃣ 记下 HeapFile（数据文件对象）的元数据，第一次用到时才打开
                 // 假设数据文件叫 Students.dat，就在和 catalog.txt 同一个目录下
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                int[] dictAr = dictionaryFields.stream().mapToInt(Integer::intValue).toArray();
+                int id = oldIds.containsKey(name) ? oldIds.get(name) : newTableId();
 
                 // 7️⃣ 最后把这张表注册进 Catalog，系统才“认识”这张表
-                addTable(tabHf, name, primaryKey);
+                addTable(TableMetadata.heap(id, name, primaryKey, dataFile, t, layout, compressed, pageSize,
+                        dictAr));
 
                 // 输出日志，确认表加载成功
                 System.out.println("✅ Added table: " + name + " with schema " + t);
             }
+            br.close();
+
+            try {
+                saveCatalog(binary);
+            } catch (IOException e) {
+                // 存不下二进制目录只是下次启动慢一点
+                System.out.println("Could not save catalog to " + binary + ": " + e.getMessage());
+            }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
@@ -1,7 +1,12 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -53,6 +58,40 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /**
+     * Append the rows of a text file to a table in a transaction of its
+     * own, through a {@link BulkLoader}: one tuple per line, with fields
+     * separated by separator.
+     *
+     * @return the loader, which reports the number of rows loaded and the
+     *         load rate
+     * @throws DbException if the table is not a heap file, or the load
+     *         failed and was rolled back
+     */
+    public static BulkLoader bulkLoad(String tableName, File source, char separator)
+            throws DbException, IOException {
+        DbFile f = getCatalog().getDatabaseFile(getCatalog().getTableId(tableName));
+        if (!(f instanceof HeapFile)) {
+            throw new DbException("table " + tableName + " is not a heap file");
+        }
+        BulkLoader loader = new BulkLoader((HeapFile) f);
+        Transaction t = new Transaction();
+        t.start();
+        boolean committed = false;
+        try {
+            loader.loadFile(t.getId(), source, separator);
+            t.commit();
+            committed = true;
+        } catch (TransactionAbortedException e) {
+            throw new DbException("bulk load of " + tableName + " aborted");
+        } finally {
+            if (!committed) {
+                t.abort();
+            }
+        }
+        return loader;
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
@@ -0,0 +1,360 @@
+package simpledb.common;
+
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageLayout;
+import simpledb.storage.PartitionedFile;
+import simpledb.storage.TupleDesc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * TableMetadata is what the {@link Catalog} keeps about a table: enough to
+ * open its file (kind, path, schema and storage options), a snapshot of its
+ * size as of the last time statistics were computed, and the ids of the
+ * index tables built over it.  It is written to and read from the binary
+ * catalog file, so that a table does not have to be opened to be known.
+ * The metadata of a partitioned table holds the metadata of each of its
+ * partitions, which are heap tables, and their lower bounds.
+ *
+ * @see Catalog#saveCatalog
+ */
+public class TableMetadata {
+
+    /** The kinds of file a table can be stored in. */
+    public enum Kind {
+        HEAP, BTREE, PARTITIONED
+    }
+
+    private final int id;
+    private final String name;
+    private final String primaryKey;
+    private final Kind kind;
+    private final File file;
+    private final TupleDesc td;
+
+    // HEAP 表的存储选项
+    private final PageLayout layout;
+    private final boolean compressed;
+    private final int pageSize; // 0 表示用数据文件记录的页大小
+    private final int[] dictionaryFields;
+
+    // BTREE 表的键字段，或 PARTITIONED 表的分区键
+    private final int keyField;
+
+    // PARTITIONED 表的分区（都是 HEAP 表）和各自的下界（第一个分区和哈希分区为 null）
+    private final boolean hashed;
+    private final List<TableMetadata> partitions;
+    private final List<Field> lowerBounds;
+
+    // 统计快照和索引列表，会变
+    private int pageCount = -1;
+    private long tupleCount = -1;
+    private final List<Integer> indexes = new ArrayList<>();
+
+    private TableMetadata(int id, String name, String primaryKey, Kind kind, File file, TupleDesc td,
+                          PageLayout layout, boolean compressed, int pageSize, int[] dictionaryFields,
+                          int keyField, boolean hashed, List<TableMetadata> partitions, List<Field> lowerBounds) {
+        this.id = id;
+        this.name = name;
+        this.primaryKey = primaryKey == null ? "" : primaryKey;
+        this.kind = kind;
+        this.file = file;
+        this.td = td;
+        this.layout = layout;
+        this.compressed = compressed;
+        this.pageSize = pageSize;
+        this.dictionaryFields = dictionaryFields;
+        this.keyField = keyField;
+        this.hashed = hashed;
+        this.partitions = Collections.unmodifiableList(new ArrayList<>(partitions));
+        this.lowerBounds = Collections.unmodifiableList(new ArrayList<>(lowerBounds));
+    }
+
+    /**
+     * @return the metadata of a heap table that is not open yet
+     * @param pageSize the page size of the table, or 0 for the one recorded
+     *        with its file
+     */
+    public static TableMetadata heap(int id, String name, String primaryKey, File file, TupleDesc td,
+                                     PageLayout layout, boolean compressed, int pageSize,
+                                     int[] dictionaryFields) {
+        return new TableMetadata(id, name, primaryKey, Kind.HEAP, file, td, layout, compressed, pageSize,
+                dictionaryFields == null ? new int[0] : dictionaryFields.clone(), -1, false,
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    /** @return the metadata of a B+ tree table that is not open yet */
+    public static TableMetadata btree(int id, String name, String primaryKey, File file, TupleDesc td,
+                                      int keyField) {
+        return new TableMetadata(id, name, primaryKey, Kind.BTREE, file, td, PageLayout.ROW, false, 0,
+                new int[0], keyField, false, Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * @return the metadata of a table partitioned on keyField that is not
+     *         open yet
+     * @param partitions the metadata of the partitions, which must be heap
+     *        tables, in order
+     * @param lowerBounds the lowest key of each partition, null for the
+     *        first range partition and for hash partitions
+     */
+    public static TableMetadata partitioned(int id, String name, String primaryKey, TupleDesc td, int keyField,
+                                            boolean hashed, List<TableMetadata> partitions,
+                                            List<Field> lowerBounds) {
+        if (partitions.size() != lowerBounds.size()) {
+            throw new IllegalArgumentException("need a lower bound for each partition");
+        }
+        for (TableMetadata p : partitions) {
+            if (p.kind != Kind.HEAP) {
+                throw new IllegalArgumentException("partition " + p.name + " is not a heap table");
+            }
+        }
+        return new TableMetadata(id, name, primaryKey, Kind.PARTITIONED, null, td, PageLayout.ROW, false, 0,
+                new int[0], keyField, hashed, partitions, lowerBounds);
+    }
+    /**
+     * @return the metadata of an open table, or null if it is stored in a
+     *         kind of file the catalog cannot reopen
+     */
+    static TableMetadata of(DbFile f, String name, String primaryKey) {
+        if (f instanceof HeapFile) {
+            HeapFile hf = (HeapFile) f;
+            return heap(hf.getId(), name, primaryKey, hf.getFile(), hf.getTupleDesc(), hf.getLayout(),
+                    hf.getCompressedPageFile() != null, hf.getPageSize(), hf.getDictionaryFields());
+        }
+        if (f instanceof BTreeFile) {
+            BTreeFile bf = (BTreeFile) f;
+            return btree(bf.getId(), name, primaryKey, bf.getFile(), bf.getTupleDesc(), bf.keyField());
+        }
+        if (f instanceof PartitionedFile) {
+            PartitionedFile pf = (PartitionedFile) f;
+            List<TableMetadata> ps = new ArrayList<>();
+            for (HeapFile p : pf.getPartitions()) {
+                ps.add(of(p, Catalog.partitionName(name, p), ""));
+            }
+            return partitioned(pf.getId(), name, primaryKey, pf.getTupleDesc(), pf.getKeyField(), pf.isHashed(),
+                    ps, pf.getLowerBounds());
+        }
+        return null;
+    }
+
+    /**
+     * Open the file of the table, with the table's id.  A partitioned table
+     * is opened with {@link #open(List)} instead.
+     */
+    DbFile open() {
+        if (kind == Kind.PARTITIONED) {
+            throw new IllegalStateException("a partitioned table is opened over its partitions");
+        }
+        if (kind == Kind.BTREE) {
+            return new BTreeFile(file, keyField, td, id);
+        }
+        int size = pageSize > 0 ? pageSize : HeapFile.storedPageSize(file);
+        return new HeapFile(file, td, layout, compressed, dictionaryFields, size, id);
+    }
+
+    /** Open the partitioned table over files, the opened partitions in order. */
+    DbFile open(List<HeapFile> files) {
+        if (hashed) {
+            return PartitionedFile.byHash(id, td, keyField, files);
+        }
+        return PartitionedFile.byRange(id, td, keyField, files, lowerBounds.subList(1, lowerBounds.size()));
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPrimaryKey() {
+        return primaryKey;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** @return the data file of the table; null for a partitioned table */
+    public File getFile() {
+        return file;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the metadata of the partitions of a partitioned table, in order; empty for other tables */
+    public List<TableMetadata> getPartitions() {
+        return partitions;
+    }
+
+    /** @return whether a partitioned table is partitioned by hash */
+    public boolean isHashed() {
+        return hashed;
+    }
+
+    /** @return the number of pages of the table, or -1 if not known */
+    public synchronized int getPageCount() {
+        return pageCount;
+    }
+
+    /** @return the number of tuples in the table, or -1 if not known */
+    public synchronized long getTupleCount() {
+        return tupleCount;
+    }
+
+    synchronized void setStatistics(int pages, long tuples) {
+        pageCount = pages;
+        tupleCount = tuples;
+    }
+
+    /** @return the ids of the index tables over this table */
+    public synchronized List<Integer> getIndexes() {
+        return new ArrayList<>(indexes);
+    }
+
+    // 分区变了要重建元数据时，沿用旧的统计快照和索引列表
+    void inheritFrom(TableMetadata old) {
+        int pages;
+        long tuples;
+        List<Integer> oldIndexes;
+        synchronized (old) {
+            pages = old.pageCount;
+            tuples = old.tupleCount;
+            oldIndexes = new ArrayList<>(old.indexes);
+        }
+        synchronized (this) {
+            pageCount = pages;
+            tupleCount = tuples;
+            indexes.addAll(oldIndexes);
+        }
+    }
+
+    synchronized void addIndex(int indexId) {
+        if (!indexes.contains(indexId)) {
+            indexes.add(indexId);
+        }
+    }
+
+    // 写进二进制目录文件；dir 下的数据文件记相对路径，目录整体搬走也能打开
+    synchronized void write(DataOutputStream out, File dir) throws IOException {
+        out.writeInt(id);
+        out.writeUTF(name);
+        out.writeUTF(primaryKey);
+        out.writeByte(kind.ordinal());
+        out.writeUTF(file == null ? "" : relativePath(file, dir));
+        out.writeInt(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            out.writeUTF(td.getFieldType(i).name());
+            String fieldName = td.getFieldName(i);
+            out.writeBoolean(fieldName != null);
+            if (fieldName != null) {
+                out.writeUTF(fieldName);
+            }
+        }
+        out.writeByte(layout.ordinal());
+        out.writeBoolean(compressed);
+        out.writeInt(pageSize);
+        out.writeInt(dictionaryFields.length);
+        for (int field : dictionaryFields) {
+            out.writeInt(field);
+        }
+        out.writeInt(keyField);
+        out.writeInt(pageCount);
+        out.writeLong(tupleCount);
+        out.writeInt(indexes.size());
+        for (int index : indexes) {
+            out.writeInt(index);
+        }
+        if (kind == Kind.PARTITIONED) {
+            out.writeBoolean(hashed);
+            out.writeInt(partitions.size());
+            for (int i = 0; i < partitions.size(); i++) {
+                partitions.get(i).write(out, dir);
+                Field lower = lowerBounds.get(i);
+                out.writeBoolean(lower != null);
+                if (lower != null) {
+                    lower.serialize(out);
+                }
+            }
+        }
+    }
+
+    static TableMetadata read(DataInputStream in, File dir) throws IOException {
+        int id = in.readInt();
+        String name = in.readUTF();
+        String primaryKey = in.readUTF();
+        Kind kind = Kind.values()[in.readByte()];
+        String path = in.readUTF();
+        File file = null;
+        if (kind != Kind.PARTITIONED) {
+            file = new File(path);
+            if (!file.isAbsolute()) {
+                file = new File(dir, file.getPath());
+            }
+        }
+        int numFields = in.readInt();
+        Type[] types = new Type[numFields];
+        String[] names = new String[numFields];
+        for (int i = 0; i < numFields; i++) {
+            types[i] = Type.valueOf(in.readUTF());
+            names[i] = in.readBoolean() ? in.readUTF() : null;
+        }
+        PageLayout layout = PageLayout.values()[in.readByte()];
+        boolean compressed = in.readBoolean();
+        int pageSize = in.readInt();
+        int[] dictionaryFields = new int[in.readInt()];
+        for (int i = 0; i < dictionaryFields.length; i++) {
+            dictionaryFields[i] = in.readInt();
+        }
+        int keyField = in.readInt();
+        int pageCount = in.readInt();
+        long tupleCount = in.readLong();
+        List<Integer> indexes = new ArrayList<>();
+        int numIndexes = in.readInt();
+        for (int i = 0; i < numIndexes; i++) {
+            indexes.add(in.readInt());
+        }
+        TupleDesc td = new TupleDesc(types, names);
+        boolean hashed = false;
+        List<TableMetadata> partitions = new ArrayList<>();
+        List<Field> lowerBounds = new ArrayList<>();
+        if (kind == Kind.PARTITIONED) {
+            hashed = in.readBoolean();
+            int numPartitions = in.readInt();
+            for (int i = 0; i < numPartitions; i++) {
+                partitions.add(read(in, dir));
+                try {
+                    lowerBounds.add(in.readBoolean() ? td.getFieldType(keyField).parse(in) : null);
+                } catch (ParseException e) {
+                    throw new IOException("bad lower bound of partition " + i + " of " + name, e);
+                }
+            }
+        }
+        TableMetadata m = new TableMetadata(id, name, primaryKey, kind, file, td, layout, compressed, pageSize,
+                dictionaryFields, keyField, hashed, partitions, lowerBounds);
+        m.pageCount = pageCount;
+        m.tupleCount = tupleCount;
+        m.indexes.addAll(indexes);
+        return m;
+    }
+
+    private static String relativePath(File f, File dir) {
+        String path = f.getAbsolutePath();
+        String prefix = dir.getAbsolutePath() + File.separator;
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : path;
+    }
+}
@@ -1,8 +1,12 @@
 package simpledb.common;
 
+import simpledb.storage.DoubleField;
+import simpledb.storage.LongField;
 import simpledb.storage.StringField;
+import simpledb.storage.TextField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.TimestampField;
 
 import java.text.ParseException;
 import java.io.*;
@@ -11,6 +15,15 @@ import java.io.*;
  * Class representing a type in SimpleDB.
  * Types are static objects defined by this class; hence, the Type
  * constructor is private.
+ * <p>
+ * Besides INT_TYPE and STRING_TYPE there are three 8-byte types: LONG_TYPE,
+ * DOUBLE_TYPE and TIMESTAMP_TYPE, a point in time stored as milliseconds
+ * since the epoch (UTC).  A DATE is a TIMESTAMP at midnight.
+ * <p>
+ * TEXT_TYPE holds strings of any length.  The value is kept out of line in
+ * the overflow file of the table (see {@link simpledb.storage.OverflowFile})
+ * and a page only holds a fixed-size pointer to it, so that is what
+ * {@link #getLen()} counts.
  */
 public enum Type implements Serializable {
     INT_TYPE() {
@@ -28,6 +41,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(String s) {
+            return new IntField(Integer.parseInt(s));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +64,94 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(String s) {
+            return new StringField(s, STRING_LEN);
+        }
+
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new LongField(Long.parseLong(s));
+        }
+
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new DoubleField(Double.parseDouble(s));
+        }
+
+    }, TIMESTAMP_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new TimestampField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new TimestampField(TimestampField.parseMillis(s));
+        }
+
+    }, TEXT_TYPE() {
+        @Override
+        public int getLen() {
+            return 12; // 长度、溢出页号、页内偏移
+        }
+
+        // 读的是 TextField.serialize 写出的值本身，不是页上的指针
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                byte[] bs = new byte[dis.readInt()];
+                dis.readFully(bs);
+                return new TextField(new String(bs, java.nio.charset.StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new TextField(s);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +170,38 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field of this type holding the value written as text in s,
+   *   as it appears in the text files the encoders read
+   * @throws IllegalArgumentException if s is not a value of this type
+   */
+    public abstract Field parse(String s);
+
+  /**
+   * @return true if values of this type are held as a primitive long or
+   *   double (see {@link simpledb.storage.Tuple#getLong}), i.e. for the
+   *   8-byte types
+   */
+    public boolean isWide() {
+        return this == LONG_TYPE || this == DOUBLE_TYPE || this == TIMESTAMP_TYPE;
+    }
+
+  /**
+   * @return the type named by name in a schema ("int", "long", "double",
+   *   "timestamp" or "date", "string", "text"), ignoring case, or null if there is
+   *   no such type
+   */
+    public static Type forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "int": return INT_TYPE;
+            case "long": return LONG_TYPE;
+            case "double": return DOUBLE_TYPE;
+            case "timestamp":
+            case "date": return TIMESTAMP_TYPE;
+            case "string": return STRING_TYPE;
+            case "text": return TEXT_TYPE;
+            default: return null;
+        }
+    }
+
 }
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
@@ -101,6 +102,24 @@ public class Aggregate extends Operator {
         return aop.toString();
     }
 
+    /**
+     * @return the type of the result of aggregating a field of type
+     *         afieldType with aop.  Aggregates of INT_TYPE and STRING_TYPE
+     *         fields are INT_TYPE, as is COUNT of any field; MIN, MAX and
+     *         AVG of the 8-byte types keep the type of the field, and SUM of
+     *         them is a DOUBLE_TYPE for a DOUBLE_TYPE field and a LONG_TYPE
+     *         otherwise.
+     */
+    public static Type resultType(Aggregator.Op aop, Type afieldType) {
+        if (!afieldType.isWide() || aop == Aggregator.Op.COUNT) {
+            return Type.INT_TYPE;
+        }
+        if (aop == Aggregator.Op.SUM) {
+            return afieldType == Type.DOUBLE_TYPE ? Type.DOUBLE_TYPE : Type.LONG_TYPE;
+        }
+        return afieldType;
+    }
+
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
@@ -111,19 +130,21 @@ public class Aggregate extends Operator {
         Type afieldType = childTd.getFieldType(afield);
         Type gfieldType = (gfield == Aggregator.NO_GROUPING) ? null : childTd.getFieldType(gfield);
 
-        if (afieldType == Type.STRING_TYPE) {
+        if (afieldType == Type.STRING_TYPE || afieldType == Type.TEXT_TYPE) {
             aggregator = new StringAggregator(gfield, gfieldType, afield, aop);
         } else if (afieldType == Type.INT_TYPE) {
             aggregator = new IntegerAggregator(gfield, gfieldType, afield, aop);
+        } else if (afieldType.isWide()) {
+            aggregator = new WideAggregator(gfield, gfieldType, afield, afieldType, aop);
         } else {
             throw new IllegalArgumentException("Unsupported afield type: " + afieldType);
         }
 
-        // 2. 遍历child，将所有tuple合并到aggregator中
+        // 2. 按批读完 child，把所有 tuple 合并到 aggregator 中
         child.open();
-        while (child.hasNext()) {
-            Tuple tup = child.next();
-            aggregator.mergeTupleIntoGroup(tup);
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            aggregator.mergeBatchIntoGroups(batch);
         }
 
         // 3. 获取aggregator的迭代器，并打开它
@@ -131,11 +152,12 @@ public class Aggregate extends Operator {
         aggIter.open();
 
         // 4. 构造输出的TupleDesc
+        Type rtype = resultType(aop, afieldType);
         if (gfield == Aggregator.NO_GROUPING) {
-            outTd = new TupleDesc(new Type[]{Type.INT_TYPE},
+            outTd = new TupleDesc(new Type[]{rtype},
                     new String[]{aggregateFieldName()});
         } else {
-            outTd = new TupleDesc(new Type[]{gfieldType, Type.INT_TYPE},
+            outTd = new TupleDesc(new Type[]{gfieldType, rtype},
                     new String[]{groupFieldName(), aggregateFieldName()});
         }
     }
@@ -191,14 +213,15 @@ public class Aggregate extends Operator {
         Type gfieldType = (gfield == Aggregator.NO_GROUPING) ? null : childTd.getFieldType(gfield);
 
         // 根据是否分组构造输出结果的 TupleDesc
+        Type rtype = resultType(aop, childTd.getFieldType(afield));
         if (gfield == Aggregator.NO_GROUPING) {
             return new TupleDesc(
-                    new Type[]{Type.INT_TYPE},
+                    new Type[]{rtype},
                     new String[]{aggregateFieldName()}
             );
         } else {
             return new TupleDesc(
-                    new Type[]{gfieldType, Type.INT_TYPE},
+                    new Type[]{gfieldType, rtype},
                     new String[]{groupFieldName(), aggregateFieldName()}
             );
         }
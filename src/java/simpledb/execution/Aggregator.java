@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -79,6 +80,22 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the selected tuples of batch into the aggregate, as
+     * {@link #mergeTupleIntoGroup} does for one tuple.  By default each
+     * tuple is built and merged in turn; aggregators that can read the
+     * columns of the batch directly override this.
+     *
+     * @param batch the tuples, each containing an aggregate field and a
+     *        group-by field
+     */
+    default void mergeBatchIntoGroups(TupleBatch batch) {
+        int[] rows = batch.selection();
+        for (int i = 0; i < batch.numSelected(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(rows[i]));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -16,6 +17,8 @@ public class Filter extends Operator {
 
     private final Predicate predicate;
     private OpIterator child; // 下面有setChildren()方法，所以不能final
+
+    private boolean pushedDown = false; // 条件已经下推给 SeqScan，不用再判断一遍
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -45,6 +48,8 @@ public class Filter extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
+        // 直接扫表时把条件交给 SeqScan，被筛掉的行就不用构造 Tuple
+        pushedDown = child instanceof SeqScan && ((SeqScan) child).pushDownPredicate(predicate);
         child.open();
     }
 
@@ -73,7 +78,7 @@ public class Filter extends Operator {
         // some code goes here
         while (child.hasNext()) {
             Tuple t = child.next();
-            if (predicate.filter(t)) {  // 检查数据是否通过筛选
+            if (pushedDown || predicate.filter(t)) {  // 检查数据是否通过筛选
                 return t;
             }
         }
@@ -81,6 +86,27 @@ public class Filter extends Operator {
 
     }
 
+    /**
+     * Narrows the selection of each batch of the child to the tuples that
+     * pass the predicate, without copying them, and returns the first
+     * batch that has any left.
+     *
+     * @see Predicate#filter(TupleBatch)
+     */
+    @Override
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            if (!pushedDown) {
+                predicate.filter(batch);
+            }
+            if (batch.numSelected() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -19,6 +20,14 @@ public class HashEquiJoin extends Operator {
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    // 按批探测的状态：child2 当前这一批、下一个要探测的选中行、当前行的匹配和下一个要输出的匹配
+    transient private TupleBatch batch = null;
+    transient private TupleBatch probe = null;
+    transient private int probePos = 0;
+    transient private int probeRow = -1;
+    transient private List<Tuple> matches = null;
+    transient private int matchPos = 0;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -88,11 +97,20 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        resetProbe();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        resetProbe();
+    }
+
+    private void resetProbe() {
+        probe = null;
+        probePos = 0;
+        matches = null;
+        matchPos = 0;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -124,9 +142,9 @@ public class HashEquiJoin extends Operator {
         // set fields in combined tuple
         Tuple t = new Tuple(comboTD);
         for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
+            t.copyField(i, t1, i);
         for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
+            t.copyField(td1n + i, t2, i);
         return t;
 
     }
@@ -160,6 +178,54 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    /**
+     * Probes the hash table with a batch of child2 at a time, and copies
+     * each matching pair of tuples into a batch of its own.  The output
+     * batch fills up in the middle of a probe batch; the next call carries
+     * on from there.
+     */
+    @Override
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null) {
+            batch = new TupleBatch(comboTD);
+        }
+        batch.clear();
+        int td1n = child1.getTupleDesc().numFields();
+        int td2n = child2.getTupleDesc().numFields();
+        // 先输出按行取时没输出完的匹配
+        while (listIt != null && listIt.hasNext() && !batch.isFull()) {
+            batch.append(processList());
+        }
+        while (!batch.isFull()) {
+            if (matches != null && matchPos < matches.size()) {
+                Tuple left = matches.get(matchPos++);
+                int row = batch.addRow(null);
+                for (int i = 0; i < td1n; i++)
+                    batch.copyField(row, i, left, i);
+                for (int i = 0; i < td2n; i++)
+                    batch.copyField(row, td1n + i, probe, probeRow, i);
+                continue;
+            }
+            if (probe != null && probePos < probe.numSelected()) {
+                probeRow = probe.selection()[probePos++];
+                matches = map.get(probe.getField(probeRow, pred.getField2()));
+                matchPos = 0;
+                continue;
+            }
+            probe = child2.nextBatch();
+            probePos = 0;
+            matches = null;
+            if (probe == null) {
+                // child2 is done: advance child1
+                child2.rewind();
+                if (!loadMap()) {
+                    break;
+                }
+            }
+        }
+        return batch.numSelected() == 0 ? null : batch;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
@@ -9,6 +9,7 @@ import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleIterator;
 /**
@@ -88,8 +89,7 @@ public class IntegerAggregator implements Aggregator {
         Field groupKey = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
 
         // 2. 取出聚合字段的值
-        IntField aggField = (IntField) tup.getField(afield);
-        int aggValue = aggField.getValue();
+        int aggValue = tup.getInt(afield);
 
         // 3. 更新中间状态
         groups.putIfAbsent(groupKey, new AggState());
@@ -100,6 +100,29 @@ public class IntegerAggregator implements Aggregator {
 
     }
 
+    /**
+     * Merge the selected tuples of batch into the aggregate, reading the
+     * aggregate field straight from its column
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        int[] rows = batch.selection();
+        int n = batch.numSelected();
+        if (gbfield == NO_GROUPING) {
+            // 不分组时只有一个状态，整批在一个循环里累加
+            AggState state = groups.computeIfAbsent(null, k -> new AggState());
+            for (int i = 0; i < n; i++) {
+                state.add(batch.getInt(rows[i], afield));
+            }
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            int row = rows[i];
+            groups.computeIfAbsent(batch.getField(row, gbfield), k -> new AggState())
+                    .add(batch.getInt(row, afield));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * 
@@ -135,11 +135,11 @@ public class Join extends Operator {
                     int idx = 0;
                     // 把 leftTuple 的字段值复制到 mergedTuple
                     for (int i = 0; i < leftTuple.getTupleDesc().numFields(); i++) {
-                        mergedTuple.setField(idx++, leftTuple.getField(i));
+                        mergedTuple.copyField(idx++, leftTuple, i);
                     }
                     // 把 rightTuple 的字段值复制到 mergedTuple
                     for (int i = 0; i < rightTuple.getTupleDesc().numFields(); i++) {
-                        mergedTuple.setField(idx++, rightTuple.getField(i));
+                        mergedTuple.copyField(idx++, rightTuple, i);
                     }
 
                     // 返回join后的结果
@@ -1,6 +1,10 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
+import simpledb.storage.DoubleField;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -46,6 +50,19 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
+        Type type = t1.getTupleDesc().getFieldType(field1);
+        if (type == t2.getTupleDesc().getFieldType(field2)) {
+            // 同类型的数值字段直接比较原始值
+            if (type == Type.INT_TYPE) {
+                return IntField.compare(op, t1.getInt(field1), t2.getInt(field2));
+            }
+            if (type == Type.DOUBLE_TYPE) {
+                return DoubleField.compare(op, t1.getDouble(field1), t2.getDouble(field2));
+            }
+            if (type.isWide()) {
+                return LongField.compare(op, t1.getLong(field1), t2.getLong(field2));
+            }
+        }
         Field f1 = t1.getField(field1);
         Field f2 = t2.getField(field2);
         return f1.compare(op, f2);
@@ -2,6 +2,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
@@ -39,6 +40,28 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns the next tuples from the operator as a batch, for consumers
+   * that process a batch of rows per call instead of one row per call.
+   * The batch has at least one selected row; it may be reused by the
+   * operator, so it is only valid until the next call.  A consumer should
+   * read an iterator either with next or with nextBatch, not both, until
+   * it is rewound.
+   * <p>
+   * By default the batch is filled with {@link #next()}; operators that
+   * work on batches natively override this.
+   *
+   * @return the next batch of tuples, or null if there are no more tuples
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+    TupleBatch batch = new TupleBatch(getTupleDesc());
+    while (!batch.isFull() && hasNext()) {
+      batch.append(next());
+    }
+    return batch.numSelected() == 0 ? null : batch;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.NoSuchElementException;
@@ -10,7 +11,8 @@ import java.util.NoSuchElementException;
 /**
  * Abstract class for implementing operators. It handles <code>close</code>,
  * <code>next</code> and <code>hasNext</code>. Subclasses only need to implement
- * <code>open</code> and <code>readNext</code>.
+ * <code>open</code> and <code>readNext</code>; they can also implement
+ * <code>fetchNextBatch</code> to hand out tuples a batch at a time.
  */
 public abstract class Operator implements OpIterator {
 
@@ -49,6 +51,42 @@ public abstract class Operator implements OpIterator {
     protected abstract Tuple fetchNext() throws DbException,
             TransactionAbortedException;
 
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+
+        if (next != null) {
+            // hasNext 已经取出了一行，这一批从它开始，按行补满
+            TupleBatch batch = new TupleBatch(getTupleDesc());
+            batch.append(next);
+            next = null;
+            Tuple t;
+            while (!batch.isFull() && (t = fetchNext()) != null) {
+                batch.append(t);
+            }
+            return batch;
+        }
+        return fetchNextBatch();
+    }
+
+    /**
+     * Returns the next batch of tuples, or null if the iteration is
+     * finished; Operator uses this to implement <code>nextBatch</code>.
+     * The batch must have at least one selected row.  By default it is
+     * filled with <code>fetchNext</code>; operators that work on batches
+     * natively override this.
+     *
+     * @see OpIterator#nextBatch()
+     */
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = new TupleBatch(getTupleDesc());
+        Tuple t;
+        while (!batch.isFull() && (t = fetchNext()) != null) {
+            batch.append(t);
+        }
+        return batch.numSelected() == 0 ? null : batch;
+    }
+
     /**
      * Closes this iterator. If overridden by a subclass, they should call
      * super.close() in order for Operator's internal state to be consistent.
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -115,6 +116,19 @@ class TupleComparator implements Comparator<Tuple> {
     }
 
     public int compare(Tuple o1, Tuple o2) {
+        Type type = o1.getTupleDesc().getFieldType(field);
+        if (type == Type.INT_TYPE) {
+            int c = Integer.compare(o1.getInt(field), o2.getInt(field));
+            return asc ? c : -c;
+        }
+        if (type == Type.DOUBLE_TYPE) {
+            int c = Double.compare(o1.getDouble(field), o2.getDouble(field));
+            return asc ? c : -c;
+        }
+        if (type.isWide()) {
+            int c = Long.compare(o1.getLong(field), o2.getLong(field));
+            return asc ? c : -c;
+        }
         Field t1 = (o1).getField(field);
         Field t2 = (o2).getField(field);
         if (t1.compare(Predicate.Op.EQUALS, t2))
@@ -0,0 +1,454 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PartitionedFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelSeqScan is a sequential scan that reads the pages of a table on
+ * several threads.  When it is opened, the pages of the heap file (or of
+ * the partitions of a partitioned file that are not pruned) are split into
+ * morsels of {@link #MORSEL_PAGES} consecutive pages.  A pool of worker
+ * threads takes morsels one at a time until none are left, copies the
+ * tuples of each into {@link TupleBatch}es and hands the batches to the
+ * consumer through a bounded queue (the exchange).  The predicate and
+ * projection pushed down by a {@link Filter} or {@link Project} above the
+ * scan are applied by the workers, on the page bytes, so the consumer only
+ * receives the tuples and fields it asked for.
+ * <p>
+ * Tuples are returned in no particular order.  The workers read pages as
+ * part of the scan's transaction, so the locks they take are held by that
+ * transaction and released when it completes, as for a serial scan.
+ * {@link #close()} stops the workers and waits for them.  A scan that is
+ * still open when its transaction completes is stopped by the buffer pool
+ * (see {@link simpledb.storage.BufferPool#registerWorkers}) before the
+ * transaction's locks are released, and throws TransactionAbortedException
+ * if it is read again.  {@link #rewind()} keeps the worker threads and
+ * hands the morsels out again.  Pages added to the table after
+ * the scan is opened are not read.  Tables that are neither heap files nor
+ * partitioned files are scanned serially, as by SeqScan.
+ */
+public class ParallelSeqScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of pages in a morsel, the unit of work of a worker. */
+    public static final int MORSEL_PAGES = 16;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final int workers;
+
+    // 一个 morsel：某个堆文件的 [from, to) 页
+    private static class Morsel {
+        final HeapFile file;
+        final int from;
+        final int to;
+
+        Morsel(HeapFile file, int from, int to) {
+            this.file = file;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private transient boolean serial = false; // 不是堆表/分区表时退回串行扫描
+    private transient List<Morsel> morsels;
+    private transient AtomicInteger nextMorsel;
+    private transient ExecutorService pool;
+    private transient int tasks; // 每轮派出的 worker 数
+    private transient Set<Thread> threads; // 正在跑 worker 的线程
+    private transient CountDownLatch finished; // 这一轮还没退出的 worker
+    private transient Runnable abandon; // 登记在 BufferPool 里，事务结束时叫停 worker
+    private transient boolean abandoned;
+    // exchange：worker 往里放装好的批，消费者取；end 表示所有 worker 都结束了（或有一个出错）
+    private transient BlockingQueue<TupleBatch> exchange;
+    private transient TupleBatch end;
+    // 消费者用完的批还给 worker 复用
+    private transient ConcurrentLinkedQueue<TupleBatch> free;
+    private transient AtomicInteger running;
+    private transient AtomicReference<Throwable> failure;
+    private transient volatile boolean cancelled;
+
+    private transient TupleBatch current; // 消费者手上的那一批
+    private transient int pos; // 按行读时 current 里下一个要返回的是第几个选中行
+    private transient boolean done;
+
+    /**
+     * Creates a parallel scan over the specified table as a part of the
+     * specified transaction, read by the given number of worker threads.
+     *
+     * @param workers the number of worker threads, at least 1
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int workers) {
+        super(tid, tableid, tableAlias);
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive");
+        }
+        this.workers = workers;
+    }
+
+    /** Creates a parallel scan with one worker thread per processor. */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelSeqScan(TransactionId tid, int tableId) {
+        this(tid, tableId, Database.getCatalog().getTableName(tableId));
+    }
+
+    /** @return the number of worker threads the scan uses at most */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Returns a serial scan of the same table under the same alias, which
+     * skips the same partitions.  The planner uses it for scans that are
+     * rewound often.  Must be called before the scan is opened.
+     */
+    public SeqScan toSerial() {
+        SeqScan scan = new SeqScan(transactionId(), tableId(), getAlias());
+        for (Predicate p : partitionFilters()) {
+            scan.prunePartitions(p);
+        }
+        return scan;
+    }
+
+    // 要扫的堆文件：分区表只取没被剪掉的分区；其他表返回 null
+    private List<HeapFile> files() {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId());
+        List<HeapFile> files = new ArrayList<>();
+        if (file instanceof HeapFile) {
+            files.add((HeapFile) file);
+        } else if (file instanceof PartitionedFile) {
+            List<Predicate> filters = new ArrayList<>(partitionFilters());
+            filters.add(pushedPredicate());
+            files.addAll(((PartitionedFile) file).partitionsFor(filters));
+        } else {
+            return null;
+        }
+        return files;
+    }
+
+    @Override
+    public synchronized void open() throws DbException, TransactionAbortedException {
+        List<HeapFile> files = files();
+        serial = files == null;
+        if (serial) {
+            super.open();
+            return;
+        }
+
+        // 按页号切成 morsel，页数在这里定下来
+        morsels = new ArrayList<>();
+        for (HeapFile f : files) {
+            int n = f.numPages();
+            for (int from = 0; from < n; from += MORSEL_PAGES) {
+                morsels.add(new Morsel(f, from, Math.min(from + MORSEL_PAGES, n)));
+            }
+        }
+        int n = Math.min(workers, morsels.size());
+        tasks = n;
+        exchange = new ArrayBlockingQueue<>(2 * n + 1);
+        end = new TupleBatch(getTupleDesc(), 1);
+        free = new ConcurrentLinkedQueue<>();
+        nextMorsel = new AtomicInteger();
+        running = new AtomicInteger();
+        failure = new AtomicReference<>();
+        threads = new HashSet<>();
+        abandoned = false;
+        if (n > 0) {
+            pool = Executors.newFixedThreadPool(n, r -> {
+                Thread t = new Thread(r, "parallel-scan-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            abandon = this::abandon;
+            Database.getBufferPool().registerWorkers(transactionId(), abandon);
+        }
+        start(n);
+    }
+
+    // 从第一个 morsel 起派 n 个 worker；open 和 rewind 共用，线程池不重建
+    private void start(int n) {
+        nextMorsel.set(0);
+        running.set(n);
+        failure.set(null);
+        finished = new CountDownLatch(n);
+        cancelled = false;
+        current = null;
+        pos = 0;
+        done = n == 0;
+        TransactionId tid = transactionId();
+        Predicate p = pushedPredicate();
+        int[] fields = projection();
+        TupleDesc td = getTupleDesc();
+        for (int i = 0; i < n; i++) {
+            pool.execute(() -> work(tid, p, fields, td));
+        }
+    }
+
+    // 叫停这一轮的 worker 并等它们都退出：中断在 exchange 上或在锁上等的，并腾出 exchange 让它们放得进去
+    private void stop() {
+        cancelled = true;
+        synchronized (threads) {
+            for (Thread t : threads) {
+                t.interrupt();
+            }
+        }
+        // 一定要等到都退出，否则 rewind 后新旧两轮的 worker 会抢同一个游标
+        boolean interrupted = false;
+        while (finished.getCount() > 0) {
+            exchange.clear();
+            try {
+                finished.await(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        exchange.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 事务结束了扫描却还开着（比如出错后没 close）：叫停 worker，消费者再读时得到 TransactionAbortedException
+    private synchronized void abandon() {
+        if (pool == null || abandoned) {
+            return;
+        }
+        abandoned = true;
+        stop();
+        failure.set(new TransactionAbortedException());
+        exchange.offer(end);
+    }
+
+    // worker：一个接一个地领 morsel，把满足条件的行装成批放进 exchange
+    private void work(TransactionId tid, Predicate p, int[] fields, TupleDesc td) {
+        // 登记当前线程，stop 只中断登记着的线程；已经叫停了就直接退出
+        synchronized (threads) {
+            if (cancelled) {
+                finished.countDown();
+                return;
+            }
+            threads.add(Thread.currentThread());
+        }
+        try {
+            scanMorsels(tid, p, fields, td);
+        } finally {
+            synchronized (threads) {
+                threads.remove(Thread.currentThread());
+                // stop 的中断可能在 worker 做完之后才到，别留给线程池里的下一个任务
+                Thread.interrupted();
+            }
+            finished.countDown();
+        }
+    }
+
+    private void scanMorsels(TransactionId tid, Predicate p, int[] fields, TupleDesc td) {
+        try {
+            int i;
+            while (!cancelled && (i = nextMorsel.getAndIncrement()) < morsels.size()) {
+                Morsel m = morsels.get(i);
+                DbFileIterator it = m.file.iterator(tid, p, fields, m.from, m.to);
+                it.open();
+                try {
+                    while (!cancelled) {
+                        TupleBatch batch = free.poll();
+                        if (batch == null) {
+                            batch = new TupleBatch(td);
+                        } else {
+                            batch.clear();
+                        }
+                        it.fillBatch(batch);
+                        if (batch.numSelected() == 0) {
+                            free.offer(batch);
+                            break;
+                        }
+                        exchange.put(batch);
+                    }
+                } finally {
+                    it.close();
+                }
+            }
+        } catch (Throwable e) {
+            // 出错时马上告诉消费者，不用等其他 worker；它们在 close 时被叫停
+            if (failure.compareAndSet(null, e)) {
+                cancelled = true;
+                putEnd();
+            }
+            return;
+        }
+        if (running.decrementAndGet() == 0) {
+            putEnd();
+        }
+    }
+
+    private void putEnd() {
+        try {
+            exchange.put(end);
+        } catch (InterruptedException e) {
+            // 被 close 叫停了，消费者不会再取
+        }
+    }
+
+    // 从 exchange 取下一批；都取完了返回 null，有 worker 出错就在这里抛出它的异常
+    private TupleBatch take() throws DbException, TransactionAbortedException {
+        if (current != null) {
+            free.offer(current);
+            current = null;
+        }
+        if (done) {
+            return null;
+        }
+        TupleBatch batch;
+        try {
+            batch = exchange.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        }
+        if (batch != end) {
+            return batch;
+        }
+        done = true;
+        Throwable e = failure.get();
+        if (e == null) {
+            return null;
+        }
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        }
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        DbException wrapped = new DbException("parallel scan failed: " + e);
+        wrapped.initCause(e);
+        throw wrapped;
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (serial) {
+            return super.hasNext();
+        }
+        if (exchange == null) {
+            return false;
+        }
+        while (current == null || pos == current.numSelected()) {
+            current = take();
+            pos = 0;
+            if (current == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (serial) {
+            return super.next();
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more tuples");
+        }
+        return current.getTuple(current.selection()[pos++]);
+    }
+
+    /**
+     * Returns the next batch filled by a worker.  The batch is only valid
+     * until the next call, when it is handed back to the workers.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (serial) {
+            return super.nextBatch();
+        }
+        if (!hasNext()) {
+            return null;
+        }
+        // hasNext/next 已经读走了前 pos 行，只交出剩下的
+        if (pos > 0) {
+            int[] sel = current.selection();
+            int rest = current.numSelected() - pos;
+            System.arraycopy(sel, pos, sel, 0, rest);
+            current.setNumSelected(rest);
+        }
+        pos = current.numSelected();
+        return current;
+    }
+
+    /** Stops the workers and waits for them to finish. */
+    @Override
+    public synchronized void close() {
+        super.close();
+        if (pool == null) {
+            exchange = null;
+            return;
+        }
+        stop();
+        Database.getBufferPool().unregisterWorkers(transactionId(), abandon);
+        pool.shutdown();
+        pool = null;
+        exchange = null;
+        current = null;
+        free = null;
+    }
+
+    /**
+     * Stops the workers and starts again from the first morsel, on the
+     * same threads.  The pages to read are those of {@link #open()}.
+     */
+    @Override
+    public synchronized void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        if (serial) {
+            super.rewind();
+            return;
+        }
+        if (abandoned) {
+            throw new TransactionAbortedException();
+        }
+        if (pool == null) {
+            // 一个 morsel 都没有，或者已经 close 了
+            current = null;
+            pos = 0;
+            return;
+        }
+        stop();
+        if (current != null) {
+            free.offer(current);
+        }
+        start(tasks);
+    }
+}
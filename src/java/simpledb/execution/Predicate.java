@@ -1,7 +1,14 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
+import simpledb.storage.DoubleField;
 import simpledb.storage.Field;
+import simpledb.storage.FieldAccessor;
+import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -108,9 +115,110 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        // 数值字段直接比较原始值，不装箱
+        Type type = t.getTupleDesc().getFieldType(field);
+        if (operand instanceof IntField && type == Type.INT_TYPE) {
+            return IntField.compare(op, t.getInt(field), ((IntField) operand).getValue());
+        }
+        if (operand instanceof LongField && operand.getType() == type) {
+            return LongField.compare(op, t.getLong(field), ((LongField) operand).getValue());
+        }
+        if (operand instanceof DoubleField && type == Type.DOUBLE_TYPE) {
+            return DoubleField.compare(op, t.getDouble(field), ((DoubleField) operand).getValue());
+        }
         return t.getField(field).compare(op, operand);
     }
 
+    /**
+     * Same as {@link #filter(Tuple)}, but reads the field straight out of
+     * slot of page instead of from a Tuple.  Only LIKE on strings, and
+     * operands whose type differs from the field's, need the tuple to be
+     * built.
+     *
+     * @param page
+     *            the page holding the tuple
+     * @param slot
+     *            the slot of the tuple on the page
+     * @return true if the comparison is true, false otherwise.
+     */
+    public boolean filter(FieldAccessor page, int slot) {
+        // 和 filter(Tuple) 一样按列的类型选读法，类型对不上就交给 Field.compare
+        Type type = page.getTupleDesc().getFieldType(field);
+        if (operand instanceof IntField && type == Type.INT_TYPE) {
+            return test(Integer.compare(page.getInt(slot, field), ((IntField) operand).getValue()));
+        }
+        if (operand instanceof LongField && operand.getType() == type) {
+            return test(Long.compare(page.getLong(slot, field), ((LongField) operand).getValue()));
+        }
+        if (operand instanceof DoubleField && type == Type.DOUBLE_TYPE) {
+            return test(Double.compare(page.getDouble(slot, field), ((DoubleField) operand).getValue()));
+        }
+        if (operand instanceof StringField && op != Op.LIKE
+                && (type == Type.STRING_TYPE || type == Type.TEXT_TYPE)) {
+            return test(page.compareString(slot, field, ((StringField) operand).getValue()));
+        }
+        return filter(page.getTuple(slot));
+    }
+
+    /**
+     * Narrow the selection of batch to the rows that satisfy this
+     * predicate.  Comparisons of INT_TYPE fields with an int run in one
+     * loop over the column; others with an operand of the field's type go
+     * through {@link #filter(FieldAccessor, int)} row by row, and the rest
+     * compare Fields as {@link #filter(Tuple)} does.
+     */
+    public void filter(TupleBatch batch) {
+        int[] rows = batch.selection();
+        int n = batch.numSelected();
+        int kept = 0;
+        Type type = batch.getTupleDesc().getFieldType(field);
+        if (operand instanceof IntField && type == Type.INT_TYPE) {
+            int v = ((IntField) operand).getValue();
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                if (test(Integer.compare(batch.getInt(row, field), v))) {
+                    rows[kept++] = row;
+                }
+            }
+        } else if (operand.getType() == type || (operand instanceof StringField
+                && (type == Type.STRING_TYPE || type == Type.TEXT_TYPE))) {
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                if (filter(batch, row)) {
+                    rows[kept++] = row;
+                }
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                if (batch.getField(row, field).compare(op, operand)) {
+                    rows[kept++] = row;
+                }
+            }
+        }
+        batch.setNumSelected(kept);
+    }
+
+    // 把比较结果（负数/0/正数）按运算符换成真假；对数值来说 LIKE 就是相等
+    private boolean test(int cmp) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+        }
+        return false;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -4,6 +4,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -17,6 +18,8 @@ public class Project extends Operator {
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private final int[] outFields; // 同 outFieldIds，按批投影时用
+    private transient TupleBatch batch = null; // fetchNextBatch 每次复用的那一批
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -35,6 +38,10 @@ public class Project extends Operator {
                    OpIterator child) {
         this.child = child;
         outFieldIds = fieldList;
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++) {
+            outFields[i] = fieldList.get(i);
+        }
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -50,6 +57,10 @@ public class Project extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        // 直接扫表时只解码要输出的字段（PAX 页上只读这些列的 minipage）
+        if (child instanceof SeqScan) {
+            ((SeqScan) child).pushDownProjection(outFieldIds);
+        }
         child.open();
         super.open();
     }
@@ -76,11 +87,28 @@ public class Project extends Operator {
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+            newTuple.copyField(i, t, outFieldIds.get(i));
         }
         return newTuple;
     }
 
+    /**
+     * Copies the projected fields of the selected tuples of each batch of
+     * the child into a batch of its own, a column at a time.
+     */
+    @Override
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch in = child.nextBatch();
+        if (in == null) {
+            return null;
+        }
+        if (batch == null || batch.capacity() < in.capacity()) {
+            batch = new TupleBatch(td, in.capacity());
+        }
+        batch.project(in, outFields);
+        return batch;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
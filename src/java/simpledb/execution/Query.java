@@ -113,13 +113,17 @@ public class Query implements Serializable {
         System.out.println();
 
         this.start();
-        int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        // 出错时也要关掉，并行扫描的 worker 才会停下
+        try {
+            int cnt = 0;
+            while (this.hasNext()) {
+                Tuple tup = this.next();
+                System.out.println(tup);
+                cnt++;
+            }
+            System.out.println("\n " + cnt + " rows.");
+        } finally {
+            this.close();
         }
-        System.out.println("\n " + cnt + " rows.");
-        this.close();
     }
 }
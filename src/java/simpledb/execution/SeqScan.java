@@ -5,8 +5,12 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PartitionedFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -27,6 +31,11 @@ public class SeqScan implements OpIterator {
     private String tableAlias; // Alias：别名
     private DbFileIterator iterator;
 
+    private Predicate pushedPredicate = null; // 下推到扫描里、直接在页字节上判断的条件
+    private int[] projection = null; // 上层只会读的字段，其余字段不解码
+    private final List<Predicate> partitionFilters = new ArrayList<>(); // 只用来跳过分区，不作用在行上
+    private transient TupleBatch batch = null; // nextBatch 每次复用的那一批
+
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -85,13 +94,115 @@ public class SeqScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.pushedPredicate = null;
+        this.projection = null;
+        this.partitionFilters.clear();
+        this.batch = null;
         this.iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
     }
 
+    // 按下推的条件、投影和分区条件重建迭代器；只有堆表和分区表支持
+    private boolean rebuildIterator() {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        DbFileIterator it;
+        if (file instanceof HeapFile) {
+            it = ((HeapFile) file).iterator(tid, pushedPredicate, projection);
+        } else if (file instanceof PartitionedFile) {
+            it = ((PartitionedFile) file).iterator(tid, partitionFilters, pushedPredicate, projection);
+        } else {
+            return false;
+        }
+        iterator.close();
+        iterator = it;
+        return true;
+    }
+
+    /**
+     * Ask this scan to return only tuples that satisfy p, evaluating it on
+     * the page bytes so that rejected tuples are never built.  Must be
+     * called before the scan is opened.  Only heap files and partitioned
+     * files support this, and only one predicate can be pushed down.
+     *
+     * @return true if the scan will apply p itself, false if the caller
+     *         still has to
+     */
+    public boolean pushDownPredicate(Predicate p) {
+        if (pushedPredicate != null) {
+            return pushedPredicate == p;
+        }
+        pushedPredicate = p;
+        if (!rebuildIterator()) {
+            pushedPredicate = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tell this scan that its consumer only keeps tuples that satisfy p, so
+     * that partitions of a partitioned table whose keys cannot satisfy p are
+     * not read.  Unlike {@link #pushDownPredicate}, p is not applied to the
+     * tuples returned; the caller still has to.  Must be called before the
+     * scan is opened; does nothing for tables that are not partitioned.
+     */
+    public void prunePartitions(Predicate p) {
+        if (Database.getCatalog().getDatabaseFile(tableid) instanceof PartitionedFile) {
+            partitionFilters.add(p);
+            rebuildIterator();
+        }
+    }
+
+    /**
+     * Tell this scan that its consumer only reads the given fields, so the
+     * others need not be decoded; they are left null in the returned
+     * tuples.  Must be called before the scan is opened, and only by a
+     * consumer that never looks at the other fields.  Only heap files and
+     * partitioned files support this.
+     *
+     * @return true if the returned tuples will only have those fields set
+     */
+    public boolean pushDownProjection(List<Integer> fields) {
+        int[] p = new int[fields.size()];
+        for (int i = 0; i < p.length; i++) {
+            p[i] = fields.get(i);
+        }
+        if (Arrays.equals(p, projection)) {
+            return true;
+        }
+        int[] old = projection;
+        projection = p;
+        if (!rebuildIterator()) {
+            projection = old;
+            return false;
+        }
+        return true;
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    // 给 ParallelSeqScan 用：它按同样的条件、投影和分区条件自己去扫
+    TransactionId transactionId() {
+        return tid;
+    }
+
+    int tableId() {
+        return tableid;
+    }
+
+    Predicate pushedPredicate() {
+        return pushedPredicate;
+    }
+
+    int[] projection() {
+        return projection;
+    }
+
+    List<Predicate> partitionFilters() {
+        return partitionFilters;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         iterator.open();
     }
@@ -136,6 +247,26 @@ public class SeqScan implements OpIterator {
         return iterator.next();
     }
 
+    /**
+     * Returns the next tuples as a batch.  On a heap file (or partitioned
+     * file) the fields are copied from the page bytes into the batch, so
+     * no Tuple is built; only the fields passed to
+     * {@link #pushDownProjection} are read, and tuples rejected by the
+     * predicate passed to {@link #pushDownPredicate} are never added.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (iterator == null) {
+            return null;
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        iterator.fillBatch(batch);
+        return batch.numSelected() == 0 ? null : batch;
+    }
+
     public void close() {
         if(iterator != null){
             iterator.close();
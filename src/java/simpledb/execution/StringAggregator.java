@@ -12,6 +12,7 @@ import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleIterator;
 
@@ -62,6 +63,22 @@ public class StringAggregator implements Aggregator {
 
     }
 
+    /**
+     * Count the selected tuples of batch, without building them or, when
+     * there is no grouping, reading any field
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        if (gbfield == NO_GROUPING) {
+            groups.merge(null, batch.numSelected(), Integer::sum);
+            return;
+        }
+        int[] rows = batch.selection();
+        for (int i = 0; i < batch.numSelected(); i++) {
+            groups.merge(batch.getField(rows[i], gbfield), 1, Integer::sum);
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      *
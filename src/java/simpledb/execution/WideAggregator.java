@@ -0,0 +1,190 @@
+package simpledb.execution;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+
+/**
+ * Knows how to compute some aggregate over a set of LONG_TYPE, DOUBLE_TYPE
+ * or TIMESTAMP_TYPE fields.  The values are read unboxed.  The type of the
+ * result depends on the aggregate, see {@link Aggregate#resultType}: MIN,
+ * MAX and AVG keep the type of the field, SUM of a DOUBLE_TYPE field is a
+ * DOUBLE_TYPE and otherwise a LONG_TYPE, and COUNT is an INT_TYPE.
+ */
+public class WideAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int afield;
+    private final Type afieldtype;
+    private final Op what;
+
+    // 分组 -> 聚合中间状态
+    private final Map<Field, AggState> groups = new HashMap<>();
+
+    // 中间状态；DOUBLE 字段用 d* 这几个字段，LONG/TIMESTAMP 用 l* 这几个
+    private static class AggState {
+        int count = 0;
+        long lsum = 0;
+        long lmin = Long.MAX_VALUE;
+        long lmax = Long.MIN_VALUE;
+        double dsum = 0;
+        double dmin = Double.POSITIVE_INFINITY;
+        double dmax = Double.NEGATIVE_INFINITY;
+
+        void add(long v) {
+            count++;
+            lsum += v;
+            if (v < lmin) lmin = v;
+            if (v > lmax) lmax = v;
+        }
+
+        void add(double v) {
+            count++;
+            dsum += v;
+            if (v < dmin) dmin = v;
+            if (v > dmax) dmax = v;
+        }
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field, one of LONG_TYPE,
+     *            DOUBLE_TYPE and TIMESTAMP_TYPE
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException if afieldtype is not one of these
+     *            types, or what is not MIN, MAX, SUM, AVG or COUNT
+     */
+    public WideAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        if (!afieldtype.isWide()) {
+            throw new IllegalArgumentException("Unsupported afield type: " + afieldtype);
+        }
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG) {
+            throw new IllegalArgumentException("Unsupported op: " + what);
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.afieldtype = afieldtype;
+        this.what = what;
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field groupKey = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
+        AggState state = groups.computeIfAbsent(groupKey, k -> new AggState());
+        if (afieldtype == Type.DOUBLE_TYPE) {
+            state.add(tup.getDouble(afield));
+        } else {
+            state.add(tup.getLong(afield));
+        }
+    }
+
+    /**
+     * Merge the selected tuples of batch into the aggregate, reading the
+     * aggregate field straight from its column
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        int[] rows = batch.selection();
+        int n = batch.numSelected();
+        boolean isDouble = afieldtype == Type.DOUBLE_TYPE;
+        AggState state = gbfield == NO_GROUPING ? groups.computeIfAbsent(null, k -> new AggState()) : null;
+        for (int i = 0; i < n; i++) {
+            int row = rows[i];
+            AggState s = state != null ? state
+                    : groups.computeIfAbsent(batch.getField(row, gbfield), k -> new AggState());
+            if (isDouble) {
+                s.add(batch.getDouble(row, afield));
+            } else {
+                s.add(batch.getLong(row, afield));
+            }
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public OpIterator iterator() {
+        List<Tuple> results = new ArrayList<>();
+        Type rtype = Aggregate.resultType(what, afieldtype);
+        TupleDesc td;
+        if (gbfield == NO_GROUPING) {
+            td = new TupleDesc(new Type[]{rtype});
+        } else {
+            td = new TupleDesc(new Type[]{gbfieldtype, rtype});
+        }
+        int r = gbfield == NO_GROUPING ? 0 : 1;
+
+        for (Map.Entry<Field, AggState> entry : groups.entrySet()) {
+            AggState state = entry.getValue();
+            Tuple tuple = new Tuple(td);
+            if (gbfield != NO_GROUPING) {
+                tuple.setField(0, entry.getKey());
+            }
+            if (what == Op.COUNT) {
+                tuple.setField(r, new IntField(state.count));
+            } else if (rtype == Type.DOUBLE_TYPE) {
+                tuple.setDouble(r, doubleResult(state));
+            } else {
+                tuple.setLong(r, longResult(state));
+            }
+            results.add(tuple);
+        }
+        return new TupleIterator(td, results);
+    }
+
+    private double doubleResult(AggState state) {
+        switch (what) {
+            case SUM: return state.dsum;
+            case AVG: return state.dsum / state.count;
+            case MIN: return state.dmin;
+            case MAX: return state.dmax;
+            default: throw new IllegalArgumentException("Unsupported op: " + what);
+        }
+    }
+
+    // 和 IntegerAggregator 一样，整数的 AVG 向零取整
+    private long longResult(AggState state) {
+        switch (what) {
+            case SUM: return state.lsum;
+            case AVG: return state.lsum / state.count;
+            case MIN: return state.lmin;
+            case MAX: return state.lmax;
+            default: throw new IllegalArgumentException("Unsupported op: " + what);
+        }
+    }
+}
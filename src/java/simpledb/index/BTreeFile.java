@@ -9,6 +9,7 @@ import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.common.Type;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -39,11 +40,27 @@ public class BTreeFile implements DbFile {
 	 * @param f - the file that stores the on-disk backing store for this B+ tree
 	 *            file.
 	 * @param key - the field which index is keyed on
-	 * @param td - the tuple descriptor of tuples in the file
+	 * @param td - the tuple descriptor of tuples in the file; B+ tree pages
+	 *            have no overflow file, so it cannot have TEXT fields
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, f.getAbsoluteFile().hashCode());
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, as above, with
+	 * the given table id rather than one derived from the name of f.
+	 * 
+	 * @param id - the id of the table, returned by {@link #getId()}
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, int id) {
+		for (int i = 0; i < td.numFields(); i++) {
+			if (td.getFieldType(i) == Type.TEXT_TYPE) {
+				throw new IllegalArgumentException("B+ tree files cannot hold TEXT fields");
+			}
+		}
 		this.f = f;
-		this.tableid = f.getAbsoluteFile().hashCode();
+		this.tableid = id;
 		this.keyField = key;
 		this.td = td;
 	}
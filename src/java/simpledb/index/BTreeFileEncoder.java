@@ -183,7 +183,9 @@ public class BTreeFileEncoder {
 	}
 
 	/** 
-	 * Faster method to encode the B+ tree file
+	 * Faster method to encode the B+ tree file.  The raw data is converted
+	 * to the heap file on all cores, and sorted with an
+	 * {@link ExternalSorter}, so it may be larger than memory.
 	 * 
 	 * @param inFile - the file containing the raw data
 	 * @param hFile - the data file for the HeapFile to be used as an intermediate conversion step
@@ -202,20 +204,30 @@ public class BTreeFileEncoder {
 			int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
 					throws IOException, DbException, TransactionAbortedException {
 		// convert the inFile to HeapFile first.
-		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
+		int threads = Runtime.getRuntime().availableProcessors();
+		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields,
+				Utility.getTypes(numFields), ',', PageLayout.ROW, null, threads);
 		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
 
-		// read all the tuples from the heap file and sort them on the keyField
-		List<Tuple> tuples = new ArrayList<>();
-		TransactionId tid = new TransactionId();
-		DbFileIterator it = Database.getCatalog().getDatabaseFile(heapf.getId()).iterator(tid);
-		it.open();
-		while (it.hasNext()) {
-			Tuple tup = it.next();
-			tuples.add(tup);
+		// read all the tuples from the heap file and sort them on the keyField,
+		// spilling sorted runs to disk when they do not fit in memory
+		try (ExternalSorter sorter = new ExternalSorter(heapf.getTupleDesc(), new TupleComparator(keyField),
+				ExternalSorter.DEFAULT_RUN_TUPLES, threads)) {
+			TransactionId tid = new TransactionId();
+			DbFileIterator it = Database.getCatalog().getDatabaseFile(heapf.getId()).iterator(tid);
+			it.open();
+			while (it.hasNext()) {
+				sorter.add(it.next());
+			}
+			it.close();
+			return writeSorted(sorter.sorted(), bFile, npagebytes, numFields, typeAr, keyField);
 		}
-		it.close();
-		tuples.sort(new TupleComparator(keyField));
+	}
+
+	// 按键有序的 tuple 自底向上直接写成 B+ 树的页
+	private static BTreeFile writeSorted(Iterator<Tuple> tuples, File bFile, int npagebytes,
+			int numFields, Type[] typeAr, int keyField)
+					throws IOException, DbException, TransactionAbortedException {
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
@@ -249,7 +261,8 @@ public class BTreeFileEncoder {
 		List<Tuple> page1 = new ArrayList<>();
 		List<Tuple> page2 = new ArrayList<>();
 		BTreePageId leftSiblingId = null;
-		for(Tuple tup : tuples) {
+		while (tuples.hasNext()) {
+			Tuple tup = tuples.next();
 			if(page1.size() < nrecords) {
 				page1.add(tup);
 			}
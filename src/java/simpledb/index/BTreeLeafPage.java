@@ -19,7 +19,7 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class BTreeLeafPage extends BTreePage {
+public class BTreeLeafPage extends BTreePage implements FieldAccessor {
 	private final byte[] header;
 	private final Tuple[] tuples;
 	private final int numSlots;
@@ -500,7 +500,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return the ith tuple in the page
 	 * @throws NoSuchElementException
 	 */
-	Tuple getTuple(int i) throws NoSuchElementException {
+	public Tuple getTuple(int i) throws NoSuchElementException {
 
 		if (i >= tuples.length)
 			throw new NoSuchElementException();
@@ -518,6 +518,42 @@ public class BTreeLeafPage extends BTreePage {
 			throw new NoSuchElementException();
 		}
 	}
+
+	/**
+	 * @return the schema of the tuples on this page
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Read an INT_TYPE field of a used slot.  Leaf pages keep their tuples
+	 * decoded, so this only saves going through Field.compare.
+	 */
+	public int getInt(int slot, int field) {
+		return ((IntField) tuples[slot].getField(field)).getValue();
+	}
+
+	/**
+	 * Read a LONG_TYPE or TIMESTAMP_TYPE field of a used slot.
+	 */
+	public long getLong(int slot, int field) {
+		return tuples[slot].getLong(field);
+	}
+
+	/**
+	 * Read a DOUBLE_TYPE field of a used slot.
+	 */
+	public double getDouble(int slot, int field) {
+		return tuples[slot].getDouble(field);
+	}
+
+	/**
+	 * Compare a STRING_TYPE field of a used slot against value.
+	 */
+	public int compareString(int slot, int field, String value) {
+		return ((StringField) tuples[slot].getField(field)).getValue().compareTo(value);
+	}
 }
 
 /**
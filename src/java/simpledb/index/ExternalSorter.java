@@ -0,0 +1,221 @@
+package simpledb.index;
+
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ExternalSorter sorts more tuples than fit in memory.  Tuples are added
+ * one at a time and collected into runs of a fixed number of tuples; each
+ * full run is sorted and spilled to a temporary file by a worker thread
+ * while the caller keeps adding.  {@link #sorted()} then merges the runs.
+ * If all the tuples fit in a single run, nothing is spilled.
+ * <p>
+ * At most threads runs are being sorted at a time, so about (threads + 1)
+ * runs of tuples are in memory at once.
+ *
+ * @see BTreeFileEncoder
+ */
+public class ExternalSorter implements Closeable {
+
+    /** The number of tuples in a run, by default. */
+    public static final int DEFAULT_RUN_TUPLES = 1 << 18;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int runTuples;
+    private final int threads;
+    private final ExecutorService pool;
+
+    private List<Tuple> current = new ArrayList<>();
+    private final List<Future<File>> runs = new ArrayList<>();
+    private final List<File> runFiles = new ArrayList<>();
+
+    /**
+     * @param td the schema of the tuples to sort
+     * @param comparator the order to sort them in
+     * @param runTuples the number of tuples sorted in memory at a time
+     * @param threads the number of runs sorted at the same time
+     */
+    public ExternalSorter(TupleDesc td, Comparator<Tuple> comparator, int runTuples, int threads) {
+        if (runTuples < 1 || threads < 1) {
+            throw new IllegalArgumentException("runs and threads must be positive");
+        }
+        this.td = td;
+        this.comparator = comparator;
+        this.runTuples = runTuples;
+        this.threads = threads;
+        this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    /** Add a tuple to the tuples to sort. */
+    public void add(Tuple t) throws IOException {
+        current.add(t);
+        if (current.size() == runTuples) {
+            spill();
+        }
+    }
+
+    // 把当前的 run 交给工作线程排序写盘；正在排序的 run 太多时先等最早的那个
+    private void spill() throws IOException {
+        final List<Tuple> run = current;
+        current = new ArrayList<>();
+        int pending = 0;
+        for (Future<File> f : runs) {
+            if (!f.isDone()) {
+                pending++;
+            }
+        }
+        if (pending >= threads) {
+            for (Future<File> f : runs) {
+                if (!f.isDone()) {
+                    await(f);
+                    break;
+                }
+            }
+        }
+        runs.add(pool.submit(() -> writeRun(run)));
+    }
+
+    private File writeRun(List<Tuple> run) throws IOException {
+        run.sort(comparator);
+        File f = File.createTempFile("sortrun", ".tmp");
+        f.deleteOnExit();
+        synchronized (runFiles) {
+            runFiles.add(f);
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f), 1 << 16))) {
+            out.writeInt(run.size());
+            for (Tuple t : run) {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.getField(i).serialize(out);
+                }
+            }
+        }
+        return f;
+    }
+
+    /**
+     * @return the tuples added so far, in order.  Tuples that compare equal
+     *         come out in the order they were added.
+     */
+    public Iterator<Tuple> sorted() throws IOException {
+        if (runs.isEmpty()) {
+            current.sort(comparator);
+            return current.iterator();
+        }
+        if (!current.isEmpty()) {
+            spill();
+        }
+        List<RunReader> readers = new ArrayList<>();
+        for (Future<File> f : runs) {
+            readers.add(new RunReader(await(f)));
+        }
+        return new MergeIterator(readers);
+    }
+
+    /** Delete the temporary files and stop the worker threads. */
+    public void close() {
+        pool.shutdownNow();
+        synchronized (runFiles) {
+            for (File f : runFiles) {
+                f.delete();
+            }
+        }
+    }
+
+    private static File await(Future<File> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("sort interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("sort worker failed", e.getCause());
+        }
+    }
+
+    // 顺序读一个已经排好序的 run
+    private class RunReader {
+        private final DataInputStream in;
+        private int remaining;
+        Tuple head;
+
+        RunReader(File f) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+            remaining = in.readInt();
+            advance();
+        }
+
+        void advance() throws IOException {
+            if (remaining == 0) {
+                head = null;
+                in.close();
+                return;
+            }
+            remaining--;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    Field field = td.getFieldType(i).parse(in);
+                    t.setField(i, field);
+                }
+            } catch (ParseException e) {
+                throw new IOException("corrupt sort run", e);
+            }
+            head = t;
+        }
+    }
+
+    // k 路归并；比较相等时按 run 的先后，和 add 的顺序一致
+    private class MergeIterator implements Iterator<Tuple> {
+        private final PriorityQueue<Integer> heap;
+        private final List<RunReader> readers;
+
+        MergeIterator(List<RunReader> readers) {
+            this.readers = readers;
+            this.heap = new PriorityQueue<>(Math.max(1, readers.size()), (a, b) -> {
+                int c = comparator.compare(readers.get(a).head, readers.get(b).head);
+                return c != 0 ? c : Integer.compare(a, b);
+            });
+            for (int i = 0; i < readers.size(); i++) {
+                if (readers.get(i).head != null) {
+                    heap.add(i);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        public Tuple next() {
+            if (heap.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            int i = heap.poll();
+            RunReader r = readers.get(i);
+            Tuple t = r.head;
+            try {
+                r.advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (r.head != null) {
+                heap.add(i);
+            }
+            return t;
+        }
+    }
+}
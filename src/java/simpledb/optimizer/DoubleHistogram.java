@@ -0,0 +1,130 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+/**
+ * A class to represent a fixed-width histogram over a single LONG_TYPE,
+ * DOUBLE_TYPE or TIMESTAMP_TYPE field.  Values are bucketed as doubles,
+ * which is exact for longs up to 2^53 and close enough beyond that for an
+ * estimate.  Like {@link IntHistogram}, values are assumed to be spread
+ * evenly over whole numbers inside a bucket, so an equality predicate on a
+ * bucket of width w matches 1/w of it (all of it if w is less than one).
+ */
+public class DoubleHistogram {
+
+    private final int buckets;
+    private final double min;
+    private final double max;
+    private final double width;       // 每个桶覆盖的区间长度
+    private final int[] bucketCounts; // 每个桶中的值的数量
+    private int totalCount;           // 所有值的总数
+
+    /**
+     * Create a new DoubleHistogram.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     * @param min The minimum value that will ever be passed to this class for histogramming
+     * @param max The maximum value that will ever be passed to this class for histogramming
+     */
+    public DoubleHistogram(int buckets, double min, double max) {
+        this.buckets = buckets;
+        this.min = min;
+        this.max = max;
+        // 只有一个值时给一个宽度为 1 的桶，和 IntHistogram 的整数桶一致
+        this.width = max > min ? (max - min) / buckets : 1;
+        this.bucketCounts = new int[buckets];
+    }
+
+    private int bucketOf(double v) {
+        int b = (int) ((v - min) / width);
+        return Math.min(Math.max(b, 0), buckets - 1);
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(double v) {
+        if (v < min || v > max) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        bucketCounts[bucketOf(v)]++;
+        totalCount++;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value, in [0, 1]
+     */
+    public double estimateSelectivity(Predicate.Op op, double v) {
+        if (totalCount == 0) {
+            return 0.0;
+        }
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return equals(v);
+            case NOT_EQUALS:
+                return 1.0 - equals(v);
+            case GREATER_THAN:
+                return greaterThan(v);
+            case GREATER_THAN_OR_EQ:
+                return Math.min(1.0, greaterThan(v) + equals(v));
+            case LESS_THAN:
+                return Math.max(0.0, 1.0 - greaterThan(v) - equals(v));
+            case LESS_THAN_OR_EQ:
+                return Math.max(0.0, 1.0 - greaterThan(v));
+            default:
+                return -1.0;
+        }
+    }
+
+    private double equals(double v) {
+        if (v < min || v > max) {
+            return 0.0;
+        }
+        double freq = (double) bucketCounts[bucketOf(v)] / totalCount;
+        return freq / Math.max(1.0, width);
+    }
+
+    // P(X > v)：当前桶按 v 右边所占的比例算，再加上右边所有的桶；不含等于 v 的那一份
+    private double greaterThan(double v) {
+        if (v < min) {
+            return 1.0;
+        }
+        if (v >= max) {
+            return 0.0;
+        }
+        int b = bucketOf(v);
+        double right = min + (b + 1) * width;
+        double part = (double) bucketCounts[b] / totalCount * Math.max(0.0, right - v) / width;
+        part = Math.max(0.0, part - equals(v));
+        for (int i = b + 1; i < buckets; i++) {
+            part += (double) bucketCounts[i] / totalCount;
+        }
+        return Math.min(1.0, part);
+    }
+
+    /**
+     * @return the average selectivity of this histogram.
+     */
+    public double avgSelectivity() {
+        return 1.0 / buckets;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("DoubleHistogram (total tuples = ").append(totalCount).append(")\n");
+        for (int i = 0; i < buckets; i++) {
+            sb.append(String.format("Bucket %2d: [%s - %s) count=%4d\n",
+                    i, min + i * width, min + (i + 1) * width, bucketCounts[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -41,6 +41,7 @@ public class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private int scanWorkers = 1; // 大于 1 时大表用 ParallelSeqScan 扫
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -71,6 +72,53 @@ public class LogicalPlan {
         return query;
     }
 
+    /** Scan tables of at least two morsels with a {@link ParallelSeqScan}
+        of the given number of worker threads; 1 (the default) scans every
+        table serially.  Scans under the inner side of a nested-loop
+        {@link Join}, which is rewound once per outer tuple, stay serial.
+
+        @param workers the number of worker threads per scan
+    */
+    public void setScanWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive");
+        }
+        this.scanWorkers = workers;
+    }
+
+    // 堆表或分区表够大、又允许并行时才并行扫；小表起线程不划算
+    private SeqScan newScan(TransactionId t, DbFile file, String alias) {
+        int pages = file instanceof HeapFile ? ((HeapFile) file).numPages()
+                : file instanceof PartitionedFile ? ((PartitionedFile) file).numPages() : 0;
+        if (scanWorkers > 1 && pages >= 2 * ParallelSeqScan.MORSEL_PAGES) {
+            return new ParallelSeqScan(t, file.getId(), alias, scanWorkers);
+        }
+        return new SeqScan(t, file.getId(), alias);
+    }
+
+    // 把 plan 里的 ParallelSeqScan 都换成串行的 SeqScan
+    private static OpIterator serialScans(OpIterator plan) {
+        if (plan instanceof ParallelSeqScan) {
+            return ((ParallelSeqScan) plan).toSerial();
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            boolean changed = false;
+            for (int i = 0; i < children.length; i++) {
+                OpIterator c = children[i] == null ? null : serialScans(children[i]);
+                if (c != children[i]) {
+                    children[i] = c;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                op.setChildren(children);
+            }
+        }
+        return plan;
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDatabaseFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -294,19 +342,23 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,SeqScan> scanMap = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 ss = newScan(t, Database.getCatalog().getDatabaseFile(table.t), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
+            scanMap.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
-            statsMap.put(baseTableName, baseTableStats.get(baseTableName));
+            // 没有统计的表（还没打开过）在这里才算
+            TableStats stats = baseTableStats.get(baseTableName);
+            statsMap.put(baseTableName, stats != null ? stats : TableStats.getTableStats(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
         }
@@ -326,10 +378,11 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                f = ftyp.parse(lf.c);
+            } catch (IllegalArgumentException e) {
+                throw new ParsingException("Bad constant " + lf.c + " for field " + lf.fieldQuantifiedName);
+            }
 
             Predicate p = null;
             try {
@@ -338,6 +391,11 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // 每个条件都交给底下的扫描，分区表据此跳过不可能匹配的分区
+            SeqScan scan = scanMap.get(lf.tableAlias);
+            if (scan != null) {
+                scan.prunePartitions(p);
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -384,6 +442,13 @@ public class LogicalPlan {
 
             OpIterator j;
             j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            // 嵌套循环连接每读一行外表就 rewind 一次内表，内表并行扫只会反复起停 worker
+            if (j instanceof Join) {
+                OpIterator inner = serialScans(plan2);
+                if (inner != plan2) {
+                    ((Join) j).setChildren(new OpIterator[] { plan1, inner });
+                }
+            }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -417,14 +482,14 @@ public class LogicalPlan {
             if (si.aggOp != null) {
                 outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
+                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                //the type of aggregates over INT and STRING fields is INT
+                outTypes.add(Aggregate.resultType(getAggOp(si.aggOp), td.getFieldType(id)));
 
             } else if (hasAgg) {
                     if (groupByField == null) {
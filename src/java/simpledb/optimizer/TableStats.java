@@ -13,6 +13,7 @@ import simpledb.transaction.TransactionId;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -28,8 +29,29 @@ public class TableStats {
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /**
+     * @return the statistics of the table, computed the first time they are
+     *         asked for, or null if there is no such table
+     */
     public static TableStats getTableStats(String tablename) {
-        return statsMap.get(tablename);
+        TableStats s = statsMap.get(tablename);
+        if (s != null) {
+            return s;
+        }
+        int tableid;
+        try {
+            tableid = Database.getCatalog().getTableId(tablename);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        try {
+            s = new TableStats(tableid, IOCOSTPERPAGE);
+        } catch (TransactionAbortedException | DbException e) {
+            e.printStackTrace();
+            return null;
+        }
+        TableStats prev = statsMap.putIfAbsent(tablename, s);
+        return prev != null ? prev : s;
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
@@ -89,6 +111,7 @@ public class TableStats {
     // 每列的直方图（按下标存）
     private final Map<Integer, IntHistogram> intHists = new HashMap<>();
     private final Map<Integer, StringHistogram> stringHists = new HashMap<>();
+    private final Map<Integer, DoubleHistogram> doubleHists = new HashMap<>(); // LONG/DOUBLE/TIMESTAMP 列
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
@@ -113,13 +136,16 @@ public class TableStats {
         this.ioCostPerPage = ioCostPerPage;
         this.file = Database.getCatalog().getDatabaseFile(tableid);
         this.td = file.getTupleDesc();
-        this.numPages = ((HeapFile) this.file).numPages();
+        this.numPages = file instanceof PartitionedFile
+                ? ((PartitionedFile) file).numPages() : ((HeapFile) file).numPages();
         this.totalTuples = 0;
 
         // 1. 先遍历一遍，拿到每个 int 列的 min/max
         int[] mins = new int[td.numFields()];
         int[] maxs = new int[td.numFields()];
         boolean[] seen = new boolean[td.numFields()]; // seen[i]：是否已经初始化过第 i 列的 min/max
+        double[] wideMins = new double[td.numFields()]; // 8 字节类型的列按 double 统计
+        double[] wideMaxs = new double[td.numFields()];
 
         // 创建一个事务 ID，表扫描需要事务上下文
         TransactionId tid = new TransactionId();
@@ -138,7 +164,7 @@ public class TableStats {
 
                 for (int i = 0; i < td.numFields(); i++) {
                     if (td.getFieldType(i) == Type.INT_TYPE) {
-                        int v = ((IntField)t.getField(i)).getValue();
+                        int v = t.getInt(i);
                         if (!seen[i]) {
                             mins[i] = v;
                             maxs[i] = v;
@@ -147,6 +173,16 @@ public class TableStats {
                             if (v < mins[i]) mins[i] = v;
                             if (v > maxs[i]) maxs[i] = v;
                         }
+                    } else if (td.getFieldType(i).isWide()) {
+                        double v = wideValue(t, i);
+                        if (!seen[i]) {
+                            wideMins[i] = v;
+                            wideMaxs[i] = v;
+                            seen[i] = true;
+                        } else {
+                            if (v < wideMins[i]) wideMins[i] = v;
+                            if (v > wideMaxs[i]) wideMaxs[i] = v;
+                        }
                     }
                 }
             }
@@ -160,9 +196,14 @@ public class TableStats {
                     } else {
                         intHists.put(i, new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i]));
                     }
-                } else {
+                } else if (td.getFieldType(i).isWide()) {
+                    doubleHists.put(i, seen[i]
+                            ? new DoubleHistogram(NUM_HIST_BINS, wideMins[i], wideMaxs[i])
+                            : new DoubleHistogram(NUM_HIST_BINS, 0, 0));
+                } else if (td.getFieldType(i) == Type.STRING_TYPE) {
                     stringHists.put(i, new StringHistogram(NUM_HIST_BINS));
                 }
+                // TEXT 列不建直方图（选择率按 1.0 估），统计时不去读溢出页
             }
 
             // 3. 回到起点再遍历一次，将值灌入直方图
@@ -173,9 +214,11 @@ public class TableStats {
                     if (td.getFieldType(i) == Type.INT_TYPE) {
                         IntHistogram hist = intHists.get(i);
                         if (hist != null) {
-                            int v = ((IntField)t.getField(i)).getValue();
+                            int v = t.getInt(i);
                             hist.addValue(v);
                         }
+                    } else if (td.getFieldType(i).isWide()) {
+                        doubleHists.get(i).addValue(wideValue(t, i));
                     } else {
                         StringHistogram hist = stringHists.get(i);
                         if (hist != null) {
@@ -189,6 +232,13 @@ public class TableStats {
             try { it.close(); } catch (Exception ignored) {}
         }
 
+        // 表的大小记进目录，作为统计快照随目录文件保存
+        Database.getCatalog().recordStatistics(tableid, numPages, totalTuples);
+    }
+
+    // 8 字节类型的值按 double 放进直方图
+    private static double wideValue(Tuple t, int i) {
+        return t.getTupleDesc().getFieldType(i) == Type.DOUBLE_TYPE ? t.getDouble(i) : t.getLong(i);
     }
 
     /**
@@ -257,6 +307,11 @@ public class TableStats {
                 // 直接调用 IntHistogram 的方法
                 return hist.avgSelectivity();
             }
+        } else if (td.getFieldType(field).isWide()) {
+            DoubleHistogram hist = doubleHists.get(field);
+            if (hist != null) {
+                return hist.avgSelectivity();
+            }
         } else {
             StringHistogram hist = stringHists.get(field);
             if (hist != null) {
@@ -296,6 +351,13 @@ public class TableStats {
                 // 直接调用 IntHistogram 的方法
                 return hist.estimateSelectivity(op, v);
             }
+        } else if (td.getFieldType(field).isWide() && constant.getType() == td.getFieldType(field)) {
+            DoubleHistogram hist = doubleHists.get(field);
+            if (hist != null) {
+                double v = constant instanceof DoubleField
+                        ? ((DoubleField) constant).getValue() : ((LongField) constant).getValue();
+                return hist.estimateSelectivity(op, v);
+            }
         } else if (td.getFieldType(field) == Type.STRING_TYPE && constant.getType() == Type.STRING_TYPE) {
             StringHistogram hist = stringHists.get(field);
             if (hist != null) {
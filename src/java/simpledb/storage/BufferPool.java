@@ -10,8 +10,15 @@ import simpledb.transaction.TransactionId;
 import java.io.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -22,6 +29,12 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Tables may have pages of different sizes (see
+ * {@link HeapFile#getPageSize()}), so the pool is sized in bytes: a pool of
+ * numPages pages holds numPages pages of {@link #getPageSize()} bytes, or
+ * fewer larger ones.  Cached pages are counted per size class, and a page
+ * that does not fit evicts pages until it does.
  * 
  * @Threadsafe, all fields are final
  */
@@ -31,10 +44,15 @@ public class BufferPool {
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
 
-    private final int maxPages;
+    private final long capacityBytes;
 
     private final LinkedHashMap<PageId, Page> pageCache;
 
+    // 每个缓存页占的字节数，和按页大小（size class）统计的页数
+    private final Map<PageId, Integer> frameBytes = new HashMap<>();
+    private final Map<Integer, Integer> framesBySize = new TreeMap<>();
+    private long usedBytes = 0;
+
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
@@ -42,15 +60,64 @@ public class BufferPool {
 
     private final LockerManager lockerManager = new LockerManager();
 
+    // 脏页表：PageId -> recLSN（该页自上次刷盘后第一次变脏时的日志 LSN），
+    // 供 fuzzy checkpoint 记录，恢复时从最小的 recLSN 开始 REDO
+    private final Map<PageId, Long> dirtyPageTable = new ConcurrentHashMap<>();
+
+    // 还在替某个事务读页的后台线程（并行扫描的 worker），事务结束前要叫停
+    private final Map<TransactionId, Set<Runnable>> workers = new ConcurrentHashMap<>();
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        this.maxPages = numPages;
+        this.capacityBytes = (long) numPages * getPageSize();
         pageCache = new LinkedHashMap<>(16, 0.75f, true);
     }
+
+    /** @return the number of bytes of pages this pool holds at most */
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /** @return the number of bytes of pages cached right now */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return the number of pages cached right now for each page size, in
+     *         increasing order of page size
+     */
+    public synchronized Map<Integer, Integer> getFrameCounts() {
+        return new TreeMap<>(framesBySize);
+    }
+
+    // 页大小由所在的表决定；不是 HeapFile 的表（比如 B+ 树）用默认页大小
+    private static int frameSize(PageId pid) {
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        return f instanceof HeapFile ? ((HeapFile) f).getPageSize() : getPageSize();
+    }
+
+    // 放进缓存并记账；同一页的新版本替换旧版本，不重复记
+    private synchronized void cachePage(PageId pid, Page page) {
+        if (pageCache.put(pid, page) == null) {
+            int size = frameSize(pid);
+            frameBytes.put(pid, size);
+            framesBySize.merge(size, 1, Integer::sum);
+            usedBytes += size;
+        }
+    }
+
+    private synchronized void uncachePage(PageId pid) {
+        if (pageCache.remove(pid) != null) {
+            int size = frameBytes.remove(pid);
+            framesBySize.merge(size, -1, (a, b) -> a + b == 0 ? null : a + b);
+            usedBytes -= size;
+        }
+    }
     
     public static int getPageSize() {
       return pageSize;
@@ -93,27 +160,87 @@ public class BufferPool {
 
 
         // If the page is already cached, return it.
-        if (pageCache.containsKey(pid)) {
-            return pageCache.get(pid);
+        // pageCache 按访问顺序排，get 也会改它，所以要在锁里查
+        Page cached = cachedPage(pid);
+        if (cached != null) {
+            return cached;
         }
 
-        // If the buffer pool is full (i.e. number of pages equals maxPages),
-        // throw an exception because no eviction policy is implemented for this lab.
-        if (pageCache.size() >= maxPages) {
-            evictPage();
-        }
+        // 放不下这一页（按字节算）就先驱逐，读盘时别的线程可能又占了地方，放进去前还会再查一次
+        makeRoom(frameSize(pid));
 
         // Load the page from disk.
         // Retrieve the DbFile that contains the requested page using the tableId from pid.
+        // 读盘不占着 BufferPool 的锁，并行扫描的多个线程可以同时读不同的页
         DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
         Page page = dbfile.readPage(pid);
 
         // Cache the newly loaded page.
-        pageCache.put(pid, page);
+        return cacheIfAbsent(pid, page);
+    }
+
+    private synchronized Page cachedPage(PageId pid) {
+        return pageCache.get(pid);
+    }
 
+    private synchronized void makeRoom(int size) throws DbException {
+        while (usedBytes + size > capacityBytes && !pageCache.isEmpty()) {
+            evictPage();
+        }
+    }
+
+    // 读盘期间别的线程可能已经把这页放进来了（它也许已被改脏），那就用缓存里的那份；
+    // 也可能放进了别的页，所以在同一个监视器里重新腾地方再放
+    private synchronized Page cacheIfAbsent(PageId pid, Page page) throws DbException {
+        Page cached = pageCache.get(pid);
+        if (cached != null) {
+            return cached;
+        }
+        makeRoom(frameSize(pid));
+        cachePage(pid, page);
         return page;
     }
 
+    /**
+     * Acquire a lock on the specified page without reading it into the
+     * buffer pool, for pages that are written around the buffer pool (see
+     * {@link BulkLoader}).  Any cached copy of the page is dropped.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     */
+    void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        try {
+            lockerManager.acquire(tid, pid, perm);
+        } catch (InterruptedException e) {
+            throw new TransactionAbortedException();
+        }
+        discardPage(pid);
+    }
+
+    /**
+     * Acquire a lock on a whole table.  Every transaction that reads or
+     * modifies a heap file holds a shared lock on it (see
+     * {@link HeapFile#lockTable}), so an exclusive lock waits until no
+     * other transaction uses the table; dropping a table takes one.  The
+     * lock is held until the transaction completes.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     */
+    void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException {
+        // 表锁记在这张表的 -1 号“页”上，和页锁走同一个锁管理器（同一张等待图）
+        try {
+            lockerManager.acquire(tid, new HeapPageId(tableId, -1), perm);
+        } catch (InterruptedException e) {
+            throw new TransactionAbortedException();
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -157,31 +284,27 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        // 不能拿着 this 叫停：worker 取页时也要进这个监视器
+        stopWorkers(tid);
         synchronized (this){
             try{
-                for (PageId pid : new ArrayList<>(pageCache.keySet())) {
-                    Page page = pageCache.get(pid);
-                    TransactionId dirtier = page.isDirty();
-
-                    // 只处理“本事务修改过”的页
-                    if (dirtier != null && dirtier.equals(tid)) {
-                        if (commit){
-                            // 提交：写回磁盘
-                            flushPage(pid);
-                            // 标记干净，不需要，flushPage里已经实现
-                            // page.markDirty(false, null);
-
-                            // use current page contents as the before-image
-                            // for the next transaction that modifies this page.
-                            page.setBeforeImage();
-                        } else {
-                            // 回滚：换成旧版本
-                            Page beforeImage = page.getBeforeImage();
-                            pageCache.put(pid, beforeImage);
-                        }
+                // 只处理“本事务修改过”的页
+                List<PageId> dirtied = pagesDirtiedBy(tid);
+                if (commit) {
+                    // 提交：整批写回磁盘，日志只 force 一次；每张表的 FSM 和 zone map 也只写一次
+                    flushMaps(flushPages(dirtied));
+                    for (PageId pid : dirtied) {
+                        // use current page contents as the before-image
+                        // for the next transaction that modifies this page.
+                        pageCache.get(pid).setBeforeImage();
+                    }
+                } else {
+                    for (PageId pid : dirtied) {
+                        // 回滚：换成旧版本
+                        Page beforeImage = pageCache.get(pid).getBeforeImage();
+                        cachePage(pid, beforeImage);
+                        dirtyPageTable.remove(pid);
                     }
-
-
                 }
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -193,6 +316,43 @@ public class BufferPool {
 
     }
 
+    /**
+     * Registers threads that read pages on behalf of tid in the background,
+     * such as the workers of a parallel scan.  Before tid completes, stop
+     * is run; it must stop those threads and wait for them, so that no page
+     * is read or locked for tid after its locks are released.
+     */
+    public void registerWorkers(TransactionId tid, Runnable stop) {
+        workers.compute(tid, (k, s) -> {
+            if (s == null) {
+                s = ConcurrentHashMap.newKeySet();
+            }
+            s.add(stop);
+            return s;
+        });
+    }
+
+    /** Unregisters workers registered with {@link #registerWorkers}, once they have stopped. */
+    public void unregisterWorkers(TransactionId tid, Runnable stop) {
+        workers.computeIfPresent(tid, (k, s) -> {
+            s.remove(stop);
+            return s.isEmpty() ? null : s;
+        });
+    }
+
+    /**
+     * Stops the background workers registered for tid.  Called when tid
+     * completes, before anything is rolled back or unlocked.
+     */
+    public void stopWorkers(TransactionId tid) {
+        Set<Runnable> stops = workers.remove(tid);
+        if (stops != null) {
+            for (Runnable stop : stops) {
+                stop.run();
+            }
+        }
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other 
@@ -220,7 +380,8 @@ public class BufferPool {
         // 3. 标脏 + 更新缓存（让后续访问看到最新版本）
         for (Page p : dirtyPages) {
             p.markDirty(true, tid);
-            pageCache.put(p.getId(), p); // 覆盖旧版本（若已有）
+            noteDirty(p.getId());
+            cachePage(p.getId(), p); // 覆盖旧版本（若已有）
        }
     }
 
@@ -250,7 +411,8 @@ public class BufferPool {
         // 3) 标脏 + 更新缓存
         for (Page p : dirtyPages) {
             p.markDirty(true, tid);
-            pageCache.put(p.getId(), p);
+            noteDirty(p.getId());
+            cachePage(p.getId(), p);
         }
     }
 
@@ -265,10 +427,26 @@ public class BufferPool {
         // 注意：LinkedHashMap 是 access-order 的，flushPage 中的 get() 会触发重排，
         // 直接遍历 keySet() 会导致 ConcurrentModificationException。
         // 解决：对 keys 做一份快照再遍历。
-        for (PageId pid : new ArrayList<>(pageCache.keySet())) {
-            flushPage(pid);
-        }
+        flushMaps(flushPages(new ArrayList<>(pageCache.keySet())));
+
+    }
 
+    /**
+     * Write the side maps of the given heap files, after their pages were
+     * written.  Tables that were dropped in the meantime are skipped.
+     */
+    private void flushMaps(Set<Integer> tableIds) throws IOException {
+        for (int tableId : tableIds) {
+            DbFile file;
+            try {
+                file = Database.getCatalog().getDatabaseFile(tableId);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).flushMaps();
+            }
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -282,7 +460,41 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pageCache.remove(pid);
+        uncachePage(pid);
+        dirtyPageTable.remove(pid);
+    }
+
+    /**
+     * Remove all pages of the table from the buffer pool, dirty or not.
+     * Used when a table's file is deleted, so that its pages are never
+     * written back.
+     */
+    public synchronized void discardPages(int tableId) {
+        for (PageId pid : new ArrayList<>(pageCache.keySet())) {
+            if (pid.getTableId() == tableId) {
+                discardPage(pid);
+            }
+        }
+    }
+
+    /**
+     * Record pid in the dirty page table with the current log LSN as its
+     * recLSN, unless it is already there.
+     */
+    private void noteDirty(PageId pid) {
+        if (!dirtyPageTable.containsKey(pid)) {
+            dirtyPageTable.putIfAbsent(pid, Database.getLogFile().getCurrentLsn());
+        }
+    }
+
+    /**
+     * Returns a snapshot of the dirty page table, mapping every page that
+     * has been dirtied since it was last written to disk to its recLSN.
+     * Does not lock the buffer pool, so it is safe to call from a fuzzy
+     * checkpoint.
+     */
+    public Map<PageId, Long> getDirtyPageTable() {
+        return new HashMap<>(dirtyPageTable);
     }
 
     /**
@@ -292,25 +504,56 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page page = pageCache.get(pid);
-        if (page == null) {
-            return; // Page not in cache, nothing to flush
-        }
-        if (page.isDirty() != null) {
-            // Get the DbFile that contains this page
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            // append an update record to the log, with
-            // a before-image and after-image.
-            TransactionId dirtier = page.isDirty();
-            if (dirtier != null){
-                Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
-                Database.getLogFile().force();
+        flushPages(Collections.singletonList(pid));
+    }
+
+    /**
+     * Flushes the given pages to disk, skipping the ones that are clean or
+     * not cached.  The update records of all of them are appended first and
+     * the log is forced once, before any page is written, so a transaction
+     * that dirtied many pages waits for one log force instead of one per
+     * page.
+     *
+     * @return the ids of the tables whose pages were written
+     */
+    private synchronized Set<Integer> flushPages(List<PageId> pids) throws IOException {
+        List<Page> dirty = new ArrayList<>();
+        for (PageId pid : pids) {
+            Page page = pageCache.get(pid);
+            if (page != null && page.isDirty() != null) {
+                // append an update record to the log, with
+                // a before-image and after-image.
+                Database.getLogFile().logWrite(page.isDirty(), page);
+                dirty.add(page);
             }
+        }
+        Set<Integer> tables = new HashSet<>();
+        if (dirty.isEmpty()) {
+            return tables;
+        }
+        // 先 force 日志（WAL），再写数据页
+        Database.getLogFile().force();
+        for (Page page : dirty) {
+            PageId pid = page.getId();
             // 写回磁盘
-            dbFile.writePage(page);
-            // // 清除脏标记
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            // 清除脏标记
             page.markDirty(false, null);
+            dirtyPageTable.remove(pid);
+            tables.add(pid.getTableId());
+        }
+        return tables;
+    }
+
+    // 被 tid 改脏的页
+    private List<PageId> pagesDirtiedBy(TransactionId tid) {
+        List<PageId> dirtied = new ArrayList<>();
+        for (Map.Entry<PageId, Page> e : pageCache.entrySet()) {
+            if (tid.equals(e.getValue().isDirty())) {
+                dirtied.add(e.getKey());
+            }
         }
+        return dirtied;
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -318,6 +561,7 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        flushMaps(flushPages(pagesDirtiedBy(tid)));
     }
 
     /**
@@ -347,7 +591,7 @@ public class BufferPool {
         // 有干净页：直接驱逐
         if (victimPid != null) {
             // 从缓存中移除
-            pageCache.remove(victimPid);
+            uncachePage(victimPid);
             return;
         }
 
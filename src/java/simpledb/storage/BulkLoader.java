@@ -0,0 +1,196 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * BulkLoader appends a large number of tuples to a HeapFile much faster
+ * than inserting them one at a time.  Tuples are packed into full pages in
+ * memory, and each batch of pages is written to new pages at the end of
+ * the file in one sequential write, around the buffer pool.
+ * <p>
+ * Instead of an UPDATE record with two page images per page, each batch is
+ * logged with one BULK_LOAD record naming its page range (see
+ * {@link LogFile#logBulkLoad}).  The pages are forced to disk before the
+ * loading transaction commits, so recovery never has to redo them; if the
+ * transaction aborts or the system crashes before it commits, the range is
+ * written back as empty pages.  The new pages are write-locked until the
+ * transaction completes, so other transactions do not see the tuples
+ * before then.
+ * <p>
+ * Tuples never go through the free-space search of
+ * {@link HeapFile#insertTuple}, so free slots in existing pages are left
+ * for ordinary inserts.
+ *
+ * @see HeapFile
+ */
+public class BulkLoader {
+
+    /** The number of pages written and logged at a time, by default. */
+    public static final int DEFAULT_BATCH_PAGES = 64;
+
+    private final HeapFile file;
+    private int batchPages = DEFAULT_BATCH_PAGES;
+
+    private long rowsLoaded = 0;
+    private long pagesWritten = 0;
+    private long loadNanos = 0;
+
+    public BulkLoader(HeapFile file) {
+        this.file = file;
+    }
+
+    /** Sets the number of pages written and logged at a time. */
+    public void setBatchPages(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("batch must be at least one page");
+        }
+        batchPages = pages;
+    }
+
+    /**
+     * Append tuples to the file on behalf of tid.  The caller commits or
+     * aborts tid through {@link simpledb.transaction.Transaction}, so that
+     * an abort empties the loaded pages again.
+     *
+     * @return the number of tuples loaded
+     */
+    public long load(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        long start = System.nanoTime();
+        long rows = 0;
+        try {
+            List<HeapPage> batch = new ArrayList<>();
+            HeapPage page = newPage();
+            boolean pageEmpty = true;
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                try {
+                    page.insertTuple(t);
+                } catch (DbException e) {
+                    // 页满了：放进这一批，批满了就写出去
+                    batch.add(page);
+                    if (batch.size() == batchPages) {
+                        writeBatch(tid, batch);
+                        batch.clear();
+                    }
+                    page = newPage();
+                    page.insertTuple(t);
+                }
+                pageEmpty = false;
+                rows++;
+            }
+            if (!pageEmpty) {
+                batch.add(page);
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(tid, batch);
+            }
+            return rows;
+        } finally {
+            rowsLoaded += rows;
+            loadNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Append the rows of a text file to the file on behalf of tid, one
+     * tuple per line with fields separated by separator, as
+     * {@link HeapFileEncoder} reads them.  Lines that do not parse are
+     * skipped.
+     *
+     * @return the number of tuples loaded
+     */
+    public long loadFile(TransactionId tid, File source, char separator)
+            throws DbException, IOException, TransactionAbortedException {
+        try (BufferedReader br = new BufferedReader(new FileReader(source))) {
+            return load(tid, new LineIterator(br, separator, file.getTupleDesc()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // 页号在写出之前才分配，先用 0 号页占位；数据里不含页号
+    private HeapPage newPage() throws IOException {
+        return new HeapPage(new HeapPageId(file.getId(), 0), HeapPage.createEmptyPageData(file.getPageSize()),
+                file.getTupleDesc(), file.getLayout(), file.getDictionary(), file.getPageSize(),
+                file.getOverflowFile());
+    }
+
+    private void writeBatch(TransactionId tid, List<HeapPage> batch)
+            throws IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        if (!file.lockTable(tid)) {
+            throw new IOException("table " + file.getId() + " has been dropped");
+        }
+        int first = file.reservePages(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            bp.lockPage(tid, new HeapPageId(file.getId(), first + i), Permissions.READ_WRITE);
+        }
+        // 先把页范围写进日志并落盘，崩溃后恢复才知道要把它们清空
+        Database.getLogFile().logBulkLoad(tid, new HeapPageId(file.getId(), first), batch.size());
+        file.writeLoadedPages(first, batch);
+        pagesWritten += batch.size();
+    }
+
+    /** @return the number of tuples loaded so far */
+    public long getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+    /** @return the number of pages written so far */
+    public long getPagesWritten() {
+        return pagesWritten;
+    }
+
+    /** @return the load rate so far, in tuples per second */
+    public double getRowsPerSecond() {
+        return loadNanos == 0 ? 0 : rowsLoaded * 1e9 / loadNanos;
+    }
+
+    // 按行读文本文件，解析不了的行跳过
+    private static class LineIterator implements Iterator<Tuple> {
+        private final BufferedReader br;
+        private final String sep;
+        private final TupleDesc td;
+        private Tuple next;
+
+        LineIterator(BufferedReader br, char separator, TupleDesc td) {
+            this.br = br;
+            this.sep = java.util.regex.Pattern.quote(String.valueOf(separator));
+            this.td = td;
+        }
+
+        public boolean hasNext() {
+            try {
+                String line;
+                while (next == null && (line = br.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        next = HeapFileEncoder.parseLine(line, sep, td);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next != null;
+        }
+
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+    }
+}
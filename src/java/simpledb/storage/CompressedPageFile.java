@@ -0,0 +1,347 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CompressedPageFile stores fixed-size page images compressed with
+ * {@link PageCodec}, so pages take only as much room on disk (and as much
+ * I/O to read) as their compressed form.
+ * <p>
+ * Compressed pages have different sizes, so a page map in a side file
+ * (<code>&lt;data file&gt;.pmap</code>) records where each page lives:
+ * <pre>
+ *   long magic, int page size, int number of pages
+ *   (long offset, int length, int capacity) per page
+ * </pre>
+ * A length of 0 means the page was never written and is all zeroes.  A
+ * page is rewritten in place when its new image fits in the space it has;
+ * otherwise it is moved to the smallest freed slot that holds it, or to
+ * the end of the data file, and its old slot is freed.  Free slots are not
+ * stored: they are the gaps between the slots in the page map, found again
+ * when the file is opened.  Each stored image is one flag byte (0 raw,
+ * 1 compressed) followed by the page bytes.
+ * <p>
+ * Methods are synchronized; every call opens and closes the files, like
+ * the rest of HeapFile's I/O.
+ *
+ * @see HeapFile
+ */
+public class CompressedPageFile {
+
+    private static final long MAGIC = 0x5344425a50414745L; // "SDBZPAGE"
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 16;
+    // 压缩后的页按这个粒度分配空间，页稍微变大时还能原地重写
+    private static final int ALLOC_UNIT = 64;
+
+    private static final byte RAW = 0;
+    private static final byte LZ = 1;
+
+    private final File dataFile;
+    private final File mapFile;
+    private final int pageSize;
+
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int[] capacities = new int[0];
+    private int numPages = 0;
+    private long dataEnd = 0;
+    private boolean loaded = false;
+    // 页挪走后留下的空槽：长度 -> 这么长的空槽的起始偏移
+    private final TreeMap<Integer, Deque<Long>> freeSlots = new TreeMap<>();
+
+    // 统计：写入时的原始/压缩字节数，读取时的解压次数和耗时
+    private long bytesWritten = 0;
+    private long compressedBytesWritten = 0;
+    private long pagesDecompressed = 0;
+    private long decompressNanos = 0;
+    private long syncs = 0;
+
+    /**
+     * @param dataFile the file the compressed page images are stored in
+     * @param pageSize the size of an uncompressed page
+     */
+    public CompressedPageFile(File dataFile, int pageSize) {
+        this.dataFile = dataFile;
+        this.mapFile = mapFile(dataFile);
+        this.pageSize = pageSize;
+    }
+
+    /** @return the page map file that goes with dataFile */
+    static File mapFile(File dataFile) {
+        return new File(dataFile.getPath() + ".pmap");
+    }
+
+    /** @return the number of pages in the file */
+    public synchronized int numPages() {
+        load();
+        return numPages;
+    }
+
+    /** @return the uncompressed bytes of page pageNo */
+    public synchronized byte[] read(int pageNo) throws IOException {
+        load();
+        if (pageNo < 0 || pageNo >= numPages) {
+            throw new IllegalArgumentException("Requested page number " + pageNo + " exceeds file length.");
+        }
+        if (lengths[pageNo] == 0) {
+            return new byte[pageSize];
+        }
+        byte[] frame = new byte[lengths[pageNo]];
+        try (RandomAccessFile raf = new RandomAccessFile(dataFile, "r")) {
+            raf.seek(offsets[pageNo]);
+            raf.readFully(frame);
+        }
+        if (frame[0] == RAW) {
+            return Arrays.copyOfRange(frame, 1, frame.length);
+        }
+        long start = System.nanoTime();
+        byte[] page = PageCodec.decompress(frame, 1, frame.length - 1, pageSize);
+        decompressNanos += System.nanoTime() - start;
+        pagesDecompressed++;
+        return page;
+    }
+
+    /** Compress data and store it as page pageNo, which must already exist. */
+    public synchronized void write(int pageNo, byte[] data) throws IOException {
+        load();
+        if (pageNo < 0 || pageNo >= numPages) {
+            throw new IllegalArgumentException("Requested page number " + pageNo + " exceeds file length.");
+        }
+        if (data.length != pageSize) {
+            throw new IllegalArgumentException("Page data length does not match page size.");
+        }
+        byte[] compressed = PageCodec.compress(data);
+        byte[] frame;
+        if (compressed.length < data.length) {
+            frame = new byte[compressed.length + 1];
+            frame[0] = LZ;
+            System.arraycopy(compressed, 0, frame, 1, compressed.length);
+        } else {
+            frame = new byte[data.length + 1];
+            frame[0] = RAW;
+            System.arraycopy(data, 0, frame, 1, data.length);
+        }
+        bytesWritten += data.length;
+        compressedBytesWritten += frame.length;
+
+        // 放不下就挪到放得下的最小空槽，没有才追加到末尾；先写数据再改页表
+        if (frame.length > capacities[pageNo]) {
+            long oldOffset = offsets[pageNo];
+            int oldCapacity = capacities[pageNo];
+            int capacity = (frame.length + ALLOC_UNIT - 1) / ALLOC_UNIT * ALLOC_UNIT;
+            Map.Entry<Integer, Deque<Long>> e = freeSlots.ceilingEntry(capacity);
+            if (e != null) {
+                offsets[pageNo] = e.getValue().poll();
+                if (e.getValue().isEmpty()) {
+                    freeSlots.remove(e.getKey());
+                }
+                addFree(offsets[pageNo] + capacity, e.getKey() - capacity);
+            } else {
+                offsets[pageNo] = dataEnd;
+                dataEnd += capacity;
+            }
+            capacities[pageNo] = capacity;
+            addFree(oldOffset, oldCapacity);
+        }
+        lengths[pageNo] = frame.length;
+        try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+            raf.seek(offsets[pageNo]);
+            raf.write(frame);
+        }
+        writeEntry(pageNo);
+    }
+
+    /**
+     * Force the data file and the page map to disk, including what earlier
+     * calls wrote through their own (already closed) file handles.
+     */
+    public synchronized void sync() throws IOException {
+        load();
+        // 先数据后页表：页表指向的数据必须已经落盘
+        for (File f : new File[] { dataFile, mapFile }) {
+            if (f.exists()) {
+                try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                    raf.getFD().sync();
+                }
+            }
+        }
+        syncs++;
+    }
+
+    /** @return the number of times {@link #sync} forced the files to disk */
+    public synchronized long getSyncs() {
+        return syncs;
+    }
+
+    /**
+     * Add an all-zero page at the end of the file.
+     *
+     * @return the number of the new page
+     */
+    public synchronized int appendEmptyPage() throws IOException {
+        load();
+        int pageNo = numPages;
+        ensureCapacity(pageNo + 1);
+        numPages++;
+        writeEntry(pageNo);
+        return pageNo;
+    }
+
+    /**
+     * Drop the pages from n on.  Their space in the data file becomes free
+     * slots, and the file is cut after the last slot still in use.
+     */
+    public synchronized void truncate(int n) throws IOException {
+        load();
+        if (n >= numPages) {
+            return;
+        }
+        numPages = n;
+        long end = 0;
+        for (int i = 0; i < n; i++) {
+            end = Math.max(end, offsets[i] + capacities[i]);
+        }
+        // 页表头里的页数先改，之后才能动数据文件
+        try (RandomAccessFile raf = new RandomAccessFile(mapFile, "rw")) {
+            raf.seek(HEADER_SIZE - 4);
+            raf.writeInt(numPages);
+            raf.setLength(HEADER_SIZE + (long) n * ENTRY_SIZE);
+        }
+        for (int i = n; i < offsets.length; i++) {
+            offsets[i] = 0;
+            lengths[i] = 0;
+            capacities[i] = 0;
+        }
+        if (end < dataEnd) {
+            try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+                raf.setLength(end);
+            }
+            dataEnd = end;
+        }
+        findFreeSlots();
+    }
+
+    /** @return the number of bytes in free slots, not yet reused */
+    public synchronized long freeBytes() {
+        load();
+        long n = 0;
+        for (Map.Entry<Integer, Deque<Long>> e : freeSlots.entrySet()) {
+            n += (long) e.getKey() * e.getValue().size();
+        }
+        return n;
+    }
+
+    /** @return the number of uncompressed bytes written so far */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** @return the number of bytes those pages took on disk */
+    public synchronized long getCompressedBytesWritten() {
+        return compressedBytesWritten;
+    }
+
+    /**
+     * @return uncompressed bytes per stored byte over all page writes so
+     *         far, or 1 if nothing was written
+     */
+    public synchronized double getCompressionRatio() {
+        return compressedBytesWritten == 0 ? 1.0 : (double) bytesWritten / compressedBytesWritten;
+    }
+
+    /** @return the number of pages decompressed by {@link #read} */
+    public synchronized long getPagesDecompressed() {
+        return pagesDecompressed;
+    }
+
+    /** @return the total time spent decompressing pages, in nanoseconds */
+    public synchronized long getDecompressNanos() {
+        return decompressNanos;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > offsets.length) {
+            int cap = Math.max(n, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, cap);
+            lengths = Arrays.copyOf(lengths, cap);
+            capacities = Arrays.copyOf(capacities, cap);
+        }
+    }
+
+    private void addFree(long offset, int length) {
+        if (length > 0) {
+            freeSlots.computeIfAbsent(length, k -> new ArrayDeque<>()).add(offset);
+        }
+    }
+
+    // 按偏移排好所有在用的槽，槽之间的空隙就是空槽
+    private void findFreeSlots() {
+        freeSlots.clear();
+        Integer[] used = new Integer[numPages];
+        int n = 0;
+        for (int i = 0; i < numPages; i++) {
+            if (capacities[i] > 0) {
+                used[n++] = i;
+            }
+        }
+        Arrays.sort(used, 0, n, (a, b) -> Long.compare(offsets[a], offsets[b]));
+        long pos = 0;
+        for (int i = 0; i < n; i++) {
+            addFree(pos, (int) (offsets[used[i]] - pos));
+            pos = Math.max(pos, offsets[used[i]] + capacities[used[i]]);
+        }
+        addFree(pos, (int) (dataEnd - pos));
+    }
+
+    // 只改这一页的页表项，再更新头里的页数
+    private void writeEntry(int pageNo) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(mapFile, "rw")) {
+            raf.seek(HEADER_SIZE + (long) pageNo * ENTRY_SIZE);
+            raf.writeLong(offsets[pageNo]);
+            raf.writeInt(lengths[pageNo]);
+            raf.writeInt(capacities[pageNo]);
+            raf.seek(0);
+            raf.writeLong(MAGIC);
+            raf.writeInt(pageSize);
+            raf.writeInt(numPages);
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        dataEnd = dataFile.length();
+        if (!mapFile.isFile() || mapFile.length() < HEADER_SIZE) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mapFile)))) {
+            if (dis.readLong() != MAGIC) {
+                throw new IllegalStateException(mapFile + " is not a page map");
+            }
+            if (dis.readInt() != pageSize) {
+                throw new IllegalStateException(mapFile + " was written with a different page size");
+            }
+            int n = dis.readInt();
+            ensureCapacity(n);
+            for (int i = 0; i < n; i++) {
+                offsets[i] = dis.readLong();
+                lengths[i] = dis.readInt();
+                capacities[i] = dis.readInt();
+                dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+            }
+            numPages = n;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read page map " + mapFile, e);
+        }
+        findFreeSlots();
+    }
+}
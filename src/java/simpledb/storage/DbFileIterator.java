@@ -30,6 +30,18 @@ public interface DbFileIterator{
     Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Add the next tuples to batch, until it is full or there are no more.
+     * By default this reads them one at a time with {@link #next()};
+     * iterators that can copy fields into the batch directly override it.
+     */
+    default void fillBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        while (!batch.isFull() && hasNext()) {
+            batch.append(next());
+        }
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
@@ -0,0 +1,68 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+/**
+ * A StringField read from a dictionary-encoded column.  It carries the
+ * value's dictionary code, so that comparing it for equality with another
+ * value of the same column (as joins, group-bys and predicates do) is an
+ * int comparison.  Against any other StringField it behaves like a plain
+ * StringField with the same value.
+ *
+ * @see StringDictionary
+ */
+public class DictStringField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient StringDictionary dictionary;
+    private final int field;
+    private final int code;
+
+    /**
+     * @param dictionary the dictionary of the table the value was read from
+     * @param field the index of the column the value was read from
+     * @param code the value's code in that column
+     */
+    public DictStringField(StringDictionary dictionary, int field, int code) {
+        super(dictionary.decode(field, code), Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.field = field;
+        this.code = code;
+    }
+
+    /** @return the dictionary code of this value */
+    public int getCode() {
+        return code;
+    }
+
+    /** @return true if this value's code is a code of field in dictionary */
+    public boolean isCodeOf(StringDictionary dictionary, int field) {
+        return dictionary != null && this.dictionary == dictionary && this.field == field;
+    }
+
+    // 同一字典同一列的两个值，编码相同当且仅当字符串相同
+    private boolean sameColumn(Object o) {
+        return o instanceof DictStringField && ((DictStringField) o).isCodeOf(dictionary, field);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (sameColumn(o)) {
+            return code == ((DictStringField) o).code;
+        }
+        return super.equals(o);
+    }
+
+    // hashCode 沿用 StringField 的（字符串的哈希），和普通 StringField 相等时哈希也要一样；
+    // 同一编码的值共用字典里的同一个 String，哈希只算一次
+
+    @Override
+    public boolean compare(Predicate.Op op, Field val) {
+        if ((op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS) && sameColumn(val)) {
+            return (code == ((DictStringField) val).code) == (op == Predicate.Op.EQUALS);
+        }
+        return super.compare(op, val);
+    }
+}
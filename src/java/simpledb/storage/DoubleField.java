@@ -0,0 +1,96 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+import simpledb.common.Type;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single double.  Values are ordered and
+ * compared for equality as by {@link Double#compare}, so NaN equals
+ * itself and is greater than every other value.
+ */
+public class DoubleField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double value;
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param d The value of this field.
+     */
+    public DoubleField(double d) {
+        value = d;
+    }
+
+    public String toString() {
+        return Double.toString(value);
+    }
+
+    public int hashCode() {
+        return Double.hashCode(value);
+    }
+
+    public boolean equals(Object field) {
+        if (!(field instanceof DoubleField)) return false;
+        return Double.compare(((DoubleField) field).value, value) == 0;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeDouble(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DoubleField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        DoubleField dVal = (DoubleField) val;
+
+        return compare(op, value, dVal.value);
+    }
+
+    /**
+     * Compare two double values with op, with the semantics of compare
+     * above, for callers that hold the values unboxed.
+     */
+    public static boolean compare(Predicate.Op op, double value, double other) {
+        int c = Double.compare(value, other);
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return c == 0;
+            case NOT_EQUALS:
+                return c != 0;
+            case GREATER_THAN:
+                return c > 0;
+            case GREATER_THAN_OR_EQ:
+                return c >= 0;
+            case LESS_THAN:
+                return c < 0;
+            case LESS_THAN_OR_EQ:
+                return c <= 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     *
+     * @return Type.DOUBLE_TYPE
+     */
+    public Type getType() {
+        return Type.DOUBLE_TYPE;
+    }
+}
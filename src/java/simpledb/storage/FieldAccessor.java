@@ -0,0 +1,54 @@
+package simpledb.storage;
+
+/**
+ * FieldAccessor is implemented by pages that can hand out the value of a
+ * single field of a tuple slot without building a {@link Tuple} (and its
+ * Field objects) for it.  It lets simple predicates be evaluated straight
+ * against page contents, so that rejected rows never allocate anything.
+ *
+ * @see simpledb.execution.Predicate#filter(FieldAccessor, int)
+ */
+public interface FieldAccessor {
+
+    /**
+     * @return the schema of the tuples, which gives the type of each field
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * @return true if slot i holds a tuple
+     */
+    boolean isSlotUsed(int i);
+
+    /**
+     * @return the tuple in the given slot, or null if the slot is empty
+     */
+    Tuple getTuple(int slot);
+
+    /**
+     * @return the value of the INT_TYPE field of the tuple in the given slot
+     */
+    int getInt(int slot, int field);
+
+    /**
+     * @return the value of the LONG_TYPE or TIMESTAMP_TYPE field of the
+     *         tuple in the given slot
+     */
+    long getLong(int slot, int field);
+
+    /**
+     * @return the value of the DOUBLE_TYPE field of the tuple in the given
+     *         slot
+     */
+    double getDouble(int slot, int field);
+
+    /**
+     * Compare the STRING_TYPE field of the tuple in the given slot against
+     * value.
+     *
+     * @return a negative number, zero, or a positive number as the stored
+     *         string is less than, equal to, or greater than value, in the
+     *         order used by {@link String#compareTo}
+     */
+    int compareString(int slot, int field, String value);
+}
@@ -0,0 +1,202 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap remembers, for every page of a HeapFile, roughly how many
+ * empty tuple slots it has, so that inserts can go straight to a page with
+ * room instead of locking and reading every page from the start of the file.
+ * <p>
+ * The map keeps one byte per heap page: 0 means the page is full, 1..254 is
+ * the number of empty slots (capped), and {@link #UNKNOWN} means the page has
+ * not been looked at yet.  It is only a hint -- callers must still check the
+ * page itself -- so it is not logged, and it may be stale after an abort.
+ * <p>
+ * The map is persisted in a side file next to the heap file, in pages of
+ * the heap file's page size.  The first page is a header that
+ * stamps the length and modification time of the heap file at the time the
+ * map was last written; if the heap file was changed behind the map's back
+ * (or replaced), the stored map is ignored and rebuilt lazily.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    /** Entry value for a page whose free space is not known. */
+    public static final int UNKNOWN = 0xFF;
+
+    private static final int MAX_FREE = 0xFE;
+
+    private final File fsmFile;
+    private final File heapFile;
+    private final int pageSize;
+
+    private byte[] entries = new byte[0];
+    private int numEntries = 0;
+    private boolean loaded = false;
+
+    // entries.length / pageSize 个 FSM 页中，哪些改过还没写回
+    private boolean[] dirtyPages = new boolean[0];
+
+    // 所有编号小于它的页都已知是满的，找空闲页时从这里开始
+    private int firstMaybeFree = 0;
+
+    /**
+     * @param fsmFile the side file the map is stored in
+     * @param heapFile the heap file whose pages the map describes
+     */
+    public FreeSpaceMap(File fsmFile, File heapFile) {
+        this(fsmFile, heapFile, BufferPool.getPageSize());
+    }
+
+    /**
+     * @param fsmFile the side file the map is stored in
+     * @param heapFile the heap file whose pages the map describes
+     * @param pageSize the size of the pages of the heap file
+     */
+    public FreeSpaceMap(File fsmFile, File heapFile, int pageSize) {
+        this.fsmFile = fsmFile;
+        this.heapFile = heapFile;
+        this.pageSize = pageSize;
+    }
+
+    /** @return the file the map is stored in */
+    public File getFile() {
+        return fsmFile;
+    }
+
+    /**
+     * @return the stored entry for pageNo: 0 if full, the number of empty
+     *         slots (capped at 254), or {@link #UNKNOWN}
+     */
+    public synchronized int get(int pageNo) {
+        load();
+        if (pageNo >= numEntries) {
+            return UNKNOWN;
+        }
+        return entries[pageNo] & 0xFF;
+    }
+
+    /** Record that page pageNo now has freeSlots empty slots. */
+    public synchronized void update(int pageNo, int freeSlots) {
+        load();
+        int v = Math.min(Math.max(freeSlots, 0), MAX_FREE);
+        if (pageNo < numEntries && (entries[pageNo] & 0xFF) == v) {
+            return;
+        }
+        ensureCapacity(pageNo + 1);
+        entries[pageNo] = (byte) v;
+        dirtyPages[pageNo / pageSize()] = true;
+        if (v != 0 && pageNo < firstMaybeFree) {
+            firstMaybeFree = pageNo;
+        }
+    }
+
+    /**
+     * Forget the pages from numPages on, which were cut off the heap file.
+     */
+    public synchronized void truncate(int numPages) {
+        load();
+        if (numPages >= numEntries) {
+            return;
+        }
+        Arrays.fill(entries, numPages, numEntries, (byte) UNKNOWN);
+        for (int p = numPages / pageSize(); p <= (numEntries - 1) / pageSize(); p++) {
+            dirtyPages[p] = true;
+        }
+        numEntries = numPages;
+    }
+
+    /**
+     * Return the first page at or after from, and before numPages, that may
+     * have an empty slot, or -1 if there is none.
+     */
+    public synchronized int nextPageWithSpace(int from, int numPages) {
+        load();
+        int i = Math.max(from, firstMaybeFree);
+        while (i < numPages && i < numEntries && entries[i] == 0) {
+            i++;
+        }
+        if (from <= firstMaybeFree) {
+            // from 之前没有空闲页，扫过的也都是满页
+            firstMaybeFree = i;
+        }
+        return i < numPages ? i : -1;
+    }
+
+    /**
+     * Write changed map pages to disk, stamped with the current state of the
+     * heap file.  Must be called after the heap file itself was written.
+     */
+    public synchronized void flush() throws IOException {
+        if (!loaded) {
+            return;
+        }
+        int pageSize = pageSize();
+        try (RandomAccessFile raf = new RandomAccessFile(fsmFile, "rw")) {
+            // 从没写过的 FSM 页也要写出去，否则文件中间的空洞会被读成“满页”
+            int onDisk = (int) Math.max(0, raf.length() / pageSize - 1);
+            int used = (numEntries + pageSize - 1) / pageSize;
+            for (int p = 0; p < used; p++) {
+                if (!dirtyPages[p] && p < onDisk) {
+                    continue;
+                }
+                raf.seek((long) (p + 1) * pageSize);
+                raf.write(entries, p * pageSize, pageSize);
+                dirtyPages[p] = false;
+            }
+            raf.seek(0);
+            raf.writeLong(heapFile.length());
+            raf.writeLong(heapFile.lastModified());
+            raf.writeLong(pageSize);
+        }
+    }
+
+    private int pageSize() {
+        return pageSize;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > entries.length) {
+            int pageSize = pageSize();
+            int pages = Math.max((n + pageSize - 1) / pageSize, 2 * entries.length / pageSize);
+            int oldLen = entries.length;
+            entries = Arrays.copyOf(entries, pages * pageSize);
+            Arrays.fill(entries, oldLen, entries.length, (byte) UNKNOWN);
+            dirtyPages = Arrays.copyOf(dirtyPages, pages);
+        }
+        numEntries = Math.max(numEntries, n);
+    }
+
+    // 第一次用到时才读 FSM 文件；文件和堆文件对不上就当作全部未知
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        int pageSize = pageSize();
+        if (!fsmFile.isFile() || fsmFile.length() < pageSize) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(fsmFile, "r")) {
+            long heapLength = raf.readLong();
+            long heapModified = raf.readLong();
+            long storedPageSize = raf.readLong();
+            if (heapLength != heapFile.length() || heapModified != heapFile.lastModified()
+                    || storedPageSize != pageSize) {
+                return;
+            }
+            int heapPages = (int) (heapLength / pageSize);
+            int stored = (int) Math.min(heapPages, raf.length() - pageSize);
+            ensureCapacity(stored);
+            raf.seek(pageSize);
+            raf.readFully(entries, 0, stored);
+        } catch (IOException e) {
+            // a damaged map is only a lost hint
+            entries = new byte[0];
+            dirtyPages = new boolean[0];
+            numEntries = 0;
+        }
+    }
+}
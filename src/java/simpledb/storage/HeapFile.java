@@ -4,11 +4,14 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -16,6 +19,12 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Each HeapFile has its own page size, so that tables scanned sequentially
+ * can use large pages and tables read a row at a time small ones.  A page
+ * size other than {@link BufferPool#getPageSize()} is recorded in a small
+ * header file next to the heap file, so that the file is opened with the
+ * right page size later; a file without one uses the default.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -24,10 +33,41 @@ public class HeapFile implements DbFile {
 
     private final File file;
 
+    private final int id; // 表 id：目录分配的稳定 id，或者由文件路径算出
+
     private final TupleDesc td;
 
+    private final PageLayout layout;
+
+    private final int pageSize; // 本表的页大小，见 getPageSize
+
+    private final CompressedPageFile compressed; // 不压缩时为 null
+
     private final Object allocMutex = new Object(); // 分配锁：保护“追加页”的临界区
 
+    private final FreeSpaceMap fsm; // 每页大概还有多少空槽，插入时用来跳过满页
+
+    private final StringDictionary dictionary; // 没有字典编码列时为 null
+
+    private final OverflowFile overflow; // TEXT 列的值存在这里；没有 TEXT 列时为 null
+
+    private final ZoneMap zoneMap; // 每页 int 字段的最小/最大值，扫描时用来跳过不可能匹配的页
+
+    // 压缩正在清空的尾部页从这一页开始，插入不往这些页里放
+    private volatile int compactionHorizon = Integer.MAX_VALUE;
+
+    private volatile boolean dropped = false; // drop 之后为 true，之后拿到表锁的事务看到的是空表
+
+    /** The number of pages the file grows by when it runs out of pages, by default. */
+    public static final int DEFAULT_EXTENT_PAGES = 8;
+
+    private volatile int extentPages = DEFAULT_EXTENT_PAGES;
+
+    // 逻辑页数（已经分出去的页）和文件的实际长度（多出来的是预分配、还没用的全零页）；
+    // physicalBytes 为 -1 表示还没从文件长度初始化，之后以内存里的为准，不再 stat 文件
+    private final AtomicInteger logicalPages = new AtomicInteger();
+    private volatile long physicalBytes = -1;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -36,8 +76,124 @@ public class HeapFile implements DbFile {
      *            file.（磁盘上实际存储数据的文件，而不是在内存中的临时数据。）
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageLayout.ROW);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * stored in the given layout.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param layout
+     *            the format of the pages in f
+     */
+    public HeapFile(File f, TupleDesc td, PageLayout layout) {
+        this(f, td, layout, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * stored in the given layout and, if compress is set, compressed on
+     * disk (see {@link CompressedPageFile}).  Pages in the buffer pool are
+     * always uncompressed.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param layout
+     *            the format of the pages in f
+     * @param compress
+     *            whether f holds compressed pages
+     */
+    public HeapFile(File f, TupleDesc td, PageLayout layout, boolean compress) {
+        this(f, td, layout, compress, null);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, as above, whose
+     * string fields dictionaryFields are dictionary-encoded: pages hold an
+     * int code for each of their values, and the values themselves are kept
+     * once in a {@link StringDictionary} next to f.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param layout
+     *            the format of the pages in f
+     * @param compress
+     *            whether f holds compressed pages
+     * @param dictionaryFields
+     *            the fields to dictionary-encode, or null for none
+     */
+    public HeapFile(File f, TupleDesc td, PageLayout layout, boolean compress, int[] dictionaryFields) {
+        this(f, td, layout, compress, dictionaryFields, storedPageSize(f));
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, as above, whose
+     * pages are pageSize bytes.  If a different page size is recorded for
+     * f, this fails; otherwise a page size other than the default is
+     * recorded next to f.
+     *
+     * @param pageSize
+     *            the number of bytes per page of f
+     * @throws IllegalArgumentException if another page size is recorded
+     *            for f
+     */
+    public HeapFile(File f, TupleDesc td, PageLayout layout, boolean compress, int[] dictionaryFields,
+                    int pageSize) {
+        this(f, td, layout, compress, dictionaryFields, pageSize, f.getAbsoluteFile().hashCode());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, as above, with the
+     * given table id rather than one derived from the name of f.  The
+     * {@link simpledb.common.Catalog} opens the tables it keeps track of
+     * this way, so that a table keeps its id across restarts and moves.
+     *
+     * @param id
+     *            the id of the table, returned by {@link #getId()}
+     */
+    public HeapFile(File f, TupleDesc td, PageLayout layout, boolean compress, int[] dictionaryFields,
+                    int pageSize, int id) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        int stored = storedPageSize(f);
+        if (headerFile(f).isFile() && stored != pageSize) {
+            throw new IllegalArgumentException(f + " has pages of " + stored + " bytes, not " + pageSize);
+        }
+        try {
+            recordPageSize(f, pageSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         this.file = f;
+        this.id = id;
         this.td = td;
+        this.layout = layout;
+        this.pageSize = pageSize;
+        this.compressed = compress ? new CompressedPageFile(f, pageSize) : null;
+        this.fsm = new FreeSpaceMap(new File(f.getPath() + ".fsm"), f, pageSize);
+        this.zoneMap = new ZoneMap(new File(f.getPath() + ".zmap"), f, td, pageSize);
+        if (dictionaryFields != null && dictionaryFields.length > 0) {
+            for (int field : dictionaryFields) {
+                if (td.getFieldType(field) != Type.STRING_TYPE) {
+                    throw new IllegalArgumentException("field " + field + " is not a string field");
+                }
+            }
+            this.dictionary = new StringDictionary(StringDictionary.dictionaryFile(f),
+                    td.numFields(), dictionaryFields);
+        } else {
+            this.dictionary = null;
+        }
+        boolean hasText = false;
+        for (int j = 0; j < td.numFields(); j++) {
+            hasText |= td.getFieldType(j) == Type.TEXT_TYPE;
+        }
+        this.overflow = hasText ? new OverflowFile(OverflowFile.overflowFile(f), pageSize) : null;
     }
 
     /**
@@ -50,16 +206,151 @@ public class HeapFile implements DbFile {
     }
 
     /**
-     * Returns an ID uniquely identifying this HeapFile. Implementation note:
-     * you will need to generate this tableid somewhere to ensure that each
-     * HeapFile has a "unique id," and that you always return the same value for
-     * a particular HeapFile. We suggest hashing the absolute file name of the
-     * file underlying the heapfile, i.e. f.getAbsoluteFile().hashCode().
+     * Returns the number of bytes per page of this HeapFile.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    // 页大小头文件：魔数加页大小；没有这个文件的堆文件用默认页大小
+    private static final int HEADER_MAGIC = 0x53444250;
+
+    private static File headerFile(File f) {
+        return new File(f.getPath() + ".hdr");
+    }
+
+    /**
+     * @return the page size recorded next to f, or
+     *         {@link BufferPool#getPageSize()} if none is
+     */
+    public static int storedPageSize(File f) {
+        File header = headerFile(f);
+        if (!header.isFile()) {
+            return BufferPool.getPageSize();
+        }
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(header))) {
+            if (dis.readInt() != HEADER_MAGIC) {
+                throw new IllegalArgumentException("corrupt page size header " + header);
+            }
+            return dis.readInt();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read page size header " + header, e);
+        }
+    }
+
+    /**
+     * Record that f holds pages of pageSize bytes: a page size other than
+     * the default is written to a header file next to f, and for the
+     * default any such header is removed.
+     */
+    static void recordPageSize(File f, int pageSize) throws IOException {
+        File header = headerFile(f);
+        if (pageSize == BufferPool.getPageSize()) {
+            header.delete();
+            return;
+        }
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(header))) {
+            dos.writeInt(HEADER_MAGIC);
+            dos.writeInt(pageSize);
+        }
+    }
+
+    /**
+     * Returns the format of the pages of this HeapFile.
+     */
+    public PageLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns the compressed page store of this HeapFile (with its
+     * compression statistics), or null if its pages are stored raw.
+     */
+    public CompressedPageFile getCompressedPageFile() {
+        return compressed;
+    }
+
+    /**
+     * Returns the dictionary of the dictionary-encoded fields of this
+     * HeapFile, or null if it has none.
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns the overflow file holding the values of the TEXT fields of
+     * this HeapFile, or null if it has none.
+     */
+    public OverflowFile getOverflowFile() {
+        return overflow;
+    }
+
+    /**
+     * Returns the free-space map that guides inserts into this HeapFile.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return fsm;
+    }
+
+    /**
+     * Returns the zone map that lets filtered scans of this HeapFile skip
+     * pages, and counts the pages skipped.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    /**
+     * Delete the file backing this HeapFile and the files kept next to it.
+     * The HeapFile must not be used afterwards; the caller should hold an
+     * exclusive lock on the table (see {@link BufferPool#lockTable}), and
+     * transactions that lock the table afterwards find it empty.
+     */
+    public void drop() {
+        dropped = true;
+        if (overflow != null) {
+            try {
+                overflow.close();
+            } catch (IOException e) {
+                // 反正要删掉了
+            }
+        }
+        file.delete();
+        for (String suffix : new String[] { ".fsm", ".zmap", ".hdr", ".pmap", ".dict", ".ovf" }) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    /**
+     * Take a shared lock on this table for tid (see
+     * {@link BufferPool#lockTable}), so that it is not dropped while tid
+     * uses it.
+     *
+     * @return false if the table was dropped before the lock was granted
+     */
+    boolean lockTable(TransactionId tid) throws TransactionAbortedException {
+        Database.getBufferPool().lockTable(tid, getId(), Permissions.READ_ONLY);
+        return !dropped;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HeapFile: the id it was
+     * constructed with, or else a hash of the absolute file name of the file
+     * underlying the heapfile, i.e. f.getAbsoluteFile().hashCode().
      * 
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId() {
-        return file.getAbsoluteFile().hashCode();
+        return id;
+    }
+
+    /** @return the fields whose values are dictionary-encoded, in order */
+    public int[] getDictionaryFields() {
+        if (dictionary == null) {
+            return new int[0];
+        }
+        return java.util.stream.IntStream.range(0, td.numFields()).filter(dictionary::isEncoded).toArray();
     }
 
     /**
@@ -73,11 +364,24 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
+        int pageNo = pid.getPageNumber();
+        try {
+            byte[] data = compressed != null ? compressed.read(pageNo) : readRawPage(pageNo);
+            HeapPage page = new HeapPage((HeapPageId) pid, data, td, layout, dictionary, pageSize, overflow);
+            // 磁盘上的页是最新的已提交版本，顺便校正 FSM（比如回滚后空出来的槽位）
+            fsm.update(pageNo, page.getNumEmptySlots());
+            zoneMap.include(pageNo, page);
+            return page;
+        }catch (IOException e){
+            throw new IllegalArgumentException("Error reading page from file", e);
+        }
+
+    }
+
+    private byte[] readRawPage(int pageNo) throws IOException {
         // 1. calculate the correct offset in the file
         // 能算出这页数据在文件中从哪一个字节开始
-        int pageSize = BufferPool.getPageSize();
-        int pageNo = pid.getPageNumber();
-        int offset = pageSize * pageNo;
+        long offset = (long) pageSize * pageNo;
 
         byte[] data = new byte[pageSize]; // Buffer to hold the page data
         // 2. random access to the file
@@ -88,11 +392,8 @@ public class HeapFile implements DbFile {
             }
             raf.seek(offset); // Move the file pointer to the correct offset
             raf.readFully(data); // 从文件当前位置开始，读取 data.length 字节的数据，填充 data 数组。
-            return new HeapPage((HeapPageId) pid, data);
-        }catch (IOException e){
-            throw new IllegalArgumentException("Error reading page from file", e);
         }
-
+        return data;
     }
 
     // see DbFile.java for javadocs
@@ -106,7 +407,6 @@ public class HeapFile implements DbFile {
 
         // 2. 计算页在文件中的偏移量 pageNo × pageSize （第几个字节开始）
         int pageNo = page.getId().getPageNumber();
-        int pageSize = BufferPool.getPageSize();
         long offset = (long) pageNo * pageSize; // 转成 long 防止溢出
 
         // 3. 把内存中的 Page 对象（Java 中的数据结构）转换成一段连续的 字节数组（byte[]），以便写入磁盘文件
@@ -115,19 +415,233 @@ public class HeapFile implements DbFile {
             throw new IllegalArgumentException("Page data length does not match page size.");
         }
 
-        // 4. 随机访问文件，跳到正确的偏移量，写入磁盘
-        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
-            raf.seek(offset); // 将文件指针移动到该页起始位置
-            raf.write(data); // 将页面数据写入文件
+        // 4. 随机访问文件，跳到正确的偏移量，写入磁盘（压缩存储则压缩后按页表写）
+        if (compressed != null) {
+            compressed.write(pageNo, data);
+        } else {
+            numPages(); // 确保计数已经初始化
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(offset); // 将文件指针移动到该页起始位置
+                raf.write(data); // 将页面数据写入文件
+            }
+            // 写到了末尾之后（比如恢复重做被截掉的页），页数跟着变
+            if (pageNo >= logicalPages.get()) {
+                synchronized (allocMutex) {
+                    physicalBytes = Math.max(physicalBytes, offset + pageSize);
+                    logicalPages.accumulateAndGet(pageNo + 1, Math::max);
+                }
+            }
         }
 
+        // 5. 只改内存里的 FSM 和 zone map，落盘由 BufferPool 在提交时统一做（见 flushMaps）
+        fsm.update(pageNo, ((HeapPage) page).getNumEmptySlots());
+        zoneMap.reset(pageNo, (HeapPage) page);
+
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Write the free-space map and the zone map to their side files.
+     * {@link #writePage} only updates them in memory; the buffer pool calls
+     * this once per table after a committing transaction's pages are
+     * written, and after {@link BufferPool#flushAllPages}.  Maps that were
+     * not written before a crash carry a stale stamp and are rebuilt when
+     * the file is reopened.
+     */
+    public void flushMaps() throws IOException {
+        fsm.flush();
+        zoneMap.flush();
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile.  Pages preallocated at
+     * the end of the file but not handed out yet are not counted; once the
+     * file is reopened they are ordinary empty pages.  The count is kept in
+     * memory and the file's length is only read the first time; code that
+     * writes to the file behind this HeapFile's back must call
+     * {@link #refreshNumPages} afterwards.
      */
     public int numPages() {
-        return (int) (file.length() / BufferPool.getPageSize());
+        if (compressed != null) {
+            return compressed.numPages();
+        }
+        if (physicalBytes < 0) {
+            synchronized (allocMutex) {
+                if (physicalBytes < 0) {
+                    long len = file.length();
+                    logicalPages.set((int) (len / pageSize));
+                    physicalBytes = len;
+                }
+            }
+        }
+        return logicalPages.get();
+    }
+
+    /**
+     * Read the length of the file again, after other code changed it, and
+     * count every page in it.
+     */
+    public void refreshNumPages() {
+        if (compressed != null) {
+            return;
+        }
+        synchronized (allocMutex) {
+            long len = file.length();
+            logicalPages.set((int) (len / pageSize));
+            physicalBytes = len;
+        }
+    }
+
+    /**
+     * Sets the number of pages the file grows by when an insert finds no
+     * room, so that bulk inserts extend it once per extent instead of once
+     * per page.
+     */
+    public void setExtentPages(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("extent must be at least one page");
+        }
+        extentPages = pages;
+    }
+
+    /** Returns the number of pages the file grows by at a time. */
+    public int getExtentPages() {
+        return extentPages;
+    }
+
+    // 分出一个新页，返回页号。当前 extent 里还有预分配的页时只是一次 CAS，
+    // 用完了才拿 allocMutex 把文件再加长一个 extent
+    private int allocatePage() throws IOException {
+        if (compressed != null) {
+            synchronized (allocMutex) {
+                return compressed.appendEmptyPage(); // 压缩存储只在页表里记一个全零页
+            }
+        }
+        numPages(); // 确保计数已经初始化
+        while (true) {
+            int n = logicalPages.get();
+            if ((long) (n + 1) * pageSize <= physicalBytes) {
+                if (logicalPages.compareAndSet(n, n + 1)) {
+                    return n;
+                }
+                continue;
+            }
+            synchronized (allocMutex) {
+                long end = physicalBytes;
+                if ((long) (logicalPages.get() + 1) * pageSize > end) {
+                    // 一次写出整个 extent 的全零页（全零页在每种布局下都是合法的空页）
+                    int pages = extentPages;
+                    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                        raf.seek(end);
+                        raf.write(new byte[pages * pageSize]);
+                    }
+                    physicalBytes = end + (long) pages * pageSize;
+                }
+            }
+        }
+    }
+
+    /**
+     * Hand out n consecutive new pages at the end of the file, for
+     * {@link BulkLoader}, and make sure the file is long enough to hold
+     * them, so that no concurrent extent is written over them.
+     *
+     * @return the page number of the first of them
+     */
+    int reservePages(int n) throws IOException {
+        synchronized (allocMutex) {
+            if (compressed != null) {
+                int first = compressed.appendEmptyPage();
+                for (int i = 1; i < n; i++) {
+                    compressed.appendEmptyPage();
+                }
+                return first;
+            }
+            numPages(); // 确保计数已经初始化
+            // 其它线程可能正在无锁地 CAS 预分配的页，这里也用 CAS 抢
+            int first;
+            do {
+                first = logicalPages.get();
+            } while (!logicalPages.compareAndSet(first, first + n));
+            long end = (long) (first + n) * pageSize;
+            if (end > physicalBytes) {
+                // 只改长度不写零，这些页马上就会被整页写一遍
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(end);
+                }
+                physicalBytes = end;
+            }
+            return first;
+        }
+    }
+
+    /**
+     * Write pages built outside the buffer pool to the consecutive page
+     * numbers from first on, which {@link #reservePages} handed out, in a
+     * single sequential write, and force them to disk.
+     */
+    void writeLoadedPages(int first, List<HeapPage> pages) throws IOException {
+        if (compressed != null) {
+            for (int i = 0; i < pages.size(); i++) {
+                compressed.write(first + i, pages.get(i).getPageData());
+            }
+            // 和下面一样要在提交前落盘，数据文件和页表都要
+            compressed.sync();
+        } else {
+            byte[] data = new byte[pages.size() * pageSize];
+            for (int i = 0; i < pages.size(); i++) {
+                System.arraycopy(pages.get(i).getPageData(), 0, data, i * pageSize, pageSize);
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek((long) first * pageSize);
+                raf.write(data);
+                // 提交记录只说明日志落盘了，装载的页必须在提交之前自己落盘
+                raf.getFD().sync();
+            }
+        }
+        for (int i = 0; i < pages.size(); i++) {
+            fsm.update(first + i, pages.get(i).getNumEmptySlots());
+            zoneMap.reset(first + i, pages.get(i));
+        }
+        fsm.flush();
+        zoneMap.flush();
+    }
+
+    /**
+     * Keep inserts off pages from horizon on, which {@link HeapFileCompactor}
+     * is emptying; Integer.MAX_VALUE lifts the limit.  Inserts that find no
+     * room below the horizon still append a new page.
+     */
+    void setCompactionHorizon(int horizon) {
+        compactionHorizon = horizon;
+    }
+
+    /**
+     * Cut the file down to newNumPages pages, if it still has expectedPages
+     * pages.  The pages cut off must be empty, with their emptiness
+     * committed, and gone from the buffer pool.
+     *
+     * @return false if the file grew in the meantime and nothing was cut
+     */
+    boolean truncate(int expectedPages, int newNumPages) throws IOException {
+        synchronized (allocMutex) { // 和追加页互斥
+            if (numPages() != expectedPages) {
+                return false;
+            }
+            if (compressed != null) {
+                compressed.truncate(newNumPages);
+            } else {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength((long) newNumPages * pageSize);
+                }
+                physicalBytes = (long) newNumPages * pageSize;
+                logicalPages.set(newNumPages);
+            }
+            fsm.truncate(newNumPages);
+            fsm.flush();
+            zoneMap.truncate(newNumPages);
+            zoneMap.flush();
+            return true;
+        }
     }
 
     // see DbFile.java for javadocs
@@ -136,15 +650,20 @@ public class HeapFile implements DbFile {
         // some code goes here
 
         BufferPool bp = Database.getBufferPool();
+        if (!lockTable(tid)) {
+            throw new DbException("table " + getId() + " has been dropped");
+        }
 
-        // 1. 找到一页有空闲槽位的页
-        for (int i = 0; i < numPages(); i++) {
+        // 1. 找到一页有空闲槽位的页，FSM 里记成满的页直接跳过；正在被压缩清空的尾部页不算
+        int numPages = Math.min(numPages(), compactionHorizon);
+        for (int i = fsm.nextPageWithSpace(0, numPages); i >= 0; i = fsm.nextPageWithSpace(i + 1, numPages)) {
             HeapPageId pid = new HeapPageId(getId(), i);
             // 通过 BufferPool 以可读权限拿页
             HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
             // 检查该页是否有空闲槽位
             // 没有就局部放锁
             if (page.getNumEmptySlots() <= 0){
+                fsm.update(i, 0);
                 bp.unsafeReleasePage(tid, pid);
                 continue; // 继续找下一页
             }
@@ -157,6 +676,8 @@ public class HeapFile implements DbFile {
                 // 在该页中插入元组
                 page.insertTuple(t);
                 page.markDirty(true, tid); // 标记为脏页
+                fsm.update(i, page.getNumEmptySlots());
+                zoneMap.include(i, t);
                 // 返回修改过的页
                 ArrayList<Page> modified = new ArrayList<>();
                 modified.add(page);
@@ -164,28 +685,20 @@ public class HeapFile implements DbFile {
             }
             else{
                 // 二次检查没通过，释放锁，继续找下一页
+                fsm.update(i, 0);
                 bp.unsafeReleasePage(tid, pid);
             }
         }
 
-        // 2. 如果没有页有空闲槽位，在文件末尾追加一个新空页，然后再插
-        // 没有可用页：原子地追加一页并确定唯一的新页号
-        HeapPageId newPid;
-        synchronized (allocMutex) { // 保护临界区
-            // 2.1 先把空页的字节写到文件最后，等于“扩容”文件
-            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
-                raf.seek(raf.length()); // 跳到文件末尾
-
-                raf.write(HeapPage.createEmptyPageData()); // 写入一个空页的字节数据
-            }
-            // 2.2 新页创建好后，页号是 numPages() - 1
-            newPid = new HeapPageId(getId(), numPages() - 1);
-        }
+        // 2. 如果没有页有空闲槽位，从当前 extent 里分一个新空页（用完了文件才变长），然后再插
+        HeapPageId newPid = new HeapPageId(getId(), allocatePage());
 
-        // 2.3 通过 BufferPool 对新页加写锁并插入
+        // 2.1 通过 BufferPool 对新页加写锁并插入
         HeapPage newPage = (HeapPage) bp.getPage(tid, newPid, Permissions.READ_WRITE);
         newPage.insertTuple(t);
         newPage.markDirty(true, tid); // 标记为脏页
+        fsm.update(newPid.getPageNumber(), newPage.getNumEmptySlots());
+        zoneMap.include(newPid.getPageNumber(), t);
 
         ArrayList<Page> modified = new ArrayList<>();
         modified.add(newPage);
@@ -206,11 +719,16 @@ public class HeapFile implements DbFile {
         if (!(pid instanceof HeapPageId) || ((HeapPageId) pid).getTableId() != getId()) {
             throw new DbException("Tuple does not belong to this HeapFile.");
         }
+        if (!lockTable(tid)) {
+            throw new DbException("table " + getId() + " has been dropped");
+        }
 
         // 2. 通过 BufferPool 以可写权限拿页，让页删除该 tuple
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         page.deleteTuple(t);
         page.markDirty(true, tid);
+        fsm.update(pid.getPageNumber(), page.getNumEmptySlots());
+        // 删除可能回滚，zone map 的范围先不缩小，等这页写回磁盘时再重算
 
         ArrayList<Page> modified = new ArrayList<>();
         modified.add(page);
@@ -220,25 +738,74 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     // 对HeapFile进行迭代，以便能够一条一条地读取存储在 HeapPage 里的数据，就像 Java 的 Iterator 允许遍历 ArrayList 一样。
     public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy p.  The
+     * predicate is evaluated on the page bytes (see
+     * {@link HeapPage#iterator(Predicate)}), so rejected tuples are never
+     * built, and pages the {@link ZoneMap} rules out are not read at all.
+     *
+     * @param p the predicate tuples must satisfy, or null for all tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+        return iterator(tid, p, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy p, with
+     * only the given fields decoded and the rest left null (see
+     * {@link HeapPage#getTuple(int, int[])}).
+     *
+     * @param p the predicate tuples must satisfy, or null for all tuples
+     * @param fields the fields the caller will read, or null for all fields
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p, int[] fields) {
+        return iterator(tid, p, fields, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns an iterator like {@link #iterator(TransactionId, Predicate, int[])}
+     * over pages fromPage (inclusive) to toPage (exclusive) of this file
+     * only, so that several threads can scan disjoint page ranges of the
+     * same file (see {@link simpledb.execution.ParallelSeqScan}).  Pages
+     * past the end of the file are ignored.
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p, int[] fields, int fromPage, int toPage) {
         return new DbFileIterator() {
-            private int currentPageIndex = 0;
-            private Iterator<Tuple> tupleIterator; // 当前页的 Tuple 迭代器
+            private int currentPageIndex = fromPage;
+            private HeapPage.SlotIterator tupleIterator; // 当前页的 Tuple 迭代器
             private boolean open = false; // 标志迭代器是否已打开
 
             // 辅助方法：获取指定页的 Tuple 迭代器
             // 找到HeapPage，遍历其中的Tuple
-            private Iterator<Tuple> getTupleIterator(int pageIndex) throws DbException, TransactionAbortedException{
-                if(pageIndex >= numPages()){
+            private HeapPage.SlotIterator getTupleIterator(int pageIndex) throws DbException, TransactionAbortedException{
+                if(pageIndex >= endPage()){
                     return null; // 如果页号超出范围，返回 null
                 }
+                if (p != null && !zoneMap.mayMatch(pageIndex, p)) {
+                    return null; // 这页不可能有满足 p 的 tuple
+                }
                 PageId pid = new HeapPageId(getId(), pageIndex);
                 HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                return page.iterator();
+                return page.iterator(p, fields);
+            }
+
+            // 范围的末尾；文件在扫描中变长时，整个文件的扫描也读新加的页
+            private int endPage() {
+                return Math.min(toPage, numPages());
             }
+
             // 定位到第一页，准备开始读
             @Override
             public void open() throws DbException, TransactionAbortedException {
-                currentPageIndex = 0;
+                // 表在拿到表锁之前被删掉了（比如扫描开始前列出的分区），就当它是空的
+                if (!lockTable(tid)) {
+                    close();
+                    return;
+                }
+                currentPageIndex = fromPage;
                 tupleIterator = getTupleIterator(currentPageIndex);
                 open = true;
             }
@@ -250,7 +817,7 @@ public class HeapFile implements DbFile {
                 // 当前页还有下一条 tuple
                 if(tupleIterator != null && tupleIterator.hasNext()) return true;
                 // 当前页没有了，尝试下一页
-                while(currentPageIndex < numPages() - 1){
+                while(currentPageIndex < endPage() - 1){
                     currentPageIndex++;
                     tupleIterator = getTupleIterator(currentPageIndex);
                     if(tupleIterator != null && tupleIterator.hasNext()) return true;
@@ -267,6 +834,14 @@ public class HeapFile implements DbFile {
                 return tupleIterator.next();
             }
 
+            // 一次装一批：逐页把字段直接从页字节拷进 batch
+            @Override
+            public void fillBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+                while (!batch.isFull() && hasNext()) {
+                    tupleIterator.fillBatch(batch);
+                }
+            }
+
             // 重新开始
             @Override
             public void rewind() throws DbException, TransactionAbortedException {
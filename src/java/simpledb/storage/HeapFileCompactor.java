@@ -0,0 +1,189 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * HeapFileCompactor shrinks a HeapFile after large deletes: it moves the
+ * tuples of the last pages into free slots of earlier pages, then cuts the
+ * emptied pages off the end of the file.  A full scan reads every page, so
+ * it speeds up by the ratio of the number of pages before and after.
+ * <p>
+ * The work is done online and in small steps.  Each step is an ordinary
+ * {@link Transaction} that write-locks at most a few tail pages and the
+ * pages the tuples move to, and commits before the next step starts.  Moves
+ * go through the buffer pool like any other delete and insert, and the step
+ * has begin and commit records, so recovery redoes the moves even after
+ * the emptied pages are cut off.  The free-space map and zone map follow
+ * along.  While a step runs, inserts from other transactions stay off the
+ * pages being emptied.
+ * <p>
+ * Tuples get new RecordIds when they move.  Nothing in SimpleDB keeps
+ * RecordIds of heap tuples across transactions, so there is nothing else
+ * to update.
+ *
+ * @see HeapFile
+ * @see FreeSpaceMap
+ */
+public class HeapFileCompactor {
+
+    private final HeapFile file;
+
+    private long tuplesMoved = 0;
+    private long pagesReclaimed = 0;
+
+    public HeapFileCompactor(HeapFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Compact the file, one step per transaction, until no more tuples can
+     * be moved or a step is aborted (for example because of a deadlock
+     * with another transaction; calling run again resumes the work).
+     *
+     * @param pagesPerStep the number of tail pages each step empties
+     * @return the number of pages cut off the file
+     */
+    public int run(int pagesPerStep) throws DbException, IOException {
+        int before = file.numPages();
+        while (true) {
+            // 走 Transaction，日志里才有 BEGIN/COMMIT，恢复时挪动算赢家
+            Transaction t = new Transaction();
+            t.setAsyncCommit(false); // 截断之前挪动必须已经持久
+            t.start();
+            int moved;
+            try {
+                moved = compactStep(t.getId(), pagesPerStep);
+                t.commit();
+            } catch (TransactionAbortedException e) {
+                t.abort();
+                break;
+            }
+            t = new Transaction();
+            t.start();
+            try {
+                truncateTail(t.getId());
+                t.commit();
+            } catch (TransactionAbortedException e) {
+                t.abort();
+                break;
+            }
+            if (moved == 0) {
+                break;
+            }
+        }
+        return before - file.numPages();
+    }
+
+    /**
+     * Move the tuples of up to maxPages pages at the end of the file into
+     * free slots of earlier pages, on behalf of tid.  Stops early when no
+     * earlier page has room.  The caller commits tid; the emptied pages can
+     * be cut off by {@link #truncateTail} once it has.
+     *
+     * @return the number of tuples moved
+     */
+    public int compactStep(TransactionId tid, int maxPages)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = file.getFreeSpaceMap();
+        int numPages = file.numPages();
+        int horizon = Math.max(1, numPages - maxPages);
+        int moved = 0;
+        file.setCompactionHorizon(horizon);
+        try {
+            // 从最后一页往前清空；目标页只在 horizon 之前找
+            for (int src = numPages - 1; src >= horizon; src--) {
+                HeapPageId srcId = new HeapPageId(file.getId(), src);
+                HeapPage page = (HeapPage) bp.getPage(tid, srcId, Permissions.READ_WRITE);
+                List<Tuple> tuples = new ArrayList<>();
+                for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+                    tuples.add(it.next());
+                }
+                for (Tuple t : tuples) {
+                    if (!reserveTarget(tid, fsm, horizon)) {
+                        return moved; // 前面的页已经满了
+                    }
+                    bp.deleteTuple(tid, t);
+                    bp.insertTuple(tid, file.getId(), t);
+                    moved++;
+                    tuplesMoved++;
+                }
+            }
+            return moved;
+        } finally {
+            file.setCompactionHorizon(Integer.MAX_VALUE);
+        }
+    }
+
+    // 在 horizon 之前找一页确实有空位的页并加写锁，这样接下来的插入一定落在 horizon 之前
+    private boolean reserveTarget(TransactionId tid, FreeSpaceMap fsm, int horizon)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = fsm.nextPageWithSpace(0, horizon); i >= 0; i = fsm.nextPageWithSpace(i + 1, horizon)) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(file.getId(), i), Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                return true;
+            }
+            fsm.update(i, 0);
+        }
+        return false;
+    }
+
+    /**
+     * Cut the empty pages at the end of the file off, on behalf of tid.
+     * Only pages whose emptiness is committed are cut, so this must run in
+     * a transaction of its own after the step that emptied them.
+     *
+     * @return the number of pages cut off
+     */
+    public int truncateTail(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        int numPages = file.numPages();
+        int keep = numPages;
+        while (keep > 1) {
+            HeapPageId pid = new HeapPageId(file.getId(), keep - 1);
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.isDirty() != null || page.iterator().hasNext()) {
+                break;
+            }
+            keep--;
+        }
+        if (keep == numPages) {
+            return 0;
+        }
+        for (int i = keep; i < numPages; i++) {
+            bp.discardPage(new HeapPageId(file.getId(), i));
+        }
+        if (!file.truncate(numPages, keep)) {
+            return 0; // 期间有人追加了页
+        }
+        pagesReclaimed += numPages - keep;
+        return numPages - keep;
+    }
+
+    /** @return the number of tuples moved so far */
+    public long getTuplesMoved() {
+        return tuplesMoved;
+    }
+
+    /** @return the number of pages cut off the file so far */
+    public long getPagesReclaimed() {
+        return pagesReclaimed;
+    }
+
+    /** @return the number of bytes of pages cut off the file so far */
+    public long getBytesReclaimed() {
+        return pagesReclaimed * file.getPageSize();
+    }
+}
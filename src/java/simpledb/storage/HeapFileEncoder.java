@@ -1,11 +1,19 @@
 package simpledb.storage;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -17,6 +25,10 @@ import java.util.List;
 
 public class HeapFileEncoder {
 
+  /** The number of pages' worth of input lines each worker of a parallel
+   * conversion encodes at a time. */
+  static final int CHUNK_PAGES = 16;
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -92,6 +104,47 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, PageLayout.ROW);
+  }
+
+   /** Convert the specified input text file into a binary page file whose
+    * pages are in the given layout. <br>
+    * The input format is the same as for the other convert methods.  Pages
+    * in layouts other than {@link PageLayout#ROW} are built with HeapPage
+    * itself.  If npagebytes is not {@link BufferPool#getPageSize()}, it is
+    * recorded next to outFile, so that a HeapFile opened on outFile uses it
+    * (see {@link HeapFile#getPageSize()}).
+    *
+    * @see PageLayout
+    * @param layout the format of the pages written to outFile
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, PageLayout layout)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, layout, null);
+  }
+
+   /** Convert the specified input text file into a binary page file whose
+    * pages are in the given layout, with the string fields dictionaryFields
+    * dictionary-encoded.  The dictionary is written next to outFile, where
+    * a HeapFile opened with the same fields finds it, and so are the values
+    * of TEXT fields (see {@link OverflowFile}).
+    *
+    * @see StringDictionary
+    * @param layout the format of the pages written to outFile
+    * @param dictionaryFields the fields to dictionary-encode, or null for none
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, PageLayout layout,
+                 int[] dictionaryFields)
+      throws IOException {
+      HeapFile.recordPageSize(outFile, npagebytes);
+      if (layout != PageLayout.ROW || (dictionaryFields != null && dictionaryFields.length > 0)
+              || Arrays.asList(typeAr).subList(0, numFields).contains(Type.TEXT_TYPE)) {
+          convertWithPages(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, layout,
+                  dictionaryFields);
+          return;
+      }
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -147,6 +200,13 @@ public class HeapFileEncoder {
                     System.out.println ("BAD LINE : " + s);
                 }
             }
+            else if (typeAr[fieldNo].isWide()) {
+                try {
+                    typeAr[fieldNo].parse(s.trim()).serialize(pageStream);
+                } catch (IllegalArgumentException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            }
             else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
                 s = s.trim();
                 int overflow = Type.STRING_LEN - s.length();
@@ -224,4 +284,292 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+   /** Convert the specified input text file into a binary page file as
+    * above, using threads threads.  The input is read once, in chunks of
+    * lines, and the chunks are written in input order.  Only a bounded
+    * number of chunks is in memory at a time, so the input may be larger
+    * than memory.  Pages are built with HeapPage itself, and lines that do
+    * not parse are skipped.
+    * <p>
+    * Without dictionary or TEXT fields, each worker encodes its chunk into
+    * whole pages, and only the tuples of its last, partly filled page are
+    * packed by the calling thread.  A chunk that does not fill its pages
+    * exactly (because a line was skipped, or the tuples vary in size)
+    * leaves one partly filled page behind; otherwise the pages are the same
+    * as those of the serial conversion.
+    * <p>
+    * With dictionary or TEXT fields, workers only parse, and the calling
+    * thread packs every tuple, so that dictionary codes and overflow chains
+    * are assigned in input order: the pages, the dictionary and the
+    * overflow file are the same as those of the serial conversion.
+    *
+    * @param threads the number of worker threads; 1 or less converts on
+    *        the calling thread, as the other convert methods do
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, PageLayout layout,
+                 int[] dictionaryFields, int threads)
+      throws IOException {
+      if (threads <= 1) {
+          convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, layout, dictionaryFields);
+          return;
+      }
+      HeapFile.recordPageSize(outFile, npagebytes);
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      String sep = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+      StringDictionary dictionary = newDictionary(outFile, numFields, dictionaryFields);
+      OverflowFile overflow = newOverflowFile(outFile, td, npagebytes);
+      int linesPerChunk = CHUNK_PAGES * newPage(td, layout, dictionary, overflow, npagebytes).numSlots;
+
+      // 字典码和溢出链要按输入顺序分配，这时只能单线程装页
+      boolean ordered = dictionary != null || overflow != null;
+
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      // 已提交、还没写出的块；最多 2 * threads 个，内存占用有上限
+      Deque<Future<EncodedChunk>> inFlight = new ArrayDeque<>();
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16)) {
+          PageWriter writer = new PageWriter(os, td, layout, dictionary, overflow, npagebytes);
+          List<String> lines = new ArrayList<>(linesPerChunk);
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty())
+                  continue;
+              lines.add(line);
+              if (lines.size() == linesPerChunk) {
+                  final List<String> chunk = lines;
+                  inFlight.addLast(pool.submit(() -> encodeChunk(chunk, sep, td, layout, npagebytes, ordered)));
+                  lines = new ArrayList<>(linesPerChunk);
+                  if (inFlight.size() >= 2 * threads) {
+                      writer.addChunk(await(inFlight.removeFirst()));
+                  }
+              }
+          }
+          if (!lines.isEmpty()) {
+              final List<String> chunk = lines;
+              inFlight.addLast(pool.submit(() -> encodeChunk(chunk, sep, td, layout, npagebytes, ordered)));
+          }
+          while (!inFlight.isEmpty()) {
+              writer.addChunk(await(inFlight.removeFirst()));
+          }
+          writer.finish();
+      } finally {
+          pool.shutdownNow();
+          if (overflow != null)
+              overflow.close();
+      }
+  }
+
+  // 一个块编码的结果：整页的字节，加上最后一页没装满的那些 tuple
+  private static class EncodedChunk {
+      final List<byte[]> pages = new ArrayList<>();
+      final List<Tuple> tail = new ArrayList<>();
+  }
+
+  // worker 解析一个块；ordered 时只解析，否则自己装满整页，只把最后一页的 tuple 交回去
+  private static EncodedChunk encodeChunk(List<String> lines, String sep, TupleDesc td, PageLayout layout,
+                 int npagebytes, boolean ordered) throws IOException {
+      EncodedChunk chunk = new EncodedChunk();
+      HeapPage page = ordered ? null : newPage(td, layout, null, null, npagebytes);
+      for (String line : lines) {
+          Tuple t = parseLine(line, sep, td);
+          if (t == null)
+              continue;
+          if (page != null && !tryInsert(page, t)) {
+              chunk.pages.add(page.getPageData());
+              chunk.tail.clear();
+              page = newPage(td, layout, null, null, npagebytes);
+              if (!tryInsert(page, t)) {
+                  throw new IOException("tuple does not fit on an empty page: " + t);
+              }
+          }
+          chunk.tail.add(t);
+      }
+      return chunk;
+  }
+
+  // 按顺序把 tuple 装进页，页满了就写出去换一页
+  private static class PageWriter {
+      private final OutputStream os;
+      private final TupleDesc td;
+      private final PageLayout layout;
+      private final StringDictionary dictionary;
+      private final OverflowFile overflow;
+      private final int npagebytes;
+      private HeapPage page;
+      private boolean pageEmpty = true;
+      private int npages = 0;
+
+      PageWriter(OutputStream os, TupleDesc td, PageLayout layout, StringDictionary dictionary,
+                 OverflowFile overflow, int npagebytes) throws IOException {
+          this.os = os;
+          this.td = td;
+          this.layout = layout;
+          this.dictionary = dictionary;
+          this.overflow = overflow;
+          this.npagebytes = npagebytes;
+          this.page = newPage(td, layout, dictionary, overflow, npagebytes);
+      }
+
+      void add(Tuple t) throws IOException {
+          if (!tryInsert(page, t)) {
+              // page is full: write it out and start the next one
+              os.write(page.getPageData());
+              npages++;
+              page = newPage(td, layout, dictionary, overflow, npagebytes);
+              if (!tryInsert(page, t)) {
+                  throw new IOException("tuple does not fit on an empty page: " + t);
+              }
+          }
+          pageEmpty = false;
+      }
+
+      // 按顺序写出块里编好的整页，再接着装它最后一页的 tuple
+      void addChunk(EncodedChunk chunk) throws IOException {
+          if (!chunk.pages.isEmpty() && !pageEmpty) {
+              // 前一块剩下的半页只能先这样写出去
+              os.write(page.getPageData());
+              npages++;
+              page = newPage(td, layout, dictionary, overflow, npagebytes);
+              pageEmpty = true;
+          }
+          for (byte[] data : chunk.pages) {
+              os.write(data);
+              npages++;
+          }
+          for (Tuple t : chunk.tail) {
+              add(t);
+          }
+      }
+
+      void finish() throws IOException {
+          // if this file is empty, do write an empty page to disk
+          if (!pageEmpty || npages == 0)
+              os.write(page.getPageData());
+      }
+  }
+
+  private static boolean tryInsert(HeapPage page, Tuple t) {
+      try {
+          page.insertTuple(t);
+          return true;
+      } catch (DbException e) {
+          return false; // 页满了
+      }
+  }
+
+  private static HeapPage newPage(TupleDesc td, PageLayout layout, StringDictionary dictionary,
+                 OverflowFile overflow, int npagebytes) throws IOException {
+      return new HeapPage(new HeapPageId(0, 0), HeapPage.createEmptyPageData(npagebytes), td, layout,
+              dictionary, npagebytes, overflow);
+  }
+
+  // 字典从空的开始，和新写的页一一对应
+  private static StringDictionary newDictionary(File outFile, int numFields, int[] dictionaryFields) {
+      if (dictionaryFields == null || dictionaryFields.length == 0) {
+          return null;
+      }
+      File dictFile = StringDictionary.dictionaryFile(outFile);
+      dictFile.delete();
+      return new StringDictionary(dictFile, numFields, dictionaryFields);
+  }
+
+  // 同样，溢出文件也从空的开始；没有 TEXT 列时为 null
+  private static OverflowFile newOverflowFile(File outFile, TupleDesc td, int npagebytes) {
+      File overflowFile = OverflowFile.overflowFile(outFile);
+      overflowFile.delete();
+      for (int i = 0; i < td.numFields(); i++) {
+          if (td.getFieldType(i) == Type.TEXT_TYPE) {
+              return new OverflowFile(overflowFile, npagebytes);
+          }
+      }
+      return null;
+  }
+
+  private static <T> T await(Future<T> f) throws IOException {
+      try {
+          return f.get();
+      } catch (InterruptedException e) {
+          throw new InterruptedIOException("conversion interrupted");
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+              throw (IOException) e.getCause();
+          }
+          throw new IOException("conversion worker failed", e.getCause());
+      }
+  }
+
+  // 逐行解析成 Tuple 插进内存里的 HeapPage，页满了就写出去换一页
+  private static void convertWithPages(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, PageLayout layout,
+                 int[] dictionaryFields)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      String sep = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+      StringDictionary dictionary = newDictionary(outFile, numFields, dictionaryFields);
+      OverflowFile overflow = newOverflowFile(outFile, td, npagebytes);
+
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           FileOutputStream os = new FileOutputStream(outFile)) {
+          PageWriter writer = new PageWriter(os, td, layout, dictionary, overflow, npagebytes);
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty())
+                  continue;
+              Tuple t = parseLine(line, sep, td);
+              if (t != null)
+                  writer.add(t);
+          }
+          writer.finish();
+      } finally {
+          if (overflow != null)
+              overflow.close();
+      }
+  }
+
+  static Tuple parseLine(String line, String sep, TupleDesc td) {
+      String[] fields = line.split(sep, -1);
+      if (fields.length < td.numFields()) {
+          System.out.println("BAD LINE : " + line);
+          return null;
+      }
+      Tuple t = new Tuple(td);
+      for (int i = 0; i < td.numFields(); i++) {
+          String s = fields[i].trim();
+          try {
+              t.setField(i, td.getFieldType(i).parse(s));
+          } catch (IllegalArgumentException e) {
+              System.out.println("BAD LINE : " + line);
+              return null;
+          }
+      }
+      return t;
+  }
+
+  /** Copy a file of raw pages, as written by the convert methods, into a
+   * file of compressed pages that a HeapFile opened with compression can
+   * read.
+   *
+   * @see CompressedPageFile
+   * @param inFile the file of raw pages
+   * @param outFile the file to write compressed pages to; its page map is
+   *        written next to it
+   * @param npagebytes The number of bytes per page in both files
+   */
+  public static void compressPages(File inFile, File outFile, int npagebytes) throws IOException {
+      // start from an empty file and page map
+      new FileOutputStream(outFile).close();
+      CompressedPageFile.mapFile(outFile).delete();
+      CompressedPageFile out = new CompressedPageFile(outFile, npagebytes);
+      HeapFile.recordPageSize(outFile, npagebytes);
+      byte[] page = new byte[npagebytes];
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)))) {
+          long n = inFile.length() / npagebytes;
+          for (long i = 0; i < n; i++) {
+              in.readFully(page);
+              out.write(out.appendEmptyPage(), page);
+          }
+      }
+  }
 }
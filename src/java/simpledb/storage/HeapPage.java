@@ -1,13 +1,16 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -17,64 +20,226 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements Page, FieldAccessor {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
     final Tuple[] tuples;
     final int numSlots;
+    final PageLayout layout;
+    // 页的字节数，由所在的表决定（见 HeapFile#getPageSize）
+    final int pageSize;
+    // 字典编码列所在表的字典，没有字典编码列时为 null
+    final StringDictionary dictionary;
+    // TEXT 列的值所在的溢出文件，没有 TEXT 列时为 null
+    final OverflowFile overflow;
+    private final boolean hasText;
 
+    // 从磁盘读来的原始页字节；tuples[i] 为 null 且槽位在用时，从这里解码
+    private final byte[] data;
+    // tuple 在页上的大小，以及每个字段在页上的字节数和在 tuple 内的偏移
+    // （字典编码的字符串列只占 4 字节的编码）
+    private final int tupleSize;
+    private final int[] fieldLens;
+    private final int[] fieldOffsets;
+
+    // SLOTTED 布局：每个槽位的记录在 data 中的位置和长度，以及在用记录的总字节数
+    private final int[] recordOffset;
+    private final int[] recordLength;
+    private int recordBytes = 0;
+
+    // 修改前的页字节（before image）。只有页第一次被修改时才拍快照，
+    // 提交后丢弃；为 null 表示当前内容就是 before image
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
 
     private TransactionId dirtyTid = null;  // 最近修改该页的事务 ID（用于事务恢复）
 
+    // 从这页删掉的 TEXT 值；删除提交（setBeforeImage）后才把空间还给溢出文件，回滚时随这页对象一起丢掉
+    private List<TextField> freedText = null;
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of the table (see
+     * {@link HeapFile#getPageSize()}).
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tables stored with {@link PageLayout#SLOTTED} pages use a different
+     * format: a 4-byte count n followed by a slot directory of n
+     * (2-byte offset, 2-byte length) entries, with the records themselves
+     * packed against the end of the page.  An offset of 0 marks an empty
+     * slot.  In a record, ints take 4 bytes and strings a 2-byte length
+     * followed by that many bytes.
+     * <p>
+     * {@link PageLayout#PAX} pages have the same header and number of slots
+     * as row pages, but after the header come one minipage per field, each
+     * holding that field of every slot in slot order.
+     * <p>
+     * In every layout, a dictionary-encoded string field takes 4 bytes: its
+     * code in the table's {@link StringDictionary}, and a TEXT field takes
+     * 12 bytes: the length of its value and where the value starts in the
+     * table's {@link OverflowFile}.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see HeapFile#getPageSize()
+     * @see HeapFile#getLayout()
+     * @see HeapFile#getDictionary()
+     * @see HeapFile#getOverflowFile()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()),
+                layoutOf(id.getTableId()), dictionaryOf(id.getTableId()), pageSizeOf(id.getTableId()),
+                overflowOf(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of a table with the given schema and page layout,
+     * without looking the table up in the catalog.
+     */
+    HeapPage(HeapPageId id, byte[] data, TupleDesc td, PageLayout layout) throws IOException {
+        this(id, data, td, layout, null);
+    }
+
+    /**
+     * Create a HeapPage of a table with the given schema, page layout and
+     * dictionary (null if no field is dictionary-encoded), without looking
+     * the table up in the catalog.
+     */
+    HeapPage(HeapPageId id, byte[] data, TupleDesc td, PageLayout layout,
+             StringDictionary dictionary) throws IOException {
+        this(id, data, td, layout, dictionary, BufferPool.getPageSize());
+    }
+
+    /**
+     * Create a HeapPage of pageSize bytes of a table with the given schema,
+     * page layout and dictionary, without looking the table up in the
+     * catalog.
+     */
+    HeapPage(HeapPageId id, byte[] data, TupleDesc td, PageLayout layout,
+             StringDictionary dictionary, int pageSize) throws IOException {
+        this(id, data, td, layout, dictionary, pageSize, null);
+    }
+
+    /**
+     * Create a HeapPage of pageSize bytes of a table with the given schema,
+     * page layout, dictionary and overflow file (null if there is no TEXT
+     * field), without looking the table up in the catalog.
+     */
+    HeapPage(HeapPageId id, byte[] data, TupleDesc td, PageLayout layout,
+             StringDictionary dictionary, int pageSize, OverflowFile overflow) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
+        this.layout = layout;
+        this.dictionary = dictionary;
+        this.pageSize = pageSize;
+        this.overflow = overflow;
+
+        boolean text = false;
+        for (int j = 0; j < td.numFields(); j++) {
+            text |= td.getFieldType(j) == Type.TEXT_TYPE;
+        }
+        this.hasText = text;
+
+        fieldLens = new int[td.numFields()];
+        fieldOffsets = new int[td.numFields()];
+        int size = 0;
+        for (int j = 0; j < fieldLens.length; j++) {
+            fieldLens[j] = isDictionaryEncoded(j) ? 4 : td.getFieldType(j).getLen();
+            fieldOffsets[j] = size;
+            size += fieldLens[j];
+        }
+        tupleSize = size;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+        // 只保留原始字节，tuple 在第一次被访问时才解码（见 getTuple）
+        this.data = data;
+        tuples = new Tuple[numSlots];
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        if (layout == PageLayout.SLOTTED) {
+            if (pageSize > 0xFFFF) {
+                throw new IllegalStateException("slotted pages can be at most 64KB");
+            }
+            recordOffset = new int[numSlots];
+            recordLength = new int[numSlots];
+            readSlotDirectory();
+        } else {
+            recordOffset = null;
+            recordLength = null;
+            if (data.length < header.length) {
+                throw new EOFException("page data is shorter than the page header");
+            }
+            System.arraycopy(data, 0, header, 0, header.length);
         }
-        dis.close();
+    }
+
+    // 表在 catalog 里是 HeapFile 时用它的布局，其他情况（比如测试用的假 DbFile）按行存
+    private static PageLayout layoutOf(int tableId) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof HeapFile ? ((HeapFile) f).getLayout() : PageLayout.ROW;
+    }
+
+    private static StringDictionary dictionaryOf(int tableId) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof HeapFile ? ((HeapFile) f).getDictionary() : null;
+    }
+
+    private static OverflowFile overflowOf(int tableId) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof HeapFile ? ((HeapFile) f).getOverflowFile() : null;
+    }
 
-        setBeforeImage();
+    private static int pageSizeOf(int tableId) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof HeapFile ? ((HeapFile) f).getPageSize() : BufferPool.getPageSize();
+    }
+
+    private boolean isDictionaryEncoded(int field) {
+        return dictionary != null && dictionary.isEncoded(field);
+    }
+
+    // 读槽目录，在内存里的 header 位图上标出在用的槽位
+    private void readSlotDirectory() throws IOException {
+        int n = data.length >= 4 ? readInt(0) : 0;
+        if (n < 0 || n > numSlots || 4 + 4 * n > data.length) {
+            throw new IOException("corrupt slot directory on page " + pid);
+        }
+        for (int i = 0; i < n; i++) {
+            int off = readShort(4 + 4 * i);
+            int len = readShort(6 + 4 * i);
+            if (off == 0) {
+                continue;
+            }
+            if (off + len > data.length) {
+                throw new IOException("corrupt slot directory on page " + pid);
+            }
+            recordOffset[i] = off;
+            recordLength[i] = len;
+            recordBytes += len;
+            markSlotUsed(i, true);
+        }
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {
-        return BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        if (layout == PageLayout.SLOTTED) {
+            // 每条记录至少占一个目录项加上最短的记录
+            return (pageSize - 4) / (4 + minRecordSize());
+        }
+        return pageSize * 8 / (tupleSize * 8 + 1);
 
     }
 
@@ -90,12 +255,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,getBeforeImageData(),td,layout,dictionary,pageSize,overflow);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -103,11 +263,41 @@ public class HeapPage implements Page {
         }
         return null;
     }
-    
+
+    /** Return the raw bytes of the before image, without decoding them */
+    public byte[] getBeforeImageData() {
+        byte[] oldDataRef = null;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
+        }
+        return oldDataRef != null ? oldDataRef : getPageData();
+    }
+
+    /** The current contents become the before image.  Nothing is copied
+        until the page is next modified (see captureBeforeImage).  The
+        overflow space of TEXT values deleted from the page since the last
+        before image can now be reused. */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+        if (freedText != null) {
+            for (TextField f : freedText) {
+                f.release();
+            }
+            freedText = null;
+        }
+    }
+
+    // copy-on-write：第一次修改前把当前内容保存成 before image
+    private void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
         }
     }
 
@@ -119,37 +309,226 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up(吸收) tuples from the source file.
+     * Return the tuple in slot i, decoding it from the raw page bytes the
+     * first time it is asked for, or null if the slot is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    public Tuple getTuple(int i) {
+        if (!isSlotUsed(i)) {
             return null;
         }
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = readTuple(i);
+            tuples[i] = t;
+        }
+        return t;
+    }
 
-        // read fields in the tuple
+    /**
+     * Return the tuple in slot i with only the given fields filled in; the
+     * other fields are left null.  Only the bytes of those fields are read,
+     * which on a PAX page means only their minipages.  The result is not
+     * cached.  If the tuple was already decoded the full tuple is returned.
+     *
+     * @param fields the fields to decode, or null for all of them
+     */
+    public Tuple getTuple(int i, int[] fields) {
+        if (fields == null || tuples[i] != null || !isSlotUsed(i)) {
+            return getTuple(i);
+        }
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, i));
+        for (int j : fields) {
+            readField(t, j, fieldOffset(i, j));
+        }
+        return t;
+    }
+
+    /**
+     * Decode the tuple stored in slot slotId of the raw page bytes.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
+        if (layout == PageLayout.SLOTTED) {
+            int off = recordOffset[slotId];
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                off = readField(t, j, off);
             }
+            return t;
+        }
+        for (int j=0; j<td.numFields(); j++) {
+            readField(t, j, fieldOffset(slotId, j));
+        }
+        return t;
+    }
+
+    // 解码从 off 开始的第 j 个字段，返回紧跟在它后面的位置
+    private int readField(Tuple t, int j, int off) throws NoSuchElementException {
+        if (isDictionaryEncoded(j)) {
+            t.setField(j, new DictStringField(dictionary, j, readInt(off)));
+            return off + 4;
+        }
+        Type type = td.getFieldType(j);
+        if (type == Type.INT_TYPE) {
+            t.setInt(j, readInt(off)); // 不分配 IntField
+            return off + 4;
+        }
+        if (type == Type.DOUBLE_TYPE) {
+            t.setDouble(j, Double.longBitsToDouble(readLong(off)));
+            return off + 8;
+        }
+        if (type.isWide()) {
+            t.setLong(j, readLong(off));
+            return off + 8;
+        }
+        if (type == Type.STRING_TYPE && layout == PageLayout.SLOTTED) {
+            int len = readShort(off);
+            t.setField(j, new StringField(new String(data, off + 2, len), Type.STRING_LEN));
+            return off + 2 + len;
+        }
+        if (type == Type.STRING_TYPE) {
+            int len = readInt(off);
+            t.setField(j, new StringField(new String(data, off + 4, len), Type.STRING_LEN));
+            return off + type.getLen();
+        }
+        if (type == Type.TEXT_TYPE) {
+            t.setField(j, textAt(off)); // 值等用到时才从溢出页读
+            return off + type.getLen();
+        }
+        try {
+            t.setField(j, type.parse(new DataInputStream(
+                    new ByteArrayInputStream(data, off, type.getLen()))));
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+        return off + type.getLen();
+    }
 
-        return t;
+    private TextField textAt(int off) {
+        return new TextField(overflow, readInt(off + 4), readInt(off + 8), readInt(off));
+    }
+
+    // 槽位 slot 的第 field 个字段在原始页字节中的起始位置
+    private int fieldOffset(int slot, int field) {
+        if (layout == PageLayout.SLOTTED) {
+            int off = recordOffset[slot];
+            for (int j = 0; j < field; j++) {
+                off += isVariableLength(j) ? 2 + readShort(off) : fieldLens[j];
+            }
+            return off;
+        }
+        if (layout == PageLayout.PAX) {
+            // 第 field 列的 minipage 前面是前几列所有槽位的值
+            return header.length + numSlots * fieldOffsets[field]
+                    + slot * fieldLens[field];
+        }
+        return header.length + slot * tupleSize + fieldOffsets[field];
+    }
+
+    // SLOTTED 页上没有字典编码的字符串是变长的
+    private boolean isVariableLength(int field) {
+        return layout == PageLayout.SLOTTED && td.getFieldType(field) == Type.STRING_TYPE
+                && !isDictionaryEncoded(field);
+    }
+
+    private int readShort(int off) {
+        return ((data[off] & 0xFF) << 8) | (data[off + 1] & 0xFF);
+    }
+
+    private int readInt(int off) {
+        return ((data[off] & 0xFF) << 24) | ((data[off + 1] & 0xFF) << 16)
+                | ((data[off + 2] & 0xFF) << 8) | (data[off + 3] & 0xFF);
+    }
+
+    private long readLong(int off) {
+        return ((long) readInt(off) << 32) | (readInt(off + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the schema of the tuples on this page
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Read an INT_TYPE field of a used slot directly from the page bytes.
+     */
+    public int getInt(int slot, int field) {
+        Tuple t = tuples[slot];
+        if (t != null) {
+            return t.getInt(field);
+        }
+        return readInt(fieldOffset(slot, field));
+    }
+
+    /**
+     * Read a LONG_TYPE or TIMESTAMP_TYPE field of a used slot directly from
+     * the page bytes.
+     */
+    public long getLong(int slot, int field) {
+        Tuple t = tuples[slot];
+        if (t != null) {
+            return t.getLong(field);
+        }
+        return readLong(fieldOffset(slot, field));
+    }
+
+    /**
+     * Read a DOUBLE_TYPE field of a used slot directly from the page bytes.
+     */
+    public double getDouble(int slot, int field) {
+        Tuple t = tuples[slot];
+        if (t != null) {
+            return t.getDouble(field);
+        }
+        return Double.longBitsToDouble(readLong(fieldOffset(slot, field)));
+    }
+
+    /**
+     * Compare a STRING_TYPE field of a used slot against value directly on
+     * the page bytes.  Strings are stored one byte per character, so while
+     * the stored bytes are ASCII comparing them to the chars of value gives
+     * the same answer as String.compareTo; otherwise the stored string is
+     * decoded.  A dictionary-encoded field is looked up in the dictionary,
+     * which allocates nothing.  A TEXT field has to read its value from
+     * the overflow file.
+     */
+    public int compareString(int slot, int field, String value) {
+        Tuple t = tuples[slot];
+        if (t != null) {
+            return ((StringField) t.getField(field)).getValue().compareTo(value);
+        }
+        int off = fieldOffset(slot, field);
+        if (td.getFieldType(field) == Type.TEXT_TYPE) {
+            return textAt(off).getValue().compareTo(value);
+        }
+        if (isDictionaryEncoded(field)) {
+            String s = dictionary.decode(field, readInt(off));
+            return s == value ? 0 : s.compareTo(value);
+        }
+        int len;
+        if (layout == PageLayout.SLOTTED) {
+            len = readShort(off);
+            off += 2;
+        } else {
+            len = Math.min(Math.max(readInt(off), 0), Type.STRING_LEN);
+            off += 4;
+        }
+        int n = Math.min(len, value.length());
+        for (int i = 0; i < len; i++) {
+            int b = data[off + i] & 0xFF;
+            if (b >= 0x80) {
+                return new String(data, off, len).compareTo(value);
+            }
+            if (i < n && b != value.charAt(i)) {
+                return b - value.charAt(i);
+            }
+        }
+        return len - value.length();
     }
 
     /**
@@ -164,7 +543,26 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
+        byte[] page = encodePage();
+        // 页上指向的溢出值要先落盘，这一页才能写出去或记进日志
+        if (overflow != null) {
+            try {
+                overflow.force();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return page;
+    }
+
+    private byte[] encodePage() {
+        if (layout == PageLayout.SLOTTED) {
+            return getSlottedPageData();
+        }
+        if (layout == PageLayout.PAX) {
+            return getPaxPageData();
+        }
+        int len = pageSize;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
@@ -183,7 +581,7 @@ public class HeapPage implements Page {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
+                for (int j=0; j<tupleSize; j++) {
                     try {
                         dos.writeByte(0);
                     } catch (IOException e) {
@@ -194,11 +592,20 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never decoded: its bytes are unchanged
+            if (tuples[i] == null) {
+                try {
+                    dos.write(data, header.length + i * tupleSize, tupleSize);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
+                    writeField(dos, j, tuples[i]);
                 
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -207,7 +614,7 @@ public class HeapPage implements Page {
         }
 
         // padding(填充)
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = pageSize - (header.length + tupleSize * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -224,6 +631,214 @@ public class HeapPage implements Page {
         return baos.toByteArray();
     }
 
+    // 按槽位顺序把记录从页尾往前紧挨着放，删除留下的空洞在这里被压实
+    private byte[] getSlottedPageData() {
+        byte[] page = new byte[pageSize];
+        int n = highestUsedSlot() + 1;
+        writeInt(page, 0, n);
+        int end = page.length;
+        for (int i = 0; i < n; i++) {
+            if (!isSlotUsed(i)) {
+                continue; // 目录项保持 (0, 0)
+            }
+            int len;
+            if (tuples[i] == null) {
+                len = recordLength[i];
+                end -= len;
+                System.arraycopy(data, recordOffset[i], page, end, len);
+            } else {
+                byte[] rec = encodeRecord(tuples[i]);
+                len = rec.length;
+                end -= len;
+                System.arraycopy(rec, 0, page, end, len);
+            }
+            writeShort(page, 4 + 4 * i, end);
+            writeShort(page, 6 + 4 * i, len);
+        }
+        return page;
+    }
+
+    // 逐列写：没解码过的槽位直接从原始字节里拷（PAX 里每个值的位置是固定的）
+    private byte[] getPaxPageData() {
+        byte[] page = new byte[pageSize];
+        System.arraycopy(header, 0, page, 0, header.length);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Type.STRING_LEN + 4);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = fieldLens[j];
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i)) {
+                    continue;
+                }
+                int off = fieldOffset(i, j);
+                if (tuples[i] == null) {
+                    System.arraycopy(data, off, page, off, len);
+                    continue;
+                }
+                baos.reset();
+                try {
+                    writeField(dos, j, tuples[i]);
+                    dos.flush();
+                } catch (IOException e) {
+                    // this really shouldn't happen
+                    e.printStackTrace();
+                }
+                System.arraycopy(baos.toByteArray(), 0, page, off, len);
+            }
+        }
+        return page;
+    }
+
+    // 字典编码的字段写编码，数值字段直接写原始值，其他字段按 Field 自己的格式写
+    private void writeField(DataOutputStream dos, int j, Tuple t) throws IOException {
+        Type type = td.getFieldType(j);
+        if (isDictionaryEncoded(j)) {
+            dos.writeInt(codeOf(j, t.getField(j)));
+        } else if (type == Type.INT_TYPE) {
+            dos.writeInt(t.getInt(j));
+        } else if (type == Type.DOUBLE_TYPE) {
+            dos.writeDouble(t.getDouble(j));
+        } else if (type.isWide()) {
+            dos.writeLong(t.getLong(j));
+        } else if (type == Type.TEXT_TYPE) {
+            Field f = t.getField(j);
+            // 插入时就已经存进溢出文件了，这里只写指针
+            if (!(f instanceof TextField) || !((TextField) f).isStoredIn(overflow)) {
+                throw new IllegalStateException("TEXT field " + j + " of " + t.getRecordId()
+                        + " is not stored in the overflow file");
+            }
+            ((TextField) f).writePointer(dos);
+        } else {
+            t.getField(j).serialize(dos);
+        }
+    }
+
+    // 从同一列读出来的值直接用它带的编码，其他值查字典（必要时加进字典）
+    private int codeOf(int j, Field f) {
+        if (f instanceof DictStringField && ((DictStringField) f).isCodeOf(dictionary, j)) {
+            return ((DictStringField) f).getCode();
+        }
+        try {
+            return dictionary.encode(j, stringValue(f));
+        } catch (IOException e) {
+            // 编码写不进字典文件，这一页就不能写出去
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 有 TEXT 列时，页上放的是 t 的一份拷贝，其中每个 TEXT 值都另存一份进本表的溢出文件：
+    // 每个槽位独占自己的值，删除时才能放心回收；t 本身不改
+    private Tuple withStoredText(Tuple t) throws DbException {
+        if (!hasText) {
+            return t;
+        }
+        if (overflow == null) {
+            throw new DbException("table " + pid.getTableId() + " has no overflow file");
+        }
+        Tuple copy = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) != Type.TEXT_TYPE) {
+                copy.copyField(j, t, j);
+                continue;
+            }
+            String value = ((StringField) t.getField(j)).getValue();
+            try {
+                int[] start = overflow.store(value.getBytes(StandardCharsets.UTF_8));
+                copy.setField(j, new TextField(overflow, start[0], start[1], value));
+            } catch (IOException | UncheckedIOException e) {
+                // 前面已经存下的值不会再有人引用，空间还回去
+                for (int k = 0; k < j; k++) {
+                    if (td.getFieldType(k) == Type.TEXT_TYPE) {
+                        ((TextField) copy.getField(k)).release();
+                    }
+                }
+                DbException wrapped = new DbException("cannot store TEXT value: " + e);
+                wrapped.initCause(e);
+                throw wrapped;
+            }
+        }
+        return copy;
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static void writeShort(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 8);
+        b[off + 1] = (byte) v;
+    }
+
+    // 变长记录：数值字段按类型定长，字符串是 2 字节长度加上实际的字符
+    private byte[] encodeRecord(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(recordSize(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                if (isVariableLength(j)) {
+                    String s = stringValue(t.getField(j));
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    writeField(dos, j, t);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    private static String stringValue(Field f) {
+        String s = ((StringField) f).getValue();
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+
+    /** @return the number of bytes t takes as a record on a SLOTTED page */
+    private int recordSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += isVariableLength(j) ? 2 + stringValue(t.getField(j)).length() : fieldLens[j];
+        }
+        return size;
+    }
+
+    private int minRecordSize() {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += isVariableLength(j) ? 2 : fieldLens[j];
+        }
+        return size;
+    }
+
+    private int maxRecordSize() {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += isVariableLength(j) ? 2 + Type.STRING_LEN : fieldLens[j];
+        }
+        return size;
+    }
+
+    // 在用槽位里编号最大的一个，没有则为 -1
+    private int highestUsedSlot() {
+        for (int b = header.length - 1; b >= 0; b--) {
+            if (header[b] != 0) {
+                return b * 8 + 31 - Integer.numberOfLeadingZeros(header[b] & 0xFF);
+            }
+        }
+        return -1;
+    }
+
+    // SLOTTED 页上已经用掉的字节：槽目录加上所有记录
+    private int usedBytes(int directoryEntries) {
+        return 4 + 4 * directoryEntries + recordBytes;
+    }
+
     /**
      * Static method to generate a byte array corresponding to an empty
      * HeapPage.
@@ -234,8 +849,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the bytes of an empty HeapPage of pageSize bytes, for tables
+     *         whose pages are not the default size
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -265,6 +887,22 @@ public class HeapPage implements Page {
         }
 
         // 3. 删除 tuple 并更新 header
+        captureBeforeImage();
+        if (hasText) {
+            Tuple old = getTuple(slotIndex);
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = old.getField(j);
+                if (f instanceof TextField && ((TextField) f).isStoredIn(overflow)) {
+                    if (freedText == null) {
+                        freedText = new ArrayList<>();
+                    }
+                    freedText.add((TextField) f);
+                }
+            }
+        }
+        if (layout == PageLayout.SLOTTED) {
+            recordBytes -= tuples[slotIndex] != null ? recordSize(tuples[slotIndex]) : recordLength[slotIndex];
+        }
         tuples[slotIndex] = null; // 删除 tuple
         markSlotUsed(slotIndex, false); // 更新 header，标记该 slot 为空
 
@@ -273,6 +911,12 @@ public class HeapPage implements Page {
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
      *  that it is now stored on this page.
+     * <p>
+     * The values of TEXT fields are written to the table's overflow file
+     * here, a new copy for every insert, and the page keeps a copy of the
+     * tuple that points to them; serializing the page writes nothing else.
+     * Deleting the tuple gives the space back once the delete commits (see
+     * {@link #setBeforeImage()}).
      * @throws DbException if the page is full (no empty slots) or tupledesc
      *         is mismatch.
      * @param t The tuple to add.
@@ -289,9 +933,22 @@ public class HeapPage implements Page {
         // 2. 查找一个空闲的 slot
         for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
-                // 3. 找到空闲 slot，插入 tuple 并更新 header
-                tuples[i] = t;
+                // SLOTTED 页还要放得下这条记录（和可能新增的目录项）
+                int size = 0;
+                if (layout == PageLayout.SLOTTED) {
+                    size = recordSize(t);
+                    int entries = Math.max(highestUsedSlot(), i) + 1;
+                    if (usedBytes(entries) + size > pageSize) {
+                        break;
+                    }
+                }
+                // 3. 找到空闲 slot，插入 tuple 并更新 header；TEXT 值存失败时页不能有任何改动
+                captureBeforeImage();
+                Tuple stored = withStoredText(t);
+                recordBytes += size;
+                tuples[i] = stored;
                 t.setRecordId(new RecordId(this.pid, i));
+                stored.setRecordId(t.getRecordId());
                 markSlotUsed(i, true);  // 更新 header，标记该 slot 为已使用
                 return;
             }
@@ -328,17 +985,31 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
-     *
+     * Returns the number of empty slots on this page.  On a SLOTTED page
+     * this is the number of tuples that are sure to fit however long their
+     * strings are.
      */
     public int getNumEmptySlots() {
-        int count = 0;
-        for(int i = 0; i < numSlots; i++){
-            if(!(isSlotUsed(i))){
-                count++;
+        if (layout == PageLayout.SLOTTED) {
+            // 保守估计：按最长的记录算还能放下几条
+            int free = pageSize - usedBytes(highestUsedSlot() + 1);
+            return Math.max(0, Math.min(numSlots - usedSlots(), free / (4 + maxRecordSize())));
+        }
+        return numSlots - usedSlots();
+    }
+
+    private int usedSlots() {
+        // 按字节数 header 里置位的个数，最后一个字节只看属于槽位的那几位
+        int used = 0;
+        for (int b = 0; b < header.length; b++) {
+            int bits = header[b] & 0xFF;
+            int valid = Math.min(8, numSlots - b * 8);
+            if (valid < 8) {
+                bits &= (1 << valid) - 1;
             }
+            used += Integer.bitCount(bits);
         }
-        return count;
+        return used;
     }
 
     /**
@@ -379,13 +1050,115 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        ArrayList<Tuple> res = new ArrayList<>();
-        for(int i = 0; i < numSlots; i++){
-            if(isSlotUsed(i)){
-                res.add(tuples[i]);
+        return iterator(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p.  The
+     *         predicate is evaluated on the page bytes, so no Tuple is
+     *         built for slots it rejects.  A null p accepts every tuple.
+     */
+    public Iterator<Tuple> iterator(final Predicate p) {
+        return iterator(p, null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p, with
+     *         only the given fields decoded (see {@link #getTuple(int, int[])}).
+     *         A null p accepts every tuple; null fields decodes all fields.
+     */
+    public SlotIterator iterator(final Predicate p, final int[] fields) {
+        return new SlotIterator(p, fields);
+    }
+
+    /**
+     * An iterator over the tuples of the page that satisfy a predicate, as
+     * returned by {@link HeapPage#iterator(Predicate, int[])}.  Tuples can
+     * also be read a batch at a time with {@link #fillBatch}, which copies
+     * the fields straight from the page bytes into the batch.
+     */
+    public class SlotIterator implements Iterator<Tuple> {
+        // 迭代开始时的 header 快照：之后插入的 tuple 不会被迭代到；
+        // 迭代过程中被删除的 tuple 直接跳过。tuple 在 next() 时才解码
+        private final byte[] snapshot = header.clone();
+        private final Predicate p;
+        private final int[] fields;
+        private int next;
+
+        private SlotIterator(Predicate p, int[] fields) {
+            this.p = p;
+            this.fields = fields;
+            this.next = advance(0);
+        }
+
+        // 从槽位 i 开始找下一个在快照中占用的槽位，整字节为 0 时一次跳过 8 个
+        private int advance(int i) {
+            while (i < numSlots) {
+                if ((i & 7) == 0 && snapshot[i >> 3] == 0) {
+                    i += 8;
+                    continue;
+                }
+                if (((snapshot[i >> 3] >> (i & 7)) & 1) == 1 && isSlotUsed(i)
+                        && (p == null || p.filter(HeapPage.this, i))) {
+                    return i;
+                }
+                i++;
+            }
+            return numSlots;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < numSlots && !isSlotUsed(next)) {
+                next = advance(next + 1);
+            }
+            return next < numSlots;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = getTuple(next, fields);
+            next = advance(next + 1);
+            return t;
+        }
+
+        /**
+         * Add the remaining tuples of the page to batch, as many as fit.
+         * Numeric fields are copied from the page bytes without building
+         * a Tuple; only the given fields are read.
+         */
+        public void fillBatch(TupleBatch batch) {
+            Tuple scratch = null; // 非数值字段先解码到这里
+            while (!batch.isFull() && hasNext()) {
+                int slot = next;
+                int row = batch.addRow(new RecordId(pid, slot));
+                Tuple t = tuples[slot];
+                int n = fields == null ? td.numFields() : fields.length;
+                for (int k = 0; k < n; k++) {
+                    int j = fields == null ? k : fields[k];
+                    if (t != null) {
+                        batch.copyField(row, j, t, j);
+                        continue;
+                    }
+                    Type type = td.getFieldType(j);
+                    if (type == Type.INT_TYPE) {
+                        batch.setInt(row, j, getInt(slot, j));
+                    } else if (type.isWide()) {
+                        batch.setLong(row, j, getLong(slot, j)); // double 也按位拷
+                    } else {
+                        if (scratch == null) {
+                            scratch = new Tuple(td);
+                        }
+                        readField(scratch, j, fieldOffset(slot, j));
+                        batch.setField(row, j, scratch.getField(j));
+                    }
+                }
+                next = advance(next + 1);
             }
         }
-        return res.iterator();
     }
 
 }
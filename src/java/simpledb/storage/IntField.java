@@ -55,20 +55,28 @@ public class IntField implements Field {
 
         IntField iVal = (IntField) val;
 
+        return compare(op, value, iVal.value);
+    }
+
+    /**
+     * Compare two int values with op, with the semantics of compare above,
+     * for callers that hold the values unboxed.
+     */
+    public static boolean compare(Predicate.Op op, int value, int other) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return value == other;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != other;
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > other;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= other;
             case LESS_THAN:
-                return value < iVal.value;
+                return value < other;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= other;
         }
 
         return false;
@@ -14,8 +14,9 @@ import java.util.ArrayDeque;
 public class LockerManager {
     enum LockType { SHARED, EXCLUSIVE}
 
-    // 等待图：谁在等谁（有向边）
-    private Map<TransactionId, Set<TransactionId>> waitFor = new HashMap<>();
+    // 等待图：谁在等谁（有向边）。同一事务可能有多个线程（并行扫描的 worker）同时在等，
+    // 所以出边按线程分开登记，一个线程拿到锁只清自己的那份
+    private Map<TransactionId, Map<Thread, Set<TransactionId>>> waitFor = new HashMap<>();
 
     // 正在等待哪个Page
     private Map<TransactionId, PageId> waitingOn = new HashMap<>();
@@ -81,8 +82,8 @@ public class LockerManager {
 
         // 需要把当前事务 tid 在等待图中的旧出边清理掉，重新建一个新的空集合来装它这次的等待关系
         Set<TransactionId> holders = new HashSet<>();
-        // 若 tid 原来不存在：等价于插入新键；若 tid 已经存在：等价于覆盖 -> 清空旧的等待关系
-        waitFor.put(tid, holders);
+        // 若当前线程原来不存在：等价于插入新键；若已经存在：等价于覆盖 -> 清空旧的等待关系
+        waitFor.computeIfAbsent(tid, k -> new HashMap<>()).put(Thread.currentThread(), holders);
 
         // 若当前事务想要S锁
         if (want == LockType.SHARED) {
@@ -135,24 +136,26 @@ public class LockerManager {
             // 取出当前要处理的事务（相当于 DFS 里的当前节点）
             TransactionId current = stack.pop();
 
-            // 找出当前事务 current 正在等待的所有事务（current → outs）
-            Set<TransactionId> outs = waitFor.get(current);
+            // 找出当前事务 current 的各个线程正在等待的所有事务（current → outs）
+            Map<Thread, Set<TransactionId>> threads = waitFor.get(current);
 
             // 如果 current 没有在等任何事务，跳过
-            if (outs == null || outs.isEmpty()) {
+            if (threads == null) {
                 continue;
             }
 
             // 遍历 current 的所有出边（也就是它正在等待的每一个事务）
-            for (TransactionId neighbor : outs) {
-                // 如果发现了回到 start 的路径，说明有环
-                if (neighbor.equals(start)) {
-                    return true;
-                }
-                // 如果 neighbor 没被访问过，加入栈和 seen 集合
-                if (!seen.contains(neighbor)) {
-                    seen.add(neighbor);
-                    stack.push(neighbor);
+            for (Set<TransactionId> outs : threads.values()) {
+                for (TransactionId neighbor : outs) {
+                    // 如果发现了回到 start 的路径，说明有环
+                    if (neighbor.equals(start)) {
+                        return true;
+                    }
+                    // 如果 neighbor 没被访问过，加入栈和 seen 集合
+                    if (!seen.contains(neighbor)) {
+                        seen.add(neighbor);
+                        stack.push(neighbor);
+                    }
                 }
             }
         }
@@ -168,8 +171,26 @@ public class LockerManager {
         // 删出边
         waitFor.remove(tid);
         // 删入边 (别人指向我的边)
-        for (Set<TransactionId> edges : waitFor.values()) {
-            edges.remove(tid);
+        removeEdgesTo(tid);
+    }
+
+    // 只清理当前线程替 tid 做的等待登记；tid 的其他线程可能还在等，它们的出边要留着
+    private void clearWaitingOfThread(TransactionId tid) {
+        Map<Thread, Set<TransactionId>> threads = waitFor.get(tid);
+        if (threads != null) {
+            threads.remove(Thread.currentThread());
+            if (!threads.isEmpty()) {
+                return;
+            }
+        }
+        clearWaitingOf(tid);
+    }
+
+    private void removeEdgesTo(TransactionId tid) {
+        for (Map<Thread, Set<TransactionId>> threads : waitFor.values()) {
+            for (Set<TransactionId> edges : threads.values()) {
+                edges.remove(tid);
+            }
         }
     }
 
@@ -194,11 +215,16 @@ public class LockerManager {
             if (hasCycle(tid)) {
 
                 // 清理等待登记
-                clearWaitingOf(tid);
+                clearWaitingOfThread(tid);
                 throw new TransactionAbortedException();
             }
-            // 无环，继续等待
-            wait();
+            // 无环，继续等待；被中断（比如并行扫描被取消）时也要清掉自己的登记
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                clearWaitingOfThread(tid);
+                throw e;
+            }
 
         }
 
@@ -216,7 +242,7 @@ public class LockerManager {
         transactionLocks.computeIfAbsent(tid, k -> new HashSet<>()).add(pid);
 
         // 清理等待登记
-        clearWaitingOf(tid);
+        clearWaitingOfThread(tid);
 
         // 因为其他等待相同资源（如 S 锁）的事务，现在可能可以被授予锁，需要被唤醒重新判断
         notifyAll();
@@ -256,9 +282,7 @@ public class LockerManager {
             if (pages.isEmpty()) transactionLocks.remove(tid);
         }
 
-        for (Set<TransactionId> outs : waitFor.values()) {
-            outs.remove(tid); // 清别人等我的入边
-        }
+        removeEdgesTo(tid); // 清别人等我的入边
 
         // 唤醒等待的事务
         notifyAll();
@@ -7,6 +7,10 @@ import simpledb.common.Debug;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.lang.reflect.*;
 
 /*
@@ -43,11 +47,14 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log is one logical byte stream, stored as a sequence of
+segment files (see LogSegments).  Offsets in the log, also called LSNs,
+are positions in this stream and stay valid when old segments are
+dropped.  The manifest file holds the offset of the last written
+checkpoint, or -1 if there are no checkpoints.
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> All data in the log consists of log records.  Log records are
+variable length, and never span two segments.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
@@ -55,8 +62,14 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> The last record is followed by an integer 0 (END_RECORD), which is
+not part of the log and is overwritten by the next record.  Segment
+files are reused without being cleared, so recovery stops at the first
+END_RECORD, unknown record type, or record whose start offset does not
+match where it was read.
+
+<li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, BULK_LOAD and DROP
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -69,14 +82,33 @@ methods.  See LogFile.print() for an example.
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  The transaction table is followed by the
+dirty page table: an integer count of dirty pages, and for each page its
+serialized PageId (see LogFile.writePageId()) and a long integer recLSN,
+the offset of the earliest log record that may be needed to redo it.
+
+<li> BULK_LOAD records stand in for the UPDATE records of a run of new
+pages written around the buffer pool (see BulkLoader): the serialized
+PageId of the first page and an integer count of pages.  The pages are
+forced to disk before the transaction commits, so there is nothing to
+redo; undo writes them back as empty pages.
+
+<li> DROP records say that a table was dropped and its file deleted (see
+PartitionedFile.dropPartition): an integer table id.  Recovery and
+rollback skip the page images of dropped tables, and of tables the
+catalog no longer knows.
 
 </ul>
+
+<p> Checkpoints are fuzzy: taking one does not flush the buffer pool, it
+only snapshots the transaction table and the dirty page table.  Recovery
+therefore starts redo at the minimum recLSN recorded in the last
+checkpoint, and undo at the first log record of the oldest loser.
 */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final LogSegments raf;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,6 +116,9 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int BULK_LOAD_RECORD = 6;
+    static final int DROP_RECORD = 7;
+    static final int END_RECORD = 0;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -95,6 +130,24 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    // 两次自动 checkpoint 之间允许写入的日志字节数，0 表示不自动 checkpoint
+    long checkpointInterval = 0; //protected by this
+    long lastCheckpointLsn = 0; //protected by this
+
+    // 最近一次 recover() 的耗时（毫秒），-1 表示还没做过恢复
+    volatile long lastRecoveryMillis = -1;
+
+    // recover() 写回页镜像时使用的工作线程数
+    int recoveryThreads = Runtime.getRuntime().availableProcessors(); //protected by this
+
+    // 异步提交：COMMIT 记录写进日志后不等 force，由后台线程每隔 asyncCommitIntervalMillis 统一 force
+    boolean asyncCommitDefault = false; //protected by this
+    long asyncCommitIntervalMillis = 10; //protected by this
+    long flushedLsn = 0; // 已经 force 到磁盘的日志末尾 //protected by this
+    long oldestUnflushedCommitMillis = -1; // 最早一个还没 force 的异步提交的时间 //protected by this
+    private Thread logFlusher = null; //protected by this
+    long numForces = 0; // force() 的调用次数 //protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -104,11 +157,15 @@ public class LogFile {
         do it, while if someone starts adding log file entries, then first
         throw out the initial log file contents.
 
+        <p>
+        The log itself is kept in segment files next to f, and f holds
+        the manifest listing them (see LogSegments).
+
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        raf = new LogSegments(f);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -129,17 +186,102 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            raf.reset();
+            // 新日志的 LSN 接着旧日志往后编，起点之前没有要 force 或 checkpoint 的东西
+            flushedLsn = raf.length();
+            lastCheckpointLsn = raf.length();
+        } else {
+            // records never span segments, so this is the only place to roll
+            raf.maybeRoll();
         }
+        raf.seek(raf.length());
+        currentOffset = raf.getFilePointer();
+    }
+
+    // 记录写完了：下一条记录从这里开始，先在这里放一个结束标记
+    private void endRecord() throws IOException {
+        currentOffset = raf.getFilePointer();
+        raf.writeEndMarker(END_RECORD);
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** Return the LSN that the next appended log record will get.  LSNs
+        are byte offsets in the (segmented) log and never change, so the
+        buffer pool can use them as recLSNs for its dirty page table.
+    */
+    public synchronized long getCurrentLsn() {
+        return currentOffset < 0 ? 0 : currentOffset;
+    }
+
+    /** Set the size at which the log starts a new segment file. */
+    public synchronized void setSegmentSize(long bytes) {
+        raf.setSegmentSize(bytes);
+    }
+
+    /** Move segments dropped by logTruncate() into dir instead of recycling
+        them; null restores recycling.
+    */
+    public synchronized void setArchiveDir(File dir) {
+        raf.setArchiveDir(dir);
+    }
+
+    /** @return the number of live log segments */
+    public synchronized int getNumSegments() {
+        return raf.numSegments();
+    }
+
+    /** Set the number of log bytes written between automatic checkpoints
+        (see maybeCheckpoint()).  Zero disables automatic checkpoints.
+    */
+    public synchronized void setCheckpointInterval(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("checkpoint interval must be non-negative");
+        }
+        checkpointInterval = bytes;
+    }
+
+    public synchronized long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /** Set the number of worker threads recover() uses to install redo
+        and undo page images.  Pages are partitioned across workers by
+        PageId hash, so updates to one page are always applied in order.
+    */
+    public synchronized void setRecoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one recovery thread");
+        }
+        recoveryThreads = threads;
+    }
+
+    public synchronized int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    /** @return the wall-clock time in milliseconds taken by the last call
+        to recover(), or -1 if recovery has not run */
+    public long getLastRecoveryMillis() {
+        return lastRecoveryMillis;
+    }
+
+    /** Take a checkpoint if at least checkpointInterval bytes of log were
+        written since the last one.  Must be called without holding the
+        buffer pool or log file locks.
+    */
+    public void maybeCheckpoint() throws IOException {
+        boolean due;
+        synchronized (this) {
+            due = checkpointInterval > 0 && !recoveryUndecided
+                    && getCurrentLsn() - lastCheckpointLsn >= checkpointInterval;
+        }
+        if (due) {
+            logCheckpoint();
+        }
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -163,7 +305,7 @@ public class LogFile {
                 raf.writeInt(ABORT_RECORD);
                 raf.writeLong(tid.getId());
                 raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                endRecord();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -176,6 +318,20 @@ public class LogFile {
         @param tid The committing transaction.
     */
     public synchronized void logCommit(TransactionId tid) throws IOException {
+        logCommit(tid, false);
+    }
+
+    /** Write a commit record for the specified tid.  Unless async is set
+        the log is forced before returning; an async commit returns as soon
+        as the record is written, and the background log flusher forces it
+        within the async commit interval.  If the system crashes before
+        that, the transaction is rolled back by recovery.
+
+        @param tid The committing transaction.
+        @param async true to skip waiting for the log force
+        @see #setAsyncCommitInterval
+    */
+    public synchronized void logCommit(TransactionId tid, boolean async) throws IOException {
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
@@ -183,11 +339,84 @@ public class LogFile {
         raf.writeInt(COMMIT_RECORD);
         raf.writeLong(tid.getId());
         raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        endRecord();
+        if (async) {
+            if (oldestUnflushedCommitMillis < 0) {
+                oldestUnflushedCommitMillis = System.currentTimeMillis();
+            }
+            startLogFlusher();
+        } else {
+            force();
+        }
         tidToFirstLogRecord.remove(tid.getId());
     }
 
+    /** Set whether transactions commit asynchronously unless they say
+        otherwise (see Transaction#setAsyncCommit).
+    */
+    public synchronized void setAsyncCommitDefault(boolean async) {
+        asyncCommitDefault = async;
+    }
+
+    public synchronized boolean getAsyncCommitDefault() {
+        return asyncCommitDefault;
+    }
+
+    /** Set the longest time, in milliseconds, an async commit may wait
+        before the background log flusher forces it to disk. */
+    public synchronized void setAsyncCommitInterval(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("async commit interval must be positive");
+        }
+        asyncCommitIntervalMillis = millis;
+        notifyAll();
+    }
+
+    /** @return the number of log bytes written but not yet forced to disk */
+    public synchronized long getDurabilityLagBytes() {
+        return currentOffset < 0 ? 0 : Math.max(0, currentOffset - flushedLsn);
+    }
+
+    /** @return the number of times the log was forced to disk */
+    public synchronized long getNumForces() {
+        return numForces;
+    }
+
+    /** @return how long, in milliseconds, the oldest async commit that is
+        not yet durable has been waiting; 0 if every commit is durable */
+    public synchronized long getDurabilityLagMillis() {
+        if (oldestUnflushedCommitMillis < 0) {
+            return 0;
+        }
+        return System.currentTimeMillis() - oldestUnflushedCommitMillis;
+    }
+
+    // 后台刷日志线程：只在第一次异步提交时启动；
+    // Database.reset() 换掉这个 LogFile 或 shutdown() 之后自动退出
+    private void startLogFlusher() {
+        if (logFlusher != null) {
+            return;
+        }
+        logFlusher = new Thread(() -> {
+            synchronized (LogFile.this) {
+                while (logFlusher == Thread.currentThread() && Database.getLogFile() == LogFile.this) {
+                    try {
+                        LogFile.this.wait(asyncCommitIntervalMillis);
+                        if (oldestUnflushedCommitMillis >= 0) {
+                            force();
+                        }
+                    } catch (InterruptedException e) {
+                        break;
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, "simpledb-log-flusher");
+        logFlusher.setDaemon(true);
+        logFlusher.start();
+    }
+
     /** Write an UPDATE record to disk for the specified tid and page
         (with provided         before and after images.)
         @param tid The transaction performing the write
@@ -199,6 +428,24 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
+        logUpdate(tid, before.getPageData(), after);
+    }
+
+    /** Write an UPDATE record to disk for the specified tid and page,
+        taking the before image from page.getBeforeImageData(), so the
+        before image never has to be decoded into a Page.
+        @param tid The transaction performing the write
+        @param page The page, whose current contents are the after image
+
+        @see Page#getBeforeImageData
+    */
+    public synchronized void logWrite(TransactionId tid, Page page)
+        throws IOException {
+        logUpdate(tid, page.getBeforeImageData(), page);
+    }
+
+    private void logUpdate(TransactionId tid, byte[] beforeData, Page after)
+        throws IOException {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
         /* update record conists of
@@ -212,18 +459,20 @@ public class LogFile {
         raf.writeInt(UPDATE_RECORD);
         raf.writeLong(tid.getId());
 
-        writePageData(raf,before);
+        writePageData(raf,after,beforeData);
         writePageData(raf,after);
         raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        endRecord();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
+    void writePageData(LogSegments raf, Page p) throws IOException{
+        writePageData(raf, p, p.getPageData());
+    }
 
+    // writes pageData as the contents of a page of p's class and id
+    void writePageData(LogSegments raf, Page p, byte[] pageData) throws IOException{
         //page data is:
         // page class name
         // id class name
@@ -233,54 +482,76 @@ public class LogFile {
         // page class data
 
         String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
         raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        writePageId(raf, p.getId());
 
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
-        byte[] pageData = p.getPageData();
         raf.writeInt(pageData.length);
         raf.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    /** Write a PageId as its class name followed by its serialized ints */
+    void writePageId(LogSegments raf, PageId pid) throws IOException {
+        int[] pageInfo = pid.serialize();
+        raf.writeUTF(pid.getClass().getName());
+        raf.writeInt(pageInfo.length);
+        for (int j : pageInfo) {
+            raf.writeInt(j);
+        }
+    }
 
-        String pageClassName = raf.readUTF();
+    PageId readPageId(LogSegments raf) throws IOException {
         String idClassName = raf.readUTF();
-
         try {
             Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
             Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
             int numIdArgs = raf.readInt();
             Object[] idArgs = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
                 idArgs[i] = raf.readInt();
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            return (PageId)idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
+
+    /** Read a page image written by writePageData().  Returns null if the
+        page's table is not in the catalog (it has been dropped). */
+    Page readPageData(LogSegments raf) throws IOException {
+        PageId pid;
+        Page newPage = null;
+
+        String pageClassName = raf.readUTF();
+
+        try {
+            Class<?> pageClass = Class.forName(pageClassName);
+            pid = readPageId(raf);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // 页类可能有多个构造函数，按 (PageId, byte[]) 的签名找
+            Constructor<?> pageConst = pageClass.getConstructor(pid.getClass(), byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            try {
+                newPage = (Page)pageConst.newInstance(pageArgs);
+            } catch (InvocationTargetException e) {
+                // 页所在的表已经删掉了，目录里找不到它的结构
+                if (e.getCause() instanceof NoSuchElementException) {
+                    return null;
+                }
+                throw e;
+            }
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
+        } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException | IllegalAccessException | InstantiationException e){
             e.printStackTrace();
             throw new IOException();
         }
@@ -288,6 +559,81 @@ public class LogFile {
 
     }
 
+    /** Write the dirty page table part of a CHECKPOINT record */
+    void writeDirtyPageTable(LogSegments raf, Map<PageId, Long> dirtyPages) throws IOException {
+        raf.writeInt(dirtyPages.size());
+        for (Map.Entry<PageId, Long> e : dirtyPages.entrySet()) {
+            writePageId(raf, e.getKey());
+            raf.writeLong(e.getValue());
+        }
+    }
+
+    /** Read the dirty page table part of a CHECKPOINT record, as a map from
+        page to recLSN file offset */
+    Map<PageId, Long> readDirtyPageTable(LogSegments raf) throws IOException {
+        Map<PageId, Long> dirtyPages = new HashMap<>();
+        int numDirty = raf.readInt();
+        for (int i = 0; i < numDirty; i++) {
+            PageId pid = readPageId(raf);
+            dirtyPages.put(pid, raf.readLong());
+        }
+        return dirtyPages;
+    }
+
+    /** Write a BULK_LOAD record for the numPages new pages from first on,
+        which tid is about to write directly to disk, and force the log, so
+        that the pages can be emptied again if tid does not commit.
+        @param tid The transaction loading the pages
+        @param first The id of the first page
+        @param numPages The number of pages
+    */
+    public synchronized void logBulkLoad(TransactionId tid, PageId first, int numPages)
+        throws IOException {
+        Debug.log("BULK LOAD " + numPages + " PAGES");
+        preAppend();
+        raf.writeInt(BULK_LOAD_RECORD);
+        raf.writeLong(tid.getId());
+        writePageId(raf, first);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        endRecord();
+        force();
+    }
+
+    /** Write a DROP record for the table tableId, which tid is about to
+        delete, and force the log, so that recovery does not look for the
+        table's pages once its file is gone.
+        @param tid The transaction dropping the table
+        @param tableId The id of the table
+    */
+    public synchronized void logDropTable(TransactionId tid, int tableId)
+        throws IOException {
+        Debug.log("DROP TABLE " + tableId);
+        preAppend();
+        raf.writeInt(DROP_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeLong(currentOffset);
+        endRecord();
+        force();
+    }
+
+    // BULK_LOAD 记录撤销时要写回的空页；表已经删掉了就没有要写的
+    private List<Page> emptyPages(PageId first, int numPages) throws IOException {
+        List<Page> pages = new ArrayList<>();
+        int pageSize;
+        try {
+            pageSize = ((HeapFile) Database.getCatalog().getDatabaseFile(first.getTableId())).getPageSize();
+        } catch (NoSuchElementException e) {
+            return pages;
+        }
+        for (int i = 0; i < numPages; i++) {
+            HeapPageId pid = new HeapPageId(first.getTableId(), first.getPageNumber() + i);
+            pages.add(new HeapPage(pid, HeapPage.createEmptyPageData(pageSize)));
+        }
+        return pages;
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -304,145 +650,106 @@ public class LogFile {
         raf.writeLong(tid.getId());
         raf.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        endRecord();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.
+        The checkpoint is fuzzy: it does not flush the buffer pool, but
+        records the transaction table and the buffer pool's dirty page
+        table so that recovery knows where redo has to begin.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
-
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            long startCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            // 脏页表在持有日志锁时取快照：之后才变脏的页拿到的 recLSN
+            // 一定不早于这条 checkpoint 记录
+            Map<PageId, Long> dirtyPages = Database.getBufferPool().getDirtyPageTable();
+            raf.seek(currentOffset);
+            startCpOffset = raf.getFilePointer();
+            raf.writeInt(CHECKPOINT_RECORD);
+            raf.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            raf.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                raf.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                raf.writeLong(tidToFirstLogRecord.get(key));
             }
+
+            //write the dirty page table
+            writeDirtyPageTable(raf, dirtyPages);
+
+            raf.writeLong(currentOffset);
+            endRecord();
+            lastCheckpointLsn = currentOffset;
+            force();
+
+            //once the CP is durable, make sure the CP location in the
+            // manifest is updated
+            raf.setCheckpoint(startCpOffset);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Whole segments before the oldest LSN still needed by
+        the last checkpoint (its start, the first record of every active
+        transaction and the recLSN of every dirty page) are dropped; no log
+        data is copied and LSNs do not change.
+    */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
+        long cpLoc = raf.getCheckpoint();
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+        long minLogRecord = cpLoc;
+        long endOffset = raf.getFilePointer();
+        raf.seek(cpLoc);
+        int cpType = raf.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = raf.readLong();
+
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
 
-            int numOutstanding = raf.readInt();
+        int numOutstanding = raf.readInt();
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
+        for (int i = 0; i < numOutstanding; i++) {
+            @SuppressWarnings("unused")
+            long tid = raf.readLong();
+            long firstLogRecord = raf.readLong();
+            if (firstLogRecord < minLogRecord) {
+                minLogRecord = firstLogRecord;
             }
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
+        // redo of a dirty page may need records back to its recLSN
+        for (long recLsn : readDirtyPageTable(raf).values()) {
+            if (recLsn < minLogRecord) {
+                minLogRecord = recLsn;
             }
         }
+        raf.seek(endOffset);
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        // we can drop every segment that ends before minLogRecord
+        int dropped = raf.truncateBefore(minLogRecord);
 
-        currentOffset = raf.getFilePointer();
+        Debug.log("TRUNCATING LOG; DROPPED " + dropped + " SEGMENTS ; NEW START : " + raf.startLsn());
         //print();
     }
 
@@ -470,6 +777,7 @@ public class LogFile {
 
                 // 2. 得到这个事务写过的所有 UPDATE 的 before-image（正向扫描）
                 List<Page> befores = new ArrayList<>();
+                Set<Integer> dropped = new HashSet<>(); // 已经删掉的表，不往它们的文件里写
                 // 让接下来的读写操作从文件第 logStart 个字节处开始
                 raf.seek(logStart);
                 try {
@@ -484,11 +792,26 @@ public class LogFile {
                             Page after = readPageData(raf); // after-image（rollback不需要，但必须读出来推进指针）
                             long _recStart = raf.readLong(); // 读出startOfRecord（rollback不需要，但必须读出来推进指针），这个和raf.readLong()作用一样，只是会在recover中用于反向扫描
 
-                            if (record_tid == tid.getId()) {
-                                // 只收集属于该事务的 UPDATE 的 before-image
+                            if (record_tid == tid.getId() && before != null) {
+                                // 只收集属于该事务的 UPDATE 的 before-image（表已删掉的跳过）
                                 befores.add(before);
                             }
                         }
+                        else if (type == BULK_LOAD_RECORD) {
+                            // BULK_LOAD: [type][tid][first page id][numPages][startOfRecord]
+                            PageId first = readPageId(raf);
+                            int numPages = raf.readInt();
+                            raf.readLong();
+                            if (record_tid == tid.getId()) {
+                                // 装载的页原来都是空页
+                                befores.addAll(emptyPages(first, numPages));
+                            }
+                        }
+                        else if (type == DROP_RECORD) {
+                            // DROP: [type][tid][table id][startOfRecord]
+                            dropped.add(raf.readInt());
+                            raf.readLong();
+                        }
                         else if (type == CHECKPOINT_RECORD) {
                             // CHECKPOINT: [type][tid][n][(tid,firstOffset)*n][startOfRecord]，格式跟别的不一样
                             int n = raf.readInt(); // 读出活跃事务数量 n
@@ -496,6 +819,7 @@ public class LogFile {
                                 raf.readLong(); // 读出活跃事务 id（rollback不需要，但必须读出来推进指针）
                                 raf.readLong(); // 读出活跃事务的 firstOffset（rollback不需要，但必须读出来推进指针）
                             }
+                            readDirtyPageTable(raf); // 跳过脏页表
                             raf.readLong(); // 读出startOfRecord（rollback不需要，但必须读出来推进指针）
                         }
                         else{
@@ -512,6 +836,9 @@ public class LogFile {
                 for (int i = befores.size() - 1; i >= 0; i--) {
                     Page before = befores.get(i);
                     PageId pid = before.getId();
+                    if (dropped.contains(pid.getTableId())) {
+                        continue;
+                    }
 
                     // 覆盖磁盘页（物理 UNDO）
                     Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(before);
@@ -534,6 +861,8 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            logFlusher = null;
+            notifyAll();
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -544,12 +873,18 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Redo starts at the smallest recLSN in the last checkpoint's dirty
+        page table, undo at the first record of the oldest loser.  Page
+        images are installed by recoveryThreads workers (see
+        setRecoveryThreads()).  The time taken is available from
+        getLastRecoveryMillis().
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                long recoveryStart = System.currentTimeMillis();
 
                 // 0. 数据结构
                 // winners: 明确 COMMIT 的事务
@@ -557,35 +892,45 @@ public class LogFile {
                 // losers: 扫描结束时仍未 COMMIT/ABORT 的事务
                 final Set<Long> losers  = new HashSet<>();
 
-                // 为了执行“先 UNDO 后 REDO”，我们缓存各事务遇到的 UPDATE 的前/后镜像
+                // 为了执行“先 UNDO 后 REDO”，我们缓存各事务遇到的 UPDATE 的前镜像；
+                // 后镜像按日志顺序保存，同一页被多个 winner 修改时也能按正确顺序重做
                 final Map<Long, List<Page>> beforePagesByTid = new HashMap<>();
-                final Map<Long, List<Page>> afterPagesByTid  = new HashMap<>();
+                final List<Long> redoTids = new ArrayList<>();
+                final List<Page> redoPages = new ArrayList<>();
+                // 日志里删掉过的表：它们的页镜像不再写回（文件已经没了）
+                final Set<Integer> droppedTables = new HashSet<>();
+
+                // 日志不存在（从没写过），没有需要恢复的东西
+                if (raf.numSegments() == 0) {
+                    raf.reset();
+                    lastRecoveryMillis = System.currentTimeMillis() - recoveryStart;
+                    return;
+                }
 
-                // 1. 找到最后一个 CHECKPOINT 位置
-                raf.seek(0);
-                long checkpointOffset = raf.readLong();
+                // 1. 找到最后一个 CHECKPOINT 位置（记录在 manifest 里）
+                long checkpointOffset = raf.getCheckpoint();
 
-                // 我们要计算真正的 REDO 起点 startPos：
-                //  - 没有 checkpoint：从 LONG_SIZE(=8) 开始；
-                //  - 有 checkpoint：如果 checkpoint 时活跃事务数 > 0，
-                //      从这些活跃事务的 firstLogRecord 的最小值开始；
-                //    否则（活跃数 == 0），从 checkpoint 记录本身开始。
-                long startPos;
+                // 我们要计算两个起点：
+                //  - redoStart：checkpoint 脏页表里最小的 recLSN（没有脏页就是 checkpoint 本身）；
+                //  - undoStart：checkpoint 时活跃事务 firstLogRecord 的最小值；
+                // 正向扫描从两者中较小的一个开始。没有 checkpoint 时都从日志开头开始。
+                long redoStart;
+                long undoStart;
 
                 if (checkpointOffset == NO_CHECKPOINT_ID) {
-                    // 没有 checkpoint => 从文件头后面 8 字节开始（跳过“checkpoint 指针”）
-                    startPos = LONG_SIZE;
+                    // 没有 checkpoint => 从第一个还存在的段的开头开始
+                    redoStart = raf.startLsn();
+                    undoStart = raf.startLsn();
                 }
                 else{
-                    // 有checkpoint => 先从 checkpointOffset 处读出活跃事务列表
+                    // 有checkpoint => 先从 checkpointOffset 处读出活跃事务列表和脏页表
                     raf.seek(checkpointOffset);
 
                     int type = raf.readInt(); // 理论上应该 == CHECKPOINT_RECORD
                     raf.readLong(); // 跳过 tid 占位符
                     int n = raf.readInt(); // 活跃事务数
 
-                    long minFirst = Long.MAX_VALUE;   // 用来找“最早的 firstLogRecord”
-
+                    undoStart = checkpointOffset;
                     for (int i = 0; i < n; i++) {
                         long activeTid = raf.readLong();     // 活跃事务 id
                         long firstLogRecord = raf.readLong(); // 该事务的 firstLogRecord
@@ -597,30 +942,27 @@ public class LogFile {
                         // rollback 需要 firstLogRecord：补齐到 tidToFirstLogRecord
                         tidToFirstLogRecord.put(activeTid, firstLogRecord);
 
-                        // 用于计算 REDO 的真实起点（防止漏掉 checkpoint 之前的 UPDATE）
-                        if (firstLogRecord < minFirst) {
-                            minFirst = firstLogRecord;
-                        }
-
-
+                        // 用于计算 UNDO 的起点（防止漏掉 checkpoint 之前的 UPDATE）
+                        undoStart = Math.min(undoStart, firstLogRecord);
                     }
-                    raf.readLong(); // 跳过 checkpoint 记录末尾的 startOffset
 
-                    // 计算 REDO 起点
-                    if (n > 0) {
-                        // 活跃事务数 > 0，从它们的 firstLogRecord 里选最早的
-                        startPos = Math.min(checkpointOffset, minFirst);
-                    }
-                    else {
-                        // 活跃事务数 == 0，从 checkpoint 记录本身开始
-                        startPos = checkpointOffset;
+                    // checkpoint 时仍在缓冲池里的脏页，最早可能要从它们的 recLSN 开始重做
+                    redoStart = checkpointOffset;
+                    for (long recLsn : readDirtyPageTable(raf).values()) {
+                        redoStart = Math.min(redoStart, recLsn);
                     }
-
+                    raf.readLong(); // 跳过 checkpoint 记录末尾的 startOffset
                 }
+                long startPos = Math.min(redoStart, undoStart);
 
-                // 2. 正向扫描
+                // 2. 正向扫描：每条记录先读完并核对末尾的起点偏移，再生效。
+                // 结束标记、未知类型、起点对不上（写了一半的记录，或回收段里的旧记录）都是日志的末尾
+                long logEnd = startPos;
                 raf.seek(startPos);
+                scan:
                 while (true) {
+                    long recordStart = raf.getFilePointer(); // 这条记录自身的起点
+                    logEnd = recordStart;
                     try {
                         int type = raf.readInt(); // 记录类型
                         long tid = raf.readLong(); // 记录所属事务id
@@ -628,113 +970,218 @@ public class LogFile {
                         switch (type) {
                             case UPDATE_RECORD:{
                                 // UPDATE: [type][tid][before][after][startOfRecord]
-                                Page before = readPageData(raf); // before-image（redo不需要，但必须读出来推进指针）
+                                Page before = readPageData(raf); // before-image
                                 Page after = readPageData(raf); // after-image
+                                if (!endsAt(recordStart)) {
+                                    break scan;
+                                }
+                                if (before == null) {
+                                    break; // 表已经删掉了
+                                }
                                 beforePagesByTid
                                         .computeIfAbsent(tid, k -> new ArrayList<>())
                                         .add(before);
-                                afterPagesByTid
+                                // 早于 redoStart 的更新已经在磁盘上了，不需要重做
+                                if (recordStart >= redoStart) {
+                                    redoTids.add(tid);
+                                    redoPages.add(after);
+                                }
+                                break;
+                            }
+                            case BULK_LOAD_RECORD:{
+                                // BULK_LOAD: [type][tid][first page id][numPages][startOfRecord]
+                                // 页在提交前已经落盘，不用重做；没提交的话撤销成空页
+                                PageId first = readPageId(raf);
+                                int numPages = raf.readInt();
+                                if (!endsAt(recordStart)) {
+                                    break scan;
+                                }
+                                beforePagesByTid
                                         .computeIfAbsent(tid, k -> new ArrayList<>())
-                                        .add(after);
-
-                                raf.readLong(); // 读出startOfRecord（redo不需要，但必须读出来推进指针）
+                                        .addAll(emptyPages(first, numPages));
+                                break;
+                            }
+                            case DROP_RECORD:{
+                                // DROP: [type][tid][table id][startOfRecord]
+                                int tableId = raf.readInt();
+                                if (!endsAt(recordStart)) {
+                                    break scan;
+                                }
+                                droppedTables.add(tableId);
                                 break;
                             }
                             case BEGIN_RECORD:{
                                 // BEGIN: [type][tid][startOfRecord]
-                                long beginStartOffset = raf.readLong(); // 这条记录自身起点，也正是该事务的 firstOffset
+                                // 这条记录自身起点，也正是该事务的 firstOffset
+                                if (!endsAt(recordStart)) {
+                                    break scan;
+                                }
                                 losers.add(tid); // BEGIN 的事务先假设是“loser”，后续遇到 COMMIT/ABORT 再移除
 
                                 // 若之前没从 checkpoint 拿到 firstOffset，就用 BEGIN 的起点补齐
-                                tidToFirstLogRecord.putIfAbsent(tid, beginStartOffset);
+                                tidToFirstLogRecord.putIfAbsent(tid, recordStart);
                                 break;
                             }
                             case COMMIT_RECORD:{
                                 // COMMIT: [type][tid][startOfRecord]
-                                raf.readLong(); // 读出startOfRecord（redo不需要，但必须读出来推进指针）
+                                if (!endsAt(recordStart)) {
+                                    break scan;
+                                }
                                 winners.add(tid); // 明确 COMMIT 的事务
                                 losers.remove(tid); // 不再是“未完成”
                                 break;
                             }
                             case ABORT_RECORD:{
                                 // ABORT: [type][tid][startOfRecord]
-                                raf.readLong(); // 读出startOfRecord（redo不需要，但必须读出来推进指针）
+                                if (!endsAt(recordStart)) {
+                                    break scan;
+                                }
                                 // 明确 ABORT 的事务不加入 winners
                                 losers.remove(tid); // 不再是“未完成”
                                 break;
                             }
                             case CHECKPOINT_RECORD:{
-                                // CHECKPOINT: [type][tid][n][(tid,firstOffset)*n
-                                raf.readLong(); // 跳过占位 tid
+                                // CHECKPOINT: [type][tid][n][(tid,firstOffset)*n][m][(pid,recLSN)*m][startOfRecord]
                                 int n = raf.readInt(); // 读出活跃事务数量 n
+                                Map<Long, Long> firstOffsets = new HashMap<>();
                                 for (int i = 0; i < n; i++) {
-                                    long t = raf.readLong(); // 读出活跃事务 id（redo不需要，但必须读出来推进指针）
-                                    long first = raf.readLong(); // 读出活跃事务的 firstOffset（redo不需要，但必须读出来推进指针）
-                                    // 如果我们之前还没记录过某个事务的起始位置，就可以从这个 checkpoint 里“补齐”
-                                    tidToFirstLogRecord.putIfAbsent(t, first);
+                                    long t = raf.readLong(); // 活跃事务 id
+                                    long first = raf.readLong(); // 活跃事务的 firstOffset
+                                    firstOffsets.put(t, first);
+                                }
+                                readDirtyPageTable(raf); // 跳过脏页表
+                                if (!endsAt(recordStart)) {
+                                    break scan;
+                                }
+                                // 如果我们之前还没记录过某个事务的起始位置，就可以从这个 checkpoint 里“补齐”
+                                for (Map.Entry<Long, Long> e : firstOffsets.entrySet()) {
+                                    tidToFirstLogRecord.putIfAbsent(e.getKey(), e.getValue());
                                 }
-                                raf.readLong(); // 读出startOfRecord（redo不需要，但必须读出来推进指针）
                                 break;
                             }
+                            default:
+                                // END_RECORD 或者不认识的类型
+                                break scan;
                         }
                     }catch (EOFException eof) {
-                        // 到达文件末尾，第一趟扫描结束
+                        // 到达文件末尾（最后一条记录可能只写了一半），第一趟扫描结束
                         break;
                     }
                 }
-
-                // 4. REDO winners
-                for (Long winnerTid : winners) {
-                    List<Page> afters = afterPagesByTid.get(winnerTid);
-                    if (afters == null || afters.isEmpty()) continue;
-                    // 正序写回这些 after-image
-                    for (Page after : afters) {
-                        PageId pid = after.getId();
-                        // 覆盖磁盘页（物理 REDO）
-                        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(after);
-                        // 丢掉缓冲池里的该页，避免旧脏页再次刷盘覆盖回滚结果
-                        Database.getBufferPool().discardPage(pid);
-                    }
+                // 之后追加的记录从这里开始，覆盖掉后面的结束标记或旧数据
+                raf.setEnd(logEnd);
+
+                // 3. 按页收集要写回的镜像：先是 winners 的 after-image（日志顺序，REDO），
+                //    再是 losers 的 before-image（逆序，UNDO）。同一页的写回必须保持这个顺序，
+                //    不同页之间互不影响；持锁的 losers 改过的页互不相交，所以它们的 UNDO 也能并行
+                final Map<PageId, List<Page>> imagesByPage = new LinkedHashMap<>();
+                for (int i = 0; i < redoPages.size(); i++) {
+                    if (!winners.contains(redoTids.get(i))) continue;
+                    Page after = redoPages.get(i);
+                    imagesByPage.computeIfAbsent(after.getId(), k -> new ArrayList<>()).add(after);
                 }
-
-                // 3. UNDO losers
                 for (Long loserTid : losers) {
                     List<Page> befores = beforePagesByTid.get(loserTid);
                     if (befores == null || befores.isEmpty()) continue;
-
-                    // 逆序写回这些 before-image
                     for (int i = befores.size() - 1; i >= 0; i--) {
                         Page before = befores.get(i);
-                        PageId pid = before.getId();
-                        // 覆盖磁盘页（物理 UNDO）
-                        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(before);
-                        // 丢掉缓冲池里的该页，避免旧脏页再次刷盘覆盖回滚结果
-                        Database.getBufferPool().discardPage(pid);
+                        imagesByPage.computeIfAbsent(before.getId(), k -> new ArrayList<>()).add(before);
                     }
                 }
 
+                imagesByPage.keySet().removeIf(pid -> droppedTables.contains(pid.getTableId()));
 
+                // 4. 覆盖磁盘页（物理 REDO/UNDO）
+                installPageImages(imagesByPage);
 
-                System.out.println("startPos = " + startPos);
+                // 丢掉缓冲池里的这些页，避免旧脏页再次刷盘覆盖恢复结果；
+                // 要在本线程做，工作线程拿不到我们持有的 BufferPool 锁
+                for (PageId pid : imagesByPage.keySet()) {
+                    Database.getBufferPool().discardPage(pid);
+                }
+
+                flushedLsn = raf.length(); // 恢复读到的日志都已经在磁盘上了
+                lastRecoveryMillis = System.currentTimeMillis() - recoveryStart;
+
+                System.out.println("redoStart = " + redoStart + ", undoStart = " + undoStart);
                 System.out.println("winners = " + winners);
                 System.out.println("losers = " + losers);
-                System.out.println("beforePagesByTid = " + beforePagesByTid.keySet());
-                System.out.println("afterPagesByTid = " + afterPagesByTid.keySet());
+                System.out.println("recovery time = " + lastRecoveryMillis + " ms");
             }
          }
     }
 
+    // 读出记录末尾的起点偏移，看它是不是这条记录真正的起点
+    private boolean endsAt(long recordStart) throws IOException {
+        return raf.readLong() == recordStart;
+    }
+
+    /** Write the given page images to their DbFiles, in list order for
+        each page.  Pages are partitioned by PageId hash across
+        recoveryThreads workers.
+    */
+    void installPageImages(Map<PageId, List<Page>> imagesByPage) throws IOException {
+        int workers = Math.min(recoveryThreads, imagesByPage.size());
+        if (workers <= 1) {
+            for (List<Page> images : imagesByPage.values()) {
+                writePageImages(images);
+            }
+            return;
+        }
+
+        List<List<List<Page>>> partitions = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (Map.Entry<PageId, List<Page>> e : imagesByPage.entrySet()) {
+            int part = (e.getKey().hashCode() & Integer.MAX_VALUE) % workers;
+            partitions.get(part).add(e.getValue());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<List<Page>> partition : partitions) {
+                futures.add(pool.submit(() -> {
+                    for (List<Page> images : partition) {
+                        writePageImages(images);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("recovery interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("recovery worker failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void writePageImages(List<Page> images) throws IOException {
+        for (Page image : images) {
+            PageId pid = image.getId();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(image);
+        }
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         long curOffset = raf.getFilePointer();
 
-        raf.seek(0);
+        raf.seek(raf.startLsn());
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        System.out.println("checkpoint record at offset " + raf.getCheckpoint());
 
         while (true) {
             try {
                 int cpType = raf.readInt();
+                if (cpType == END_RECORD) {
+                    break;
+                }
                 long cpTid = raf.readLong();
 
                 System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
@@ -765,8 +1212,27 @@ public class LogFile {
                         System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
                         System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                     }
+                    int numDirty = raf.readInt();
+                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+                    while (numDirty-- > 0) {
+                        PageId pid = readPageId(raf);
+                        long recLsn = raf.readLong();
+                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": DIRTY PAGE " + pid.getTableId() + ":" + pid.getPageNumber() + " RECLSN: " + recLsn);
+                    }
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
+                    break;
+                case DROP_RECORD:
+                    System.out.println(" (DROP)");
+                    System.out.println(raf.getFilePointer() + ": TABLE ID: " + raf.readInt());
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    break;
+                case BULK_LOAD_RECORD:
+                    System.out.println(" (BULK LOAD)");
+                    PageId first = readPageId(raf);
+                    System.out.println((raf.getFilePointer()) + ": FIRST PAGE " + first.getTableId() + ":" + first.getPageNumber());
+                    System.out.println(raf.getFilePointer() + ": NUMBER OF PAGES: " + raf.readInt());
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
@@ -776,6 +1242,11 @@ public class LogFile {
 
                     long middle = raf.getFilePointer();
                     Page after = readPageData(raf);
+                    if (before == null) {
+                        System.out.println(start + ": page of a dropped table");
+                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        break;
+                    }
 
                     System.out.println(start + ": before image table id " + before.getId().getTableId());
                     System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
@@ -801,7 +1272,10 @@ public class LogFile {
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        raf.force();
+        numForces++;
+        flushedLsn = getCurrentLsn();
+        oldestUnflushedCommitMillis = -1;
     }
 
 }
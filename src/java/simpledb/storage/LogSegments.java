@@ -0,0 +1,426 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LogSegments stores the log as a single append-only byte stream addressed
+ * by LSN, split across a sequence of segment files of roughly segmentSize
+ * bytes each.
+ * <p>
+ * A small manifest file records the live segments, the LSN each one starts
+ * at, and the LSN of the last checkpoint record.  Log records never span
+ * two segments: a new segment is only started between records (see
+ * {@link #maybeRoll}).  Segments that lie entirely before a given LSN can
+ * therefore be dropped in O(1) without copying anything
+ * (see {@link #truncateBefore}); dropped segments are moved to an archive
+ * directory if one is set, otherwise kept as spares and reused for new
+ * segments.
+ * <p>
+ * A reused segment keeps its full length and its old contents, so the
+ * end of the log is not the end of the last segment file.  It is kept in
+ * memory while appending, and LogFile writes an end marker after every
+ * record (see {@link #writeEndMarker}).  After a restart the end is only
+ * known once recovery has scanned to the last valid record and called
+ * {@link #setEnd}.  LSNs keep growing across {@link #reset}, so a stale
+ * record in a reused segment never sits at the LSN it was written at.
+ * <p>
+ * Not thread safe; LogFile serializes all access.
+ *
+ * @see LogFile
+ */
+class LogSegments {
+
+    static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    static final long NO_CHECKPOINT = -1;
+
+    private static final long MANIFEST_MAGIC = 0x53444c4f474d4631L; // "SDLOGMF1"
+    private static final int MAX_SPARES = 2;
+
+    private static class Segment {
+        final long no;
+        final long startLsn;
+        final File file;
+        RandomAccessFile raf;
+
+        Segment(long no, long startLsn, File file) {
+            this.no = no;
+            this.startLsn = startLsn;
+            this.file = file;
+        }
+
+        RandomAccessFile open() throws IOException {
+            if (raf == null) {
+                raf = new RandomAccessFile(file, "rw");
+            }
+            return raf;
+        }
+
+        void close() throws IOException {
+            if (raf != null) {
+                raf.close();
+                raf = null;
+            }
+        }
+    }
+
+    private final File manifest;
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private File archiveDir = null;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextSegmentNo = 0;
+    private long checkpointLsn = NO_CHECKPOINT;
+
+    // 当前读写位置所在的段
+    private Segment cur = null;
+    // 日志的逻辑末尾；最后一个段文件后面可能还有回收前留下的旧数据
+    private long end = 0;
+
+    /**
+     * Open the segmented log described by the given manifest.  If the
+     * manifest does not exist, or is empty, the log is empty until
+     * {@link #reset} is called.
+     *
+     * @throws IOException if the file is not a segment manifest, e.g. a
+     *         log written in the old single-file format
+     */
+    LogSegments(File manifest) throws IOException {
+        this.manifest = manifest;
+        readManifest();
+    }
+
+    void setSegmentSize(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("segment size must be positive");
+        }
+        segmentSize = bytes;
+    }
+
+    long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /** Move dropped segments into dir instead of recycling them; null to recycle. */
+    void setArchiveDir(File dir) {
+        archiveDir = dir;
+    }
+
+    int numSegments() {
+        return segments.size();
+    }
+
+    /** @return the first LSN still present in the log */
+    long startLsn() {
+        return segments.isEmpty() ? 0 : segments.get(0).startLsn;
+    }
+
+    /** @return the LSN one past the last byte of the log */
+    long length() {
+        return end;
+    }
+
+    /**
+     * Set the end of the log, after recovery has found its last valid
+     * record.  Until then the end is taken to be the end of the last
+     * segment file, which may hold stale records from before the segment
+     * was reused.
+     */
+    void setEnd(long lsn) throws IOException {
+        if (segments.isEmpty() || lsn < last().startLsn || lsn > end) {
+            throw new IOException("LSN " + lsn + " is not in the last log segment");
+        }
+        end = lsn;
+    }
+
+    long getCheckpoint() {
+        return checkpointLsn;
+    }
+
+    /** Record the LSN of the latest checkpoint record in the manifest. */
+    void setCheckpoint(long lsn) throws IOException {
+        checkpointLsn = lsn;
+        writeManifest();
+    }
+
+    /**
+     * Throw away the whole log and start over with one empty segment.  The
+     * new log starts at the old log's end (at LSN 0 if there was none).
+     */
+    void reset() throws IOException {
+        long start = end;
+        if (segments.isEmpty()) {
+            // 没有 manifest：留下的备用段不知道是哪个日志的，里面旧记录的 LSN 可能跟新日志重叠
+            for (int i = 0; i < MAX_SPARES; i++) {
+                spareFile(i).delete();
+            }
+            start = 0;
+        }
+        for (Segment s : segments) {
+            retire(s);
+        }
+        segments.clear();
+        checkpointLsn = NO_CHECKPOINT;
+        addSegment(start);
+        writeManifest();
+        seek(start);
+    }
+
+    /**
+     * Start a new segment if the last one has reached segmentSize.  Must
+     * only be called between log records.
+     */
+    void maybeRoll() throws IOException {
+        Segment last = last();
+        long len = end - last.startLsn;
+        if (len < segmentSize) {
+            return;
+        }
+        last.open().getChannel().force(true);
+        addSegment(end);
+        writeManifest();
+    }
+
+    /**
+     * Drop every segment that ends at or before lsn.  The last segment is
+     * never dropped.
+     *
+     * @return the number of segments dropped
+     */
+    int truncateBefore(long lsn) throws IOException {
+        int dropped = 0;
+        while (segments.size() > 1 && segments.get(1).startLsn <= lsn) {
+            Segment s = segments.remove(0);
+            if (s == cur) {
+                cur = null;
+            }
+            retire(s);
+            dropped++;
+        }
+        if (dropped > 0) {
+            writeManifest();
+        }
+        return dropped;
+    }
+
+    void seek(long lsn) throws IOException {
+        if (segments.isEmpty() || lsn < startLsn()) {
+            throw new IOException("LSN " + lsn + " is not in the log");
+        }
+        int i = segments.size() - 1;
+        while (segments.get(i).startLsn > lsn) {
+            i--;
+        }
+        cur = segments.get(i);
+        cur.open().seek(lsn - cur.startLsn);
+    }
+
+    long getFilePointer() throws IOException {
+        if (cur == null) {
+            return startLsn();
+        }
+        return cur.startLsn + cur.open().getFilePointer();
+    }
+
+    // 读到一个段的逻辑末尾时接着读下一个段；最后一个段读到日志末尾就抛 EOFException，
+    // 段文件后面剩下的旧数据不会被读到
+    private RandomAccessFile forRead() throws IOException {
+        RandomAccessFile raf = cur.open();
+        while (raf.getFilePointer() >= logicalLength(cur)) {
+            if (cur == last()) {
+                throw new EOFException();
+            }
+            cur = segments.get(segments.indexOf(cur) + 1);
+            raf = cur.open();
+            raf.seek(0);
+        }
+        return raf;
+    }
+
+    private long logicalLength(Segment s) {
+        int i = segments.indexOf(s);
+        long segEnd = i == segments.size() - 1 ? end : segments.get(i + 1).startLsn;
+        return segEnd - s.startLsn;
+    }
+
+    // 追加写之后推进日志末尾
+    private void wrote() throws IOException {
+        end = Math.max(end, cur.startLsn + cur.raf.getFilePointer());
+    }
+
+    int readInt() throws IOException {
+        return forRead().readInt();
+    }
+
+    long readLong() throws IOException {
+        return forRead().readLong();
+    }
+
+    String readUTF() throws IOException {
+        return forRead().readUTF();
+    }
+
+    void readFully(byte[] b) throws IOException {
+        forRead().readFully(b);
+    }
+
+    void writeInt(int v) throws IOException {
+        cur.open().writeInt(v);
+        wrote();
+    }
+
+    void writeLong(long v) throws IOException {
+        cur.open().writeLong(v);
+        wrote();
+    }
+
+    void writeUTF(String s) throws IOException {
+        cur.open().writeUTF(s);
+        wrote();
+    }
+
+    void write(byte[] b) throws IOException {
+        cur.open().write(b);
+        wrote();
+    }
+
+    /**
+     * Write marker just past the end of the log without making it part of
+     * the log, and leave the file pointer at the end.  Must only be called
+     * at the end of the log, between log records.
+     */
+    void writeEndMarker(int marker) throws IOException {
+        RandomAccessFile raf = cur.open();
+        long pos = raf.getFilePointer();
+        raf.writeInt(marker);
+        raf.seek(pos);
+    }
+
+    /** Force the segment being appended to; older segments were forced when they were rolled. */
+    void force() throws IOException {
+        if (!segments.isEmpty()) {
+            last().open().getChannel().force(true);
+        }
+    }
+
+    void close() throws IOException {
+        for (Segment s : segments) {
+            s.close();
+        }
+    }
+
+    private Segment last() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private File segmentFile(long no) {
+        return new File(manifest.getPath() + String.format(".%06d", no));
+    }
+
+    private File spareFile(int i) {
+        return new File(manifest.getPath() + ".spare" + i);
+    }
+
+    // 新段优先复用回收下来的旧段文件，保留它的长度，省掉创建文件和追加时分配空间的开销；
+    // 里面的旧记录靠日志末尾和结束标记挡住
+    private void addSegment(long startLsn) throws IOException {
+        long no = nextSegmentNo++;
+        File f = segmentFile(no);
+        boolean recycled = false;
+        for (int i = 0; i < MAX_SPARES && !recycled; i++) {
+            File spare = spareFile(i);
+            recycled = spare.exists() && spare.renameTo(f);
+        }
+        Segment s = new Segment(no, startLsn, f);
+        if (!recycled) {
+            // 丢了 manifest 的旧日志可能留下同名的段文件
+            s.open().setLength(0);
+        }
+        segments.add(s);
+        cur = s;
+        end = startLsn;
+    }
+
+    private void retire(Segment s) throws IOException {
+        s.close();
+        if (archiveDir != null) {
+            if (!archiveDir.isDirectory() && !archiveDir.mkdirs()) {
+                throw new IOException("cannot create log archive directory " + archiveDir);
+            }
+            if (s.file.renameTo(new File(archiveDir, s.file.getName()))) {
+                return;
+            }
+        }
+        for (int i = 0; i < MAX_SPARES; i++) {
+            File spare = spareFile(i);
+            if (!spare.exists() && s.file.renameTo(spare)) {
+                return;
+            }
+        }
+        s.file.delete();
+    }
+
+    /*
+     * manifest format:
+     *   long magic
+     *   long checkpoint LSN (or NO_CHECKPOINT)
+     *   long next segment number
+     *   int  number of live segments
+     *   (long segment number, long start LSN) per live segment
+     * it is written to a temporary file and renamed over the old manifest.
+     */
+    private void writeManifest() throws IOException {
+        File tmp = new File(manifest.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            dos.writeLong(MANIFEST_MAGIC);
+            dos.writeLong(checkpointLsn);
+            dos.writeLong(nextSegmentNo);
+            dos.writeInt(segments.size());
+            for (Segment s : segments) {
+                dos.writeLong(s.no);
+                dos.writeLong(s.startLsn);
+            }
+            dos.flush();
+            fos.getChannel().force(true);
+        }
+        try {
+            Files.move(tmp.toPath(), manifest.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void readManifest() throws IOException {
+        if (!manifest.isFile() || manifest.length() == 0) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(manifest)))) {
+            // 旧版本的单文件日志可能还有要恢复的记录，不能当成空日志丢掉
+            if (manifest.length() < 3 * 8 + 4 || dis.readLong() != MANIFEST_MAGIC) {
+                throw new IOException(manifest + " is not a log segment manifest; a log in"
+                        + " the old single-file format must be recovered with the version"
+                        + " that wrote it and removed first");
+            }
+            checkpointLsn = dis.readLong();
+            nextSegmentNo = dis.readLong();
+            int n = dis.readInt();
+            for (int i = 0; i < n; i++) {
+                long no = dis.readLong();
+                long start = dis.readLong();
+                segments.add(new Segment(no, start, segmentFile(no)));
+            }
+        }
+        if (!segments.isEmpty()) {
+            cur = segments.get(0);
+            Segment last = last();
+            end = last.startLsn + last.file.length();
+        }
+    }
+}
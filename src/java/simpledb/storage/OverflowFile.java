@@ -0,0 +1,260 @@
+package simpledb.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OverflowFile holds the values of the TEXT fields of a heap file out of
+ * line, in a file of chained overflow pages next to the heap file.  A heap
+ * page only holds a pointer to each value (see {@link TextField}), so a
+ * value can be much longer than {@link simpledb.common.Type#STRING_LEN},
+ * and a scan that does not look at the value never reads it.
+ * <p>
+ * Each overflow page starts with the number of the next page of the chain
+ * (-1 for none) and the number of payload bytes used on the page.  Values
+ * are appended one after the other, carrying on into a new page chained to
+ * the last one when it fills up.  The space of a value whose tuple was
+ * deleted is handed back with {@link #free} once the delete commits, and a
+ * later value that fits is written over it, following the same chain.  The
+ * free space is only tracked in memory, so space freed before the file is
+ * reopened is not reused, and a value written by a transaction that
+ * aborts is left behind unreferenced.
+ * <p>
+ * Values are written as soon as a tuple is put on a page, and forced to
+ * disk before any image of such a page is written or logged (see
+ * {@link #force()}).  The file is kept open on one channel, which reads
+ * at explicit positions, so concurrent readers do not contend; call
+ * {@link #close()} when the file is no longer used.
+ *
+ * @see HeapFile#getOverflowFile()
+ */
+public class OverflowFile {
+
+    private static final int PAGE_HEADER = 8; // 下一页的页号、本页已用的字节数
+
+    private final File file;
+    private final int pageSize;
+    private final FileChannel channel;
+
+    private int numPages;
+    private int tailUsed; // 最后一页已用的负载字节数
+    private boolean unforced = false;
+    // 可以重用的空间：长度 -> 这么长的空段（起始页、页内偏移）
+    private final TreeMap<Integer, Deque<int[]>> freeSpace = new TreeMap<>();
+
+    private final AtomicLong pagesRead = new AtomicLong();
+
+    /**
+     * @param file the file holding the overflow pages; created if missing
+     * @param pageSize the size of an overflow page, usually that of the heap file
+     */
+    public OverflowFile(File file, int pageSize) {
+        if (pageSize <= PAGE_HEADER) {
+            throw new IllegalArgumentException("page size " + pageSize + " is too small");
+        }
+        this.file = file;
+        this.pageSize = pageSize;
+        try {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.numPages = (int) ((channel.size() + pageSize - 1) / pageSize);
+            if (numPages > 0) {
+                tailUsed = readInt((long) (numPages - 1) * pageSize + 4);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot open " + file, e);
+        }
+    }
+
+    /** @return the overflow file kept next to the heap file dataFile */
+    static File overflowFile(File dataFile) {
+        return new File(dataFile.getPath() + ".ovf");
+    }
+
+    private int capacity() {
+        return pageSize - PAGE_HEADER;
+    }
+
+    // 按位置读写，不动 channel 的当前位置，多个线程可以同时读
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException("overflow file " + file + " ends early");
+            }
+            pos += n;
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+
+    private int readInt(long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        readFully(buf, pos);
+        return buf.getInt(0);
+    }
+
+    private void writeInt(long pos, int v) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        buf.putInt(0, v);
+        writeFully(buf, pos);
+    }
+
+    // 在文件末尾加一页，接到原来最后一页后面
+    private void appendPage() throws IOException {
+        int page = numPages;
+        if (page > 0) {
+            writeInt((long) (page - 1) * pageSize, page);
+        }
+        ByteBuffer empty = ByteBuffer.allocate(pageSize);
+        empty.putInt(0, -1);
+        writeFully(empty, (long) page * pageSize);
+        numPages++;
+        tailUsed = 0;
+    }
+
+    /**
+     * Write value over freed space that is long enough, or else append it
+     * to the file.
+     *
+     * @return the page and the offset in its payload where value starts
+     */
+    public synchronized int[] store(byte[] value) throws IOException {
+        if (value.length > 0) {
+            // 放得下的最短空段
+            Map.Entry<Integer, Deque<int[]>> e = freeSpace.ceilingEntry(value.length);
+            if (e != null) {
+                int[] start = e.getValue().poll();
+                if (e.getValue().isEmpty()) {
+                    freeSpace.remove(e.getKey());
+                }
+                int[] end = overwrite(start[0], start[1], value);
+                addFree(end[0], end[1], e.getKey() - value.length);
+                unforced = true;
+                return start;
+            }
+        }
+        if (numPages == 0 || tailUsed == capacity()) {
+            appendPage();
+        }
+        int[] start = { numPages - 1, tailUsed };
+        int pos = 0;
+        while (true) {
+            int n = Math.min(capacity() - tailUsed, value.length - pos);
+            long page = (long) (numPages - 1) * pageSize;
+            writeFully(ByteBuffer.wrap(value, pos, n), page + PAGE_HEADER + tailUsed);
+            tailUsed += n;
+            pos += n;
+            writeInt(page + 4, tailUsed);
+            if (pos == value.length) {
+                break;
+            }
+            appendPage();
+        }
+        unforced = true;
+        return start;
+    }
+
+    // 沿着链从 (page, offset) 起写 value，返回写完后的位置
+    private int[] overwrite(int page, int offset, byte[] value) throws IOException {
+        int pos = 0;
+        int p = page, off = offset;
+        while (pos < value.length) {
+            if (off == capacity()) {
+                p = readInt((long) p * pageSize);
+                off = 0;
+            }
+            int n = Math.min(capacity() - off, value.length - pos);
+            writeFully(ByteBuffer.wrap(value, pos, n), (long) p * pageSize + PAGE_HEADER + off);
+            pos += n;
+            off += n;
+        }
+        return new int[] { p, off };
+    }
+
+    private void addFree(int page, int offset, int length) {
+        if (length > 0) {
+            freeSpace.computeIfAbsent(length, k -> new ArrayDeque<>()).add(new int[] { page, offset });
+        }
+    }
+
+    /**
+     * Make the space of the value of length bytes that starts at offset in
+     * the payload of page available to later values.  Only called once
+     * nothing refers to the value any more.
+     */
+    public synchronized void free(int page, int offset, int length) {
+        addFree(page, offset, length);
+    }
+
+    /** @return the number of bytes freed and not yet reused */
+    public synchronized long freeBytes() {
+        long n = 0;
+        for (Map.Entry<Integer, Deque<int[]>> e : freeSpace.entrySet()) {
+            n += (long) e.getKey() * e.getValue().size();
+        }
+        return n;
+    }
+
+    /**
+     * Read the value of length bytes that starts at offset in the payload
+     * of page, following the chain of pages.
+     */
+    public byte[] read(int page, int offset, int length) throws IOException {
+        byte[] value = new byte[length];
+        int pos = 0;
+        int p = page, off = offset;
+        while (pos < length) {
+            if (off == capacity()) {
+                p = readInt((long) p * pageSize);
+                off = 0;
+                if (p < 0) {
+                    throw new IOException("overflow chain of " + file + " ends early");
+                }
+            }
+            int n = Math.min(capacity() - off, length - pos);
+            readFully(ByteBuffer.wrap(value, pos, n), (long) p * pageSize + PAGE_HEADER + off);
+            pagesRead.incrementAndGet();
+            pos += n;
+            off += n;
+        }
+        return value;
+    }
+
+    /** Force the values stored so far to disk. */
+    public synchronized void force() throws IOException {
+        if (!unforced) {
+            return;
+        }
+        channel.force(true);
+        unforced = false;
+    }
+
+    /** Close the channel the file is read and written through. */
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /** @return the number of overflow pages read so far, counted once per value read */
+    public long getPagesRead() {
+        return pagesRead.get();
+    }
+
+    /** @return the number of overflow pages in the file */
+    public synchronized int numPages() {
+        return numPages;
+    }
+}
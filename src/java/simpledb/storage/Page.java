@@ -53,6 +53,13 @@ public interface Page {
     */
     Page getBeforeImage();
 
+    /** Return the bytes of the before image, as getBeforeImage().getPageData()
+        would, but without building a Page from them.  Used when logging updates.
+    */
+    default byte[] getBeforeImageData() {
+        return getBeforeImage().getPageData();
+    }
+
     /*
      * a transaction that wrote this page just committed it.
      * copy current content to the before image.
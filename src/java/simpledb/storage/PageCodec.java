@@ -0,0 +1,163 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * PageCodec compresses page images with a small LZ77 scheme in the style of
+ * the LZ4 block format: a sequence of (literal run, back reference) pairs,
+ * each introduced by a token byte whose high nibble is the literal length
+ * and whose low nibble is the match length minus 4, with longer lengths
+ * continued in following bytes of 255.  Back references are 2-byte little
+ * endian offsets, so matches reach at most 64KB back.
+ * <p>
+ * Pages are mostly padding, empty slots and repeated small ints, which this
+ * compresses well at a cost of a few microseconds per page.
+ *
+ * @see CompressedPageFile
+ */
+public class PageCodec {
+
+    private static final int MIN_MATCH = 4;
+    // 最后几个字节总是按字面量输出，匹配不会一直延伸到末尾
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int HASH_BITS = 12;
+
+    private PageCodec() {
+    }
+
+    /**
+     * @return the compressed form of src
+     */
+    public static byte[] compress(byte[] src) {
+        int n = src.length;
+        byte[] out = new byte[n + n / 255 + 16];
+        int op = 0;
+        int anchor = 0;
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+
+        int i = 0;
+        int limit = n - MATCH_FIND_LIMIT;
+        while (i < limit) {
+            int seq = readInt(src, i);
+            int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > 0xFFFF || readInt(src, ref) != seq) {
+                i++;
+                continue;
+            }
+            int matchLen = MIN_MATCH;
+            while (i + matchLen < n - LAST_LITERALS && src[ref + matchLen] == src[i + matchLen]) {
+                matchLen++;
+            }
+            op = writeSequence(out, op, src, anchor, i - anchor, i - ref, matchLen);
+            i += matchLen;
+            anchor = i;
+        }
+        op = writeSequence(out, op, src, anchor, n - anchor, 0, 0);
+        return Arrays.copyOf(out, op);
+    }
+
+    /**
+     * @param src a buffer produced by {@link #compress}
+     * @param len the length of the original data
+     * @return the original data
+     * @throws IOException if src is not a valid compressed buffer of len bytes
+     */
+    public static byte[] decompress(byte[] src, int len) throws IOException {
+        return decompress(src, 0, src.length, len);
+    }
+
+    /**
+     * Decompress the length bytes of src starting at off.
+     *
+     * @see #decompress(byte[], int)
+     */
+    public static byte[] decompress(byte[] src, int off, int length, int len) throws IOException {
+        byte[] out = new byte[len];
+        int ip = off;
+        int end = off + length;
+        int op = 0;
+        try {
+            while (ip < end) {
+                int token = src[ip++] & 0xFF;
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, out, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip >= end) {
+                    break; // 最后一个序列只有字面量
+                }
+
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLen = (token & 0x0F) + MIN_MATCH;
+                if ((token & 0x0F) == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                if (offset == 0 || offset > op || op + matchLen > len) {
+                    throw new IOException("corrupt compressed page");
+                }
+                // 重叠的复制要逐字节来，这样短周期的重复也能展开
+                for (int k = 0; k < matchLen; k++, op++) {
+                    out[op] = out[op - offset];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt compressed page", e);
+        }
+        if (op != len) {
+            throw new IOException("compressed page has " + op + " bytes, expected " + len);
+        }
+        return out;
+    }
+
+    private static int writeSequence(byte[] out, int op, byte[] src, int litStart, int litLen,
+                                     int offset, int matchLen) {
+        int tokenPos = op++;
+        int token = Math.min(litLen, 15) << 4;
+        if (litLen >= 15) {
+            op = writeLength(out, op, litLen - 15);
+        }
+        System.arraycopy(src, litStart, out, op, litLen);
+        op += litLen;
+        if (matchLen > 0) {
+            out[op++] = (byte) offset;
+            out[op++] = (byte) (offset >>> 8);
+            int m = matchLen - MIN_MATCH;
+            token |= Math.min(m, 15);
+            if (m >= 15) {
+                op = writeLength(out, op, m - 15);
+            }
+        }
+        out[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(byte[] out, int op, int len) {
+        while (len >= 255) {
+            out[op++] = (byte) 255;
+            len -= 255;
+        }
+        out[op++] = (byte) len;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,30 @@
+package simpledb.storage;
+
+/**
+ * The on-disk format of the pages of a HeapFile.  It is chosen per table
+ * (see {@link simpledb.common.Catalog#loadSchema}) and fixed for the life of
+ * the file.  An all-zero page is a valid empty page in every layout.
+ *
+ * @see HeapPage
+ */
+public enum PageLayout {
+    /**
+     * A header bitmap followed by fixed-size tuple slots; strings always take
+     * {@link simpledb.common.Type#STRING_LEN} bytes plus a length prefix.
+     */
+    ROW,
+
+    /**
+     * A slot directory at the start of the page, with variable-length
+     * records packed against the end of the page.  Strings only take as
+     * many bytes as they have characters, plus a two-byte length.
+     */
+    SLOTTED,
+
+    /**
+     * PAX: the same header bitmap and number of slots as ROW, but the values
+     * of each column are stored together in a minipage, so reading one
+     * column of every tuple only touches that column's bytes.
+     */
+    PAX
+}
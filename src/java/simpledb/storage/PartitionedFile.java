@@ -0,0 +1,452 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * PartitionedFile is a table whose tuples are spread over several
+ * HeapFiles, its partitions, by the value of a key field: either by range,
+ * each partition holding the keys from its lower bound up to the lower bound
+ * of the next one, or by hash.  Each partition has its own file, allocation
+ * mutex and free-space map, so inserts into different partitions do not
+ * contend, and a scan only reads the partitions whose keys can satisfy the
+ * predicates it is given (see {@link #iterator(TransactionId, List, Predicate, int[])}).
+ * <p>
+ * The partitions are ordinary heap tables in the {@link simpledb.common.Catalog},
+ * which registers them along with the partitioned table, since the buffer
+ * pool and the log find a page's file by the table id in the page id.  The
+ * binary catalog saves the partitions and their bounds with the table.
+ * Tuples inserted into the table keep record ids of the partition they were
+ * put in.
+ * <p>
+ * Range partitions can be added after the last one and dropped, which is
+ * what a time-series table needs to keep a window of recent data: dropping
+ * a partition deletes its file rather than its tuples.
+ *
+ * @see HeapFile
+ */
+public class PartitionedFile implements DbFile {
+
+    // 一个分区：堆文件和它的下界（第一个分区和哈希分区为 null）
+    private static class Partition {
+        final HeapFile file;
+        final Field lower;
+
+        Partition(HeapFile file, Field lower) {
+            this.file = file;
+            this.lower = lower;
+        }
+    }
+
+    private final int id;
+    private final TupleDesc td;
+    private final int keyField;
+    private final boolean hashed;
+
+    // 写时复制：扫描拿到的分区列表不会被 add/drop 改掉
+    private volatile List<Partition> partitions;
+
+    private PartitionedFile(int id, TupleDesc td, int keyField, boolean hashed, List<Partition> partitions) {
+        if (partitions.isEmpty()) {
+            throw new IllegalArgumentException("a partitioned table needs at least one partition");
+        }
+        if (keyField < 0 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + keyField);
+        }
+        this.id = id;
+        this.td = td;
+        this.keyField = keyField;
+        this.hashed = hashed;
+        this.partitions = Collections.unmodifiableList(partitions);
+    }
+
+    /**
+     * Create a table partitioned by range on keyField.  Partition i holds
+     * the keys from lowerBounds[i - 1] up to (not including)
+     * lowerBounds[i]; the first partition also holds all smaller keys and
+     * the last one all larger keys.
+     *
+     * @param id the id of the table
+     * @param partitions the partitions, in order of their keys
+     * @param lowerBounds the lowest key of each partition but the first, in
+     *        increasing order
+     */
+    public static PartitionedFile byRange(int id, TupleDesc td, int keyField, List<HeapFile> partitions,
+                                          List<Field> lowerBounds) {
+        if (lowerBounds.size() != partitions.size() - 1) {
+            throw new IllegalArgumentException("need one lower bound for each partition but the first");
+        }
+        List<Partition> ps = new ArrayList<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            Field lower = i == 0 ? null : lowerBounds.get(i - 1);
+            if (i > 1 && !lower.compare(Predicate.Op.GREATER_THAN, lowerBounds.get(i - 2))) {
+                throw new IllegalArgumentException("lower bounds must increase");
+            }
+            ps.add(new Partition(checkSchema(partitions.get(i), td), lower));
+        }
+        return new PartitionedFile(id, td, keyField, false, ps);
+    }
+
+    /**
+     * Create a table partitioned by the hash of keyField over the given
+     * partitions.
+     *
+     * @param id the id of the table
+     */
+    public static PartitionedFile byHash(int id, TupleDesc td, int keyField, List<HeapFile> partitions) {
+        List<Partition> ps = new ArrayList<>();
+        for (HeapFile f : partitions) {
+            ps.add(new Partition(checkSchema(f, td), null));
+        }
+        return new PartitionedFile(id, td, keyField, true, ps);
+    }
+
+    private static HeapFile checkSchema(HeapFile f, TupleDesc td) {
+        if (!f.getTupleDesc().equals(td)) {
+            throw new IllegalArgumentException("partition " + f.getFile() + " has schema " + f.getTupleDesc());
+        }
+        return f;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the field the table is partitioned on */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return whether the table is partitioned by hash rather than by range */
+    public boolean isHashed() {
+        return hashed;
+    }
+
+    /** @return the partitions, in order */
+    public List<HeapFile> getPartitions() {
+        List<HeapFile> files = new ArrayList<>();
+        for (Partition p : partitions) {
+            files.add(p.file);
+        }
+        return files;
+    }
+
+    /**
+     * @return the lowest key of each partition, in order; null for the
+     *         first range partition and for hash partitions
+     */
+    public List<Field> getLowerBounds() {
+        List<Field> bounds = new ArrayList<>();
+        for (Partition p : partitions) {
+            bounds.add(p.lower);
+        }
+        return bounds;
+    }
+
+    /** @return the number of pages of all partitions together */
+    public int numPages() {
+        int n = 0;
+        for (Partition p : partitions) {
+            n += p.file.numPages();
+        }
+        return n;
+    }
+
+    /** @return the index of the partition that holds key */
+    public int partitionOf(Field key) {
+        return partitionOf(key, partitions);
+    }
+
+    private int partitionOf(Field key, List<Partition> ps) {
+        if (hashed) {
+            return Math.floorMod(key.hashCode(), ps.size());
+        }
+        // 二分找最后一个下界 <= key 的分区
+        int lo = 0, hi = ps.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (key.compare(Predicate.Op.GREATER_THAN_OR_EQ, ps.get(mid).lower)) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Add a range partition after the last one, holding the keys from lower
+     * up.  The partition is registered in the catalog if this table is.
+     */
+    public synchronized void addPartition(HeapFile f, Field lower) {
+        if (hashed) {
+            throw new UnsupportedOperationException("hash partitions cannot be added");
+        }
+        checkSchema(f, td);
+        List<Partition> ps = new ArrayList<>(partitions);
+        Partition last = ps.get(ps.size() - 1);
+        if (last.lower != null && !lower.compare(Predicate.Op.GREATER_THAN, last.lower)) {
+            throw new IllegalArgumentException("lower bound " + lower + " is not above " + last.lower);
+        }
+        ps.add(new Partition(f, lower));
+        partitions = Collections.unmodifiableList(ps);
+        Database.getCatalog().addPartition(id, f);
+    }
+
+    /**
+     * Drop range partition i with all its tuples, deleting its file, as
+     * part of transaction tid; the partition before it (or, for the first
+     * partition, after it) takes over its keys.  This takes the same time
+     * however many tuples the partition holds.
+     * <p>
+     * tid first takes an exclusive lock on the partition (see
+     * {@link BufferPool#lockTable}), so the drop waits until every other
+     * transaction that reads or modifies the partition has completed, and
+     * transactions that get to it later find it empty.  A DROP record is
+     * forced to the log before the file is deleted, so that recovery skips
+     * the log records of the partition.  The drop is not undone if tid
+     * aborts.
+     *
+     * @throws TransactionAbortedException if waiting for the lock would
+     *         deadlock
+     */
+    public void dropPartition(TransactionId tid, int i)
+            throws DbException, IOException, TransactionAbortedException {
+        if (hashed) {
+            throw new UnsupportedOperationException("hash partitions cannot be dropped");
+        }
+        HeapFile f;
+        synchronized (this) {
+            if (partitions.size() == 1) {
+                throw new IllegalStateException("cannot drop the only partition");
+            }
+            f = partitions.get(i).file;
+        }
+        // 不能拿着 this 等锁：等的时候别的事务还要插入、加分区
+        Database.getBufferPool().lockTable(tid, f.getId(), Permissions.READ_WRITE);
+        synchronized (this) {
+            List<Partition> ps = new ArrayList<>(partitions);
+            int j = 0;
+            while (j < ps.size() && ps.get(j).file != f) {
+                j++;
+            }
+            if (j == ps.size()) {
+                throw new DbException("partition " + f.getId() + " has already been dropped");
+            }
+            if (ps.size() == 1) {
+                throw new IllegalStateException("cannot drop the only partition");
+            }
+            ps.remove(j);
+            if (j == 0) {
+                // 新的第一个分区接管更小的键
+                ps.set(0, new Partition(ps.get(0).file, null));
+            }
+            partitions = Collections.unmodifiableList(ps);
+        }
+
+        // 先把 DROP 写进日志并落盘，再删文件：恢复时不再去找这个表
+        Database.getLogFile().logDropTable(tid, f.getId());
+        Database.getBufferPool().discardPages(f.getId());
+        Database.getCatalog().removeTable(f.getId());
+        Database.getCatalog().partitionsChanged(id);
+        f.drop();
+    }
+
+    // 这个分区里有没有可能有满足 p 的键；判断不了就当有
+    private boolean mayMatch(int i, List<Partition> ps, Predicate p) {
+        if (p == null || p.getField() != keyField) {
+            return true;
+        }
+        Field v = p.getOperand();
+        if (hashed) {
+            return p.getOp() != Predicate.Op.EQUALS || Math.floorMod(v.hashCode(), ps.size()) == i;
+        }
+        // 分区 i 的键在 [lo, hi) 里，null 表示没有界
+        Field lo = ps.get(i).lower;
+        Field hi = i + 1 < ps.size() ? ps.get(i + 1).lower : null;
+        switch (p.getOp()) {
+            case EQUALS:
+                return (lo == null || v.compare(Predicate.Op.GREATER_THAN_OR_EQ, lo))
+                        && (hi == null || v.compare(Predicate.Op.LESS_THAN, hi));
+            case LESS_THAN:
+                return lo == null || lo.compare(Predicate.Op.LESS_THAN, v);
+            case LESS_THAN_OR_EQ:
+                return lo == null || lo.compare(Predicate.Op.LESS_THAN_OR_EQ, v);
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return hi == null || hi.compare(Predicate.Op.GREATER_THAN, v);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return the partitions a scan for tuples satisfying all of filters
+     *         has to read
+     */
+    public List<HeapFile> partitionsFor(List<Predicate> filters) {
+        List<Partition> ps = partitions;
+        List<HeapFile> files = new ArrayList<>();
+        for (int i = 0; i < ps.size(); i++) {
+            boolean keep = true;
+            for (Predicate p : filters) {
+                keep &= mayMatch(i, ps, p);
+            }
+            if (keep) {
+                files.add(ps.get(i).file);
+            }
+        }
+        return files;
+    }
+
+    private HeapFile partitionById(int tableId) {
+        for (Partition p : partitions) {
+            if (p.file.getId() == tableId) {
+                return p.file;
+            }
+        }
+        throw new IllegalArgumentException("table " + tableId + " is not a partition of " + id);
+    }
+
+    /** Read a page of one of the partitions. */
+    public Page readPage(PageId pid) {
+        return partitionById(pid.getTableId()).readPage(pid);
+    }
+
+    /** Write a page of one of the partitions. */
+    public void writePage(Page page) throws IOException {
+        partitionById(page.getId().getTableId()).writePage(page);
+    }
+
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(keyField);
+        if (key == null) {
+            throw new DbException("tuple has no partition key");
+        }
+        while (true) {
+            List<Partition> ps = partitions;
+            HeapFile f = ps.get(partitionOf(key, ps)).file;
+            // 分区可能在拿到表锁之前被删掉了，那就按新的分区列表再找一次
+            if (f.lockTable(tid)) {
+                return f.insertTuple(tid, t);
+            }
+        }
+    }
+
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple is not stored in a table");
+        }
+        try {
+            return partitionById(rid.getPageId().getTableId()).deleteTuple(tid, t);
+        } catch (IllegalArgumentException e) {
+            throw new DbException("tuple is not in this table");
+        }
+    }
+
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, Collections.emptyList(), null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the partitions that can hold
+     * tuples satisfying all of filters and p.  Only p is applied to the
+     * tuples, and only fields are decoded, as in
+     * {@link HeapFile#iterator(TransactionId, Predicate, int[])}; the
+     * caller still has to apply filters.
+     *
+     * @param filters predicates used to skip partitions
+     * @param p the predicate to apply, or null for none
+     * @param fields the fields to decode, or null for all
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> filters, Predicate p, int[] fields) {
+        List<Predicate> all = new ArrayList<>(filters);
+        all.add(p);
+        return new PartitionIterator(tid, all, p, fields);
+    }
+
+    // 依次扫每个没被剪掉的分区；分区列表在 open 时定下来
+    private class PartitionIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final List<Predicate> filters;
+        private final Predicate p;
+        private final int[] fields;
+        private List<HeapFile> files;
+        private int next;
+        private DbFileIterator current;
+
+        PartitionIterator(TransactionId tid, List<Predicate> filters, Predicate p, int[] fields) {
+            this.tid = tid;
+            this.filters = filters;
+            this.p = p;
+            this.fields = fields;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            files = partitionsFor(filters);
+            next = 0;
+            current = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (files == null) {
+                return false;
+            }
+            while (current == null || !current.hasNext()) {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+                if (next == files.size()) {
+                    return false;
+                }
+                current = files.get(next++).iterator(tid, p, fields);
+                current.open();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        public void fillBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            while (!batch.isFull() && hasNext()) {
+                current.fillBatch(batch);
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            files = null;
+        }
+    }
+}
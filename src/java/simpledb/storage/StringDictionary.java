@@ -0,0 +1,165 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StringDictionary holds the dictionaries of the dictionary-encoded string
+ * columns of one table.  Pages of such a table store a 4-byte int code in
+ * place of each value of those columns; codes are handed out per column in
+ * the order values are first stored, and never change or go away.
+ * <p>
+ * The dictionary lives in a side file (<code>&lt;data file&gt;.dict</code>)
+ * that only grows: a magic number followed by one (short column, UTF value)
+ * record per code.  A new code is written and synced before any page that
+ * uses it can be written, so every code on disk can be decoded after a
+ * crash.
+ *
+ * @see HeapFile
+ * @see DictStringField
+ */
+public class StringDictionary {
+
+    private static final long MAGIC = 0x5344424449435431L; // "SDBDICT1"
+
+    private final File file;
+    private final Column[] columns;
+
+    // 一列的字典：值到编码的映射只在加锁时访问；values 数组整体替换后再发布，
+    // 所以 decode 不加锁也能读到完整的数组
+    private static final class Column {
+        final Map<String, Integer> codes = new HashMap<>();
+        volatile String[] values = new String[16];
+        int size = 0;
+    }
+
+    /**
+     * Open (or create) the dictionary of a table.
+     *
+     * @param file the dictionary file
+     * @param numFields the number of fields of the table
+     * @param encodedFields the fields that are dictionary-encoded
+     */
+    public StringDictionary(File file, int numFields, int[] encodedFields) {
+        this.file = file;
+        this.columns = new Column[numFields];
+        for (int f : encodedFields) {
+            columns[f] = new Column();
+        }
+        load();
+    }
+
+    /** @return the dictionary file that goes with dataFile */
+    static File dictionaryFile(File dataFile) {
+        return new File(dataFile.getPath() + ".dict");
+    }
+
+    /** @return true if field is dictionary-encoded */
+    public boolean isEncoded(int field) {
+        return field < columns.length && columns[field] != null;
+    }
+
+    /** @return the number of distinct values stored in field so far */
+    public synchronized int size(int field) {
+        return columns[field].size;
+    }
+
+    /**
+     * @return the code of value in field, adding it to the dictionary if it
+     *         is not there yet
+     * @throws IOException if a new code cannot be written to the dictionary
+     *         file
+     */
+    public synchronized int encode(int field, String value) throws IOException {
+        Column c = columns[field];
+        Integer code = c.codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        append(field, value);
+        return add(c, value);
+    }
+
+    /**
+     * @return the code of value in field, or -1 if the value has never been
+     *         stored
+     */
+    public synchronized int lookup(int field, String value) {
+        Integer code = columns[field].codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the value with the given code in field.  Every field holding
+     *         that value gets the same String instance.
+     */
+    public String decode(int field, int code) {
+        String[] values = columns[field].values;
+        String s = code >= 0 && code < values.length ? values[code] : null;
+        if (s == null) {
+            throw new IllegalArgumentException("unknown dictionary code " + code + " for field " + field);
+        }
+        return s;
+    }
+
+    private int add(Column c, String value) {
+        String[] values = c.values;
+        if (c.size == values.length) {
+            values = java.util.Arrays.copyOf(values, values.length * 2);
+        }
+        values[c.size] = value;
+        c.values = values; // volatile 写，发布新加的值
+        c.codes.put(value, c.size);
+        return c.size++;
+    }
+
+    private void append(int field, String value) throws IOException {
+        boolean fresh = !file.isFile() || file.length() == 0;
+        try (FileOutputStream fos = new FileOutputStream(file, true)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            if (fresh) {
+                out.writeLong(MAGIC);
+            }
+            out.writeShort(field);
+            out.writeUTF(value);
+            out.flush();
+            // 编码落盘之后，用到它的页才可能被写出去
+            fos.getFD().sync();
+        }
+    }
+
+    private void load() {
+        if (!file.isFile() || file.length() == 0) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.readLong() != MAGIC) {
+                throw new IllegalStateException(file + " is not a dictionary file");
+            }
+            long end = raf.getFilePointer();
+            while (true) {
+                int field;
+                String value;
+                try {
+                    field = raf.readShort();
+                    value = raf.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (!isEncoded(field)) {
+                    throw new IllegalStateException(file + " has values for field " + field
+                            + ", which is not dictionary-encoded");
+                }
+                add(columns[field], value);
+                end = raf.getFilePointer();
+            }
+            // 追加到一半时崩溃留下的残缺记录截掉，后面的追加才接得上
+            if (end < raf.length()) {
+                raf.setLength(end);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read dictionary " + file, e);
+        }
+    }
+}
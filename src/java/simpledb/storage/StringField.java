@@ -37,16 +37,16 @@ public class StringField implements Field {
 	}
 
 	public String toString() {
-		return value;
+		return getValue();
 	}
 
 	public int hashCode() {
-		return value.hashCode();
+		return getValue().hashCode();
 	}
 
 	public boolean equals(Object field) {
 	    if (!(field instanceof StringField)) return false;
-		return ((StringField) field).value.equals(value);
+		return ((StringField) field).getValue().equals(getValue());
 	}
 
 	/**
@@ -80,7 +80,8 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
+		String value = getValue();
+		int cmpVal = value.compareTo(iVal.getValue());
 
 		switch (op) {
 		case EQUALS:
@@ -102,7 +103,7 @@ public class StringField implements Field {
 			return cmpVal <= 0;
 
 		case LIKE:
-			return value.contains(iVal.value);
+			return value.contains(iVal.getValue());
 		}
 
 		return false;
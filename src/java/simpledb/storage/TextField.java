@@ -0,0 +1,106 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The value of a TEXT field: a string of any length, kept out of line in
+ * the {@link OverflowFile} of its table.  A TextField read from a page
+ * only holds a pointer to its value, which is read the first time
+ * {@link #getValue()} is called, so operators that never look at the
+ * value never read the overflow pages.  It behaves like a StringField with
+ * the same value in comparisons.
+ */
+public class TextField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    // 值在哪个溢出文件的哪一页、页内偏移，多长（字节）；没存过时 overflow 为 null
+    private final transient OverflowFile overflow;
+    private final int page;
+    private final int offset;
+    private final int length;
+
+    private volatile String value; // 没读过时为 null
+
+    /** Create a TextField holding s, not stored in any table yet. */
+    public TextField(String s) {
+        super("", 0);
+        this.overflow = null;
+        this.page = -1;
+        this.offset = -1;
+        this.length = s.getBytes(StandardCharsets.UTF_8).length;
+        this.value = s;
+    }
+
+    /** Create a TextField whose value of length bytes is stored in overflow. */
+    TextField(OverflowFile overflow, int page, int offset, int length) {
+        super("", 0);
+        this.overflow = overflow;
+        this.page = page;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /** Create a TextField holding value, stored in overflow. */
+    TextField(OverflowFile overflow, int page, int offset, String value) {
+        this(overflow, page, offset, value.getBytes(StandardCharsets.UTF_8).length);
+        this.value = value;
+    }
+
+    @Override
+    public String getValue() {
+        String v = value;
+        if (v == null) {
+            try {
+                v = new String(overflow.read(page, offset, length), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            value = v;
+        }
+        return v;
+    }
+
+    /** @return whether the value has been read (or was never stored) */
+    public boolean isLoaded() {
+        return value != null;
+    }
+
+    /** @return whether the value is stored in overflow */
+    boolean isStoredIn(OverflowFile overflow) {
+        return overflow != null && this.overflow == overflow;
+    }
+
+    /** Give the space of the stored value back to its overflow file. */
+    void release() {
+        overflow.free(page, offset, length);
+    }
+
+    /** Write the pointer to the value: its length, page and offset. */
+    void writePointer(DataOutputStream dos) throws IOException {
+        dos.writeInt(length);
+        dos.writeInt(page);
+        dos.writeInt(offset);
+    }
+
+    /**
+     * Write the value to dos as its length in bytes followed by its UTF-8
+     * bytes, as {@link Type#TEXT_TYPE} parses it.
+     */
+    @Override
+    public void serialize(DataOutputStream dos) throws IOException {
+        byte[] bytes = getValue().getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    @Override
+    public Type getType() {
+        return Type.TEXT_TYPE;
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Instance of Field that stores a point in time as milliseconds since the
+ * epoch (UTC).  It is stored and compared exactly like a LongField, but is
+ * never equal to one.
+ */
+public class TimestampField extends LongField {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] FORMATS = {
+            "yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param millis The value of this field, in milliseconds since the epoch.
+     */
+    public TimestampField(long millis) {
+        super(millis);
+    }
+
+    /**
+     * @return the milliseconds since the epoch written in s, which is either
+     *         a date ("2024-01-31"), a date and time ("2024-01-31 12:00:00",
+     *         optionally with milliseconds), in UTC, or a plain number of
+     *         milliseconds
+     * @throws IllegalArgumentException if s is none of these
+     */
+    public static long parseMillis(String s) {
+        for (String format : FORMATS) {
+            ParsePosition pos = new ParsePosition(0);
+            Date d = formatter(format).parse(s, pos);
+            if (d != null && pos.getIndex() == s.length()) {
+                return d.getTime();
+            }
+        }
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a timestamp: " + s);
+        }
+    }
+
+    // SimpleDateFormat 不是线程安全的，每次新建一个
+    private static SimpleDateFormat formatter(String format) {
+        SimpleDateFormat f = new SimpleDateFormat(format);
+        f.setLenient(false);
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return f;
+    }
+
+    /**
+     * @return the value as "yyyy-MM-dd HH:mm:ss.SSS" in UTC, which
+     *         {@link #parseMillis} reads back
+     */
+    public String toString() {
+        return formatter(FORMATS[0]).format(new Date(getValue()));
+    }
+
+    /**
+     * Return the Type of this field.
+     *
+     * @return Type.TIMESTAMP_TYPE
+     */
+    public Type getType() {
+        return Type.TIMESTAMP_TYPE;
+    }
+}
@@ -8,11 +8,22 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values of INT_TYPE, LONG_TYPE, DOUBLE_TYPE and TIMESTAMP_TYPE fields
+ * among the first 64 can also be held as plain numbers (see {@link #setInt},
+ * {@link #setLong} and {@link #setDouble}), so that pages and operators
+ * that only need the number never allocate a Field for it.  getField boxes
+ * such a value, according to the field's type, the first time it is asked
+ * for.
  */
 public class Tuple implements Serializable {
 
     private TupleDesc tupleDesc;
     private Field[] fields;
+    // 以原始值存放的字段：第 i 位为 1 表示第 i 个字段的值在 values[i]（double 存它的位）；
+    // fields[i] 可能是它装箱后的缓存
+    private long[] values;
+    private long primitive;
     private RecordId recordId;
     private static final long serialVersionUID = 1L;
 
@@ -67,6 +78,118 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         this.fields[i] = f;
+        if (i < 64) {
+            primitive &= ~(1L << i);
+        }
+    }
+
+    /**
+     * Change the value of the ith field of this tuple, which must be an
+     * INT_TYPE field, without allocating an IntField for it.
+     */
+    public void setInt(int i, int v) {
+        if (i >= 64) {
+            fields[i] = new IntField(v);
+            return;
+        }
+        setBits(i, v);
+    }
+
+    /**
+     * Change the value of the ith field of this tuple, which must be a
+     * LONG_TYPE or TIMESTAMP_TYPE field, without allocating a Field for it.
+     */
+    public void setLong(int i, long v) {
+        if (i >= 64) {
+            fields[i] = box(i, v);
+            return;
+        }
+        setBits(i, v);
+    }
+
+    /**
+     * Change the value of the ith field of this tuple, which must be a
+     * DOUBLE_TYPE field, without allocating a DoubleField for it.
+     */
+    public void setDouble(int i, double v) {
+        if (i >= 64) {
+            fields[i] = new DoubleField(v);
+            return;
+        }
+        setBits(i, Double.doubleToRawLongBits(v));
+    }
+
+    private void setBits(int i, long bits) {
+        if (values == null) {
+            values = new long[Math.min(fields.length, 64)];
+        }
+        values[i] = bits;
+        fields[i] = null;
+        primitive |= 1L << i;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     *         that has been set
+     */
+    public int getInt(int i) {
+        if (i < 64 && (primitive & (1L << i)) != 0) {
+            return (int) values[i];
+        }
+        return ((IntField) fields[i]).getValue();
+    }
+
+    /**
+     * @return the value of the ith field, which must be a LONG_TYPE or
+     *         TIMESTAMP_TYPE field that has been set
+     */
+    public long getLong(int i) {
+        if (i < 64 && (primitive & (1L << i)) != 0) {
+            return values[i];
+        }
+        return ((LongField) fields[i]).getValue();
+    }
+
+    /**
+     * @return the value of the ith field, which must be a DOUBLE_TYPE field
+     *         that has been set
+     */
+    public double getDouble(int i) {
+        if (i < 64 && (primitive & (1L << i)) != 0) {
+            return Double.longBitsToDouble(values[i]);
+        }
+        return ((DoubleField) fields[i]).getValue();
+    }
+
+    /**
+     * Set the ith field of this tuple to the jth field of src, copying a
+     * numeric value without boxing it.
+     */
+    public void copyField(int i, Tuple src, int j) {
+        if (j < 64 && (src.primitive & (1L << j)) != 0 && i < 64) {
+            setBits(i, src.values[j]);
+        } else {
+            setField(i, src.getField(j));
+        }
+    }
+
+    // 第 i 个字段是否以原始值存放；是的话 bits(i) 是它的值（double 是它的位）
+    boolean holdsBits(int i) {
+        return i < 64 && (primitive & (1L << i)) != 0;
+    }
+
+    long bits(int i) {
+        return values[i];
+    }
+
+    // 按第 i 个字段的类型把原始值装箱
+    private Field box(int i, long bits) {
+        switch (tupleDesc.getFieldType(i)) {
+            case LONG_TYPE: return new LongField(bits);
+            case DOUBLE_TYPE: return new DoubleField(Double.longBitsToDouble(bits));
+            case TIMESTAMP_TYPE: return new TimestampField(bits);
+            default: return new IntField((int) bits);
+        }
     }
 
     /**
@@ -77,6 +200,10 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         if(this.fields[i] == null){
+            if (i < 64 && (primitive & (1L << i)) != 0) {
+                fields[i] = box(i, values[i]); // 第一次要 Field 时才装箱
+                return fields[i];
+            }
             return null;
         }
         return this.fields[i];
@@ -94,7 +221,8 @@ public class Tuple implements Serializable {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         for(int i = 0; i < fields.length; i++){
-            sb.append(fields[i] != null ? fields[i].toString() : "null");
+            Field f = getField(i);
+            sb.append(f != null ? f.toString() : "null");
             if(i < fields.length - 1){
                 sb.append("\t");
             }
@@ -108,7 +236,10 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-        // Arrays.asList(fields) creates a List<Field>, .iterator() on that list returns an Iterator<Field>
+        // 先把以原始值存放的字段装箱，再用 Arrays.asList(fields) 生成迭代器
+        for (int i = 0; i < fields.length; i++) {
+            getField(i);
+        }
         return Arrays.asList(fields).iterator();
     }
 
@@ -0,0 +1,337 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of one schema column by
+ * column, for operators that pass rows on a batch at a time (see
+ * {@link simpledb.execution.OpIterator#nextBatch()}).  Numeric fields
+ * (INT_TYPE and the 8-byte types) are held as plain longs, as
+ * {@link Tuple} holds them, and other fields as Field objects.
+ * <p>
+ * Rows are numbered from 0 to {@link #size()} - 1 in the order they were
+ * added.  Only the rows in the selection vector are part of the batch: a
+ * filter narrows the selection instead of moving rows, so the columns are
+ * never copied.  The selection lists live rows in increasing order.
+ * <p>
+ * A batch can also be read as a {@link FieldAccessor} over its rows, so
+ * that a {@link simpledb.execution.Predicate} can be evaluated on it
+ * without building tuples.
+ */
+public class TupleBatch implements FieldAccessor {
+
+    /** The number of rows a batch holds unless asked otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+
+    // 数值列（INT 和 8 字节的类型）放在 longs 里，其余列放在 fields 里；另一个数组为 null
+    private final long[][] longs;
+    private final Field[][] fields;
+    // 某一列是否写过值；投影掉的列没写过，变回 Tuple 时留 null
+    private final boolean[] loaded;
+    private final RecordId[] recordIds;
+
+    private final int[] selection;
+    private int numSelected = 0;
+    private int size = 0;
+
+    /** Create an empty batch of rows of td holding up to DEFAULT_CAPACITY rows. */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /** Create an empty batch of rows of td holding up to capacity rows. */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        longs = new long[n][];
+        fields = new Field[n][];
+        for (int j = 0; j < n; j++) {
+            if (isNumeric(td.getFieldType(j))) {
+                longs[j] = new long[capacity];
+            } else {
+                fields[j] = new Field[capacity];
+            }
+        }
+        loaded = new boolean[n];
+        recordIds = new RecordId[capacity];
+        selection = new int[capacity];
+    }
+
+    private static boolean isNumeric(Type type) {
+        return type == Type.INT_TYPE || type.isWide();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows the batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows added since the batch was last cleared */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** @return the number of rows in the selection vector */
+    public int numSelected() {
+        return numSelected;
+    }
+
+    /**
+     * @return the selection vector: its first {@link #numSelected()}
+     *         entries are the rows of the batch, in increasing order.  An
+     *         operator that filters the batch may overwrite them in place
+     *         and then call {@link #setNumSelected}.
+     */
+    public int[] selection() {
+        return selection;
+    }
+
+    /** Keep only the first n entries of the selection vector. */
+    public void setNumSelected(int n) {
+        if (n < 0 || n > numSelected) {
+            throw new IllegalArgumentException("cannot select " + n + " of " + numSelected + " rows");
+        }
+        numSelected = n;
+    }
+
+    /** Remove every row from the batch. */
+    public void clear() {
+        // 只清掉对象列的引用，数值列直接覆盖
+        for (int j = 0; j < fields.length; j++) {
+            if (fields[j] != null && loaded[j]) {
+                Arrays.fill(fields[j], 0, size, null);
+            }
+        }
+        Arrays.fill(recordIds, 0, size, null);
+        Arrays.fill(loaded, false);
+        size = 0;
+        numSelected = 0;
+    }
+
+    /**
+     * Add a row with no fields set yet and select it.
+     *
+     * @return the number of the new row
+     * @throws IllegalStateException if the batch is full
+     */
+    public int addRow(RecordId rid) {
+        if (size == capacity) {
+            throw new IllegalStateException("batch is full");
+        }
+        int row = size++;
+        recordIds[row] = rid;
+        selection[numSelected++] = row;
+        return row;
+    }
+
+    /**
+     * Add a copy of the fields of t as a new, selected row.
+     *
+     * @return the number of the new row
+     */
+    public int append(Tuple t) {
+        int row = addRow(t.getRecordId());
+        for (int j = 0; j < longs.length; j++) {
+            copyField(row, j, t, j);
+        }
+        return row;
+    }
+
+    /** Set field j of row to field srcField of src, leaving it unset if that is. */
+    public void copyField(int row, int j, Tuple src, int srcField) {
+        if (longs[j] != null) {
+            if (src.holdsBits(srcField)) {
+                setBits(row, j, src.bits(srcField));
+                return;
+            }
+            Field f = src.getField(srcField);
+            if (f != null) {
+                setBits(row, j, bitsOf(f));
+            }
+        } else {
+            Field f = src.getField(srcField);
+            if (f != null) {
+                setField(row, j, f);
+            }
+        }
+    }
+
+    /** Set field j of row to field srcField of row srcRow of src. */
+    public void copyField(int row, int j, TupleBatch src, int srcRow, int srcField) {
+        if (!src.loaded[srcField]) {
+            return;
+        }
+        if (longs[j] != null && src.longs[srcField] != null) {
+            setBits(row, j, src.longs[srcField][srcRow]);
+        } else {
+            setField(row, j, src.getField(srcRow, srcField));
+        }
+    }
+
+    /**
+     * Replace the rows of this batch by the rows selected in src, in
+     * order, with field j of each row taken from field srcFields[j] of the
+     * src row.  The columns are copied one at a time.
+     */
+    public void project(TupleBatch src, int[] srcFields) {
+        clear();
+        int n = src.numSelected;
+        if (n > capacity) {
+            throw new IllegalArgumentException("batch of " + n + " rows does not fit");
+        }
+        int[] rows = src.selection;
+        for (int i = 0; i < n; i++) {
+            recordIds[i] = src.recordIds[rows[i]];
+            selection[i] = i;
+        }
+        size = numSelected = n;
+        for (int j = 0; j < srcFields.length; j++) {
+            int s = srcFields[j];
+            if (!src.loaded[s]) {
+                continue;
+            }
+            loaded[j] = true;
+            if (longs[j] != null && src.longs[s] != null) {
+                long[] to = longs[j], from = src.longs[s];
+                for (int i = 0; i < n; i++) {
+                    to[i] = from[rows[i]];
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    setField(i, j, src.getField(rows[i], s));
+                }
+            }
+        }
+    }
+
+    private static long bitsOf(Field f) {
+        if (f instanceof IntField) {
+            return ((IntField) f).getValue();
+        }
+        if (f instanceof DoubleField) {
+            return Double.doubleToRawLongBits(((DoubleField) f).getValue());
+        }
+        return ((LongField) f).getValue();
+    }
+
+    private void setBits(int row, int j, long bits) {
+        longs[j][row] = bits;
+        loaded[j] = true;
+    }
+
+    /** Set the INT_TYPE field j of row. */
+    public void setInt(int row, int j, int v) {
+        setBits(row, j, v);
+    }
+
+    /** Set the LONG_TYPE or TIMESTAMP_TYPE field j of row. */
+    public void setLong(int row, int j, long v) {
+        setBits(row, j, v);
+    }
+
+    /** Set the DOUBLE_TYPE field j of row. */
+    public void setDouble(int row, int j, double v) {
+        setBits(row, j, Double.doubleToRawLongBits(v));
+    }
+
+    /** Set field j of row to f, which must be of the type of the field. */
+    public void setField(int row, int j, Field f) {
+        if (longs[j] != null) {
+            setBits(row, j, bitsOf(f));
+        } else {
+            fields[j][row] = f;
+            loaded[j] = true;
+        }
+    }
+
+    /** @return the RecordId of row, or null if it has none */
+    public RecordId getRecordId(int row) {
+        return recordIds[row];
+    }
+
+    @Override
+    public boolean isSlotUsed(int row) {
+        return row < size;
+    }
+
+    @Override
+    public int getInt(int row, int j) {
+        return (int) longs[j][row];
+    }
+
+    @Override
+    public long getLong(int row, int j) {
+        return longs[j][row];
+    }
+
+    @Override
+    public double getDouble(int row, int j) {
+        return Double.longBitsToDouble(longs[j][row]);
+    }
+
+    @Override
+    public int compareString(int row, int j, String value) {
+        return ((StringField) fields[j][row]).getValue().compareTo(value);
+    }
+
+    /** @return field j of row as a Field, or null if it is not set */
+    public Field getField(int row, int j) {
+        if (!loaded[j]) {
+            return null;
+        }
+        if (fields[j] != null) {
+            return fields[j][row];
+        }
+        long bits = longs[j][row];
+        switch (td.getFieldType(j)) {
+            case INT_TYPE: return new IntField((int) bits);
+            case DOUBLE_TYPE: return new DoubleField(Double.longBitsToDouble(bits));
+            case TIMESTAMP_TYPE: return new TimestampField(bits);
+            default: return new LongField(bits);
+        }
+    }
+
+    /**
+     * @return a new Tuple holding the fields of row (unset fields are left
+     *         null), for consumers that read the batch row at a time
+     */
+    @Override
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(recordIds[row]);
+        for (int j = 0; j < longs.length; j++) {
+            if (!loaded[j]) {
+                continue;
+            }
+            Type type = td.getFieldType(j);
+            if (type == Type.INT_TYPE) {
+                t.setInt(j, (int) longs[j][row]);
+            } else if (type == Type.DOUBLE_TYPE) {
+                t.setDouble(j, Double.longBitsToDouble(longs[j][row]));
+            } else if (longs[j] != null) {
+                t.setLong(j, longs[j][row]);
+            } else {
+                t.setField(j, fields[j][row]);
+            }
+        }
+        return t;
+    }
+}
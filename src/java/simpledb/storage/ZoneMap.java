@@ -0,0 +1,359 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the smallest and largest
+ * value of each INT_TYPE, LONG_TYPE and TIMESTAMP_TYPE field on the page, so that a scan with a simple
+ * comparison predicate can skip pages whose range cannot match without
+ * reading them.  It pays off when a table is clustered on the field, as
+ * tables loaded in key or time order are.
+ * <p>
+ * A page's range may be wider than its contents, never narrower:
+ * <ul>
+ * <li>inserts widen the range of their page;</li>
+ * <li>deletes leave it alone, since the delete may still be rolled back;</li>
+ * <li>when a page is written, the range is recomputed from the page and
+ *     its before image, so it tightens once a delete has committed.</li>
+ * </ul>
+ * A page whose range is not known yet is always read, and its range is
+ * computed when it is.  Fields cannot be null in SimpleDB, so there are no
+ * null counts to keep.
+ * <p>
+ * The map is persisted in a side file next to the heap file: a header that
+ * stamps the length and modification time of the heap file when the map
+ * was last written (as {@link FreeSpaceMap} does), followed by one entry
+ * per page of a state byte and a (min, max) pair per tracked field, of
+ * ints or longs as the field is wide.  If the heap file changed behind the
+ * map's back, the stored map is ignored.
+ *
+ * @see HeapFile#iterator(simpledb.transaction.TransactionId, Predicate)
+ */
+public class ZoneMap {
+
+    private static final int HEADER_SIZE = 24;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte KNOWN = 1;
+
+    private final File zoneFile;
+    private final File heapFile;
+    private final int pageSize;
+    // 记录范围的字段（所有 INT/LONG/TIMESTAMP 字段），以及字段号到它们下标的映射；
+    // 内存里一律存成 long，wide[k] 表示第 k 个字段在文件里占 8 字节
+    private final int[] fields;
+    private final boolean[] wide;
+    private final int[] slotOf;
+    private final int entrySize;
+
+    private byte[] states = new byte[0];
+    private long[] mins = new long[0];
+    private long[] maxs = new long[0];
+    private int numEntries = 0;
+    private final BitSet dirty = new BitSet();
+    private boolean loaded = false;
+    // 文件里的旧条目不可信，下次写之前先清掉
+    private boolean discardStored = false;
+
+    private long pagesSkipped = 0;
+
+    /**
+     * @param zoneFile the side file the map is stored in
+     * @param heapFile the heap file whose pages the map describes
+     * @param td the schema of the heap file
+     */
+    public ZoneMap(File zoneFile, File heapFile, TupleDesc td) {
+        this(zoneFile, heapFile, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * @param zoneFile the side file the map is stored in
+     * @param heapFile the heap file whose pages the map describes
+     * @param td the schema of the heap file
+     * @param pageSize the size of the pages of the heap file
+     */
+    public ZoneMap(File zoneFile, File heapFile, TupleDesc td, int pageSize) {
+        this.zoneFile = zoneFile;
+        this.heapFile = heapFile;
+        this.pageSize = pageSize;
+        this.slotOf = new int[td.numFields()];
+        int n = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            slotOf[j] = isTracked(td.getFieldType(j)) ? n++ : -1;
+        }
+        this.fields = new int[n];
+        this.wide = new boolean[n];
+        int size = 1;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (slotOf[j] >= 0) {
+                fields[slotOf[j]] = j;
+                wide[slotOf[j]] = td.getFieldType(j) != Type.INT_TYPE;
+                size += wide[slotOf[j]] ? 16 : 8;
+            }
+        }
+        this.entrySize = size;
+    }
+
+    private static boolean isTracked(Type type) {
+        return type == Type.INT_TYPE || type == Type.LONG_TYPE || type == Type.TIMESTAMP_TYPE;
+    }
+
+    /** @return the file the map is stored in */
+    public File getFile() {
+        return zoneFile;
+    }
+
+    /**
+     * @return true if page pageNo may hold a tuple that satisfies p: its
+     *         range is unknown, or overlaps the values p accepts.  Pages for
+     *         which this returns false are counted as skipped.
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate p) {
+        load();
+        if (pageNo >= numEntries || states[pageNo] == UNKNOWN) {
+            return true;
+        }
+        int k = p.getField() < slotOf.length ? slotOf[p.getField()] : -1;
+        long v;
+        if (k < 0) {
+            return true;
+        } else if (p.getOperand() instanceof IntField) {
+            v = ((IntField) p.getOperand()).getValue();
+        } else if (p.getOperand() instanceof LongField) { // 也包括 TimestampField
+            v = ((LongField) p.getOperand()).getValue();
+        } else {
+            return true;
+        }
+        int i = pageNo * fields.length + k;
+        if (overlaps(mins[i], maxs[i], p.getOp(), v)) {
+            return true;
+        }
+        pagesSkipped++;
+        return false;
+    }
+
+    // [min, max] 里是否可能有满足 "值 op v" 的值；min > max 表示页是空的
+    private static boolean overlaps(long min, long max, Predicate.Op op, long v) {
+        if (min > max) {
+            return false;
+        }
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return min <= v && v <= max;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        default:
+            return true;
+        }
+    }
+
+    /** @return the number of pages {@link #mayMatch} let scans skip */
+    public synchronized long getPagesSkipped() {
+        return pagesSkipped;
+    }
+
+    /**
+     * @return true if the range of page pageNo is known and contains value
+     *         in field (an INT_TYPE, LONG_TYPE or TIMESTAMP_TYPE field); for
+     *         tests and diagnostics
+     */
+    public synchronized boolean covers(int pageNo, int field, long value) {
+        load();
+        if (pageNo >= numEntries || states[pageNo] == UNKNOWN) {
+            return false;
+        }
+        int i = pageNo * fields.length + slotOf[field];
+        return mins[i] <= value && value <= maxs[i];
+    }
+
+    /** Widen the range of page pageNo to include t, which was inserted there. */
+    public synchronized void include(int pageNo, Tuple t) {
+        load();
+        if (pageNo >= numEntries || states[pageNo] == UNKNOWN) {
+            return; // 范围未知的页反正都要读
+        }
+        for (int k = 0; k < fields.length; k++) {
+            widen(pageNo * fields.length + k, wide[k] ? t.getLong(fields[k]) : t.getInt(fields[k]));
+        }
+        dirty.set(pageNo);
+    }
+
+    /**
+     * Compute the range of page pageNo from page, just read from disk, if
+     * it is not known yet.  A known range already covers every version of
+     * the page.
+     */
+    public synchronized void include(int pageNo, HeapPage page) {
+        load();
+        if (pageNo >= numEntries || states[pageNo] == UNKNOWN) {
+            reset(pageNo, page);
+        }
+    }
+
+    /**
+     * Recompute the range of page pageNo from page, which is about to be
+     * written, and from its before image, which an abort would bring back.
+     */
+    public synchronized void reset(int pageNo, HeapPage page) {
+        load();
+        ensureCapacity(pageNo + 1);
+        states[pageNo] = KNOWN;
+        int base = pageNo * fields.length;
+        Arrays.fill(mins, base, base + fields.length, Long.MAX_VALUE);
+        Arrays.fill(maxs, base, base + fields.length, Long.MIN_VALUE);
+        addPage(pageNo, page);
+        if (page.oldData != null) {
+            addPage(pageNo, page.getBeforeImage());
+        }
+        dirty.set(pageNo);
+    }
+
+    /**
+     * Forget the ranges of the pages from numPages on, which were cut off
+     * the heap file; pages appended later start out unknown.
+     */
+    public synchronized void truncate(int numPages) {
+        load();
+        for (int p = numPages; p < numEntries; p++) {
+            if (states[p] != UNKNOWN) {
+                states[p] = UNKNOWN;
+                dirty.set(p);
+            }
+        }
+    }
+
+    private void addPage(int pageNo, HeapPage page) {
+        for (int i = 0; i < page.numSlots; i++) {
+            if (!page.isSlotUsed(i)) {
+                continue;
+            }
+            for (int k = 0; k < fields.length; k++) {
+                widen(pageNo * fields.length + k, wide[k] ? page.getLong(i, fields[k]) : page.getInt(i, fields[k]));
+            }
+        }
+    }
+
+    private void widen(int i, long v) {
+        if (v < mins[i]) {
+            mins[i] = v;
+        }
+        if (v > maxs[i]) {
+            maxs[i] = v;
+        }
+    }
+
+    /**
+     * Write changed entries to disk, stamped with the current state of the
+     * heap file.  Must be called after the heap file itself was written.
+     */
+    public synchronized void flush() throws IOException {
+        if (!loaded) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(zoneFile, "rw")) {
+            if (discardStored) {
+                raf.setLength(0);
+                discardStored = false;
+            }
+            byte[] entry = new byte[entrySize];
+            for (int p = dirty.nextSetBit(0); p >= 0; p = dirty.nextSetBit(p + 1)) {
+                entry[0] = states[p];
+                int off = 1;
+                for (int k = 0; k < fields.length; k++) {
+                    long min = mins[p * fields.length + k];
+                    long max = maxs[p * fields.length + k];
+                    if (wide[k]) {
+                        writeLong(entry, off, min);
+                        writeLong(entry, off + 8, max);
+                        off += 16;
+                    } else {
+                        // 空页（min > max）在 int 里也要保持 min > max
+                        writeInt(entry, off, min > max ? Integer.MAX_VALUE : (int) min);
+                        writeInt(entry, off + 4, min > max ? Integer.MIN_VALUE : (int) max);
+                        off += 8;
+                    }
+                }
+                raf.seek(HEADER_SIZE + (long) p * entrySize);
+                raf.write(entry);
+            }
+            dirty.clear();
+            raf.seek(0);
+            raf.writeLong(heapFile.length());
+            raf.writeLong(heapFile.lastModified());
+            raf.writeInt(pageSize);
+            raf.writeInt(fields.length);
+        }
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static void writeLong(byte[] b, int off, long v) {
+        writeInt(b, off, (int) (v >>> 32));
+        writeInt(b, off + 4, (int) v);
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > states.length) {
+            int cap = Math.max(n, 2 * states.length);
+            states = Arrays.copyOf(states, cap);
+            mins = Arrays.copyOf(mins, cap * fields.length);
+            maxs = Arrays.copyOf(maxs, cap * fields.length);
+        }
+        numEntries = Math.max(numEntries, n);
+    }
+
+    // 第一次用到时才读文件；和堆文件对不上就当作全部未知
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!zoneFile.isFile()) {
+            return;
+        }
+        discardStored = true;
+        if (zoneFile.length() < HEADER_SIZE) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(zoneFile)))) {
+            if (dis.readLong() != heapFile.length() || dis.readLong() != heapFile.lastModified()
+                    || dis.readInt() != pageSize || dis.readInt() != fields.length) {
+                return;
+            }
+            discardStored = false;
+            int n = (int) ((zoneFile.length() - HEADER_SIZE) / entrySize);
+            ensureCapacity(n);
+            for (int p = 0; p < n; p++) {
+                states[p] = dis.readByte();
+                for (int k = 0; k < fields.length; k++) {
+                    mins[p * fields.length + k] = wide[k] ? dis.readLong() : dis.readInt();
+                    maxs[p * fields.length + k] = wide[k] ? dis.readLong() : dis.readInt();
+                }
+            }
+        } catch (IOException e) {
+            // 读不出来就当作全部未知，所有页照常读
+            Arrays.fill(states, UNKNOWN);
+            discardStored = true;
+        }
+    }
+}
@@ -12,9 +12,11 @@ import java.io.*;
 public class Transaction {
     private final TransactionId tid;
     volatile boolean started = false;
+    private boolean asyncCommit;
 
     public Transaction() {
         tid = new TransactionId();
+        asyncCommit = Database.getLogFile().getAsyncCommitDefault();
     }
 
     /** Start the transaction running */
@@ -31,6 +33,19 @@ public class Transaction {
         return tid;
     }
 
+    /** Choose whether commit() waits for the commit record to be forced
+        to disk.  With async commit, a crash shortly after commit() returns
+        may lose this transaction.  Defaults to the log's setting
+        (see LogFile#setAsyncCommitDefault).
+    */
+    public void setAsyncCommit(boolean async) {
+        asyncCommit = async;
+    }
+
+    public boolean isAsyncCommit() {
+        return asyncCommit;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -45,6 +60,9 @@ public class Transaction {
     public void transactionComplete(boolean abort) throws IOException {
 
         if (started) {
+            // 回滚和放锁之前先叫停还在替这个事务读页的 worker
+            Database.getBufferPool().stopWorkers(tid);
+
             //write abort log record and rollback transaction
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
@@ -55,11 +73,14 @@ public class Transaction {
 
             // write commit log record
             if (!abort) {
-            	Database.getLogFile().logCommit(tid);
+            	Database.getLogFile().logCommit(tid, asyncCommit);
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
+
+            // take a checkpoint if enough log has been written since the last one
+            Database.getLogFile().maybeCheckpoint();
         }
     }
 }
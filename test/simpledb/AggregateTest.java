@@ -5,6 +5,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -13,7 +18,10 @@ import simpledb.common.Utility;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
 import simpledb.execution.OpIterator;
+import simpledb.storage.TimestampField;
+import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class AggregateTest extends SimpleDbTestBase {
@@ -191,6 +199,43 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for aggregates over DOUBLE and TIMESTAMP fields, whose
+   * results keep the type of the field (or widen it, for SUM)
+   */
+  @Test public void wideAggregate() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.DOUBLE_TYPE, Type.TIMESTAMP_TYPE });
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      Tuple t = new Tuple(td);
+      t.setInt(0, i % 2);
+      t.setDouble(1, i * 1.5);
+      t.setLong(2, 1000L * i);
+      tuples.add(t);
+    }
+
+    Aggregate sum = new Aggregate(new TupleIterator(td, tuples), 1, 0, Aggregator.Op.SUM);
+    assertEquals(Type.DOUBLE_TYPE, sum.getTupleDesc().getFieldType(1));
+    sum.open();
+    Map<Integer, Double> sums = new HashMap<>();
+    while (sum.hasNext()) {
+      Tuple t = sum.next();
+      sums.put(t.getInt(0), t.getDouble(1));
+    }
+    assertEquals(9.0, sums.get(0), 0.0);
+    assertEquals(13.5, sums.get(1), 0.0);
+
+    Aggregate max = new Aggregate(new TupleIterator(td, tuples), 2, Aggregator.NO_GROUPING, Aggregator.Op.MAX);
+    assertEquals(Type.TIMESTAMP_TYPE, max.getTupleDesc().getFieldType(0));
+    max.open();
+    assertEquals(new TimestampField(5000), max.next().getField(0));
+
+    Aggregate count = new Aggregate(new TupleIterator(td, tuples), 2, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+    assertEquals(Type.INT_TYPE, count.getTupleDesc().getFieldType(0));
+    count.open();
+    assertEquals(6, count.next().getInt(0));
+  }
+
   /**
    * JUnit suite target
    */
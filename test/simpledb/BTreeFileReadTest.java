@@ -207,6 +207,38 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 
 	}
 
+	/**
+	 * Unit test for ExternalSorter, which BTreeFileEncoder sorts with:
+	 * runs spilled to disk merge back in order
+	 */
+	@Test public void externalSort() throws Exception {
+		Random rand = new Random(42);
+		int n = 1000;
+		try (ExternalSorter sorter = new ExternalSorter(Utility.getTupleDesc(2),
+				new BTreeFileEncoder.TupleComparator(0), 64, 3)) {
+			for (int i = 0; i < n; i++) {
+				sorter.add(Utility.getHeapTuple(new int[] { rand.nextInt(200), i }));
+			}
+			Iterator<Tuple> it = sorter.sorted();
+			int count = 0;
+			int lastKey = Integer.MIN_VALUE;
+			int lastSeq = -1;
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				int key = ((IntField) t.getField(0)).getValue();
+				int seq = ((IntField) t.getField(1)).getValue();
+				assertTrue(key >= lastKey);
+				// equal keys keep the order they were added in
+				if (key == lastKey)
+					assertTrue(seq > lastSeq);
+				lastKey = key;
+				lastSeq = seq;
+				count++;
+			}
+			assertEquals(n, count);
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -1,7 +1,11 @@
 package simpledb;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -12,9 +16,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Catalog;
 import simpledb.common.Database;
+import simpledb.common.TableMetadata;
 import simpledb.common.Utility;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageLayout;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -97,6 +105,98 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Check that tables saved to a binary catalog file come back with the
+     * same ids and metadata, and are not opened until they are used
+     */
+    @Test public void persistentCatalog() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        Catalog catalog = Database.getCatalog();
+        TupleDesc td = Utility.getTupleDesc(2);
+        File dat = new File(dir, "t.dat");
+        dat.deleteOnExit();
+        int id = catalog.newTableId();
+        int indexId = catalog.newTableId();
+        assertNotEquals(id, indexId);
+        catalog.addTable(TableMetadata.heap(id, "t", "", dat, td, PageLayout.ROW, false, 0, null));
+        catalog.addTable(TableMetadata.btree(indexId, "t_idx", "", new File(dir, "t_idx.dat"), td, 0));
+        catalog.addIndex(id, indexId);
+        catalog.recordStatistics(id, 3, 100);
+        assertFalse(catalog.isOpen(id));
+        assertEquals(td, catalog.getTupleDesc(id));
+
+        File bin = new File(dir, "catalog.bin");
+        bin.deleteOnExit();
+        catalog.saveCatalog(bin);
+        catalog.clear();
+        assertEquals(2, catalog.loadCatalog(bin));
+
+        // nothing is opened by loading the catalog
+        assertEquals(id, catalog.getTableId("t"));
+        assertFalse(catalog.isOpen(id));
+        assertEquals(td, catalog.getTupleDesc(id));
+        TableMetadata m = catalog.getTableMetadata(id);
+        assertEquals(3, m.getPageCount());
+        assertEquals(100, m.getTupleCount());
+        assertEquals(Collections.singletonList(indexId), m.getIndexes());
+        assertEquals(dat.getAbsoluteFile(), m.getFile().getAbsoluteFile());
+
+        // the first use opens the table, with its stable id
+        DbFile f = catalog.getDatabaseFile(id);
+        assertTrue(catalog.isOpen(id));
+        assertTrue(f instanceof HeapFile);
+        assertEquals(id, f.getId());
+        assertSame(f, catalog.getDatabaseFile(id));
+        assertEquals(indexId, catalog.getDatabaseFile(indexId).getId());
+
+        // ids handed out before are not handed out again
+        assertTrue(catalog.newTableId() > indexId);
+    }
+
+    /**
+     * Check that loading a text schema saves a binary catalog file, which is
+     * read the next time, and that tables keep their ids when the schema
+     * changes
+     */
+    @Test public void loadSchemaKeepsIds() throws Exception {
+        File dir = Files.createTempDirectory("schema").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        Catalog.binaryCatalogFile(schema.getPath()).deleteOnExit();
+        try (PrintWriter pw = new PrintWriter(schema)) {
+            pw.println("a (x int pk, y string)");
+            pw.println("b (x int, y long)");
+        }
+        Catalog catalog = Database.getCatalog();
+        catalog.clear();
+        catalog.loadSchema(schema.getPath());
+        int a = catalog.getTableId("a");
+        int b = catalog.getTableId("b");
+        assertFalse(catalog.isOpen(a));
+        assertEquals("x", catalog.getPrimaryKey(a));
+        assertTrue(Catalog.binaryCatalogFile(schema.getPath()).isFile());
+
+        catalog.clear();
+        catalog.loadSchema(schema.getPath());
+        assertEquals(a, catalog.getTableId("a"));
+        assertEquals(b, catalog.getTableId("b"));
+
+        // a newer schema is parsed again; tables it keeps keep their ids
+        try (PrintWriter pw = new PrintWriter(schema)) {
+            pw.println("c (x int)");
+            pw.println("b (x int, y long)");
+        }
+        schema.setLastModified(Catalog.binaryCatalogFile(schema.getPath()).lastModified() + 1000);
+        catalog.clear();
+        catalog.loadSchema(schema.getPath());
+        assertEquals(b, catalog.getTableId("b"));
+        int c = catalog.getTableId("c");
+        assertNotEquals(a, c);
+        assertNotEquals(b, c);
+    }
+
     /**
      * JUnit suite target
      */
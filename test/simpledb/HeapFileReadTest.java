@@ -1,7 +1,12 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -125,6 +130,418 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFiles stored in the SLOTTED page layout: short
+     * strings take far fewer pages than in the ROW layout, and read back the
+     * same
+     */
+    @Test
+    public void slottedLayout() throws Exception {
+        java.io.File text = java.io.File.createTempFile("names", ".txt");
+        text.deleteOnExit();
+        int rows = 1000;
+        try (java.io.PrintWriter pw = new java.io.PrintWriter(text)) {
+            for (int i = 0; i < rows; i++)
+                pw.println(i + ",name" + i);
+        }
+        Type[] types = { Type.INT_TYPE, Type.STRING_TYPE };
+        TupleDesc names = new TupleDesc(types);
+
+        java.io.File rowDat = java.io.File.createTempFile("names_row", ".dat");
+        rowDat.deleteOnExit();
+        HeapFileEncoder.convert(text, rowDat, BufferPool.getPageSize(), 2, types, ',');
+        java.io.File slottedDat = java.io.File.createTempFile("names_slotted", ".dat");
+        slottedDat.deleteOnExit();
+        HeapFileEncoder.convert(text, slottedDat, BufferPool.getPageSize(), 2, types, ',',
+                PageLayout.SLOTTED);
+
+        HeapFile rowFile = new HeapFile(rowDat, names);
+        HeapFile slotted = new HeapFile(slottedDat, names, PageLayout.SLOTTED);
+        Database.getCatalog().addTable(slotted, SystemTestUtil.getUUID());
+        assertTrue(slotted.numPages() * 4 <= rowFile.numPages());
+
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new StringField("name42", Type.STRING_LEN));
+        int count = 0;
+        int matches = 0;
+        DbFileIterator it = slotted.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + i, ((StringField) t.getField(1)).getValue());
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    t.getRecordId().getPageId(), simpledb.common.Permissions.READ_ONLY);
+            if (p.filter(page, t.getRecordId().getTupleNumber()))
+                matches++;
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+        assertEquals(1, matches);
+
+        // deleting and inserting keeps the page readable
+        HeapPage page = (HeapPage) slotted.readPage(new HeapPageId(slotted.getId(), slotted.numPages() - 1));
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        Tuple longer = new Tuple(names);
+        longer.setField(0, new IntField(-1));
+        longer.setField(1, new StringField("a much longer name than the others", Type.STRING_LEN));
+        page.insertTuple(longer);
+        HeapPage reread = new HeapPage(page.getId(), page.getPageData());
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        boolean found = false;
+        for (Iterator<Tuple> pit = reread.iterator(); pit.hasNext(); ) {
+            Tuple t = pit.next();
+            assertNotEquals(first.getField(0), t.getField(0));
+            found |= t.getField(1).equals(longer.getField(1));
+        }
+        assertTrue(found);
+    }
+
+    /**
+     * Unit test for parallel conversion: the pages come out the same as
+     * from a serial conversion, in input order, and lines that do not
+     * parse are skipped
+     */
+    @Test
+    public void parallelConvert() throws Exception {
+        java.io.File text = java.io.File.createTempFile("par", ".txt");
+        text.deleteOnExit();
+        int rows = 20000;
+        try (java.io.PrintWriter pw = new java.io.PrintWriter(text)) {
+            for (int i = 0; i < rows; i++)
+                pw.println(i + ",name" + i);
+        }
+        Type[] types = { Type.INT_TYPE, Type.STRING_TYPE };
+        java.io.File serial = java.io.File.createTempFile("par_serial", ".dat");
+        serial.deleteOnExit();
+        java.io.File parallel = java.io.File.createTempFile("par_parallel", ".dat");
+        parallel.deleteOnExit();
+        HeapFileEncoder.convert(text, serial, BufferPool.getPageSize(), 2, types, ',');
+        HeapFileEncoder.convert(text, parallel, BufferPool.getPageSize(), 2, types, ',',
+                PageLayout.ROW, null, 4);
+        assertArrayEquals(java.nio.file.Files.readAllBytes(serial.toPath()),
+                java.nio.file.Files.readAllBytes(parallel.toPath()));
+
+        // a bad line in the middle is skipped; the tuples keep their input order,
+        // and dictionary codes match those of a serial conversion
+        java.util.List<String> lines = java.nio.file.Files.readAllLines(text.toPath());
+        lines.add(rows / 3, "oops,bad");
+        java.nio.file.Files.write(text.toPath(), lines);
+        java.io.File slottedSerial = java.io.File.createTempFile("par_slotted_serial", ".dat");
+        slottedSerial.deleteOnExit();
+        java.io.File slotted = java.io.File.createTempFile("par_slotted", ".dat");
+        slotted.deleteOnExit();
+        int[] dict = { 1 };
+        HeapFileEncoder.convert(text, slottedSerial, BufferPool.getPageSize(), 2, types, ',',
+                PageLayout.SLOTTED, dict);
+        HeapFileEncoder.convert(text, slotted, BufferPool.getPageSize(), 2, types, ',',
+                PageLayout.SLOTTED, dict, 4);
+        assertArrayEquals(java.nio.file.Files.readAllBytes(slottedSerial.toPath()),
+                java.nio.file.Files.readAllBytes(slotted.toPath()));
+        new java.io.File(slottedSerial.getPath() + ".dict").deleteOnExit();
+        new java.io.File(slotted.getPath() + ".dict").deleteOnExit();
+        assertArrayEquals(java.nio.file.Files.readAllBytes(new java.io.File(slottedSerial.getPath() + ".dict").toPath()),
+                java.nio.file.Files.readAllBytes(new java.io.File(slotted.getPath() + ".dict").toPath()));
+        HeapFile hf = new HeapFile(slotted, new TupleDesc(types), PageLayout.SLOTTED, false, dict);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(count, ((IntField) it.next().getField(0)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+
+        // without a dictionary the workers build the pages; the chunk with
+        // the bad line leaves one partly filled page behind
+        java.io.File plain = java.io.File.createTempFile("par_plain", ".dat");
+        plain.deleteOnExit();
+        HeapFileEncoder.convert(text, plain, BufferPool.getPageSize(), 2, types, ',',
+                PageLayout.ROW, null, 4);
+        hf = new HeapFile(plain, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int partial = 0;
+        for (int i = 0; i < hf.numPages() - 1; i++) {
+            if (((HeapPage) hf.readPage(new HeapPageId(hf.getId(), i))).getNumEmptySlots() > 0)
+                partial++;
+        }
+        assertEquals(1, partial);
+        it = hf.iterator(tid);
+        it.open();
+        count = 0;
+        while (it.hasNext()) {
+            assertEquals(count, ((IntField) it.next().getField(0)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+    }
+
+    /**
+     * Unit test for LONG, DOUBLE and TIMESTAMP fields: every layout reads
+     * back what the encoders wrote, and predicates on them are evaluated
+     * both on tuples and straight on the page bytes
+     */
+    @Test
+    public void wideTypes() throws Exception {
+        java.io.File text = java.io.File.createTempFile("wide", ".txt");
+        text.deleteOnExit();
+        int rows = 600;
+        long day = 24L * 3600 * 1000;
+        try (java.io.PrintWriter pw = new java.io.PrintWriter(text)) {
+            for (int i = 0; i < rows; i++)
+                pw.println(i + "," + (i * 10000000000L) + "," + (i + 0.5) + ","
+                        + new TimestampField(i * day).toString().substring(0, 10));
+        }
+        Type[] types = { Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.TIMESTAMP_TYPE };
+        Predicate since = new Predicate(3, Predicate.Op.GREATER_THAN_OR_EQ,
+                Type.TIMESTAMP_TYPE.parse("1970-03-01"));
+        for (PageLayout layout : PageLayout.values()) {
+            java.io.File dat = java.io.File.createTempFile("wide_" + layout, ".dat");
+            dat.deleteOnExit();
+            HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), 4, types, ',', layout);
+            HeapFile f = new HeapFile(dat, new TupleDesc(types), layout);
+            Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+            int count = 0, matched = 0;
+            DbFileIterator it = f.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                int i = t.getInt(0);
+                assertEquals(i * 10000000000L, t.getLong(1));
+                assertEquals(new DoubleField(i + 0.5), t.getField(2));
+                assertEquals(new TimestampField(i * day), t.getField(3));
+                if (since.filter(t))
+                    matched++;
+                count++;
+            }
+            it.close();
+            assertEquals(rows, count);
+            assertEquals(rows - 59, matched);
+
+            HeapPage page = (HeapPage) f.readPage(new HeapPageId(f.getId(), 0));
+            assertEquals(70000000000L, page.getLong(7, 1));
+            assertEquals(7.5, page.getDouble(7, 2), 0.0);
+            assertFalse(since.filter(page, 7));
+
+            // modified pages write the 8-byte values back
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setInt(0, -1);
+            t.setLong(1, Long.MIN_VALUE);
+            t.setDouble(2, -0.25);
+            t.setField(3, new TimestampField(Long.MAX_VALUE));
+            page.deleteTuple(page.getTuple(3));
+            page.insertTuple(t);
+            HeapPage reread = new HeapPage(page.getId(), page.getPageData());
+            assertEquals(t.toString(), reread.getTuple(3).toString());
+            assertEquals(Long.MIN_VALUE, reread.getLong(3, 1));
+            assertTrue(since.filter(reread, 3));
+
+            // an operand of another type than the field is not read with
+            // the operand's width; it fails as it does on the tuple
+            Predicate intOnLong = new Predicate(1, Predicate.Op.EQUALS, new IntField(16));
+            try {
+                intOnLong.filter(page, 7);
+                fail("expected a type mismatch");
+            } catch (ClassCastException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Unit test for HeapFiles stored in the PAX page layout, read through a
+     * projection that only decodes the projected column
+     */
+    @Test
+    public void paxLayout() throws Exception {
+        java.io.File text = java.io.File.createTempFile("wide", ".txt");
+        text.deleteOnExit();
+        int rows = 700;
+        try (java.io.PrintWriter pw = new java.io.PrintWriter(text)) {
+            for (int i = 0; i < rows; i++)
+                pw.println(i + "," + (i * 2) + ",s" + i + "," + (i * 3));
+        }
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        java.io.File dat = java.io.File.createTempFile("wide_pax", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), 4, types, ',', PageLayout.PAX);
+        HeapFile pax = new HeapFile(dat, new TupleDesc(types), PageLayout.PAX);
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+
+        // a projection over a scan only gets the projected fields decoded
+        Project project = new Project(Arrays.asList(3, 0), new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new SeqScan(tid, pax.getId()));
+        project.open();
+        int count = 0;
+        while (project.hasNext()) {
+            Tuple t = project.next();
+            assertEquals(((IntField) t.getField(1)).getValue() * 3, ((IntField) t.getField(0)).getValue());
+            count++;
+        }
+        project.close();
+        assertEquals(rows, count);
+
+        HeapPage page = (HeapPage) pax.readPage(new HeapPageId(pax.getId(), 0));
+        Tuple sparse = page.getTuple(5, new int[] { 2 });
+        assertNull(sparse.getField(0));
+        assertEquals("s5", ((StringField) sparse.getField(2)).getValue());
+
+        // modified pages write back the same minipage format
+        Tuple victim = page.getTuple(3);
+        page.deleteTuple(victim);
+        Tuple t = new Tuple(pax.getTupleDesc());
+        t.setField(0, new IntField(-1));
+        t.setField(1, new IntField(-2));
+        t.setField(2, new StringField("new", Type.STRING_LEN));
+        t.setField(3, new IntField(-3));
+        page.insertTuple(t);
+        HeapPage reread = new HeapPage(page.getId(), page.getPageData());
+        assertEquals(t.toString(), reread.getTuple(3).toString());
+        assertEquals(page.getTuple(4).toString(), reread.getTuple(4).toString());
+        assertEquals(-2, reread.getInt(3, 1));
+    }
+
+    /**
+     * Unit test for a table with pages larger than the default, sharing the
+     * buffer pool with default-size pages
+     */
+    @Test
+    public void largePages() throws Exception {
+        java.io.File text = java.io.File.createTempFile("large", ".txt");
+        text.deleteOnExit();
+        int rows = 5000;
+        try (java.io.PrintWriter pw = new java.io.PrintWriter(text)) {
+            for (int i = 0; i < rows; i++)
+                pw.println(i + "," + (i * 2));
+        }
+        int pageSize = 4 * BufferPool.getPageSize();
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        java.io.File dat = java.io.File.createTempFile("large", ".dat");
+        dat.deleteOnExit();
+        new java.io.File(dat.getPath() + ".hdr").deleteOnExit();
+        HeapFileEncoder.convert(text, dat, pageSize, 2, types, ',');
+
+        // the page size recorded by the encoder is picked up on open
+        HeapFile f = new HeapFile(dat, new TupleDesc(types));
+        assertEquals(pageSize, f.getPageSize());
+        assertEquals((dat.length() + pageSize - 1) / pageSize, f.numPages());
+        try {
+            new HeapFile(dat, new TupleDesc(types), PageLayout.ROW, false, null, BufferPool.getPageSize());
+            fail("expected a page size mismatch");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // a pool of 8 default-size pages holds 2 large pages
+        BufferPool bp = Database.resetBufferPool(8);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(t.getInt(0) * 2, t.getInt(1));
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+        assertTrue(f.numPages() > 2);
+        assertEquals(Integer.valueOf(2), bp.getFrameCounts().get(pageSize));
+        assertEquals(bp.getCapacityBytes(), bp.getUsedBytes());
+
+        // default-size pages evict large ones to make room
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 3000, null, null);
+        assertTrue(small.numPages() > 3);
+        bp.getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(Integer.valueOf(1), bp.getFrameCounts().get(pageSize));
+        assertEquals(Integer.valueOf(1), bp.getFrameCounts().get(BufferPool.getPageSize()));
+        assertEquals(pageSize + BufferPool.getPageSize(), bp.getUsedBytes());
+    }
+
+    /**
+     * Unit test for TEXT fields: values longer than a page are kept in the
+     * overflow file and only read when asked for
+     */
+    @Test
+    public void textOverflow() throws Exception {
+        TupleDesc textTd = new TupleDesc(new Type[] { Type.INT_TYPE, Type.TEXT_TYPE });
+        java.io.File dat = java.io.File.createTempFile("text", ".dat");
+        dat.deleteOnExit();
+        new java.io.File(dat.getPath() + ".ovf").deleteOnExit();
+        HeapFile f = new HeapFile(dat, textTd);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < i * BufferPool.getPageSize() / 2) {
+                sb.append("text ").append(i).append(' ');
+            }
+            values.add(sb.toString());
+            Tuple t = new Tuple(textTd);
+            t.setField(0, new IntField(i));
+            t.setField(1, new TextField(sb.toString()));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(f.getOverflowFile().numPages() > 1);
+
+        // reopen the table: scanning the int field reads no overflow page
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(dat, textTd);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        OverflowFile overflow = reopened.getOverflowFile();
+        TransactionId tid2 = new TransactionId();
+        SeqScan scan = new SeqScan(tid2, reopened.getId());
+        scan.open();
+        List<Tuple> tuples = new ArrayList<>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertFalse(((TextField) t.getField(1)).isLoaded());
+            tuples.add(t);
+        }
+        scan.close();
+        assertEquals(10, tuples.size());
+        assertEquals(0, overflow.getPagesRead());
+
+        // the values themselves are read on demand
+        for (Tuple t : tuples) {
+            assertEquals(values.get(t.getInt(0)), ((TextField) t.getField(1)).getValue());
+        }
+        assertTrue(overflow.getPagesRead() > 0);
+
+        // threads read values through the same file at once
+        Database.getBufferPool().transactionComplete(tid2);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid2 = new TransactionId();
+        scan = new SeqScan(tid2, reopened.getId());
+        List<Tuple> again = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertFalse(((TextField) t.getField(1)).isLoaded());
+            again.add(t);
+        }
+        scan.close();
+        again.parallelStream().forEach(t ->
+                assertEquals(values.get(t.getInt(0)), ((TextField) t.getField(1)).getValue()));
+
+        // a predicate on the text compares the whole value
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new TextField(values.get(7)));
+        int matches = 0;
+        for (Tuple t : tuples) {
+            matches += p.filter(t) ? 1 : 0;
+        }
+        assertEquals(1, matches);
+        Database.getBufferPool().transactionComplete(tid2);
+    }
+
     /**
      * JUnit suite target
      */
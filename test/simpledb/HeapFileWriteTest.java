@@ -50,6 +50,40 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for extent-based growth in HeapFile.insertTuple()
+     */
+    @Test public void extentGrowth() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        empty.setExtentPages(4);
+        for (int i = 0; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        // the file grew by a whole extent, but only one more page is in use
+        assertEquals(2, empty.numPages());
+        assertEquals(5L * pageSize, empty.getFile().length());
+
+        for (int i = 0; i < 504 * 4; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(6, empty.numPages());
+        assertEquals(9L * pageSize, empty.getFile().length());
+
+        // a fresh HeapFile sees the preallocated pages as empty pages
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(9, reopened.numPages());
+
+        // the count is kept in memory; pages appended by other code show up
+        // once the file's length is read again
+        try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(empty.getFile(), "rw")) {
+            raf.seek(raf.length());
+            raf.write(HeapPage.createEmptyPageData());
+        }
+        assertEquals(6, empty.numPages());
+        empty.refreshNumPages();
+        assertEquals(10, empty.numPages());
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
@@ -90,6 +124,586 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for the free-space map consulted by HeapFile.insertTuple()
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 504 * 2 + 1; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+
+        // the two full pages are skipped without being looked at
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.get(0));
+        assertEquals(0, fsm.get(1));
+        assertEquals(2, fsm.nextPageWithSpace(0, empty.numPages()));
+
+        // freeing a slot makes the page a candidate again
+        empty.deleteTuple(tid, first);
+        assertEquals(1, fsm.get(0));
+        assertEquals(0, fsm.nextPageWithSpace(0, empty.numPages()));
+        Tuple again = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, again);
+        assertEquals(0, again.getRecordId().getPageId().getPageNumber());
+        assertEquals(3, empty.numPages());
+
+        // the map survives reopening the file once the pages are written
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(0, reopened.getFreeSpaceMap().get(1));
+        assertEquals(2, reopened.getFreeSpaceMap().nextPageWithSpace(0, reopened.numPages()));
+
+        // but is ignored if the heap file changed behind its back
+        try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(empty.getFile(), "rw")) {
+            raf.seek(raf.length());
+            raf.write(HeapPage.createEmptyPageData());
+        }
+        reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(FreeSpaceMap.UNKNOWN, reopened.getFreeSpaceMap().get(1));
+        tid = new TransactionId();
+    }
+
+    /**
+     * Unit test for writing the side maps once per commit, not once per page
+     */
+    @Test public void mapsFlushedOnCommit() throws Exception {
+        java.io.File fsmFile = new java.io.File(empty.getFile().getPath() + ".fsm");
+        java.io.File zoneFile = new java.io.File(empty.getFile().getPath() + ".zmap");
+        fsmFile.deleteOnExit();
+        zoneFile.deleteOnExit();
+        for (int i = 0; i < 504 * 3; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        // 单独写页只改内存里的 map
+        for (int p = 0; p < empty.numPages(); p++) {
+            empty.writePage(Database.getBufferPool().getPage(tid,
+                    new HeapPageId(empty.getId(), p), simpledb.common.Permissions.READ_ONLY));
+        }
+        assertFalse(fsmFile.exists());
+        assertFalse(zoneFile.exists());
+        assertEquals(0, empty.getFreeSpaceMap().get(1));
+
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertTrue(fsmFile.exists());
+        assertTrue(zoneFile.exists());
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(0, reopened.getFreeSpaceMap().get(1));
+    }
+
+    /**
+     * Unit test for PageCodec and HeapFiles with compressed pages
+     */
+    @Test public void compressedPages() throws Exception {
+        java.util.Random rand = new java.util.Random(42);
+        byte[] random = new byte[BufferPool.getPageSize()];
+        rand.nextBytes(random);
+        byte[] pattern = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < pattern.length; i++)
+            pattern[i] = (byte) (i % 7);
+        for (byte[] page : new byte[][] { random, pattern, HeapPage.createEmptyPageData(),
+                HeapPageReadTest.EXAMPLE_DATA }) {
+            assertArrayEquals(page, PageCodec.decompress(PageCodec.compress(page), page.length));
+        }
+        assertTrue(PageCodec.compress(pattern).length < pattern.length / 10);
+
+        java.io.File f = java.io.File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), PageLayout.ROW, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int rows = 2000;
+        for (int i = 0; i < rows; i++) {
+            hf.insertTuple(tid, Utility.getHeapTuple(new int[] { i % 10, 7 }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        int pages = hf.numPages();
+        assertTrue(pages > 1);
+        assertTrue(hf.getCompressedPageFile().getCompressionRatio() > 2.0);
+        assertTrue(f.length() < (long) pages * BufferPool.getPageSize() / 2);
+
+        // a fresh HeapFile over the same file finds every page through the page map
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2), PageLayout.ROW, true);
+        assertEquals(pages, reopened.numPages());
+        int count = 0;
+        for (int i = 0; i < pages; i++) {
+            HeapPage page = (HeapPage) reopened.readPage(new HeapPageId(hf.getId(), i));
+            java.util.Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                assertEquals(7, ((IntField) it.next().getField(1)).getValue());
+                count++;
+            }
+        }
+        assertEquals(rows, count);
+        assertEquals(pages, reopened.getCompressedPageFile().getPagesDecompressed());
+    }
+
+    /**
+     * Unit test for reusing the slots that compressed pages move out of
+     */
+    @Test public void compressedSlotReuse() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        java.io.File f = java.io.File.createTempFile("slots", ".dat");
+        f.deleteOnExit();
+        new java.io.File(f.getPath() + ".pmap").deleteOnExit();
+        byte[] zeroes = new byte[pageSize];
+        byte[] random = new byte[pageSize];
+        new java.util.Random(7).nextBytes(random);
+
+        CompressedPageFile cpf = new CompressedPageFile(f, pageSize);
+        for (int i = 0; i < 3; i++) {
+            cpf.write(cpf.appendEmptyPage(), zeroes);
+        }
+        int slot = 64; // 全零页压缩后占一个分配单位
+        // page 0 no longer fits its slot and moves to the end
+        cpf.write(0, random);
+        assertEquals(slot, cpf.freeBytes());
+        long length = f.length();
+
+        // a reopened file finds the free slot again from the page map
+        cpf = new CompressedPageFile(f, pageSize);
+        assertEquals(slot, cpf.freeBytes());
+        cpf.write(cpf.appendEmptyPage(), zeroes);
+        assertEquals(0, cpf.freeBytes());
+        assertEquals(length, f.length());
+        assertArrayEquals(random, cpf.read(0));
+        assertArrayEquals(zeroes, cpf.read(3));
+
+        // the pages cut off leave free slots behind
+        cpf.truncate(2);
+        assertEquals(2 * slot, cpf.freeBytes());
+        assertArrayEquals(zeroes, cpf.read(1));
+    }
+
+    /**
+     * Unit test for HeapFiles with dictionary-encoded string fields
+     */
+    @Test public void dictionaryEncoding() throws Exception {
+        java.io.File f = java.io.File.createTempFile("dict", ".dat");
+        f.deleteOnExit();
+        new java.io.File(f.getPath() + ".dict").deleteOnExit();
+        TupleDesc td = new TupleDesc(new simpledb.common.Type[] {
+                simpledb.common.Type.INT_TYPE, simpledb.common.Type.STRING_TYPE });
+        HeapFile hf = new HeapFile(f, td, PageLayout.ROW, false, new int[] { 1 });
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        String[] statuses = { "open", "closed", "pending" };
+        int rows = 600;
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(statuses[i % 3], simpledb.common.Type.STRING_LEN));
+            hf.insertTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        // 8-byte tuples instead of 136-byte ones
+        assertEquals(2, hf.numPages());
+        assertEquals(3, hf.getDictionary().size(1));
+
+        // a fresh HeapFile over the same files decodes the codes
+        HeapFile reopened = new HeapFile(f, td, PageLayout.ROW, false, new int[] { 1 });
+        HeapPage page = (HeapPage) reopened.readPage(new HeapPageId(hf.getId(), 0));
+        Tuple t0 = page.getTuple(0);
+        Tuple t3 = page.getTuple(3);
+        assertTrue(t0.getField(1) instanceof DictStringField);
+        assertEquals("open", ((StringField) t0.getField(1)).getValue());
+        assertEquals(t0.getField(1), t3.getField(1));
+        assertNotEquals(t0.getField(1), page.getTuple(1).getField(1));
+        StringField plain = new StringField("open", simpledb.common.Type.STRING_LEN);
+        assertEquals(plain, t0.getField(1));
+        assertEquals(t0.getField(1), plain);
+        assertEquals(plain.hashCode(), t0.getField(1).hashCode());
+
+        // predicates on the encoded field see the decoded values
+        int count = 0;
+        java.util.Iterator<Tuple> it = page.iterator(new simpledb.execution.Predicate(1,
+                simpledb.execution.Predicate.Op.EQUALS,
+                new StringField("closed", simpledb.common.Type.STRING_LEN)));
+        while (it.hasNext()) {
+            assertEquals("closed", ((StringField) it.next().getField(1)).getValue());
+            count++;
+        }
+        assertEquals(504 / 3, count); // the first page is full
+    }
+
+    /**
+     * Unit test for the zone map consulted by filtered HeapFile scans
+     */
+    @Test public void zoneMap() throws Exception {
+        java.io.File f = java.io.File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        new java.io.File(f.getPath() + ".zmap").deleteOnExit();
+        new java.io.File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int rows = 504 * 4;
+        for (int i = 0; i < rows; i++) {
+            hf.insertTuple(tid, Utility.getHeapTuple(new int[] { i, i % 7 }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(4, hf.numPages());
+
+        // the table is clustered on field 0: only the first page can match
+        simpledb.execution.Predicate lt = new simpledb.execution.Predicate(0,
+                simpledb.execution.Predicate.Op.LESS_THAN, new IntField(100));
+        DbFileIterator it = hf.iterator(tid, lt);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertTrue(((IntField) it.next().getField(0)).getValue() < 100);
+            count++;
+        }
+        it.close();
+        assertEquals(100, count);
+        assertEquals(3, hf.getZoneMap().getPagesSkipped());
+
+        // field 1 is not clustered, so nothing can be skipped on it
+        assertTrue(hf.getZoneMap().mayMatch(3, new simpledb.execution.Predicate(1,
+                simpledb.execution.Predicate.Op.EQUALS, new IntField(3))));
+
+        // deletes leave the range alone; inserts widen it right away
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), simpledb.common.Permissions.READ_WRITE);
+        hf.deleteTuple(tid, first.getTuple(0));
+        assertTrue(hf.getZoneMap().covers(0, 0, 0));
+        Tuple late = Utility.getHeapTuple(new int[] { -5, 0 });
+        hf.insertTuple(tid, late);
+        int latePage = late.getRecordId().getPageId().getPageNumber();
+        assertEquals(0, latePage);
+        assertTrue(hf.getZoneMap().covers(latePage, 0, -5));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        // the map survives reopening the file
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2));
+        assertFalse(reopened.getZoneMap().mayMatch(3, lt));
+        assertTrue(reopened.getZoneMap().covers(latePage, 0, -5));
+
+        // but is ignored if the heap file changed behind its back
+        try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(f, "rw")) {
+            raf.seek(raf.length());
+            raf.write(HeapPage.createEmptyPageData());
+        }
+        reopened = new HeapFile(f, Utility.getTupleDesc(2));
+        assertTrue(reopened.getZoneMap().mayMatch(3, lt));
+    }
+
+    /**
+     * Unit test for zone map ranges on LONG and TIMESTAMP fields
+     */
+    @Test public void zoneMapWideFields() throws Exception {
+        java.io.File f = java.io.File.createTempFile("zones_wide", ".dat");
+        f.deleteOnExit();
+        new java.io.File(f.getPath() + ".zmap").deleteOnExit();
+        new java.io.File(f.getPath() + ".fsm").deleteOnExit();
+        TupleDesc td = new TupleDesc(new simpledb.common.Type[] {
+                simpledb.common.Type.TIMESTAMP_TYPE, simpledb.common.Type.LONG_TYPE });
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        long start = 1700000000000L;
+        long minute = 60 * 1000;
+        int rows = 2000;
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new TimestampField(start + i * minute));
+            t.setField(1, new LongField(-i * 10000000000L));
+            hf.insertTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        int pages = hf.numPages();
+        assertTrue(pages > 2);
+
+        // a time range at the end of the table reads only the last page
+        simpledb.execution.Predicate since = new simpledb.execution.Predicate(0,
+                simpledb.execution.Predicate.Op.GREATER_THAN_OR_EQ,
+                new TimestampField(start + (rows - 10) * minute));
+        DbFileIterator it = hf.iterator(tid, since);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(10, count);
+        assertEquals(pages - 1, hf.getZoneMap().getPagesSkipped());
+
+        // values beyond the int range, and int operands, on a LONG field
+        simpledb.execution.Predicate below = new simpledb.execution.Predicate(1,
+                simpledb.execution.Predicate.Op.LESS_THAN, new LongField(-(rows - 2) * 10000000000L));
+        assertFalse(hf.getZoneMap().mayMatch(0, below));
+        assertTrue(hf.getZoneMap().mayMatch(pages - 1, below));
+        assertFalse(hf.getZoneMap().mayMatch(pages - 1, new simpledb.execution.Predicate(1,
+                simpledb.execution.Predicate.Op.GREATER_THAN, new IntField(0))));
+
+        // the map survives reopening the file
+        HeapFile reopened = new HeapFile(f, td);
+        assertFalse(reopened.getZoneMap().mayMatch(0, since));
+        assertTrue(reopened.getZoneMap().covers(pages - 1, 0, start + (rows - 1) * minute));
+    }
+
+    /**
+     * Unit test for HeapFileCompactor
+     */
+    @Test public void compaction() throws Exception {
+        java.io.File f = java.io.File.createTempFile("compact", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int rows = 504 * 6;
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(6, hf.numPages());
+
+        // keep every fourth tuple
+        java.util.List<Tuple> doomed = new java.util.ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 4 != 0)
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(6, hf.numPages());
+
+        HeapFileCompactor compactor = new HeapFileCompactor(hf);
+        assertEquals(4, compactor.run(1));
+        assertEquals(2, hf.numPages());
+        assertEquals(2L * BufferPool.getPageSize(), f.length());
+        assertEquals(4, compactor.getPagesReclaimed());
+        assertEquals(4L * BufferPool.getPageSize(), compactor.getBytesReclaimed());
+        assertTrue(compactor.getTuplesMoved() > 0);
+
+        // every surviving tuple is still there, exactly once
+        boolean[] seen = new boolean[rows];
+        it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            int v = ((IntField) it.next().getField(0)).getValue();
+            assertEquals(0, v % 4);
+            assertFalse(seen[v]);
+            seen[v] = true;
+            count++;
+        }
+        it.close();
+        assertEquals(rows / 4, count);
+
+        // and the file keeps working after being cut down
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1, 1 }));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(2, hf.numPages());
+    }
+
+    /**
+     * Unit test for BulkLoader
+     */
+    @Test public void bulkLoad() throws Exception {
+        java.io.File f = java.io.File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        java.io.File csv = java.io.File.createTempFile("bulk", ".txt");
+        csv.deleteOnExit();
+        int rows = 2000;
+        try (java.io.PrintWriter out = new java.io.PrintWriter(csv)) {
+            for (int i = 0; i < rows; i++)
+                out.println(i + "," + (rows - i));
+        }
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(hf, name);
+
+        // loaded rows fill whole pages, written after the existing ones
+        BulkLoader loader = Database.bulkLoad(name, csv, ',');
+        assertEquals(rows, loader.getRowsLoaded());
+        assertEquals(4, loader.getPagesWritten());
+        assertTrue(loader.getRowsPerSecond() > 0);
+        assertEquals(4, hf.numPages());
+        assertEquals(rows, countTuples(hf));
+        assertTrue(hf.getZoneMap().covers(3, 0, rows - 1));
+
+        // an aborted load leaves empty pages behind
+        simpledb.transaction.Transaction t = new simpledb.transaction.Transaction();
+        t.start();
+        loader = new BulkLoader(hf);
+        loader.setBatchPages(1);
+        assertEquals(rows, loader.loadFile(t.getId(), csv, ','));
+        t.abort();
+        assertEquals(8, hf.numPages());
+        assertEquals(rows, countTuples(hf));
+    }
+
+    /**
+     * Unit test for BulkLoader on a table with compressed pages
+     */
+    @Test public void bulkLoadCompressed() throws Exception {
+        java.io.File f = java.io.File.createTempFile("bulkz", ".dat");
+        f.deleteOnExit();
+        new java.io.File(f.getPath() + ".pmap").deleteOnExit();
+        java.io.File csv = java.io.File.createTempFile("bulkz", ".txt");
+        csv.deleteOnExit();
+        int rows = 2000;
+        try (java.io.PrintWriter out = new java.io.PrintWriter(csv)) {
+            for (int i = 0; i < rows; i++)
+                out.println(i + ",7");
+        }
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), PageLayout.ROW, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        // the loaded pages and the page map are forced before the load commits
+        simpledb.transaction.Transaction t = new simpledb.transaction.Transaction();
+        t.start();
+        BulkLoader loader = new BulkLoader(hf);
+        loader.setBatchPages(2);
+        assertEquals(rows, loader.loadFile(t.getId(), csv, ','));
+        assertEquals(2, hf.getCompressedPageFile().getSyncs());
+        t.commit();
+
+        // a fresh HeapFile finds the loaded pages through the page map
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2), PageLayout.ROW, true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(4, reopened.numPages());
+        assertEquals(rows, countTuples(reopened));
+    }
+
+    /**
+     * Unit test for TEXT fields: values are stored when the tuple is
+     * inserted, and the space of deleted values is reused once the delete
+     * commits
+     */
+    @Test public void textSpaceReuse() throws Exception {
+        TupleDesc textTd = new TupleDesc(new simpledb.common.Type[] {
+                simpledb.common.Type.INT_TYPE, simpledb.common.Type.TEXT_TYPE });
+        java.io.File f = java.io.File.createTempFile("text", ".dat");
+        f.deleteOnExit();
+        new java.io.File(f.getPath() + ".ovf").deleteOnExit();
+        HeapFile hf = new HeapFile(f, textTd);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        OverflowFile overflow = hf.getOverflowFile();
+        BufferPool bp = Database.getBufferPool();
+
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < BufferPool.getPageSize())
+            sb.append("some text ");
+        String value = sb.toString();
+        TransactionId t1 = new TransactionId();
+        java.util.List<Tuple> inserted = new java.util.ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Tuple t = new Tuple(textTd);
+            t.setField(0, new IntField(i));
+            t.setField(1, new TextField(value + i));
+            bp.insertTuple(t1, hf.getId(), t);
+            inserted.add(t);
+        }
+        int pages = overflow.numPages();
+        // writing the page out does not store the values again
+        HeapPage page = (HeapPage) bp.getPage(t1, new HeapPageId(hf.getId(), 0),
+                simpledb.common.Permissions.READ_ONLY);
+        page.getPageData();
+        page.getPageData();
+        assertEquals(pages, overflow.numPages());
+        bp.transactionComplete(t1);
+
+        // an aborted delete frees nothing; a committed one frees its values
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t2, inserted.get(0));
+        bp.transactionComplete(t2, false);
+        assertEquals(0, overflow.freeBytes());
+        TransactionId t3 = new TransactionId();
+        for (int i = 0; i < 3; i++)
+            bp.deleteTuple(t3, inserted.get(i));
+        bp.transactionComplete(t3);
+        assertTrue(overflow.freeBytes() >= 3 * value.length());
+
+        // new values of the same size go into the freed space
+        TransactionId t4 = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            Tuple t = new Tuple(textTd);
+            t.setField(0, new IntField(10 + i));
+            t.setField(1, new TextField(value + i));
+            bp.insertTuple(t4, hf.getId(), t);
+        }
+        bp.transactionComplete(t4);
+        assertEquals(pages, overflow.numPages());
+        assertEquals(0, overflow.freeBytes());
+
+        // every value reads back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(value + (t.getInt(0) % 10), t.getField(1).toString());
+            count++;
+        }
+        it.close();
+        assertEquals(6, count);
+    }
+
+    /**
+     * Unit test for a SLOTTED insert whose TEXT value cannot be stored: the
+     * page keeps its free space
+     */
+    @Test public void failedTextInsert() throws Exception {
+        TupleDesc textTd = new TupleDesc(new simpledb.common.Type[] {
+                simpledb.common.Type.INT_TYPE, simpledb.common.Type.TEXT_TYPE });
+        java.io.File f = java.io.File.createTempFile("text_fail", ".dat");
+        f.deleteOnExit();
+        new java.io.File(f.getPath() + ".ovf").deleteOnExit();
+        HeapFile hf = new HeapFile(f, textTd, PageLayout.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Tuple t = new Tuple(textTd);
+        t.setField(0, new IntField(1));
+        t.setField(1, new TextField("some text"));
+        hf.insertTuple(tid, t);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0),
+                simpledb.common.Permissions.READ_WRITE);
+        int empty = page.getNumEmptySlots();
+
+        // 溢出文件关掉之后存 TEXT 值一定失败
+        hf.getOverflowFile().close();
+        for (int i = 0; i < 100; i++) {
+            try {
+                page.insertTuple(t);
+                fail("expected the TEXT value not to be stored");
+            } catch (simpledb.common.DbException e) {
+                // expected
+            }
+        }
+        assertEquals(empty, page.getNumEmptySlots());
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+    }
+
+    private int countTuples(HeapFile hf) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
     /**
      * JUnit suite target
      */
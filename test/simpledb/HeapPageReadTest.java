@@ -2,7 +2,9 @@ package simpledb;
 
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -123,6 +125,53 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for the FieldAccessor methods and Predicate.filter() on page
+     * slots
+     */
+    @Test public void fieldAccessors() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(36090));
+        int expected = 0;
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(EXAMPLE_VALUES[i][0], page.getInt(i, 0));
+            assertEquals(EXAMPLE_VALUES[i][1], page.getInt(i, 1));
+            assertEquals(EXAMPLE_VALUES[i][1] > 36090, p.filter(page, i));
+            if (EXAMPLE_VALUES[i][1] > 36090)
+                expected++;
+        }
+
+        int count = 0;
+        Iterator<Tuple> it = page.iterator(p);
+        while (it.hasNext()) {
+            assertTrue(((IntField) it.next().getField(1)).getValue() > 36090);
+            count++;
+        }
+        assertEquals(expected, count);
+
+        // strings are compared on the page bytes the same way String.compareTo does
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+        HeapPageId spid = new HeapPageId(-2, 0);
+        HeapPage written = new HeapPage(spid, HeapPage.createEmptyPageData());
+        String[] values = { "apple", "b", "banana", "", "ban\u00e9" };
+        for (String v : values) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(v, Type.STRING_LEN));
+            written.insertTuple(t);
+        }
+        HeapPage read = new HeapPage(spid, written.getPageData());
+        String[] operands = { "apple", "ban", "banana", "bananas", "", "z" };
+        for (int i = 0; i < values.length; ++i) {
+            String stored = ((StringField) read.getTuple(i).getField(0)).getValue();
+            HeapPage fresh = new HeapPage(spid, written.getPageData());
+            for (String o : operands) {
+                assertEquals(Integer.signum(stored.compareTo(o)),
+                        Integer.signum(fresh.compareString(i, 0, o)));
+            }
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -131,6 +131,60 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage before images: the image is captured on the
+     * first modification and dropped by setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] original = page.getPageData();
+        assertArrayEquals(original, page.getBeforeImageData());
+
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        byte[] modified = page.getPageData();
+        assertArrayEquals(original, page.getBeforeImageData());
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+        // a second change keeps the first before image
+        page.insertTuple(Utility.getHeapTuple(8, 2));
+        assertArrayEquals(original, page.getBeforeImageData());
+
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImageData());
+        assertFalse(java.util.Arrays.equals(modified, page.getBeforeImageData()));
+    }
+
+    /**
+     * Unit test for lazily decoded tuples: a page that was never iterated
+     * serializes the same bytes as one whose tuples were all decoded
+     */
+    @Test public void lazyTuples() throws Exception {
+        HeapPage decoded = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage lazy = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = decoded.iterator();
+        Tuple victim = it.next();
+        while (it.hasNext())
+            it.next();
+
+        Tuple copy = new Tuple(victim.getTupleDesc());
+        copy.setRecordId(victim.getRecordId());
+        decoded.deleteTuple(victim);
+        lazy.deleteTuple(copy);
+        decoded.insertTuple(Utility.getHeapTuple(7, 2));
+        lazy.insertTuple(Utility.getHeapTuple(7, 2));
+        assertArrayEquals(decoded.getPageData(), lazy.getPageData());
+
+        // tuples inserted after an iterator was created are not returned by it
+        it = lazy.iterator();
+        lazy.insertTuple(Utility.getHeapTuple(9, 2));
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count++;
+        }
+        assertEquals(lazy.getNumEmptySlots() + count + 1, 504);
+    }
+
     /**
      * JUnit suite target
      */
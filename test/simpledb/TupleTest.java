@@ -1,10 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -31,6 +33,61 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for Tuple.setInt(), Tuple.getInt() and Tuple.copyField()
+     */
+    @Test public void primitiveFields() {
+        TupleDesc td = Utility.getTupleDesc(3);
+
+        Tuple tup = new Tuple(td);
+        tup.setInt(0, 7);
+        tup.setField(1, new IntField(8));
+        tup.setInt(2, 9);
+        assertEquals(7, tup.getInt(0));
+        assertEquals(8, tup.getInt(1));
+        assertEquals(new IntField(9), tup.getField(2));
+        assertEquals("7\t8\t9", tup.toString());
+
+        // setField replaces an int value, and the other way round
+        tup.setField(0, new IntField(-1));
+        assertEquals(-1, tup.getInt(0));
+        tup.setInt(1, 42);
+        assertEquals(new IntField(42), tup.getField(1));
+
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < 3; i++)
+            copy.copyField(i, tup, 2 - i);
+        assertEquals(9, copy.getInt(0));
+        assertEquals(42, copy.getInt(1));
+        assertEquals(new IntField(-1), copy.getField(2));
+    }
+
+    /**
+     * Unit test for LONG, DOUBLE and TIMESTAMP fields held unboxed
+     */
+    @Test public void wideFields() {
+        TupleDesc td = new TupleDesc(new Type[]{ Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.TIMESTAMP_TYPE });
+
+        Tuple tup = new Tuple(td);
+        tup.setLong(0, 1L << 40);
+        tup.setDouble(1, 2.5);
+        tup.setField(2, Type.TIMESTAMP_TYPE.parse("2024-01-31 12:30:00"));
+        assertEquals(new LongField(1L << 40), tup.getField(0));
+        assertEquals(new DoubleField(2.5), tup.getField(1));
+        assertEquals(1706704200000L, tup.getLong(2));
+        assertEquals("2024-01-31 12:30:00.000", tup.getField(2).toString());
+
+        // a timestamp is not equal to a long with the same value
+        assertNotEquals(new LongField(1706704200000L), tup.getField(2));
+
+        Tuple copy = new Tuple(td);
+        copy.copyField(0, tup, 0);
+        copy.copyField(1, tup, 1);
+        copy.setLong(2, tup.getLong(2));
+        assertEquals(tup.toString(), copy.toString());
+        assertEquals(2.5, copy.getDouble(1), 0.0);
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
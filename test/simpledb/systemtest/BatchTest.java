@@ -0,0 +1,150 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionId;
+
+public class BatchTest extends SimpleDbTestBase {
+
+    private static final Comparator<List<Integer>> ORDER = (a, b) -> {
+        for (int i = 0; i < a.size(); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0) return c;
+        }
+        return 0;
+    };
+
+    // 按批读完 it，把每批选中的行变回 tuple
+    private static List<List<Integer>> readBatches(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            assertTrue(batch.numSelected() > 0);
+            assertTrue(batch.size() <= batch.capacity());
+            int[] sel = batch.selection();
+            for (int i = 0; i < batch.numSelected(); i++) {
+                rows.add(SystemTestUtil.tupleToList(batch.getTuple(sel[i])));
+            }
+        }
+        it.close();
+        rows.sort(ORDER);
+        return rows;
+    }
+
+    private static List<List<Integer>> readRows(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        rows.sort(ORDER);
+        return rows;
+    }
+
+    private static Project project(OpIterator child, Integer... fields) {
+        Type[] types = new Type[fields.length];
+        Arrays.fill(types, Type.INT_TYPE);
+        return new Project(Arrays.asList(fields), types, child);
+    }
+
+    /** A scan-filter-project pipeline gives the same rows a batch or a row at a time. */
+    @Test public void scanFilterProject() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, tuples);
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 300) expected.add(Arrays.asList(t.get(2), t.get(0)));
+        }
+        expected.sort(ORDER);
+
+        TransactionId tid = new TransactionId();
+        // the predicate is pushed down into the scan
+        assertEquals(expected, readBatches(project(new Filter(p, new SeqScan(tid, table.getId())), 2, 0)));
+        // the outer filter narrows the selection of the batches it gets
+        Predicate all = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+        assertEquals(expected, readBatches(project(new Filter(p, new Filter(all, new SeqScan(tid, table.getId()))), 2, 0)));
+        assertEquals(expected, readRows(project(new Filter(p, new SeqScan(tid, table.getId())), 2, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A hash join probes with batches of its inner child. */
+    @Test public void hashJoin() throws Exception {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, left);
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 2000, 200, null, right);
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<List<Integer>> rows = readRows(new HashEquiJoin(jp,
+                new SeqScan(tid, t1.getId()), new SeqScan(tid, t2.getId())));
+        List<List<Integer>> batches = readBatches(new HashEquiJoin(jp,
+                new SeqScan(tid, t1.getId()), new SeqScan(tid, t2.getId())));
+        assertFalse(rows.isEmpty());
+        assertEquals(rows, batches);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Aggregates consume batches; the results match a row-at-a-time count. */
+    @Test public void filterAggregate() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 4000, 100, null, tuples);
+        int count = 0, sum = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(0) >= 50) {
+                count++;
+                sum += t.get(1);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50));
+        assertEquals(Collections.singletonList(Collections.singletonList(sum)), readBatches(
+                new Aggregate(new Filter(p, new SeqScan(tid, table.getId())), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM)));
+        assertEquals(Collections.singletonList(Collections.singletonList(count)), readRows(
+                new Aggregate(new Filter(p, new SeqScan(tid, table.getId())), 1, Aggregator.NO_GROUPING, Aggregator.Op.COUNT)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A tuple fetched by hasNext starts the next batch. */
+    @Test public void hasNextThenBatch() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1500, null, tuples);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+        Filter f = new Filter(p, new SeqScan(tid, table.getId()));
+        f.open();
+        assertTrue(f.hasNext());
+        int n = 0;
+        TupleBatch batch;
+        while ((batch = f.nextBatch()) != null) {
+            n += batch.numSelected();
+        }
+        assertEquals(tuples.size(), n);
+        f.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchTest.class);
+    }
+}
@@ -118,6 +118,16 @@ public class LogTest extends SimpleDbTestBase {
         Database.getLogFile().recover();
     }
 
+    // same as crash(), but recover with the given number of worker threads
+    void crash(int recoveryThreads)
+        throws IOException {
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        Database.getLogFile().setRecoveryThreads(recoveryThreads);
+        Database.getLogFile().recover();
+    }
+
     // create an initial database with two empty tables
     // does *not* initiate log file recovery
     void setup()
@@ -435,6 +445,362 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestFuzzyCheckpointCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts but does not commit
+        // checkpoint must not flush T1's dirty page
+        // T1 commits, T2 inserts but does not commit
+        // checkpoint, crash
+        // only T1 data should be there
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 30);
+        HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+        assertTrue(Database.getBufferPool().getDirtyPageTable().containsKey(pid));
+        int emptyBefore = ((HeapPage) hf1.readPage(pid)).getNumEmptySlots();
+        Database.getLogFile().logCheckpoint();
+        assertEquals(emptyBefore, ((HeapPage) hf1.readPage(pid)).getNumEmptySlots());
+        t1.commit();
+        assertFalse(Database.getBufferPool().getDirtyPageTable().containsKey(pid));
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 31);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+        insertRow(hf1, t2, 32);
+        Database.getLogFile().logCheckpoint();
+
+        crash();
+        assertTrue(Database.getLogFile().getLastRecoveryMillis() >= 0);
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 30, true);
+        look(hf1, t, 31, false);
+        look(hf1, t, 32, false);
+        t.commit();
+    }
+
+    @Test public void TestCheckpointInterval()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        Database.getLogFile().setCheckpointInterval(1);
+
+        // *** Test:
+        // with a tiny interval every commit takes a checkpoint,
+        // which truncates the log; recovery must still work
+
+        doInsert(hf1, 1, 2);
+        doInsert(hf1, 3, -1);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        t.commit();
+    }
+
+    @Test public void TestParallelRecovery()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // several committed and open transactions touching both tables
+        // crash, recover with 4 workers
+        // only committed data should be there
+
+        doInsert(hf1, 1, 2);
+        doInsert(hf2, 3, 4);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 40);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+
+        doInsert(hf2, 41, 42);
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf2, t2, 43);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+
+        crash(4);
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf2, t, 3, true);
+        look(hf2, t, 4, true);
+        look(hf1, t, 40, false);
+        look(hf2, t, 41, true);
+        look(hf2, t, 42, true);
+        look(hf2, t, 43, false);
+        t.commit();
+    }
+
+    @Test public void TestSegmentTruncation()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        // every update record is bigger than a segment, so each one
+        // lands in a segment of its own
+        Database.getLogFile().setSegmentSize(1024);
+
+        // *** Test:
+        // several commits grow the log to many segments
+        // T1 stays open across a checkpoint
+        // truncation drops only segments older than T1's first record
+        // crash: committed data there, T1's data not
+
+        doInsert(hf1, 1, 2);
+        doInsert(hf1, 3, 4);
+        doInsert(hf2, 5, 6);
+        int grown = Database.getLogFile().getNumSegments();
+        assertTrue(grown > 3);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf2, t1, 50);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+
+        Database.getLogFile().logCheckpoint();
+        int afterCheckpoint = Database.getLogFile().getNumSegments();
+        assertTrue(afterCheckpoint < grown);
+        assertTrue(afterCheckpoint >= 2);
+
+        doInsert(hf1, 7, -1);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 4, true);
+        look(hf2, t, 6, true);
+        look(hf1, t, 7, true);
+        look(hf2, t, 50, false);
+        t.commit();
+    }
+
+    @Test public void TestRecycledSegments()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        Database.getLogFile().setSegmentSize(1024);
+
+        // *** Test:
+        // truncation turns old segments into spares
+        // the next segment reuses a spare without shrinking it
+        // crash: the stale records left in it are not recovered
+
+        doInsert(hf1, 1, 2);
+        doInsert(hf1, 3, 4);
+        doInsert(hf2, 5, 6);
+        Database.getLogFile().logCheckpoint();
+        File spare = new File("log.spare0");
+        assertTrue(spare.exists());
+        long spareLength = spare.length();
+        assertTrue(spareLength >= 1024);
+
+        doInsert(hf1, 7, -1);
+        assertFalse(spare.exists());
+        assertTrue(newestSegment().length() >= spareLength);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 4, true);
+        look(hf2, t, 6, true);
+        look(hf1, t, 7, true);
+        t.commit();
+
+        // records appended after recovery go where the log ended
+        doInsert(hf2, 8, -1);
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 7, true);
+        look(hf2, t, 8, true);
+        t.commit();
+    }
+
+    // the segment file with the highest number
+    File newestSegment() {
+        File[] files = new File(".").listFiles((dir, name) -> name.matches("log\\.\\d{6}"));
+        assertNotNull(files);
+        Arrays.sort(files);
+        return files[files.length - 1];
+    }
+
+    @Test public void TestOldFormatLog()
+            throws IOException {
+        File old = File.createTempFile("oldlog", "");
+        old.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(old))) {
+            out.writeLong(-1); // the checkpoint offset that began a single-file log
+            out.writeInt(4); // a BEGIN record
+            out.writeLong(1);
+            out.writeLong(8);
+        }
+        try {
+            new LogFile(old);
+            fail("opened a single-file log as an empty log");
+        } catch (IOException expected) {
+        }
+        assertEquals(28, old.length());
+
+        // an empty file is a log that was never written
+        assertTrue(old.delete());
+        assertTrue(old.createNewFile());
+        assertEquals(0, new LogFile(old).getNumSegments());
+    }
+
+    @Test public void TestAsyncCommit()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        assertEquals(0, Database.getLogFile().getDurabilityLagBytes());
+
+        // *** Test:
+        // an async commit leaves its commit record unforced
+        // until the background flusher catches up
+
+        Database.getLogFile().setAsyncCommitInterval(60 * 60 * 1000);
+        Transaction t1 = new Transaction();
+        t1.setAsyncCommit(true);
+        t1.start();
+        insertRow(hf1, t1, 60);
+        t1.commit();
+        assertTrue(Database.getLogFile().getDurabilityLagBytes() > 0);
+        assertTrue(Database.getLogFile().getDurabilityLagMillis() >= 0);
+
+        Database.getLogFile().setAsyncCommitInterval(1);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (Database.getLogFile().getDurabilityLagBytes() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, Database.getLogFile().getDurabilityLagBytes());
+        assertEquals(0, Database.getLogFile().getDurabilityLagMillis());
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 60, true);
+        t.commit();
+    }
+
+    @Test public void TestAsyncCommitForces()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        Database.getLogFile().setCheckpointInterval(0);
+        Database.getLogFile().setAsyncCommitInterval(60 * 60 * 1000);
+
+        // *** Test:
+        // an async commit that dirtied several pages forces the log once,
+        // before the pages are written, and not for the commit record
+
+        Transaction t = new Transaction();
+        t.setAsyncCommit(true);
+        t.start();
+        for (int i = 0; i < 600; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), hf1.getId(), Utility.getHeapTuple(new int[] { 100 + i, 0 }));
+        }
+        insertRow(hf2, t, 700);
+        long forces = Database.getLogFile().getNumForces();
+        t.commit();
+        assertEquals(forces + 1, Database.getLogFile().getNumForces());
+        assertTrue(Database.getLogFile().getDurabilityLagBytes() > 0);
+
+        // a synchronous commit forces once more, for its commit record
+        t = new Transaction();
+        t.start();
+        insertRow(hf1, t, 800);
+        insertRow(hf2, t, 801);
+        forces = Database.getLogFile().getNumForces();
+        t.commit();
+        assertEquals(forces + 2, Database.getLogFile().getNumForces());
+        assertEquals(0, Database.getLogFile().getDurabilityLagBytes());
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 699, true);
+        look(hf2, t, 700, true);
+        look(hf2, t, 801, true);
+        t.commit();
+    }
+
+    @Test public void TestCompactionCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // tuples moved by the compactor survive a crash after the
+        // pages they came from were cut off
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 1100; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), hf1.getId(), Utility.getHeapTuple(new int[] { i, 0 }));
+        }
+        t.commit();
+        assertEquals(3, hf1.numPages());
+        // 之后的恢复从这里开始，插入的页不会再重做
+        Database.getLogFile().logCheckpoint();
+
+        // a committed delete that only touches page 0, the page tuples move to
+        t = new Transaction();
+        t.start();
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(t.getId(),
+                new HeapPageId(hf1.getId(), 0), Permissions.READ_WRITE);
+        List<Tuple> doomed = new ArrayList<>();
+        for (Iterator<Tuple> it = first.iterator(); doomed.size() < 300; ) {
+            doomed.add(it.next());
+        }
+        for (Tuple tu : doomed) {
+            Database.getBufferPool().deleteTuple(t.getId(), tu);
+        }
+        t.commit();
+
+        assertEquals(1, new HeapFileCompactor(hf1).run(1));
+        assertEquals(2, hf1.numPages());
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        int count = 0;
+        SeqScan scan = new SeqScan(t.getId(), hf1.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(800, count);
+        look(hf1, t, 1099, true);
+        look(hf1, t, 0, false);
+        t.commit();
+    }
 
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
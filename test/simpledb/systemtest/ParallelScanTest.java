@@ -0,0 +1,281 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    private static final Comparator<List<Integer>> ORDER = (a, b) -> {
+        for (int i = 0; i < a.size(); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0) return c;
+        }
+        return 0;
+    };
+
+    private static List<List<Integer>> readRows(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        rows.sort(ORDER);
+        return rows;
+    }
+
+    private static List<List<Integer>> readBatches(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            int[] sel = batch.selection();
+            for (int i = 0; i < batch.numSelected(); i++) {
+                rows.add(SystemTestUtil.tupleToList(batch.getTuple(sel[i])));
+            }
+        }
+        it.close();
+        rows.sort(ORDER);
+        return rows;
+    }
+
+    /** Every tuple is returned once, a row or a batch at a time. */
+    @Test public void matchesSerialScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 30000, null, tuples);
+        assertTrue(table.numPages() > 4 * ParallelSeqScan.MORSEL_PAGES);
+        tuples.sort(ORDER);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(tuples, readRows(new ParallelSeqScan(tid, table.getId(), "t", 4)));
+        assertEquals(tuples, readBatches(new ParallelSeqScan(tid, table.getId(), "t", 4)));
+        assertEquals(tuples, readRows(new ParallelSeqScan(tid, table.getId(), "t", 1)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A filter and projection above the scan are pushed into the workers. */
+    @Test public void filterProject() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 250) expected.add(Arrays.asList(t.get(2), t.get(0)));
+        }
+        expected.sort(ORDER);
+
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(250));
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", 3);
+        Project project = new Project(Arrays.asList(2, 0), new Type[] {Type.INT_TYPE, Type.INT_TYPE},
+                new Filter(p, scan));
+        assertEquals(expected, readRows(project));
+        assertFalse(scan.pushDownPredicate(new Predicate(0, Predicate.Op.EQUALS, new IntField(0))));
+
+        // rewinding starts the workers again
+        project.open();
+        while (project.hasNext()) project.next();
+        project.rewind();
+        int n = 0;
+        while (project.hasNext()) {
+            project.next();
+            n++;
+        }
+        project.close();
+        assertEquals(expected.size(), n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Rewinding, also in the middle of a scan, hands out every morsel again. */
+    @Test public void rewindRestartsScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", 4);
+        scan.open();
+        for (int round = 0; round < 20; round++) {
+            // 奇数轮只读一部分就 rewind
+            int limit = round % 2 == 0 ? Integer.MAX_VALUE : 1000 * round;
+            int n = 0;
+            while (n < limit && scan.hasNext()) {
+                scan.next();
+                n++;
+            }
+            assertEquals(Math.min(limit, tuples.size()), n);
+            scan.rewind();
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int countParallelScans(OpIterator plan) {
+        if (plan instanceof ParallelSeqScan) {
+            return 1;
+        }
+        int n = 0;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                n += child == null ? 0 : countParallelScans(child);
+            }
+        }
+        return n;
+    }
+
+    private static Join findJoin(OpIterator plan) {
+        if (plan instanceof Join) {
+            return (Join) plan;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                Join j = child == null ? null : findJoin(child);
+                if (j != null) return j;
+            }
+        }
+        return null;
+    }
+
+    /** The inner side of a nested-loop join, rewound for every outer tuple, is scanned serially. */
+    @Test public void nestedLoopInnerStaysSerial() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 20000, null, null, "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 20000, null, null, "c");
+        assertTrue(b.numPages() >= 2 * ParallelSeqScan.MORSEL_PAGES);
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.setScanWorkers(4);
+        lp.addScan(a.getId(), "a");
+        lp.addScan(b.getId(), "b");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.LESS_THAN);
+        lp.addProjectField("a.c0", null);
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        Join join = findJoin(plan);
+        assertNotNull(join);
+        assertEquals(1, countParallelScans(join.getChildren()[0]));
+        assertEquals(0, countParallelScans(join.getChildren()[1]));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The workers' locks belong to the scan's transaction and go away with it. */
+    @Test public void sharesTransactionLocks() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        readRows(new ParallelSeqScan(tid, table.getId(), "t", 4));
+        for (int i = 0; i < table.numPages(); i++) {
+            assertTrue(bp.holdsLock(tid, new HeapPageId(table.getId(), i)));
+        }
+        bp.transactionComplete(tid);
+        for (int i = 0; i < table.numPages(); i++) {
+            assertFalse(bp.holdsLock(tid, new HeapPageId(table.getId(), i)));
+        }
+    }
+
+    /** Closing the scan early stops workers that wait for a lock. */
+    @Test public void closeStopsWaitingWorkers() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId last = new HeapPageId(table.getId(), table.numPages() - 1);
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, last, Permissions.READ_WRITE);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", 4);
+        scan.open();
+        assertTrue(scan.hasNext());
+        scan.next();
+        scan.close();
+        bp.transactionComplete(tid);
+        assertFalse(bp.holdsLock(tid, last));
+
+        // the page the worker waited for can now be read by others
+        bp.transactionComplete(writer);
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, last, Permissions.READ_WRITE);
+        bp.transactionComplete(reader);
+    }
+
+    /** Completing the transaction of a scan that was not closed stops its workers first. */
+    @Test public void transactionCompleteStopsWorkers() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId last = new HeapPageId(table.getId(), table.numPages() - 1);
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, last, Permissions.READ_WRITE);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", 4);
+        scan.open();
+        assertTrue(scan.hasNext());
+        scan.next();
+        bp.transactionComplete(tid);
+        for (int i = 0; i < table.numPages(); i++) {
+            assertFalse(bp.holdsLock(tid, new HeapPageId(table.getId(), i)));
+        }
+        // 后来再放开的页也不会再被这个事务的 worker 锁上
+        bp.transactionComplete(writer);
+        Thread.sleep(50);
+        assertFalse(bp.holdsLock(tid, last));
+
+        try {
+            while (scan.hasNext()) {
+                scan.next();
+            }
+            fail("expected the scan to be aborted");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        try {
+            scan.rewind();
+            fail("expected the scan to be aborted");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        scan.close();
+    }
+
+    /** Workers that read pages at the same time do not push the pool past its size. */
+    @Test public void staysWithinPoolSize() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 100000, null, tuples);
+        BufferPool bp = Database.resetBufferPool(4);
+        long[] max = new long[1];
+        Thread watcher = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                max[0] = Math.max(max[0], bp.getUsedBytes());
+            }
+        });
+        watcher.start();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(tuples.size(), readRows(new ParallelSeqScan(tid, table.getId(), "t", 8)).size());
+        }
+        watcher.interrupt();
+        watcher.join();
+        bp.transactionComplete(tid);
+        assertTrue(max[0] <= bp.getCapacityBytes());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
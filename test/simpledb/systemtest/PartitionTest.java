@@ -0,0 +1,264 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class PartitionTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = Utility.getTupleDesc(2);
+
+    private static HeapFile newPartition() throws Exception {
+        File f = File.createTempFile("partition", ".dat");
+        f.deleteOnExit();
+        return new HeapFile(f, TD);
+    }
+
+    private static void insert(PartitionedFile table, int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // 扫描整张表，pruning 的条件交给 SeqScan，再用 Filter 过滤
+    private static List<Integer> scan(PartitionedFile table, Predicate... filters) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId());
+        OpIterator it = ss;
+        for (Predicate p : filters) {
+            ss.prunePartitions(p);
+            it = new Filter(p, it);
+        }
+        List<Integer> keys = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static int countTuples(HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /** Tuples go to the partition of their key range, and scans skip partitions. */
+    @Test public void rangePartitions() throws Exception {
+        List<HeapFile> parts = Arrays.asList(newPartition(), newPartition(), newPartition());
+        PartitionedFile table = PartitionedFile.byRange(SystemTestUtil.getUUID().hashCode(), TD, 0, parts,
+                Arrays.asList(new IntField(100), new IntField(200)));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        insert(table, 0, 300);
+
+        for (HeapFile p : parts) {
+            assertEquals(100, countTuples(p));
+        }
+        assertEquals(300, scan(table).size());
+        assertEquals(0, table.partitionOf(new IntField(-5)));
+        assertEquals(1, table.partitionOf(new IntField(100)));
+        assertEquals(2, table.partitionOf(new IntField(1000)));
+
+        Predicate from150 = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(150));
+        Predicate below220 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(220));
+        Predicate is50 = new Predicate(0, Predicate.Op.EQUALS, new IntField(50));
+        Predicate other = new Predicate(1, Predicate.Op.EQUALS, new IntField(50));
+        assertEquals(parts.subList(1, 3), table.partitionsFor(Collections.singletonList(from150)));
+        assertEquals(parts.subList(1, 3), table.partitionsFor(Arrays.asList(from150, below220)));
+        assertEquals(parts.subList(0, 1), table.partitionsFor(Collections.singletonList(is50)));
+        assertEquals(parts, table.partitionsFor(Collections.singletonList(other)));
+
+        List<Integer> keys = scan(table, from150, below220);
+        assertEquals(70, keys.size());
+        assertEquals(150, (int) keys.get(0));
+        assertEquals(Collections.singletonList(50), scan(table, is50));
+    }
+
+    /** Dropping a partition deletes its file; adding one extends the key range. */
+    @Test public void dropAndAddPartitions() throws Exception {
+        List<HeapFile> parts = Arrays.asList(newPartition(), newPartition());
+        PartitionedFile table = PartitionedFile.byRange(SystemTestUtil.getUUID().hashCode(), TD, 0, parts,
+                Collections.singletonList(new IntField(100)));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        insert(table, 0, 200);
+        // 分区页还在 BufferPool 里（已提交、干净）
+        int dropped = parts.get(0).getId();
+
+        TransactionId tid = new TransactionId();
+        table.dropPartition(tid, 0);
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(parts.get(0).getFile().exists());
+        try {
+            Database.getCatalog().getDatabaseFile(dropped);
+            fail("dropped partition is still in the catalog");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        assertEquals(100, scan(table).size());
+
+        // the remaining partition takes the keys of the dropped one
+        insert(table, 5, 6);
+        assertEquals(101, countTuples(parts.get(1)));
+
+        HeapFile next = newPartition();
+        table.addPartition(next, new IntField(300));
+        insert(table, 300, 310);
+        assertEquals(10, countTuples(next));
+        assertEquals(111, scan(table).size());
+        assertEquals(next, Database.getCatalog().getDatabaseFile(next.getId()));
+
+        try {
+            table.addPartition(newPartition(), new IntField(250));
+            fail("expected a bound below the last one to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** A drop waits for the transactions that read the partition. */
+    @Test public void dropWaitsForReaders() throws Exception {
+        List<HeapFile> parts = Arrays.asList(newPartition(), newPartition());
+        PartitionedFile table = PartitionedFile.byRange(SystemTestUtil.getUUID().hashCode(), TD, 0, parts,
+                Collections.singletonList(new IntField(100)));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        insert(table, 0, 200);
+
+        // 读者打开分区的迭代器，拿着表级 S 锁
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = parts.get(0).iterator(reader);
+        it.open();
+        assertTrue(it.hasNext());
+
+        TransactionId dropper = new TransactionId();
+        Thread t = new Thread(() -> {
+            try {
+                table.dropPartition(dropper, 0);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        t.join(200);
+        assertTrue(t.isAlive());
+        assertTrue(parts.get(0).getFile().exists());
+
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        assertEquals(100, n);
+        Database.getBufferPool().transactionComplete(reader);
+        t.join(5000);
+        assertFalse(t.isAlive());
+        assertFalse(parts.get(0).getFile().exists());
+        Database.getBufferPool().transactionComplete(dropper);
+
+        // 之后再打开的迭代器看到的是空表
+        TransactionId late = new TransactionId();
+        it = parts.get(0).iterator(late);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(late);
+    }
+
+    /** The partitions are saved in the catalog, and recovery skips dropped ones. */
+    @Test public void recoverAfterDrop() throws Exception {
+        List<HeapFile> parts = Arrays.asList(newPartition(), newPartition());
+        PartitionedFile table = PartitionedFile.byRange(SystemTestUtil.getUUID().hashCode(), TD, 0, parts,
+                Collections.singletonList(new IntField(100)));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 200; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        }
+        t.commit();
+        Transaction drop = new Transaction();
+        drop.start();
+        table.dropPartition(drop.getId(), 0);
+        drop.commit();
+        File catalog = File.createTempFile("catalog", ".bin");
+        catalog.deleteOnExit();
+        Database.getCatalog().saveCatalog(catalog);
+
+        // 模拟崩溃：换掉 Catalog 和 BufferPool，从保存的目录和日志恢复
+        Database.reset();
+        Database.getCatalog().loadCatalog(catalog);
+        Database.getLogFile().recover();
+
+        PartitionedFile reopened = (PartitionedFile) Database.getCatalog().getDatabaseFile(table.getId());
+        assertEquals(1, reopened.getPartitions().size());
+        assertEquals(parts.get(1).getId(), reopened.getPartitions().get(0).getId());
+        assertEquals(Collections.singletonList(null), reopened.getLowerBounds());
+        assertEquals(100, scan(reopened).size());
+        insert(reopened, 500, 510);
+        assertEquals(110, scan(reopened).size());
+    }
+
+    /** Hash partitions are pruned by equality on the key. */
+    @Test public void hashPartitions() throws Exception {
+        List<HeapFile> parts = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            parts.add(newPartition());
+        }
+        PartitionedFile table = PartitionedFile.byHash(SystemTestUtil.getUUID().hashCode(), TD, 0, parts);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        insert(table, 0, 100);
+        for (HeapFile p : parts) {
+            assertEquals(25, countTuples(p));
+        }
+
+        Predicate is7 = new Predicate(0, Predicate.Op.EQUALS, new IntField(7));
+        assertEquals(1, table.partitionsFor(Collections.singletonList(is7)).size());
+        assertEquals(Collections.singletonList(7), scan(table, is7));
+
+        // deleting goes to the partition that holds the tuple
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId());
+        ss.open();
+        Tuple t = ss.next();
+        ss.close();
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(99, scan(table).size());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PartitionTest.class);
+    }
+}